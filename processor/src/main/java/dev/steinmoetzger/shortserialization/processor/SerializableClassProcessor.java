@@ -0,0 +1,477 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@code GeneratedCodec} for every class annotated with {@code SerializableClass} and a {@code CodecIndex}
+ * per round that lists them. The index classes are registered as service in
+ * {@code META-INF/services/dev.steinmoetzger.shortserialization.codec.CodecIndex}.
+ * <p>
+ * The annotations are referenced by name, so the processor does not depend on the library it generates code for.
+ * The generated code reads and writes the fields directly, like the codecs the library creates at runtime, so the
+ * result never depends on whether the processor ran. Private fields go through {@code static final} var handles of the
+ * codec. The codec also lists the fields with their wire names, tags and types, the library builds the schema of the
+ * class from it. Classes it can not handle (final fields, no accessible no-arg constructor, ...) are skipped and get a
+ * codec at runtime.
+ */
+@SupportedAnnotationTypes(SerializableClassProcessor.SERIALIZABLE_CLASS)
+public class SerializableClassProcessor extends AbstractProcessor {
+
+    static final String SERIALIZABLE_CLASS = "dev.steinmoetzger.shortserialization.annotation.SerializableClass";
+    static final String SERIALIZABLE_FIELD = "dev.steinmoetzger.shortserialization.annotation.SerializableField";
+
+    private static final String CODEC_PACKAGE = "dev.steinmoetzger.shortserialization.codec";
+    private static final String INDEX_SUFFIX = "Index";
+    private static final String CODEC_SUFFIX = "_ShortCodec";
+
+    private final List<String> indexes = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!indexes.isEmpty())
+                writeServiceFile();
+            return false;
+        }
+
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(SERIALIZABLE_CLASS);
+        if (annotation == null)
+            return false;
+
+        List<TypeElement> types = new ArrayList<>(ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(annotation)));
+        types.sort(Comparator.comparing(type -> type.getQualifiedName().toString()));
+
+        List<String> codecs = new ArrayList<>();
+        for (TypeElement type : types) {
+            try {
+                String codec = generateCodec(type);
+                if (codec != null)
+                    codecs.add(codec);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write codec: " + e.getMessage(), type);
+            }
+        }
+
+        if (!codecs.isEmpty()) {
+            try {
+                writeIndex(codecs);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write codec index: " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the qualified name of the generated codec or null if the class is not supported
+     */
+    private String generateCodec(TypeElement type) throws IOException {
+        String unsupported = checkType(type);
+        List<CodecField> fields = new ArrayList<>();
+        if (unsupported == null)
+            unsupported = collectFields(type, fields);
+
+        if (unsupported != null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "No codec generated for " + type.getQualifiedName() + ", " + unsupported + ". A codec is created at runtime.", type);
+            return null;
+        }
+
+        String packageName = packageOf(type);
+        String simpleName = codecName(type);
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        String typeName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+
+        source.append("@javax.annotation.processing.Generated(\"").append(SerializableClassProcessor.class.getName()).append("\")\n")
+                .append("public final class ").append(simpleName).append(" implements ").append(CODEC_PACKAGE).append(".GeneratedCodec {\n\n")
+                .append("    private static final String[] FIELD_NAMES = {");
+        for (int i = 0; i < fields.size(); i++)
+            source.append(i == 0 ? "" : ", ").append(literal(fields.get(i).name));
+        source.append("};\n")
+                .append("    private static final Class<?>[] FIELD_TYPES = {");
+        for (int i = 0; i < fields.size(); i++)
+            source.append(i == 0 ? "" : ", ").append(fields.get(i).typeName).append(".class");
+        source.append("};\n")
+                .append("    private static final String[] WIRE_NAMES = {");
+        for (int i = 0; i < fields.size(); i++)
+            source.append(i == 0 ? "" : ", ").append(literal(fields.get(i).wireName));
+        source.append("};\n")
+                .append("    private static final int[] TAGS = {");
+        for (int i = 0; i < fields.size(); i++)
+            source.append(i == 0 ? "" : ", ").append(fields.get(i).tag);
+        source.append("};\n");
+
+        boolean handles = false;
+        for (int i = 0; i < fields.size(); i++) {
+            CodecField field = fields.get(i);
+            if (!field.isPrivate)
+                continue;
+
+            source.append("    private static final java.lang.invoke.VarHandle ").append(handle(i)).append(" = handle(")
+                    .append(literal(field.name)).append(", ").append(field.typeName).append(".class);\n");
+            handles = true;
+        }
+        source.append('\n');
+
+        if (handles) {
+            // a codec whose fields are gone is not used, Codecs checks the fields before the schema is built from it
+            source.append("    private static java.lang.invoke.VarHandle handle(String name, Class<?> type) {\n")
+                    .append("        try {\n")
+                    .append("            return java.lang.invoke.MethodHandles.privateLookupIn(").append(typeName)
+                    .append(".class, java.lang.invoke.MethodHandles.lookup()).findVarHandle(").append(typeName).append(".class, name, type);\n")
+                    .append("        } catch (ReflectiveOperationException e) {\n")
+                    .append("            return null;\n")
+                    .append("        }\n")
+                    .append("    }\n\n");
+        }
+
+        source.append("    @Override\n")
+                .append("    public Class<?> type() {\n")
+                .append("        return ").append(typeName).append(".class;\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public String[] fieldNames() {\n")
+                .append("        return FIELD_NAMES.clone();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public Class<?>[] fieldTypes() {\n")
+                .append("        return FIELD_TYPES.clone();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public String[] wireNames() {\n")
+                .append("        return WIRE_NAMES.clone();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public int[] tags() {\n")
+                .append("        return TAGS.clone();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public Object newInstance() {\n")
+                .append("        return new ").append(typeName).append("();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public void write(Object object, ").append(CODEC_PACKAGE).append(".FieldSink sink) throws java.io.IOException, dev.steinmoetzger.shortserialization.exception.SerializeException {\n")
+                .append("        ").append(typeName).append(" value = (").append(typeName).append(") object;\n");
+        for (int i = 0; i < fields.size(); i++) {
+            CodecField field = fields.get(i);
+            source.append("        sink.write").append(field.kind).append("(").append(i).append(", ").append(get(field, i)).append(");\n");
+        }
+        source.append("    }\n\n");
+
+        // generic fields are assigned from the raw collections and maps the source creates
+        source.append("    @Override\n")
+                .append("    @SuppressWarnings(\"unchecked\")\n")
+                .append("    public void read(Object object, ").append(CODEC_PACKAGE).append(".FieldSource source) throws dev.steinmoetzger.shortserialization.exception.DeserializeException {\n")
+                .append("        ").append(typeName).append(" value = (").append(typeName).append(") object;\n");
+        for (int i = 0; i < fields.size(); i++) {
+            CodecField field = fields.get(i);
+            String read = "source.read" + field.kind + "(" + i + ")";
+            if (field.kind.equals("Object"))
+                read = "(" + field.typeName + ") " + read;
+
+            source.append("        if (source.has(").append(i).append("))\n")
+                    .append("            ").append(set(field, i, read)).append(";\n");
+        }
+        source.append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public Object get(Object object, int index) {\n")
+                .append("        ").append(typeName).append(" value = (").append(typeName).append(") object;\n")
+                .append("        switch (index) {\n");
+        for (int i = 0; i < fields.size(); i++)
+            source.append("            case ").append(i).append(": return ").append(get(fields.get(i), i)).append(";\n");
+        source.append("            default: throw new IndexOutOfBoundsException(index);\n")
+                .append("        }\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    @SuppressWarnings(\"unchecked\")\n")
+                .append("    public void set(Object object, int index, Object fieldValue) {\n")
+                .append("        ").append(typeName).append(" value = (").append(typeName).append(") object;\n")
+                .append("        switch (index) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            CodecField field = fields.get(i);
+            source.append("            case ").append(i).append(": ").append(set(field, i, "(" + field.boxedTypeName + ") fieldValue"))
+                    .append("; break;\n");
+        }
+        source.append("            default: throw new IndexOutOfBoundsException(index);\n")
+                .append("        }\n")
+                .append("    }\n");
+        source.append("}\n");
+
+        FileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+        return qualifiedName;
+    }
+
+    /**
+     * @return the expression that reads the field from {@code value}
+     */
+    private static String get(CodecField field, int index) {
+        if (!field.isPrivate)
+            return "value." + field.name;
+        return "(" + field.typeName + ") " + handle(index) + ".get(value)";
+    }
+
+    /**
+     * @return the statement that assigns the expression to the field of {@code value}
+     */
+    private static String set(CodecField field, int index, String expression) {
+        if (!field.isPrivate)
+            return "value." + field.name + " = " + expression;
+        return handle(index) + ".set(value, " + expression + ")";
+    }
+
+    private static String handle(int index) {
+        return "HANDLE_" + index;
+    }
+
+    private static String literal(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private String checkType(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS)
+            return "it is not a class";
+        if (type.getModifiers().contains(Modifier.ABSTRACT))
+            return "it is abstract";
+        if (type.getModifiers().contains(Modifier.PRIVATE))
+            return "it is private";
+        if (!type.getTypeParameters().isEmpty())
+            return "it is generic";
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL
+                && (type.getNestingKind() != NestingKind.MEMBER || !type.getModifiers().contains(Modifier.STATIC)))
+            return "it is an inner class";
+
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+        boolean accessibleConstructor = constructors.stream()
+                .anyMatch(constructor -> constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE));
+        if (!accessibleConstructor)
+            return "it has no accessible no-arg constructor";
+
+        return null;
+    }
+
+    /**
+     * Accessors are not used for private fields, their validation or copies would make the output of the generated
+     * codec differ from the runtime codecs.
+     *
+     * @return null if every field can be accessed directly or the reason why not
+     */
+    private String collectFields(TypeElement type, List<CodecField> fields) {
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            AnnotationMirror annotation = annotation(field, SERIALIZABLE_FIELD);
+            if (annotation == null)
+                continue;
+
+            String name = field.getSimpleName().toString();
+            if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.FINAL))
+                return "field " + name + " is static or final";
+
+            String kind = kind(field.asType());
+            if (kind == null)
+                return "field " + name + " has the unsupported type " + field.asType();
+
+            String wireName = (String) value(annotation, "name");
+            if (wireName.isEmpty())
+                wireName = name;
+            int tag = (Integer) value(annotation, "tag");
+
+            TypeMirror erasure = processingEnv.getTypeUtils().erasure(field.asType());
+            String boxedTypeName = erasure.getKind().isPrimitive()
+                    ? processingEnv.getTypeUtils().boxedClass((PrimitiveType) erasure).getQualifiedName().toString()
+                    : erasure.toString();
+            fields.add(new CodecField(name, kind, erasure.toString(), boxedTypeName, wireName, tag,
+                    field.getModifiers().contains(Modifier.PRIVATE)));
+        }
+
+        if (fields.isEmpty())
+            return "it has no serializable fields";
+        return null;
+    }
+
+    /**
+     * @return the suffix of the {@code FieldSink}/{@code FieldSource} methods for the type or null if it is not supported
+     */
+    private String kind(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "Int";
+            case DOUBLE:
+                return "Double";
+            case FLOAT:
+                return "Float";
+            case BYTE:
+                return "Byte";
+            case CHAR:
+                return "Char";
+            case SHORT:
+                return "Short";
+            case LONG:
+                return "Long";
+            case BOOLEAN:
+                return "Boolean";
+            case DECLARED:
+            case ARRAY:
+                return type.toString().equals("java.lang.String") ? "String" : "Object";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The index is named after its first codec, so indexes of different compilations, like the main and test classes of
+     * a project, do not hide each other on the classpath.
+     */
+    private void writeIndex(List<String> codecs) throws IOException {
+        String qualifiedName = codecs.get(0) + INDEX_SUFFIX;
+        int separator = qualifiedName.lastIndexOf('.');
+        String packageName = separator < 0 ? "" : qualifiedName.substring(0, separator);
+        String simpleName = qualifiedName.substring(separator + 1);
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+
+        source.append("@javax.annotation.processing.Generated(\"").append(SerializableClassProcessor.class.getName()).append("\")\n")
+                .append("public final class ").append(simpleName).append(" implements ").append(CODEC_PACKAGE).append(".CodecIndex {\n\n")
+                .append("    @Override\n")
+                .append("    public java.util.List<").append(CODEC_PACKAGE).append(".GeneratedCodec> codecs() {\n")
+                .append("        return java.util.List.of(\n");
+        for (int i = 0; i < codecs.size(); i++)
+            source.append("                new ").append(codecs.get(i)).append("()").append(i + 1 < codecs.size() ? ",\n" : "\n");
+        source.append("        );\n")
+                .append("    }\n")
+                .append("}\n");
+
+        FileObject file = processingEnv.getFiler().createSourceFile(qualifiedName);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+        indexes.add(qualifiedName);
+    }
+
+    private void writeServiceFile() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + CODEC_PACKAGE + ".CodecIndex");
+            try (Writer writer = file.openWriter()) {
+                for (String index : indexes)
+                    writer.write(index + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write codec index service file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the annotation of the element or null if it is not annotated with it
+     */
+    private AnnotationMirror annotation(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation))
+                return mirror;
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of the annotation element, its default if it is not set
+     */
+    private Object value(AnnotationMirror annotation, String name) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(annotation);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name))
+                return entry.getValue().getValue();
+        }
+        throw new IllegalArgumentException("No element " + name + " in " + annotation);
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    /**
+     * @return Car_ShortCodec for Car and Outer_Inner_ShortCodec for the nested class Outer.Inner
+     */
+    private String codecName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name + CODEC_SUFFIX;
+    }
+
+    private static final class CodecField {
+
+        private final String name;
+        private final String kind;
+        private final String typeName;
+        private final String boxedTypeName;
+        private final String wireName;
+        private final int tag;
+        private final boolean isPrivate;
+
+        CodecField(String name, String kind, String typeName, String boxedTypeName, String wireName, int tag, boolean isPrivate) {
+            this.name = name;
+            this.kind = kind;
+            this.typeName = typeName;
+            this.boxedTypeName = boxedTypeName;
+            this.wireName = wireName;
+            this.tag = tag;
+            this.isPrivate = isPrivate;
+        }
+    }
+}
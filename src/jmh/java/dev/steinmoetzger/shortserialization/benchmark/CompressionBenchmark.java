@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.codec.CompressionCodec;
+import dev.steinmoetzger.shortserialization.codec.DeflateCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time spent on compression with the bytes it saves. The size of the document is printed during the
+ * setup of every combination, {@code NONE} is the uncompressed baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    public enum Codec {
+        NONE(null),
+        DEFLATE_FAST(DeflateCodec.FAST),
+        DEFLATE(DeflateCodec.DEFAULT),
+        DEFLATE_BEST(new DeflateCodec(9));
+
+        final CompressionCodec codec;
+
+        Codec(CompressionCodec codec) {
+            this.codec = codec;
+        }
+    }
+
+    @Param({"CAR", "FLEET"})
+    public GraphShape shape;
+
+    @Param({"TEXT", "BINARY"})
+    public SerializationFormat format;
+
+    @Param({"NONE", "DEFLATE_FAST", "DEFLATE", "DEFLATE_BEST"})
+    public Codec codec;
+
+    private Object graph;
+    private byte[] bytes;
+    private Class<?> rootType;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+
+    @Setup
+    public void setup() throws Exception {
+        graph = shape.create();
+        rootType = graph.getClass();
+        bytes = serialize();
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        SerializationUtil.serialize(graph, plain, format);
+        System.out.printf("%n%s %s %s: %d bytes, %.1f%% of %d%n", shape, format, codec, bytes.length,
+                100.0 * bytes.length / plain.size(), plain.size());
+
+        // warms the class registry, the one time classpath scan is not part of the measurement
+        deserialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        out.reset();
+        if (codec.codec == null)
+            SerializationUtil.serialize(graph, out, format);
+        else
+            SerializationUtil.serialize(graph, out, format, codec.codec);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        if (codec.codec == null)
+            return SerializationUtil.deserialize(in, format, rootType);
+        return SerializationUtil.deserialize(in, format, codec.codec, rootType);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes from every core at once. The per thread throughput stays about the same as with one
+ * thread when the library scales, compare the scores with {@code -PjmhArgs="ConcurrentBenchmark -t 1"}.
+ * <p>
+ * Every thread writes its own file, except for {@link #serializeToSharedFile()} where all threads replace the same
+ * file and wait for each other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+    @Param({"CAR", "WIDE", "DEEP"})
+    public GraphShape shape;
+
+    @Param({"TEXT", "BINARY"})
+    public SerializationFormat format;
+
+    private Object graph;
+    private byte[] bytes;
+    private File sharedFile;
+
+    @Setup
+    public void setup() throws Exception {
+        graph = shape.create();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(graph, out, format);
+        bytes = out.toByteArray();
+        sharedFile = Files.createTempFile("short-serializer", ".bench").toFile();
+        // warms the class registry, the one time classpath scan is not part of the measurement
+        SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format).toObject(GraphShape.CLASSPATH);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(sharedFile.toPath());
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        ByteArrayOutputStream out;
+        File file;
+
+        @Setup
+        public void setup() throws IOException {
+            out = new ByteArrayOutputStream(1 << 16);
+            file = Files.createTempFile("short-serializer", ".bench").toFile();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Benchmark
+    public int serializeToMemory(ThreadState state) throws Exception {
+        state.out.reset();
+        SerializationUtil.serialize(graph, state.out, format);
+        return state.out.size();
+    }
+
+    @Benchmark
+    public Object deserializeAndToObject() throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format).toObject(GraphShape.CLASSPATH);
+    }
+
+    @Benchmark
+    public Object fileRoundTrip(ThreadState state) throws Exception {
+        SerializationUtil.serialize(graph, state.file, format);
+        return SerializationUtil.deserialize(state.file, format).toObject(GraphShape.CLASSPATH);
+    }
+
+    @Benchmark
+    public File serializeToSharedFile() throws Exception {
+        SerializationUtil.serialize(graph, sharedFile, format);
+        return sharedFile;
+    }
+}
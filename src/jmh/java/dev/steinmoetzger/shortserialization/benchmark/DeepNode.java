@@ -0,0 +1,36 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+
+import java.io.Serializable;
+
+/**
+ * Synthetic linked list node used to build deep graphs.
+ */
+@SerializableClass(name = "DeepNode")
+public class DeepNode implements Serializable {
+
+    @SerializableField
+    int depth;
+    @SerializableField
+    String label;
+    @SerializableField
+    DeepNode next;
+
+    public DeepNode() {
+
+    }
+
+    public DeepNode(int depth, DeepNode next) {
+        this.depth = depth;
+        this.label = "node-" + depth;
+        this.next = next;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.DeltaFile;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the fleet to a file after one car changed its color, either as a whole document or as a patch appended by a
+ * {@link DeltaFile}. The patches are compacted in the background once they reach half the size of the document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaBenchmark {
+
+    private static final String[] COLORS = {"red", "silver", "black", "white", "dark blue", "green", "yellow"};
+
+    public enum Save {
+        FULL,
+        DELTA
+    }
+
+    @Param({"FULL", "DELTA"})
+    public Save save;
+
+    private Car[] cars;
+    private Car root;
+    private File file;
+    private DeltaFile deltaFile;
+    private int changes;
+
+    @Setup
+    public void setup() throws Exception {
+        root = (Car) GraphShape.FLEET.create();
+        cars = new Car[500];
+        Car car = root;
+        for (int i = 0; car != null; i++) {
+            cars[i] = car;
+            car = car.getPerson() == null ? null : car.getPerson().getCar();
+        }
+
+        file = Files.createTempFile("delta", ".txt").toFile();
+        deltaFile = new DeltaFile(file);
+        deltaFile.save(root);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        deltaFile.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        changes++;
+        cars[changes * 31 % cars.length].setColor(COLORS[changes % COLORS.length]);
+        if (save == Save.FULL)
+            SerializationUtil.serialize(root, file);
+        else
+            deltaFile.save(root);
+    }
+}
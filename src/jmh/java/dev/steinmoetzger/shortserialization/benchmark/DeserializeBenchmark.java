@@ -0,0 +1,87 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.Deserializer;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.codec.InternTable;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeserializeBenchmark {
+
+    @Param({"CAR", "WIDE", "DEEP"})
+    public GraphShape shape;
+
+    @Param({"TEXT", "BINARY"})
+    public SerializationFormat format;
+
+    private byte[] bytes;
+    private DeserializationData data;
+    private Class<?> rootType;
+    private Deserializer interning;
+
+    @Setup
+    public void setup() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Object graph = shape.create();
+        rootType = graph.getClass();
+        SerializationUtil.serialize(graph, out, format);
+        bytes = out.toByteArray();
+        data = SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format);
+        // warms the class registry, the one time classpath scan is not part of the measurement
+        data.toObject(GraphShape.CLASSPATH);
+        interning = new Deserializer(format, new InternTable());
+    }
+
+    @Benchmark
+    public DeserializationData deserialize() throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format);
+    }
+
+    @Benchmark
+    public Object toObject() throws Exception {
+        return data.toObject(GraphShape.CLASSPATH);
+    }
+
+    @Benchmark
+    public Object deserializeClass() throws Exception {
+        return SerializationUtil.deserializeClass(data.getClasses().get("ROOT"), GraphShape.CLASSPATH);
+    }
+
+    @Benchmark
+    public Object deserializeAndToObject() throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format).toObject(GraphShape.CLASSPATH);
+    }
+
+    /**
+     * Same result as {@link #deserializeAndToObject()}, the objects are built while parsing.
+     */
+    @Benchmark
+    public Object deserializeDirect() throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format, rootType);
+    }
+
+    /**
+     * Same result as {@link #deserializeDirect()}, equal strings and boxed values share one instance.
+     */
+    @Benchmark
+    public Object deserializeDirectInterned() throws Exception {
+        return interning.deserialize(new ByteArrayInputStream(bytes), rootType);
+    }
+}
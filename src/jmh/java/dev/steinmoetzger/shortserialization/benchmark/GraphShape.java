@@ -0,0 +1,86 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.Person;
+
+/**
+ * Object graphs used by the benchmarks.
+ */
+public enum GraphShape {
+
+    /**
+     * A car and its driver that point at each other
+     */
+    CAR {
+        @Override
+        public Object create() {
+            Car car = new Car("red", 200);
+            car.setPerson(new Person("Max Mustermann", 33, car));
+            return car;
+        }
+    },
+    /**
+     * A chain of 64 wide records
+     */
+    WIDE {
+        @Override
+        public Object create() {
+            WideRecord root = new WideRecord(0);
+            WideRecord current = root;
+            for (int i = 1; i < 64; i++) {
+                WideRecord parent = new WideRecord(i);
+                current.parent = parent;
+                current = parent;
+            }
+            return root;
+        }
+    },
+    /**
+     * A linked list of 1000 small nodes
+     */
+    DEEP {
+        @Override
+        public Object create() {
+            DeepNode node = null;
+            for (int i = 1000; i > 0; i--)
+                node = new DeepNode(i, node);
+            return node;
+        }
+    },
+    /**
+     * 500 cars handed on from driver to driver, with the names and colors of a real fleet, see {@link #fleet(int)}
+     */
+    FLEET {
+        @Override
+        public Object create() {
+            return fleet(500);
+        }
+    };
+
+    public static final String CLASSPATH = "dev.steinmoetzger.shortserialization";
+
+    public abstract Object create();
+
+    /**
+     * @return the first of the given number of cars handed on from driver to driver
+     */
+    public static Car fleet(int size) {
+        String[] colors = {"red", "silver", "black", "white", "dark blue"};
+        String[] names = {"Max Mustermann", "Erika Mustermann", "Hans Meier", "Anna Schmidt", "Jonas Weber"};
+
+        Car root = new Car(colors[0], 180);
+        Car current = root;
+        for (int i = 1; i < size; i++) {
+            Car next = new Car(colors[i % colors.length], 120 + (i * 37) % 130);
+            current.setPerson(new Person(names[i % names.length] + " " + i, 18 + (i * 13) % 60, next));
+            current = next;
+        }
+        return root;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ObjectOutputStream}/{@link ObjectInputStream} baseline for the synthetic graphs, Car and Person are not
+ * {@link java.io.Serializable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectStreamBaselineBenchmark {
+
+    @Param({"WIDE", "DEEP"})
+    public GraphShape shape;
+
+    private Object graph;
+    private byte[] bytes;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        graph = shape.create();
+        out = new ByteArrayOutputStream(1 << 16);
+        serializeToMemory();
+        bytes = out.toByteArray();
+    }
+
+    @Benchmark
+    public int serializeToMemory() throws IOException {
+        out.reset();
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(graph);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectIn.readObject();
+        }
+    }
+}
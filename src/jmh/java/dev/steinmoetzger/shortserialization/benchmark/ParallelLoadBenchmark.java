@@ -0,0 +1,63 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a fleet from a text file, either on the calling thread or with the blocks parsed on the common pool. The
+ * speedup of the parallel load follows the number of cores, compare the scores with
+ * {@code -PjmhArgs="ParallelLoadBenchmark -jvmArgs -Djava.util.concurrent.ForkJoinPool.common.parallelism=1"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelLoadBenchmark {
+
+    public enum Load {
+        SEQUENTIAL,
+        PARALLEL
+    }
+
+    @Param({"SEQUENTIAL", "PARALLEL"})
+    public Load load;
+
+    @Param({"5000", "50000"})
+    public int cars;
+
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Files.createTempFile("fleet", ".txt").toFile();
+        SerializationUtil.serialize(GraphShape.fleet(cars), file);
+        // warms the class registry, the one time classpath scan is not part of the measurement
+        SerializationUtil.deserialize(file, Car.class);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public Car load() throws Exception {
+        if (load == Load.SEQUENTIAL)
+            return SerializationUtil.deserialize(file, Car.class);
+        return SerializationUtil.deserialize(file, Car.class, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a document written by version 1 of a class either into the same version or into version 2, which renamed a
+ * field and dropped the large ones. The values of the dropped fields are skipped instead of decoded.
+ * <p>
+ * Both versions can not be registered under the same name at once, so version 1 is written as {@code OldEntry} and
+ * renamed in the document for {@link Target#EVOLVED}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaEvolutionBenchmark {
+
+    private static final int ENTRIES = 1000;
+
+    public enum Target {
+        SAME(EntryV1.class),
+        EVOLVED(EntryV2.class);
+
+        final Class<?> type;
+
+        Target(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    @Param({"TEXT", "BINARY"})
+    public SerializationFormat format;
+
+    @Param({"SAME", "EVOLVED"})
+    public Target target;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws Exception {
+        EntryV1 root = null;
+        for (int i = ENTRIES; i > 0; i--)
+            root = new EntryV1(i, root);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(root, out, format);
+        bytes = target == Target.EVOLVED ? rename(out.toByteArray()) : out.toByteArray();
+
+        // registers the target class, so the other version is never looked up
+        deserialize();
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(bytes), format, target.type);
+    }
+
+    private byte[] rename(byte[] document) {
+        if (format == SerializationFormat.TEXT)
+            return new String(document, StandardCharsets.UTF_8).replace("OldEntry", "Entry").getBytes(StandardCharsets.UTF_8);
+
+        // the binary format writes the name once in the class record, after its string header (length + 1) << 1
+        byte[] oldName = "\u0012OldEntry".getBytes(StandardCharsets.US_ASCII);
+        byte[] newName = "\u000CEntry".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i + oldName.length <= document.length; i++) {
+            if (Arrays.equals(document, i, i + oldName.length, oldName, 0, oldName.length)) {
+                byte[] renamed = new byte[document.length - oldName.length + newName.length];
+                System.arraycopy(document, 0, renamed, 0, i);
+                System.arraycopy(newName, 0, renamed, i, newName.length);
+                System.arraycopy(document, i + oldName.length, renamed, i + newName.length, document.length - i - oldName.length);
+                return renamed;
+            }
+        }
+        throw new IllegalStateException("Class record of OldEntry not found");
+    }
+
+    @SerializableClass(name = "OldEntry", version = 1)
+    public static class EntryV1 {
+
+        @SerializableField(tag = 1)
+        long id;
+        @SerializableField(tag = 2)
+        String title;
+        @SerializableField(tag = 3)
+        String body;
+        @SerializableField(tag = 4)
+        List<String> labels;
+        @SerializableField(tag = 5)
+        int[] history;
+        @SerializableField(tag = 6)
+        EntryV1 next;
+
+        public EntryV1() {
+
+        }
+
+        EntryV1(int seed, EntryV1 next) {
+            this.id = seed;
+            this.title = "entry-" + seed;
+            this.body = "Body of entry " + seed + " that newer versions of the class do not read anymore. ".repeat(4);
+            this.labels = new ArrayList<>(List.of("label-" + seed % 7, "label-" + seed % 11, "label-" + seed % 13));
+            this.history = new int[32];
+            for (int i = 0; i < history.length; i++)
+                history[i] = seed * i;
+            this.next = next;
+        }
+    }
+
+    @SerializableClass(name = "Entry", version = 2)
+    public static class EntryV2 {
+
+        @SerializableField(tag = 1)
+        long id;
+        @SerializableField(name = "name", tag = 2)
+        String title;
+        @SerializableField(tag = 6)
+        EntryV2 next;
+
+        public EntryV2() {
+
+        }
+    }
+}
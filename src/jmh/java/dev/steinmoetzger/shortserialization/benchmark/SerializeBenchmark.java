@@ -0,0 +1,61 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+
+    @Param({"CAR", "WIDE", "DEEP"})
+    public GraphShape shape;
+
+    @Param({"TEXT", "BINARY"})
+    public SerializationFormat format;
+
+    private Object graph;
+    private File file;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        graph = shape.create();
+        file = Files.createTempFile("short-serializer", ".bench").toFile();
+        out = new ByteArrayOutputStream(1 << 16);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public int serializeToMemory() throws Exception {
+        out.reset();
+        SerializationUtil.serialize(graph, out, format);
+        return out.size();
+    }
+
+    @Benchmark
+    public File serializeToFile() throws Exception {
+        SerializationUtil.serialize(graph, file, format);
+        return file;
+    }
+}
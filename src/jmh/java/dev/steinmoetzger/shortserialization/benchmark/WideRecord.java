@@ -0,0 +1,68 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.benchmark;
+
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+
+import java.io.Serializable;
+
+/**
+ * Synthetic class with many fields of every supported type.
+ */
+@SerializableClass(name = "WideRecord")
+public class WideRecord implements Serializable {
+
+    @SerializableField
+    String id;
+    @SerializableField
+    String description;
+    @SerializableField
+    String owner;
+    @SerializableField
+    String category;
+    @SerializableField
+    int count;
+    @SerializableField
+    int version;
+    @SerializableField
+    Integer optional;
+    @SerializableField
+    double price;
+    @SerializableField
+    double weight;
+    @SerializableField
+    float ratio;
+    @SerializableField
+    byte flags;
+    @SerializableField
+    char grade;
+    @SerializableField
+    short region;
+    @SerializableField
+    WideRecord parent;
+
+    public WideRecord() {
+
+    }
+
+    public WideRecord(int seed) {
+        this.id = "record-" + seed;
+        this.description = "Synthetic benchmark record number " + seed;
+        this.owner = "owner-" + (seed % 17);
+        this.category = "category-" + (seed % 5);
+        this.count = seed * 31;
+        this.version = seed % 3;
+        this.optional = seed % 2 == 0 ? seed : null;
+        this.price = seed * 1.25;
+        this.weight = seed / 3.0;
+        this.ratio = seed / 7f;
+        this.flags = (byte) seed;
+        this.grade = (char) ('A' + seed % 6);
+        this.region = (short) (seed % 1000);
+    }
+}
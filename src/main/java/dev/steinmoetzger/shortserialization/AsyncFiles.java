@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the file operations of {@link SerializationUtil#serializeAsync(Object, java.io.File)} and
+ * {@link SerializationUtil#deserializeAsync(java.io.File, Class)} off the calling thread.
+ * <p>
+ * The work runs on virtual threads where the runtime has them and on a cached pool of daemon threads otherwise.
+ * Writes of the same path are coalesced: one task per path writes the latest requested graph, requests that were
+ * replaced before their turn complete together with the write that replaced them. Reads of a path start once the
+ * writes requested before them completed.
+ */
+final class AsyncFiles {
+
+    private static final Executor EXECUTOR = executor();
+    private static final Map<Path, Slot> SLOTS = new ConcurrentHashMap<>();
+
+    private AsyncFiles() {
+    }
+
+    private static Executor executor() {
+        try {
+            // Java 21, looked up reflectively because the library is compiled for Java 17
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "ShortSerializer-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return completes once the file is forced to the storage device with this or a later requested graph
+     */
+    static CompletableFuture<Void> write(Path path, PathLocks.FileWriter writer) {
+        Path target = path.toAbsolutePath().normalize();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean[] start = new boolean[1];
+        SLOTS.compute(target, (key, slot) -> {
+            if (slot == null) {
+                slot = new Slot();
+                start[0] = true;
+            }
+            slot.writer = writer;
+            slot.waiting.add(future);
+            slot.last = future;
+            return slot;
+        });
+
+        if (start[0])
+            EXECUTOR.execute(() -> drain(target));
+        return future;
+    }
+
+    /**
+     * Writes the pending graph of the path until no new one was requested, then releases the slot.
+     */
+    private static void drain(Path target) {
+        while (true) {
+            Slot taken = take(target);
+            if (taken == null)
+                return;
+
+            try {
+                PathLocks.writeAtomically(target, taken.writer, true);
+                for (CompletableFuture<Void> future : taken.waiting)
+                    future.complete(null);
+            } catch (Throwable e) {
+                for (CompletableFuture<Void> future : taken.waiting)
+                    future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the pending writer and its waiting futures, null if there is none and the slot was removed
+     */
+    private static Slot take(Path target) {
+        Slot[] taken = new Slot[1];
+        SLOTS.computeIfPresent(target, (key, slot) -> {
+            if (slot.writer == null)
+                return null;
+
+            Slot pending = new Slot();
+            pending.writer = slot.writer;
+            pending.waiting.addAll(slot.waiting);
+            slot.writer = null;
+            slot.waiting.clear();
+            taken[0] = pending;
+            return slot;
+        });
+        return taken[0];
+    }
+
+    /**
+     * Reads the path once the writes requested for it so far completed, successfully or not.
+     */
+    static <T> CompletableFuture<T> read(Path path, Reader<T> reader) {
+        Path target = path.toAbsolutePath().normalize();
+        Slot slot = SLOTS.get(target);
+        CompletableFuture<Void> written = slot == null ? null : slot.last;
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                future.complete(reader.read());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        if (written == null)
+            EXECUTOR.execute(task);
+        else
+            written.whenComplete((result, e) -> EXECUTOR.execute(task));
+        return future;
+    }
+
+    /**
+     * Pending write of a path. The writer and the waiting futures are only accessed inside the compute functions of
+     * {@link #SLOTS}.
+     */
+    private static final class Slot {
+
+        PathLocks.FileWriter writer;
+        final List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        volatile CompletableFuture<Void> last;
+    }
+
+    interface Reader<T> {
+        T read() throws Exception;
+    }
+}
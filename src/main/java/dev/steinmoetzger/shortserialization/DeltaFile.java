@@ -0,0 +1,270 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import dev.steinmoetzger.shortserialization.codec.DeltaEncoder;
+import dev.steinmoetzger.shortserialization.codec.PatchCompactor;
+import dev.steinmoetzger.shortserialization.codec.PatchFrame;
+import dev.steinmoetzger.shortserialization.codec.Utf8Writer;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Text document file that is saved incrementally. The first save writes the whole graph, later saves append only the
+ * blocks of new objects and patches of changed objects to the file, see {@link DeltaEncoder}, so their cost on disk
+ * follows the size of the change instead of the size of the graph. The file stays a text document that
+ * {@link SerializationUtil} and {@link dev.steinmoetzger.shortserialization.codec.MappedTextDocument} read with all
+ * patches applied.
+ * <p>
+ * Once the patches grow beyond {@code compactionRatio} times the size of the document they patch, they are merged
+ * into it on the compaction executor with {@link PatchCompactor}. The compaction only reads the file, so saves go on
+ * while it runs and patches saved in the meantime are kept. A save writes the whole file again if the root changed,
+ * a previous save failed or most objects in the file are not reachable anymore.
+ * <p>
+ * Saves of an instance are written one after another. Other writers of the same file are not detected.
+ */
+public final class DeltaFile implements Closeable {
+
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    private final Path path;
+    private final Executor compactor;
+    private final double compactionRatio;
+    private final DeltaEncoder encoder = new DeltaEncoder();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(4096);
+    private final Utf8Writer writer = new Utf8Writer();
+
+    private Object root;
+    // length of the document without patches and of the whole file, -1 before the first save
+    private long baseLength = -1;
+    private long length;
+    // incremented whenever the file is replaced, compactions of a replaced file are dropped
+    private int generation;
+    // the encoder is ahead of the file after a failed save
+    private boolean stale;
+    private boolean compacting;
+    private CompletableFuture<Void> compaction;
+    private boolean closed;
+
+    /**
+     * Compacts on the common pool with {@link #DEFAULT_COMPACTION_RATIO}.
+     */
+    public DeltaFile(File file) {
+        this(file, ForkJoinPool.commonPool(), DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * @param compactor       runs the compactions in the background
+     * @param compactionRatio size of the patches relative to the document they patch at which they are compacted
+     */
+    public DeltaFile(File file, Executor compactor, double compactionRatio) {
+        if (!(compactionRatio > 0))
+            throw new IllegalArgumentException("compactionRatio must be positive");
+
+        this.path = file.toPath().toAbsolutePath().normalize();
+        this.compactor = compactor;
+        this.compactionRatio = compactionRatio;
+    }
+
+    /**
+     * Saves the graph. Readers of the file see either the previous or the new state, never a partially written one:
+     * patches are appended in a {@link PatchFrame} and forced to the storage device, readers ignore a frame that was
+     * cut off by a crash or a failed write. The next save after a failed one writes the whole file again.
+     */
+    public synchronized void save(Object root) throws IOException, SerializeException {
+        if (closed)
+            throw new IllegalStateException("DeltaFile is closed");
+
+        // more than half of the blocks are garbage, rewriting drops them
+        if (baseLength < 0 || stale || root != this.root || encoder.size() > 2 * encoder.getReachable()) {
+            rewrite(root);
+            return;
+        }
+
+        stale = true;
+        buffer.reset();
+        writer.reset(buffer);
+        boolean changed;
+        try {
+            changed = encoder.write(root, writer);
+        } finally {
+            writer.reset(null);
+        }
+
+        if (changed) {
+            // the encoder starts the patches with a line break, the frame line ends with one
+            byte[] patches = buffer.toByteArray();
+            frame.reset();
+            PatchFrame.write(frame, patches, 1, patches.length - 1);
+
+            Lock lock = PathLocks.writeLock(path);
+            lock.lock();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer bytes = ByteBuffer.wrap(frame.toByteArray());
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+                channel.force(false);
+            } finally {
+                lock.unlock();
+            }
+            length += frame.size();
+        }
+        stale = false;
+
+        if (!compacting && length - baseLength > baseLength * compactionRatio)
+            startCompaction();
+    }
+
+    private void rewrite(Object root) throws IOException, SerializeException {
+        stale = true;
+        encoder.reset();
+        generation++;
+
+        long[] written = new long[1];
+        PathLocks.writeAtomically(path, temp -> {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writer.reset(out);
+                encoder.write(root, writer);
+            } finally {
+                writer.reset(null);
+            }
+            written[0] = Files.size(temp);
+        });
+
+        this.root = root;
+        baseLength = written[0];
+        length = written[0];
+        stale = false;
+    }
+
+    private void startCompaction() {
+        compacting = true;
+        try {
+            compaction = CompletableFuture.runAsync(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // the patched file is still complete, the compaction is tried again after the next save
+                } finally {
+                    synchronized (this) {
+                        compacting = false;
+                    }
+                }
+            }, compactor);
+        } catch (RejectedExecutionException e) {
+            compacting = false;
+        }
+    }
+
+    /**
+     * Merges the patches into the document right away. Patches that are saved while it runs stay patches.
+     */
+    public void compact() throws IOException {
+        long base;
+        long end;
+        int startGeneration;
+        synchronized (this) {
+            if (baseLength < 0 || length == baseLength)
+                return;
+            base = baseLength;
+            end = length;
+            startGeneration = generation;
+        }
+
+        Path temp = PathLocks.tempPath(path);
+        try {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                 OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                PatchCompactor.compact(channel, base, end, out);
+            }
+            long compacted = Files.size(temp);
+
+            synchronized (this) {
+                if (generation != startGeneration)
+                    return;
+
+                Lock lock = PathLocks.writeLock(path);
+                lock.lock();
+                try {
+                    if (length > end)
+                        appendTail(temp, end);
+                    PathLocks.replace(temp, path);
+                } finally {
+                    lock.unlock();
+                }
+
+                generation++;
+                length = compacted + length - end;
+                baseLength = compacted;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies the patches saved since the compaction started behind the compacted document.
+     */
+    private void appendTail(Path temp, long start) throws IOException {
+        try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (long position = start; position < length; )
+                position += source.transferTo(position, length - position, target);
+        }
+    }
+
+    /**
+     * @return the length of the document the patches apply to, -1 before the first save
+     */
+    public synchronized long getBaseLength() {
+        return baseLength;
+    }
+
+    /**
+     * @return the length of the patches that were not compacted yet
+     */
+    public synchronized long getPatchLength() {
+        return baseLength < 0 ? 0 : length - baseLength;
+    }
+
+    /**
+     * Waits for a running compaction. Saving afterwards is not possible anymore.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<Void> compaction;
+        synchronized (this) {
+            closed = true;
+            compaction = this.compaction;
+        }
+
+        if (compaction != null) {
+            try {
+                compaction.join();
+            } catch (CompletionException e) {
+                // a failed compaction leaves the patched file as it was
+            }
+        }
+    }
+}
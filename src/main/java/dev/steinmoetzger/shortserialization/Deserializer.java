@@ -0,0 +1,229 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import dev.steinmoetzger.shortserialization.codec.BinaryDecoder;
+import dev.steinmoetzger.shortserialization.codec.InternTable;
+import dev.steinmoetzger.shortserialization.codec.TextDecoder;
+import dev.steinmoetzger.shortserialization.codec.Utf8Reader;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.metrics.ClassCounter;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.Phase;
+import dev.steinmoetzger.shortserialization.metrics.SerializationListener;
+import dev.steinmoetzger.shortserialization.schema.ClassRegistry;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Decodes documents with decoders and buffers that are kept between calls, only the decoded data is allocated.
+ * <p>
+ * An instance is not thread safe. Use one instance per thread, {@link #local(SerializationFormat)} hands out one
+ * per thread and format.
+ */
+public final class Deserializer {
+
+    private static final ThreadLocal<Deserializer[]> LOCAL = ThreadLocal.withInitial(() -> new Deserializer[SerializationFormat.values().length]);
+
+    private final SerializationFormat format;
+    private final Utf8Reader reader;
+    private final TextDecoder textDecoder;
+    private final BinaryDecoder binaryDecoder;
+    private boolean reading;
+    // blocks of the last document
+    private int blockCount;
+
+    public Deserializer() {
+        this(SerializationFormat.TEXT);
+    }
+
+    public Deserializer(SerializationFormat format) {
+        this(format, null);
+    }
+
+    /**
+     * @param interns table equal strings and boxed values of the documents are interned in, so they are shared by all
+     *                documents this instance reads, or null to not intern them
+     */
+    public Deserializer(SerializationFormat format, InternTable interns) {
+        this.format = format;
+        if (format == SerializationFormat.BINARY) {
+            this.reader = null;
+            this.textDecoder = null;
+            this.binaryDecoder = new BinaryDecoder(null, interns);
+        } else {
+            this.reader = new Utf8Reader();
+            this.textDecoder = new TextDecoder(reader, interns);
+            this.binaryDecoder = null;
+        }
+    }
+
+    /**
+     * @return the deserializer of the current thread for this format
+     */
+    public static Deserializer local(SerializationFormat format) {
+        Deserializer[] deserializers = LOCAL.get();
+        Deserializer deserializer = deserializers[format.ordinal()];
+        if (deserializer == null)
+            deserializer = deserializers[format.ordinal()] = new Deserializer(format);
+        return deserializer;
+    }
+
+    public SerializationFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Reads an object graph from the given stream. The stream is not closed.
+     */
+    public DeserializationData deserialize(InputStream in) throws IOException, DeserializeException {
+        return (DeserializationData) decode(in, false, null);
+    }
+
+    public DeserializationData deserialize(File file) throws IOException, DeserializeException {
+        return deserialize(file, DeserializationData.class);
+    }
+
+    /**
+     * Reads an object graph from the given stream straight into its objects. The variables are assigned to the fields
+     * while they are parsed, {@link DeserializationData} is only built by {@link #deserialize(InputStream)}. Classes
+     * that are not registered are searched below the package of the given type. The stream is not closed.
+     *
+     * @param type type of the root object, or {@link DeserializationData} to read the blocks without building objects
+     * @throws DeserializeException if the root object is not of the given type
+     */
+    public <T> T deserialize(InputStream in, Class<T> type) throws IOException, DeserializeException {
+        if (type == DeserializationData.class)
+            return type.cast(deserialize(in));
+
+        String classpath = null;
+        if (ClassSchema.of(type).isSerializable()) {
+            ClassRegistry.register(type);
+            classpath = type.getPackageName();
+        }
+
+        Object root = decode(in, true, classpath);
+        if (!type.isInstance(root))
+            throw new DeserializeException("Root object is a " + root.getClass().getName() + ", not a " + type.getName());
+        return type.cast(root);
+    }
+
+    public <T> T deserialize(File file, Class<T> type) throws IOException, DeserializeException {
+        if (!file.exists())
+            throw new FileNotFoundException();
+
+        Lock lock = PathLocks.readLock(file.toPath());
+        lock.lock();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return deserialize(in, type);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param objects whether the objects are built right away instead of {@link DeserializationData}
+     */
+    private Object decode(InputStream in, boolean objects, String classpath) throws IOException, DeserializeException {
+        // a codec that deserializes while this instance is busy gets a fresh one
+        if (reading)
+            return new Deserializer(format).decode(in, objects, classpath);
+
+        SerializationListener listener = Instrumentation.getListener();
+        if (listener == SerializationListener.NONE)
+            return decodeDocument(in, objects, classpath);
+
+        long start = System.nanoTime();
+        CountingInputStream counting = new CountingInputStream(in);
+        Object result;
+        try {
+            result = decodeDocument(counting, objects, classpath);
+        } catch (IOException | DeserializeException | RuntimeException e) {
+            listener.failed(Phase.DESERIALIZE, e);
+            throw e;
+        }
+        listener.deserialized(format, blockCount, counting.count, System.nanoTime() - start);
+
+        if (!objects && listener.countsClasses()) {
+            ClassCounter counter = new ClassCounter();
+            for (DeserializationData.DeserializationClass deserializationClass : ((DeserializationData) result).getClasses().values())
+                counter.add(deserializationClass.getFieldName());
+            counter.report(listener, Phase.DESERIALIZE);
+        }
+        return result;
+    }
+
+    private Object decodeDocument(InputStream in, boolean objects, String classpath) throws IOException, DeserializeException {
+        reading = true;
+        try {
+            Object result;
+            if (binaryDecoder != null) {
+                binaryDecoder.reset(in);
+                result = objects ? binaryDecoder.readObject(classpath) : binaryDecoder.read();
+                blockCount = binaryDecoder.getBlockCount();
+            } else {
+                reader.reset(in);
+                textDecoder.reset(reader);
+                result = objects ? textDecoder.readObject(classpath) : textDecoder.read();
+                blockCount = textDecoder.getBlockCount();
+            }
+            return result;
+        } finally {
+            // neither the stream nor the decoded data are kept reachable from the thread
+            if (binaryDecoder != null) {
+                binaryDecoder.reset(null);
+            } else {
+                reader.reset(null);
+                textDecoder.reset(null);
+            }
+            reading = false;
+        }
+    }
+
+    /**
+     * Counts the bytes that are read through it, only used while a listener is set.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
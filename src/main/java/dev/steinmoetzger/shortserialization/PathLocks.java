@@ -0,0 +1,130 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read/write locks for the files of {@link SerializationUtil}. Writes of the same path wait for each other
+ * and for the reads of that path, writes and reads of different paths only share a lock if their stripes collide.
+ * <p>
+ * Files are written to a temporary file next to the target and moved over it when they are complete, so even readers
+ * of other processes never see a half written file.
+ */
+final class PathLocks {
+
+    // power of two, the stripe is picked by masking the hash
+    private static final int STRIPES = 64;
+    private static final ReentrantReadWriteLock[] LOCKS = new ReentrantReadWriteLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++)
+            LOCKS[i] = new ReentrantReadWriteLock();
+    }
+
+    private PathLocks() {
+    }
+
+    static Lock readLock(Path path) {
+        return stripe(path).readLock();
+    }
+
+    static Lock writeLock(Path path) {
+        return stripe(path).writeLock();
+    }
+
+    private static ReentrantReadWriteLock stripe(Path path) {
+        int hash = path.toAbsolutePath().normalize().hashCode();
+        return LOCKS[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Writes the file through a temporary file and replaces the target with it once the writer is done.
+     */
+    static void writeAtomically(Path path, FileWriter writer) throws IOException, SerializeException {
+        writeAtomically(path, writer, false);
+    }
+
+    /**
+     * @param sync whether the file and the replacement are forced to the storage device before this returns
+     */
+    static void writeAtomically(Path path, FileWriter writer, boolean sync) throws IOException, SerializeException {
+        Path target = path.toAbsolutePath().normalize();
+        Path temp = tempPath(target);
+
+        Lock lock = writeLock(target);
+        lock.lock();
+        try {
+            // the file is created like the target would be, so it gets the same default permissions
+            Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+            writer.write(temp);
+            if (sync)
+                force(temp);
+            replace(temp, target);
+            if (sync && target.getParent() != null)
+                forceDirectory(target.getParent());
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return a path for a temporary file next to the target, the file does not exist yet
+     */
+    static Path tempPath(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+    }
+
+    /**
+     * Moves the temporary file over the target, atomically if the file system supports it. The caller holds the
+     * write lock of the target.
+     */
+    static void replace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the entry of a moved file. Not every platform can open a directory, there the move is left to the file
+     * system.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can not be opened on Windows
+        }
+    }
+
+    interface FileWriter {
+        void write(Path path) throws IOException, SerializeException;
+    }
+}
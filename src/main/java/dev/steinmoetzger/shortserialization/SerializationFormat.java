@@ -0,0 +1,19 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+public enum SerializationFormat {
+
+    /**
+     * Human readable "::DAT" line format
+     */
+    TEXT,
+    /**
+     * Compact format with varint encoded primitives, numeric class ids and integer back-references
+     */
+    BINARY
+}
@@ -6,26 +6,56 @@ stated in a license file.
 
 package dev.steinmoetzger.shortserialization;
 
-import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
-import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import dev.steinmoetzger.shortserialization.codec.BatchReader;
+import dev.steinmoetzger.shortserialization.codec.BatchWriter;
+import dev.steinmoetzger.shortserialization.codec.ClassCodec;
+import dev.steinmoetzger.shortserialization.codec.CompressedInputStream;
+import dev.steinmoetzger.shortserialization.codec.CompressedOutputStream;
+import dev.steinmoetzger.shortserialization.codec.CompressionCodec;
+import dev.steinmoetzger.shortserialization.codec.FieldSource;
+import dev.steinmoetzger.shortserialization.codec.MappedTextDocument;
+import dev.steinmoetzger.shortserialization.codec.ParallelTextDecoder;
+import dev.steinmoetzger.shortserialization.codec.ReferenceTracker;
+import dev.steinmoetzger.shortserialization.codec.TextEncoder;
+import dev.steinmoetzger.shortserialization.codec.Utf8Writer;
 import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
 import dev.steinmoetzger.shortserialization.deserialization.DeserializationType;
+import dev.steinmoetzger.shortserialization.deserialization.ValueConverter;
 import dev.steinmoetzger.shortserialization.exception.DeserializeException;
 import dev.steinmoetzger.shortserialization.exception.SerializeException;
-import org.reflections.Reflections;
+import dev.steinmoetzger.shortserialization.metrics.ClassCounter;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.Phase;
+import dev.steinmoetzger.shortserialization.metrics.SerializationListener;
+import dev.steinmoetzger.shortserialization.schema.ClassRegistry;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldAccessor;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+import dev.steinmoetzger.shortserialization.schema.ReadPlan;
 
 import java.io.*;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 
 public class SerializationUtil {
 
-    private static ArrayList<File> lockedFiles = new ArrayList<>();
+    private static final ThreadLocal<ReferenceTracker> referenceTrackers = ThreadLocal.withInitial(ReferenceTracker::new);
 
-    enum DirectTypes {
+    public enum DirectTypes {
 
         STRING(String.class, "STR"),
         INTEGER(Integer.class, "INT"),
@@ -33,10 +63,27 @@ public class SerializationUtil {
         FLOAT(Float.class, "FLT"),
         BYTE(Byte.class, "BYTE"),
         CHAR(Character.class, "CHAR"),
-        SHORT(Short.class, "SHRT");
-
-        Class<?> clazz;
-        String prefix;
+        SHORT(Short.class, "SHRT"),
+        LONG(Long.class, "LONG"),
+        BOOLEAN(Boolean.class, "BOOL"),
+        ENUM(Enum.class, "ENUM"),
+        BYTE_ARRAY(byte[].class, "BYTES"),
+        SHORT_ARRAY(short[].class, "SHRTS"),
+        INT_ARRAY(int[].class, "INTS"),
+        LONG_ARRAY(long[].class, "LONGS"),
+        FLOAT_ARRAY(float[].class, "FLTS"),
+        DOUBLE_ARRAY(double[].class, "DOUBS"),
+        CHAR_ARRAY(char[].class, "CHARS"),
+        BOOLEAN_ARRAY(boolean[].class, "BOOLS"),
+        ARRAY(Object[].class, "ARR"),
+        LIST(List.class, "LIST"),
+        SET(Set.class, "SET"),
+        MAP(Map.class, "MAP");
+
+        private static final DirectTypes[] VALUES = values();
+
+        public final Class<?> clazz;
+        public final String prefix;
 
         DirectTypes(Class<?> clazz, String prefix) {
             this.prefix = prefix;
@@ -44,8 +91,43 @@ public class SerializationUtil {
         }
 
 
+        /**
+         * @return the direct type values of this class are written as or null if they are written as reference
+         */
         public static DirectTypes fromType(Class<?> clazz) {
-            return Arrays.stream(values()).filter(value -> value.clazz == MethodType.methodType(clazz).wrap().returnType()).findFirst().orElse(null);
+            Class<?> wrapped = MethodType.methodType(clazz).wrap().returnType();
+            for (DirectTypes value : VALUES) {
+                if (value.clazz == wrapped)
+                    return value;
+            }
+
+            // constants with a body are subclasses of their enum
+            if (clazz.isEnum() || (clazz.getSuperclass() != null && clazz.getSuperclass().isEnum()))
+                return ENUM;
+            if (clazz.isArray())
+                return ARRAY;
+            if (Set.class.isAssignableFrom(clazz))
+                return SET;
+            if (Collection.class.isAssignableFrom(clazz))
+                return LIST;
+            if (Map.class.isAssignableFrom(clazz))
+                return MAP;
+            return null;
+        }
+
+        /**
+         * @return true for arrays, collections and maps, whose values hold elements of any type
+         */
+        public boolean isContainer() {
+            return this == ARRAY || this == LIST || this == SET || this == MAP;
+        }
+
+        /**
+         * @return true for the wrappers of primitive types, their values fit into a long
+         */
+        public boolean isPrimitive() {
+            return this == INTEGER || this == DOUBLE || this == FLOAT || this == BYTE || this == CHAR
+                    || this == SHORT || this == LONG || this == BOOLEAN;
         }
 
         public static DirectTypes fromPrefix(String prefix) {
@@ -55,290 +137,577 @@ public class SerializationUtil {
 
 
     public static void serialize(Object object, File file) throws IOException, SerializeException, IllegalAccessException {
+        serialize(object, file, SerializationFormat.TEXT);
+    }
 
-        serialize(object, file, false, "ROOT", new HashMap<>());
+    /**
+     * Writes the object graph into the file. Concurrent calls for the same file are written one after another and
+     * readers see either the previous or the new file, never a partially written one.
+     */
+    public static void serialize(Object object, File file, SerializationFormat format) throws IOException, SerializeException, IllegalAccessException {
+        Serializer.local(format).serialize(object, file);
     }
 
-    private static void serialize(Object object, File file, boolean append, String suffix, HashMap<Integer, String> serializeTracker) throws IOException, SerializeException, IllegalAccessException {
+    public static CompletableFuture<Void> serializeAsync(Object object, File file) {
+        return serializeAsync(object, file, SerializationFormat.TEXT);
+    }
 
+    /**
+     * Writes the object graph into the file off the calling thread, like {@link #serialize(Object, File, SerializationFormat)}.
+     * The graph must not be modified until the future completes. The future completes once the file is forced to the
+     * storage device, exceptionally with the {@link IOException} or {@link SerializeException} of the write.
+     * <p>
+     * Writes of the same file are coalesced. A graph that is replaced by a later call before it was written is never
+     * written, its future completes with the write of the later graph.
+     */
+    public static CompletableFuture<Void> serializeAsync(Object object, File file, SerializationFormat format) {
+        return AsyncFiles.write(file.toPath(), path -> {
+            try (OutputStream out = Files.newOutputStream(path)) {
+                Serializer.local(format).serialize(object, out);
+            }
+        });
+    }
 
-        if (!file.exists())
-            file.createNewFile();
+    public static void serialize(Object object, OutputStream out) throws IOException, SerializeException {
+        serialize(object, out, SerializationFormat.TEXT);
+    }
+
+    /**
+     * Streams the object graph into the given stream. The stream is flushed but not closed.
+     */
+    public static void serialize(Object object, OutputStream out, SerializationFormat format) throws IOException, SerializeException {
+        Serializer.local(format).serialize(object, out);
+    }
 
+    /**
+     * Streams the object graph into the given stream and compresses it in blocks with the codec. The stream is
+     * flushed but not closed, data written after the compressed document is not read by
+     * {@link #deserialize(InputStream, SerializationFormat, CompressionCodec)}.
+     */
+    public static void serialize(Object object, OutputStream out, SerializationFormat format, CompressionCodec codec) throws IOException, SerializeException {
+        CompressedOutputStream compressed = new CompressedOutputStream(out, codec);
+        serialize(object, compressed, format);
+        compressed.finish();
+    }
 
-        if (append)
-            while (lockedFiles.contains(file)) {
+    /**
+     * Writes the compressed object graph into the file, like {@link #serialize(Object, File, SerializationFormat)}.
+     */
+    public static void serialize(Object object, File file, SerializationFormat format, CompressionCodec codec) throws IOException, SerializeException {
+        PathLocks.writeAtomically(file.toPath(), path -> {
+            try (OutputStream out = Files.newOutputStream(path)) {
+                serialize(object, out, format, codec);
             }
+        });
+    }
 
-        lockedFiles.add(file);
+    /**
+     * Streams the object graph in the text format into the given stream and formats the blocks on the executor.
+     * The output is identical to {@link #serialize(Object, OutputStream)}, only the formatting work is spread over
+     * the executor. At most {@link TextEncoder#DEFAULT_PENDING_BLOCKS} formatted blocks are buffered at a time.
+     */
+    public static void serialize(Object object, OutputStream out, ExecutorService executor) throws IOException, SerializeException {
+        new TextEncoder(new Utf8Writer(out), referenceTracker(), executor, TextEncoder.DEFAULT_PENDING_BLOCKS).write(object);
+    }
 
-        if (!serializeTracker.containsKey(object.hashCode()))
-            serializeTracker.put(object.hashCode(), suffix);
+    /**
+     * @return the tracker of the current thread or a new one if it is already in use further up the stack
+     */
+    private static ReferenceTracker referenceTracker() {
+        ReferenceTracker tracker = referenceTrackers.get();
+        return tracker.size() == 0 ? tracker : new ReferenceTracker();
+    }
 
-        if (!object.getClass().isAnnotationPresent(SerializableClass.class))
-            throw new SerializeException("SerializableClass annotation is missing");
+    public static void serialize(Object object, WritableByteChannel channel) throws IOException, SerializeException {
+        serialize(object, channel, SerializationFormat.TEXT);
+    }
 
-        Field[] fields = object.getClass().getDeclaredFields();
+    /**
+     * Streams the object graph into the given channel. The channel is not closed.
+     */
+    public static void serialize(Object object, WritableByteChannel channel, SerializationFormat format) throws IOException, SerializeException {
+        serialize(object, Channels.newOutputStream(channel), format);
+    }
 
-        String className = object.getClass().getAnnotation(SerializableClass.class).name();
+    public static void serializeAll(Iterable<?> objects, Path path) throws IOException, SerializeException {
+        serializeAll(objects, path, SerializationFormat.TEXT);
+    }
 
+    /**
+     * Writes every object as its own root into one batch file with a trailing index, see {@link BatchReader}.
+     */
+    public static void serializeAll(Iterable<?> objects, Path path, SerializationFormat format) throws IOException, SerializeException {
+        serializeAll(objects, path, format, null);
+    }
 
-        StringBuilder builder = new StringBuilder("\n# Beginning of a serialized object from ShortSerializer.\n# WARNING: If the file is changed, the functionality might not be fully granted\n")
-                .append("::BEGIN CLASS: ")
-                .append(className)
-                .append(suffix != null ? "#" + suffix : "")
-                .append("\n");
+    /**
+     * Writes every object as its own root into one batch file with a trailing index, see {@link BatchReader}.
+     *
+     * @param key computes the key a record can be read by, or null to write no keys. Keys must be unique.
+     */
+    public static <T> void serializeAll(Iterable<? extends T> objects, Path path, SerializationFormat format, Function<? super T, String> key) throws IOException, SerializeException {
+        PathLocks.writeAtomically(path, temp -> {
+            try (BatchWriter writer = new BatchWriter(temp, format)) {
+                for (T object : objects)
+                    writer.write(object, key == null ? null : key.apply(object));
+            }
+        });
+    }
 
+    /**
+     * Opens a batch file written by {@link #serializeAll(Iterable, Path)}, the records are read on demand.
+     */
+    public static BatchReader openBatch(Path path) throws IOException, DeserializeException {
+        Lock lock = PathLocks.readLock(path);
+        lock.lock();
+        try {
+            return BatchReader.open(path);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        if (fields.length < 1)
-            throw new SerializeException("This object does not have any serializable fields");
+    private static void setValue(Object object, FieldSchema field, Object value) {
+        FieldAccessor accessor = field.getAccessor();
+        if (!field.isPrimitive()) {
+            accessor.set(object, value);
+            return;
+        }
 
-        for (Field field : fields) {
-            if (field.isAnnotationPresent(SerializableField.class)) {
-                field.trySetAccessible();
+        if (value == null)
+            return;
 
+        switch (field.getType()) {
+            case INTEGER -> accessor.setInt(object, ((Number) value).intValue());
+            case DOUBLE -> accessor.setDouble(object, ((Number) value).doubleValue());
+            case FLOAT -> accessor.setFloat(object, ((Number) value).floatValue());
+            case BYTE -> accessor.setByte(object, ((Number) value).byteValue());
+            case CHAR -> accessor.setChar(object, (Character) value);
+            case SHORT -> accessor.setShort(object, ((Number) value).shortValue());
+            case LONG -> accessor.setLong(object, ((Number) value).longValue());
+            case BOOLEAN -> accessor.setBoolean(object, (Boolean) value);
+            default -> accessor.set(object, value);
+        }
+    }
 
-                String name = field.getDeclaredAnnotation(SerializableField.class).name();
-                if (name.isEmpty()) {
-                    name = field.getName();
-                }
+    public static void setField(Object object, String name, Object value) throws NoSuchFieldException, IllegalAccessException {
+        FieldSchema fieldSchema = ClassSchema.of(object.getClass()).getDeclaredField(name);
+        if (fieldSchema != null) {
+            setValue(object, fieldSchema, value);
+            return;
+        }
 
+        Field field = object.getClass().getDeclaredField(name);
 
-                DirectTypes type = DirectTypes.fromType(field.getType());
-                Object val = null;
-                try {
-                    val = field.get(object);
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException(e);
-                }
+        field.setAccessible(true);
 
+        field.set(object, value);
+    }
 
-                if (type != null) {
-                    builder.append("::DAT [")
-                            .append(type.prefix)
-                            .append("] ")
-                            .append(name)
-                            .append("=")
-                            .append(val == null ? "<NULL>" : val.toString())
-                            .append("\n");
-                } else {
-                    if (val == null) {
-                        builder.append("::DAT [<REF>] ")
-                                .append(name)
-                                .append("=").append("<NULL>").append("\n");
-                    } else {
-                        if (!val.getClass().isAnnotationPresent(SerializableClass.class))
-                            throw new SerializeException("Any child class of serializable object must have SerializableClass annotation");
+    public static Object deserializeClass(DeserializationData.DeserializationClass deserializationClass, String classpath) throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, DeserializeException, NoSuchFieldException {
+        return deserializeClass(deserializationClass, classpath, new IdentityHashMap<>());
+    }
 
-                        // handling circular references
-                        if (serializeTracker.containsKey(val.hashCode())) {
-                            builder.append("::DAT [<REF>] ")
-                                    .append(name)
-                                    .append("=").append(val.getClass().getAnnotation(SerializableClass.class).name()).append("#").append(serializeTracker.get(val.hashCode())).append("\n");
+    /**
+     * Creates the object of a class block and of every block it references.
+     * <p>
+     * Every block is instantiated once and remembered in {@code instances}, so shared and circular references point
+     * to the same object. Referenced blocks are processed with a work list instead of recursion.
+     *
+     * @param instances objects that were already created for blocks, new objects are added to it
+     */
+    public static Object deserializeClass(DeserializationData.DeserializationClass deserializationClass, String classpath, Map<DeserializationData.DeserializationClass, Object> instances) throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, DeserializeException, NoSuchFieldException {
+        SerializationListener listener = Instrumentation.getListener();
+        if (listener == SerializationListener.NONE)
+            return resolveClass(deserializationClass, classpath, instances);
+
+        long start = System.nanoTime();
+        int known = instances.size();
+        Set<Object> knownObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (known > 0 && listener.countsClasses())
+            knownObjects.addAll(instances.values());
+
+        Object root;
+        try {
+            root = resolveClass(deserializationClass, classpath, instances);
+        } catch (ReflectiveOperationException | DeserializeException | RuntimeException e) {
+            listener.failed(Phase.RESOLVE, e);
+            throw e;
+        }
+        listener.resolved(instances.size() - known, System.nanoTime() - start);
 
-                        } else {
-                            UUID uuid = UUID.randomUUID();
+        if (listener.countsClasses()) {
+            ClassCounter counter = new ClassCounter();
+            for (Object object : instances.values()) {
+                if (!knownObjects.contains(object))
+                    counter.add(ClassSchema.of(object.getClass()).getName());
+            }
+            counter.report(listener, Phase.RESOLVE);
+        }
+        return root;
+    }
 
-                            serializeTracker.put(val.hashCode(), uuid.toString());
-                            builder.append("::DAT [<REF>] ")
-                                    .append(name)
-                                    .append("=").append(val.getClass().getAnnotation(SerializableClass.class).name()).append("#").append(uuid).append("\n");
+    private static Object resolveClass(DeserializationData.DeserializationClass deserializationClass, String classpath, Map<DeserializationData.DeserializationClass, Object> instances) throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, DeserializeException, NoSuchFieldException {
+        Object root = instances.get(deserializationClass);
+        if (root != null)
+            return root;
 
-                            Object finalVal = val;
+        VariableSource source = new VariableSource(classpath, instances);
+        root = source.instantiate(deserializationClass);
 
+        while (!source.pending.isEmpty()) {
+            DeserializationData.DeserializationClass current = source.pending.poll();
+            Object obj = instances.get(current);
+            ClassSchema schema = ClassSchema.of(obj.getClass());
 
-                            new Thread(() -> {
-                                try {
-                                    serialize(finalVal, file, true, uuid.toString(), serializeTracker);
-                                } catch (IOException e) {
-                                    throw new RuntimeException(e);
-                                } catch (SerializeException e) {
-                                    throw new RuntimeException(e);
-                                } catch (IllegalAccessException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            }).start();
-                        }
+            source.current = current;
+            source.fields = schema.getFields();
+            source.plan = current.getLayout() == null ? null : schema.plan(current.getLayout());
+            schema.getCodec().read(obj, source);
+        }
 
+        return root;
+    }
 
-                    }
-                }
+    /**
+     * Parses a value of a hand built {@link DeserializationData.DeserializationObject} that was given as string.
+     */
+    private static Object parse(DeserializationType type, String value) throws DeserializeException {
+        if (value.equals("<NULL>"))
+            return null;
+
+        try {
+            return switch (type) {
+                case INTEGER -> Integer.parseInt(value);
+                case DOUBLE -> Double.parseDouble(value);
+                case FLOAT -> Float.parseFloat(value);
+                case BYTE -> Byte.parseByte(value);
+                case CHAR -> value.charAt(0);
+                case SHRT -> Short.parseShort(value);
+                case LONG -> Long.parseLong(value);
+                case BOOL -> Boolean.parseBoolean(value);
+                default -> value;
+            };
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new DeserializeException("Invalid " + type + " value: " + value);
+        }
+    }
 
-            }
+    /**
+     * Hands the variables of a class block to a {@link ClassCodec}. Referenced blocks are instantiated on first use and
+     * queued, so their fields are read after the current block.
+     */
+    private static final class VariableSource implements FieldSource {
+
+        private final String classpath;
+        private final Map<DeserializationData.DeserializationClass, Object> instances;
+        private final ArrayDeque<DeserializationData.DeserializationClass> pending = new ArrayDeque<>();
+        private DeserializationData.DeserializationClass current;
+        private List<FieldSchema> fields;
+        // maps the fields to the variables of blocks written with a layout
+        private ReadPlan plan;
+
+        VariableSource(String classpath, Map<DeserializationData.DeserializationClass, Object> instances) {
+            this.classpath = classpath;
+            this.instances = instances;
         }
 
-        builder.append("::END CLASS: ").append(className).append(suffix != null ? "#" + suffix : "");
+        Object instantiate(DeserializationData.DeserializationClass deserializationClass) throws DeserializeException {
+            ClassSchema schema = ClassRegistry.lookup(deserializationClass.getFieldName(), classpath);
 
-        if (!append) {
-            Files.write(file.toPath(), builder.toString().getBytes());
+            if (schema == null)
+                throw new DeserializeException("Did not find class with name SerializableClass annotation and name argument: " + deserializationClass.getFieldName());
 
-            lockedFiles.remove(file);
-            return;
+            Object obj = schema.getCodec().newInstance();
+            instances.put(deserializationClass, obj);
+            pending.add(deserializationClass);
+            return obj;
         }
 
-        BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
-        writer.append("\n");
-        writer.append(builder.toString());
-        writer.close();
-        lockedFiles.remove(file);
+        private DeserializationData.DeserializationObject variable(int index) {
+            if (plan == null)
+                return current.getVariables().get(fields.get(index).getName());
 
-    }
+            int source = plan.source(index);
+            if (source < 0)
+                return null;
 
-    public static void setField(Object object, String name, Object value) throws NoSuchFieldException, IllegalAccessException {
-        Field field = object.getClass().getDeclaredField(name);
+            // the field may have had another type when the block was written
+            DeserializationData.DeserializationObject variable = current.getVariables().get(plan.getLayout().getFieldName(source));
+            return variable == null || fields.get(index).accepts(directType(variable.getType())) ? variable : null;
+        }
 
-        field.setAccessible(true);
+        /**
+         * @return the direct type of a variable type, null for references
+         */
+        private static DirectTypes directType(DeserializationType type) {
+            return switch (type) {
+                case STRING -> DirectTypes.STRING;
+                case INTEGER -> DirectTypes.INTEGER;
+                case DOUBLE -> DirectTypes.DOUBLE;
+                case FLOAT -> DirectTypes.FLOAT;
+                case BYTE -> DirectTypes.BYTE;
+                case CHAR -> DirectTypes.CHAR;
+                case SHRT -> DirectTypes.SHORT;
+                case REFERENCE -> null;
+                case LONG -> DirectTypes.LONG;
+                case BOOL -> DirectTypes.BOOLEAN;
+                case ENUM -> DirectTypes.ENUM;
+                case BYTE_ARRAY -> DirectTypes.BYTE_ARRAY;
+                case SHORT_ARRAY -> DirectTypes.SHORT_ARRAY;
+                case INT_ARRAY -> DirectTypes.INT_ARRAY;
+                case LONG_ARRAY -> DirectTypes.LONG_ARRAY;
+                case FLOAT_ARRAY -> DirectTypes.FLOAT_ARRAY;
+                case DOUBLE_ARRAY -> DirectTypes.DOUBLE_ARRAY;
+                case CHAR_ARRAY -> DirectTypes.CHAR_ARRAY;
+                case BOOL_ARRAY -> DirectTypes.BOOLEAN_ARRAY;
+                case ARRAY -> DirectTypes.ARRAY;
+                case LIST -> DirectTypes.LIST;
+                case SET -> DirectTypes.SET;
+                case MAP -> DirectTypes.MAP;
+            };
+        }
 
-        field.set(object, value);
-    }
+        private Object value(int index) throws DeserializeException {
+            DeserializationData.DeserializationObject variable = variable(index);
+            if (variable.getValue() instanceof String && variable.getType() != DeserializationType.STRING)
+                return parse(variable.getType(), (String) variable.getValue());
+            return variable.getValue();
+        }
 
-    public static Object deserializeClass(DeserializationData.DeserializationClass deserializationClass, String classpath) throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, DeserializeException, NoSuchFieldException {
-        Reflections reflections = new Reflections(classpath);
-        Set<Class<?>> clazzez = reflections.getTypesAnnotatedWith(SerializableClass.class);
-        Object obj = null;
-        for (Class<?> clazz : clazzez) {
-            if (clazz.isAnnotationPresent(SerializableClass.class) && clazz.getAnnotation(SerializableClass.class).name().equals(deserializationClass.getFieldName())) {
-                obj = clazz.getDeclaredConstructor().newInstance();
-            }
+        @Override
+        public boolean has(int index) {
+            DeserializationData.DeserializationObject variable = variable(index);
+            if (variable == null)
+                return false;
+
+            // null can not be assigned to primitive fields, they keep their default
+            return variable.getValue() != null || !fields.get(index).isPrimitive();
         }
 
-        if (obj == null)
-            throw new DeserializeException("Did not find class with name SerializableClass annotation and name argument: " + deserializationClass.getFieldName());
+        @Override
+        public String readString(int index) throws DeserializeException {
+            Object value = value(index);
+            return value == null ? null : value.toString();
+        }
 
-        for (Map.Entry<String, DeserializationData.DeserializationObject> entry : deserializationClass.getVariables().entrySet()) {
-            String varName = entry.getKey();
-            DeserializationData.DeserializationObject variable = entry.getValue();
+        @Override
+        public int readInt(int index) throws DeserializeException {
+            return ((Number) value(index)).intValue();
+        }
 
+        @Override
+        public double readDouble(int index) throws DeserializeException {
+            return ((Number) value(index)).doubleValue();
+        }
 
-            for (Field field : obj.getClass().getDeclaredFields()) {
-                if (field.isAnnotationPresent(SerializableField.class) && (field.getAnnotation(SerializableField.class).name().equals(varName) || field.getAnnotation(SerializableField.class).name().equals(""))) {
-                    Object value = null;
-                    if (variable.getType() == DeserializationType.STRING) {
-                        value = MethodType.methodType(variable.getType().clazz).wrap().returnType().getDeclaredMethod("valueOf", Object.class).invoke(null, variable.getValue());
-                    } else if (variable.getType() == DeserializationType.REFERENCE) {
-                        value = deserializeClass((DeserializationData.DeserializationClass) variable.getValue(), classpath);
-                    } else {
-                        if(((String) variable.getValue()).equals("<NULL>"))
-                            value = null;
-                        value = MethodType.methodType(variable.getType().clazz).wrap().returnType().getDeclaredMethod("valueOf", String.class).invoke(null, variable.getValue());
-                    }
+        @Override
+        public float readFloat(int index) throws DeserializeException {
+            return ((Number) value(index)).floatValue();
+        }
 
+        @Override
+        public byte readByte(int index) throws DeserializeException {
+            return ((Number) value(index)).byteValue();
+        }
 
+        @Override
+        public char readChar(int index) throws DeserializeException {
+            return (Character) value(index);
+        }
 
-                    setField(obj, field.getName(), value);
-                }
-            }
+        @Override
+        public short readShort(int index) throws DeserializeException {
+            return ((Number) value(index)).shortValue();
+        }
 
+        @Override
+        public long readLong(int index) throws DeserializeException {
+            return ((Number) value(index)).longValue();
+        }
 
+        @Override
+        public boolean readBoolean(int index) throws DeserializeException {
+            return (Boolean) value(index);
         }
 
-        return obj;
+        @Override
+        public Object readObject(int index) throws DeserializeException {
+            DeserializationData.DeserializationObject variable = variable(index);
+            if (variable.getType() != DeserializationType.REFERENCE)
+                return ValueConverter.convert(value(index), fields.get(index).getJavaType(), this::resolve);
+
+            DeserializationData.DeserializationClass reference = (DeserializationData.DeserializationClass) variable.getValue();
+            return reference == null ? null : resolve(reference);
+        }
 
+        private Object resolve(DeserializationData.DeserializationClass reference) throws DeserializeException {
+            Object value = instances.get(reference);
+            return value != null ? value : instantiate(reference);
+        }
     }
 
     public static DeserializationData deserialize(File file) throws IOException, DeserializeException {
+        return deserialize(file, SerializationFormat.TEXT);
+    }
+
+    public static DeserializationData deserialize(File file, SerializationFormat format) throws IOException, DeserializeException {
+        return Deserializer.local(format).deserialize(file);
+    }
+
+    /**
+     * Reads the object graph of a text document straight into its objects, without {@link DeserializationData} in
+     * between. Use {@link #deserialize(File)} to get the blocks of the document instead.
+     */
+    public static <T> T deserialize(File file, Class<T> type) throws IOException, DeserializeException {
+        return deserialize(file, SerializationFormat.TEXT, type);
+    }
+
+    public static <T> T deserialize(File file, SerializationFormat format, Class<T> type) throws IOException, DeserializeException {
+        return Deserializer.local(format).deserialize(file, type);
+    }
 
+    public static CompletableFuture<DeserializationData> deserializeAsync(File file) {
+        return deserializeAsync(file, SerializationFormat.TEXT, DeserializationData.class);
+    }
+
+    public static <T> CompletableFuture<T> deserializeAsync(File file, Class<T> type) {
+        return deserializeAsync(file, SerializationFormat.TEXT, type);
+    }
+
+    /**
+     * Reads the object graph of the file off the calling thread, like {@link #deserialize(File, SerializationFormat, Class)}.
+     * The file is read after the {@link #serializeAsync(Object, File)} calls of the same file that were made before
+     * completed.
+     */
+    public static <T> CompletableFuture<T> deserializeAsync(File file, SerializationFormat format, Class<T> type) {
+        return AsyncFiles.read(file.toPath(), () -> type == DeserializationData.class
+                ? type.cast(Deserializer.local(format).deserialize(file))
+                : Deserializer.local(format).deserialize(file, type));
+    }
+
+    /**
+     * Reads the object graph of a text document straight into its objects and parses its blocks on the executor, see
+     * {@link ParallelTextDecoder}. The result is the same as of {@link #deserialize(File, Class)}, the file is memory
+     * mapped while it is read. Files beyond 2 GB are read on the calling thread.
+     */
+    public static <T> T deserialize(File file, Class<T> type, ExecutorService executor) throws IOException, DeserializeException {
         if (!file.exists())
             throw new FileNotFoundException();
 
-        BufferedReader reader = new BufferedReader(new FileReader(file));
+        Lock lock = PathLocks.readLock(file.toPath());
+        lock.lock();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                return deserialize(file, type);
+            return deserialize(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), type, executor);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        DeserializationData deserializationData = new DeserializationData();
-        DeserializationData.DeserializationClass currentClass = null;
+    /**
+     * Reads the whole stream, then its blocks are parsed on the executor like {@link #deserialize(File, Class, ExecutorService)}.
+     * The stream is not closed.
+     */
+    public static <T> T deserialize(InputStream in, Class<T> type, ExecutorService executor) throws IOException, DeserializeException {
+        return deserialize(ByteBuffer.wrap(in.readAllBytes()), type, executor);
+    }
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (!line.startsWith("::"))
-                continue;
+    private static <T> T deserialize(ByteBuffer document, Class<T> type, ExecutorService executor) throws IOException, DeserializeException {
+        String classpath = null;
+        if (ClassSchema.of(type).isSerializable()) {
+            ClassRegistry.register(type);
+            classpath = type.getPackageName();
+        }
 
-            if (line.startsWith("::BEGIN CLASS")) {
-                if (currentClass != null)
-                    throw new DeserializeException("Syntax Error: Cannot begin class without closed previous...");
+        ParallelTextDecoder decoder = new ParallelTextDecoder(executor);
+        SerializationListener listener = Instrumentation.getListener();
+        long start = System.nanoTime();
+        Object root;
+        try {
+            root = decoder.readObject(document, classpath);
+        } catch (IOException | DeserializeException | RuntimeException e) {
+            listener.failed(Phase.DESERIALIZE, e);
+            throw e;
+        }
+        listener.deserialized(SerializationFormat.TEXT, decoder.getBlockCount(), document.remaining(), System.nanoTime() - start);
 
-                String[] args = line.split(" ");
-                String s = args[2];
-                String fieldName = s.split("#")[0];
-                String uuid = s.split("#")[1];
-                currentClass = new DeserializationData.DeserializationClass(uuid, fieldName);
+        if (!type.isInstance(root))
+            throw new DeserializeException("Root object is a " + root.getClass().getName() + ", not a " + type.getName());
+        return type.cast(root);
+    }
 
-            }
+    /**
+     * Memory maps a document in the text format. Only the block offsets are indexed up front, the blocks are decoded
+     * when they are first accessed. The document has to be closed when it is not used anymore.
+     */
+    public static MappedTextDocument deserializeMapped(Path path) throws IOException, DeserializeException {
+        Lock lock = PathLocks.readLock(path);
+        lock.lock();
+        try {
+            return MappedTextDocument.open(path);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (currentClass == null)
-                throw new DeserializeException("Syntax Error: No class started");
-
-            if (line.startsWith("::DAT")) {
-                DeserializationType type;
-                String[] args = line.split(" ");
-                if (!line.contains("<")) {
-                    type = DeserializationType.valueOf(
-                            DirectTypes.fromPrefix(args[1].replace("[", "").replace("]", ""))
-                                    .toString());
-
-                    ArrayList<String> argsList = new ArrayList<>(Arrays.stream(args).toList());
-                    argsList.remove(0);
-                    argsList.remove(0);
-
-                    StringBuilder builder = new StringBuilder();
-                    argsList.forEach(builder::append);
-
-                    String name = builder.toString().split("=")[0];
-                    Object value = null;
-                    try {
-                        if (type != DeserializationType.STRING) {
-                            value = MethodType.methodType(type.clazz).wrap().returnType().getDeclaredMethod("valueOf", String.class).invoke(null, builder.toString().split("=")[1]);
-                        } else {
-                            value = MethodType.methodType(type.clazz).wrap().returnType().getDeclaredMethod("valueOf", Object.class).invoke(null, builder.toString().split("=")[1]);
-
-                        }
-                    } catch (NoSuchMethodException e) {
-                        e.printStackTrace();
-                        throw new DeserializeException("Field valueOf not found for " + type.clazz.getName());
-                    } catch (InvocationTargetException | IllegalAccessException e) {
-                        throw new DeserializeException(e);
-                    }
-
-                    currentClass.getVariables().put(name, new DeserializationData.DeserializationObject(type, name, value));
-                } else {
-                    type = DeserializationType.REFERENCE;
-
-                    ArrayList<String> argsList = new ArrayList<>(Arrays.stream(args).toList());
-                    argsList.remove(0);
-                    argsList.remove(0);
-
-                    StringBuilder builder = new StringBuilder();
-                    argsList.forEach(builder::append);
-
-                    String name = builder.toString().split("=")[0];
-                    String refSignature = builder.toString().split("=")[1];
-
-                    System.out.println(refSignature);
-
-                    if (refSignature.equalsIgnoreCase("<NULL>")) {
-                        currentClass.getVariables().put(name, new DeserializationData.DeserializationObject(type, name, null));
-                        continue;
-                    }
-                    String refName = refSignature.split("#")[0];
-                    String refUuid = refSignature.split("#")[1];
-
-                    DeserializationData.DeserializationClass finalCurrentClass = currentClass;
-                    new Thread(() -> {
-                        while (!deserializationData.getClasses().containsKey(refUuid)) {
-                        }
-
-                        finalCurrentClass.getVariables().put(name, new DeserializationData.DeserializationObject(type, name, deserializationData.getClasses().get(refUuid)));
-                    }).start();
-
-
-                }
-            }
+    public static DeserializationData deserialize(ReadableByteChannel channel) throws IOException, DeserializeException {
+        return deserialize(channel, SerializationFormat.TEXT);
+    }
 
-            if (line.startsWith("::END CLASS")) {
-                deserializationData.getClasses().put(currentClass.getUuid(), currentClass);
-                currentClass = null;
-            }
-        }
+    /**
+     * Reads an object graph from the given channel. The channel is not closed.
+     */
+    public static DeserializationData deserialize(ReadableByteChannel channel, SerializationFormat format) throws IOException, DeserializeException {
+        return deserialize(Channels.newInputStream(channel), format);
+    }
+
+    public static DeserializationData deserialize(InputStream in) throws IOException, DeserializeException {
+        return deserialize(in, SerializationFormat.TEXT);
+    }
 
-        return deserializationData;
+    /**
+     * Reads an object graph from the given stream. The stream is not closed.
+     */
+    public static DeserializationData deserialize(InputStream in, SerializationFormat format) throws IOException, DeserializeException {
+        return Deserializer.local(format).deserialize(in);
+    }
+
+    /**
+     * Reads the object graph from the given stream straight into its objects. The stream is not closed.
+     */
+    public static <T> T deserialize(InputStream in, SerializationFormat format, Class<T> type) throws IOException, DeserializeException {
+        return Deserializer.local(format).deserialize(in, type);
+    }
+
+    /**
+     * Reads an object graph that was written with {@link #serialize(Object, OutputStream, SerializationFormat, CompressionCodec)}.
+     * The stream is not closed.
+     */
+    public static DeserializationData deserialize(InputStream in, SerializationFormat format, CompressionCodec codec) throws IOException, DeserializeException {
+        return deserialize(new CompressedInputStream(in, codec), format);
+    }
+
+    public static <T> T deserialize(InputStream in, SerializationFormat format, CompressionCodec codec, Class<T> type) throws IOException, DeserializeException {
+        return deserialize(new CompressedInputStream(in, codec), format, type);
+    }
+
+    public static DeserializationData deserialize(File file, SerializationFormat format, CompressionCodec codec) throws IOException, DeserializeException {
+        return deserialize(file, format, codec, DeserializationData.class);
+    }
+
+    public static <T> T deserialize(File file, SerializationFormat format, CompressionCodec codec, Class<T> type) throws IOException, DeserializeException {
+        if (!file.exists())
+            throw new FileNotFoundException();
+
+        Lock lock = PathLocks.readLock(file.toPath());
+        lock.lock();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return deserialize(in, format, codec, type);
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
@@ -0,0 +1,157 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import dev.steinmoetzger.shortserialization.codec.BinaryEncoder;
+import dev.steinmoetzger.shortserialization.codec.ReferenceTracker;
+import dev.steinmoetzger.shortserialization.codec.TextEncoder;
+import dev.steinmoetzger.shortserialization.codec.Utf8Writer;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.Phase;
+import dev.steinmoetzger.shortserialization.metrics.SerializationListener;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Serializes object graphs with encoders, buffers and reference tables that are kept between calls. Serializing
+ * graphs of the same shape again only allocates for values that have to be converted to text, like doubles.
+ * <p>
+ * An instance is not thread safe. Use one instance per thread, {@link #local(SerializationFormat)} hands out one
+ * per thread and format.
+ */
+public final class Serializer {
+
+    private static final ThreadLocal<Serializer[]> LOCAL = ThreadLocal.withInitial(() -> new Serializer[SerializationFormat.values().length]);
+
+    private final SerializationFormat format;
+    private final ReferenceTracker tracker = new ReferenceTracker();
+    private final Utf8Writer writer;
+    private final TextEncoder textEncoder;
+    private final BinaryEncoder binaryEncoder;
+    private boolean writing;
+
+    public Serializer() {
+        this(SerializationFormat.TEXT);
+    }
+
+    public Serializer(SerializationFormat format) {
+        this.format = format;
+        if (format == SerializationFormat.BINARY) {
+            this.writer = null;
+            this.textEncoder = null;
+            this.binaryEncoder = new BinaryEncoder(null, tracker);
+        } else {
+            this.writer = new Utf8Writer();
+            this.textEncoder = new TextEncoder(writer, tracker);
+            this.binaryEncoder = null;
+        }
+    }
+
+    /**
+     * @return the serializer of the current thread for this format
+     */
+    public static Serializer local(SerializationFormat format) {
+        Serializer[] serializers = LOCAL.get();
+        Serializer serializer = serializers[format.ordinal()];
+        if (serializer == null)
+            serializer = serializers[format.ordinal()] = new Serializer(format);
+        return serializer;
+    }
+
+    public SerializationFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Streams the object graph into the given stream. The stream is flushed but not closed.
+     */
+    public void serialize(Object object, OutputStream out) throws IOException, SerializeException {
+        // a codec that serializes while this instance is busy gets a fresh one
+        if (writing) {
+            new Serializer(format).serialize(object, out);
+            return;
+        }
+
+        SerializationListener listener = Instrumentation.getListener();
+        if (listener == SerializationListener.NONE) {
+            encode(object, out);
+            return;
+        }
+
+        long start = System.nanoTime();
+        CountingOutputStream counting = new CountingOutputStream(out);
+        try {
+            encode(object, counting);
+        } catch (IOException | SerializeException | RuntimeException e) {
+            listener.failed(Phase.SERIALIZE, e);
+            throw e;
+        }
+        int objects = binaryEncoder != null ? binaryEncoder.getObjectCount() : textEncoder.getObjectCount();
+        listener.serialized(format, objects, counting.count, System.nanoTime() - start);
+    }
+
+    private void encode(Object object, OutputStream out) throws IOException, SerializeException {
+        writing = true;
+        try {
+            if (binaryEncoder != null) {
+                binaryEncoder.reset(out);
+                binaryEncoder.write(object);
+            } else {
+                writer.reset(out);
+                textEncoder.write(object);
+            }
+        } finally {
+            // the stream is not kept reachable from the thread
+            if (binaryEncoder != null)
+                binaryEncoder.reset(null);
+            else
+                writer.reset(null);
+            writing = false;
+        }
+    }
+
+    /**
+     * Writes the object graph into the file. Concurrent writes of the same file are written one after another and
+     * readers see either the previous or the new file, never a partially written one.
+     */
+    public void serialize(Object object, File file) throws IOException, SerializeException {
+        PathLocks.writeAtomically(file.toPath(), path -> {
+            try (OutputStream out = Files.newOutputStream(path)) {
+                serialize(object, out);
+            }
+        });
+    }
+
+    /**
+     * Counts the bytes that are written through it, only used while a listener is set.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+}
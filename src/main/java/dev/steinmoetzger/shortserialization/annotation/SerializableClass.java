@@ -16,4 +16,10 @@ import java.lang.annotation.Target;
 public @interface SerializableClass {
 
     String name();
+
+    /**
+     * Version of the field layout. It is written into every document together with the wire names and tags of the
+     * fields, see {@link dev.steinmoetzger.shortserialization.schema.ClassLayout}.
+     */
+    int version() default 0;
 }
@@ -16,4 +16,11 @@ import java.lang.annotation.Target;
 public @interface SerializableField {
 
     String name() default "";
+
+    /**
+     * Positive number that identifies the field across versions of the class, 0 for none. Values written with a tag
+     * are read into the field with the same tag even if it was renamed, and never into another field that took over
+     * the name.
+     */
+    int tag() default 0;
 }
@@ -0,0 +1,51 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+
+/**
+ * Constants of the batch file that holds many serialized roots.
+ * <p>
+ * A batch file starts with {@link #MAGIC}, {@link #VERSION} and the format code of its records. The records follow
+ * back to back, every record is a complete document in the text or binary format. After the records comes the index
+ * with one entry per record: offset (8 bytes), length (4 bytes) and key as length (4 bytes, -1 for no key) followed
+ * by UTF-8 bytes. The file ends with the {@link #FOOTER_LENGTH} byte footer: offset of the index (8 bytes), number
+ * of records (4 bytes) and {@link #FOOTER_MAGIC}. All numbers are big endian.
+ */
+final class BatchFormat {
+
+    static final byte[] MAGIC = {'S', 'S', 'L'};
+    static final byte VERSION = 1;
+
+    static final byte[] FOOTER_MAGIC = {'S', 'S', 'I', 'X'};
+    static final int HEADER_LENGTH = MAGIC.length + 2;
+    static final int FOOTER_LENGTH = 8 + 4 + FOOTER_MAGIC.length;
+    // offset, length and key length of an entry without key
+    static final int MIN_ENTRY_LENGTH = 8 + 4 + 4;
+
+    static final int FORMAT_TEXT = 0;
+    static final int FORMAT_BINARY = 1;
+
+    private BatchFormat() {
+    }
+
+    static int formatCode(SerializationFormat format) {
+        return switch (format) {
+            case TEXT -> FORMAT_TEXT;
+            case BINARY -> FORMAT_BINARY;
+        };
+    }
+
+    static SerializationFormat format(int code) {
+        return switch (code) {
+            case FORMAT_TEXT -> SerializationFormat.TEXT;
+            case FORMAT_BINARY -> SerializationFormat.BINARY;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,157 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads single records of a batch file written by {@link BatchWriter}. Only the header and the index are read when
+ * the file is opened, every record is then read with one positioned read of its bytes. Reads do not move a shared
+ * position, so a reader can be used by several threads.
+ */
+public class BatchReader implements Closeable {
+
+    private final FileChannel channel;
+    private final SerializationFormat format;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final Map<String, Integer> keys = new HashMap<>();
+
+    private BatchReader(FileChannel channel) throws IOException, DeserializeException {
+        this.channel = channel;
+
+        long size = channel.size();
+        if (size < BatchFormat.HEADER_LENGTH + BatchFormat.FOOTER_LENGTH)
+            throw new DeserializeException("Not a ShortSerializer batch file");
+
+        ByteBuffer header = readFully(0, BatchFormat.HEADER_LENGTH);
+        for (byte magic : BatchFormat.MAGIC) {
+            if (header.get() != magic)
+                throw new DeserializeException("Not a ShortSerializer batch file");
+        }
+
+        int version = header.get();
+        if (version != BatchFormat.VERSION)
+            throw new DeserializeException("Unsupported batch format version " + version);
+
+        this.format = BatchFormat.format(header.get());
+        if (format == null)
+            throw new DeserializeException("Unknown record format in batch file");
+
+        ByteBuffer footer = readFully(size - BatchFormat.FOOTER_LENGTH, BatchFormat.FOOTER_LENGTH);
+        long indexOffset = footer.getLong();
+        int count = footer.getInt();
+        byte[] footerMagic = new byte[BatchFormat.FOOTER_MAGIC.length];
+        footer.get(footerMagic);
+        if (!Arrays.equals(footerMagic, BatchFormat.FOOTER_MAGIC))
+            throw new DeserializeException("Batch file has no index, it was not closed properly");
+
+        long indexLength = size - BatchFormat.FOOTER_LENGTH - indexOffset;
+        if (indexOffset < BatchFormat.HEADER_LENGTH || indexLength < 0 || indexLength > Integer.MAX_VALUE || count < 0
+                || count > indexLength / BatchFormat.MIN_ENTRY_LENGTH)
+            throw new DeserializeException("Corrupt batch index");
+
+        this.offsets = new long[count];
+        this.lengths = new int[count];
+
+        ByteBuffer index = readFully(indexOffset, (int) indexLength);
+        try {
+            for (int i = 0; i < count; i++) {
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                if (offsets[i] < BatchFormat.HEADER_LENGTH || offsets[i] > indexOffset || lengths[i] < 0
+                        || lengths[i] > indexOffset - offsets[i])
+                    throw new DeserializeException("Corrupt batch index entry " + i);
+
+                int keyLength = index.getInt();
+                if (keyLength < 0)
+                    continue;
+                if (keyLength > index.remaining())
+                    throw new DeserializeException("Corrupt batch index entry " + i);
+
+                byte[] key = new byte[keyLength];
+                index.get(key);
+                keys.put(new String(key, StandardCharsets.UTF_8), i);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new DeserializeException("Corrupt batch index");
+        }
+    }
+
+    public static BatchReader open(Path path) throws IOException, DeserializeException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BatchReader(channel);
+        } catch (IOException | DeserializeException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public SerializationFormat getFormat() {
+        return format;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public boolean containsKey(String key) {
+        return keys.containsKey(key);
+    }
+
+    /**
+     * @param index position of the record in the batch, starting at 0
+     */
+    public DeserializationData read(int index) throws IOException, DeserializeException {
+        if (index < 0 || index >= offsets.length)
+            throw new IndexOutOfBoundsException("Record " + index + " of " + offsets.length);
+
+        ByteBuffer record = readFully(offsets[index], lengths[index]);
+        return SerializationUtil.deserialize(new ByteArrayInputStream(record.array(), 0, record.limit()), format);
+    }
+
+    /**
+     * @return the record written with this key or null if there is none
+     */
+    public DeserializationData read(String key) throws IOException, DeserializeException {
+        Integer index = keys.get(key);
+        return index == null ? null : read(index);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new EOFException();
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes many roots into one batch file, see {@link BatchFormat}. Every root is serialized as its own document, so
+ * objects shared between roots are written once per root. The index is written on {@link #close()}; a batch file
+ * that was not closed can not be read.
+ */
+public class BatchWriter implements Closeable {
+
+    private final SerializationFormat format;
+    private final RecordStream out;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> keys = new HashSet<>();
+    private boolean closed;
+
+    public BatchWriter(Path path, SerializationFormat format) throws IOException {
+        this.format = format;
+        this.out = new RecordStream(new BufferedOutputStream(Files.newOutputStream(path), 65536));
+
+        try {
+            out.write(BatchFormat.MAGIC);
+            out.write(BatchFormat.VERSION);
+            out.write(BatchFormat.formatCode(format));
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    public void write(Object root) throws IOException, SerializeException {
+        write(root, null);
+    }
+
+    /**
+     * @param key key the record can be read by with {@link BatchReader#read(String)}, or null
+     */
+    public void write(Object root, String key) throws IOException, SerializeException {
+        if (closed)
+            throw new IllegalStateException("BatchWriter is closed");
+
+        if (key != null && !keys.add(key))
+            throw new SerializeException("Duplicate batch key: " + key);
+
+        long offset = out.position;
+        SerializationUtil.serialize(root, out, format);
+
+        long length = out.position - offset;
+        if (length > Integer.MAX_VALUE)
+            throw new SerializeException("Record is too large for a batch file: " + length + " bytes");
+
+        entries.add(new Entry(offset, (int) length, key));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the index and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try (DataOutputStream data = new DataOutputStream(out.out)) {
+            long indexOffset = out.position;
+            for (Entry entry : entries) {
+                data.writeLong(entry.offset);
+                data.writeInt(entry.length);
+                if (entry.key == null) {
+                    data.writeInt(-1);
+                } else {
+                    byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(key.length);
+                    data.write(key);
+                }
+            }
+
+            data.writeLong(indexOffset);
+            data.writeInt(entries.size());
+            data.write(BatchFormat.FOOTER_MAGIC);
+        }
+    }
+
+    private record Entry(long offset, int length, String key) {
+    }
+
+    /**
+     * Counts the written bytes and ignores the flushes of the encoders, the file is only flushed once on close.
+     */
+    private static final class RecordStream extends OutputStream {
+
+        private final OutputStream out;
+        private long position;
+
+        RecordStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,598 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationType;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ReadPlan;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a document in the binary format described in {@link BinaryFormat} into {@link DeserializationData}, or
+ * straight into its objects with {@link #readObject(String)}.
+ * <p>
+ * Every class record is reported to the {@link DocumentHandler} as {@link ClassLayout}. Values of fields the plan it
+ * returns does not need are skipped without decoding them.
+ */
+public class BinaryDecoder {
+
+    private static final int ALLOCATION_STEP = 1 << 16;
+
+    private InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+
+    private final List<ClassRecord> classes = new ArrayList<>();
+    private String[] strings = new String[64];
+    private int stringCount;
+    private int version;
+    private int objectCount;
+    private DocumentHandler handler;
+    private final InternTable interns;
+
+    /**
+     * @param in stream the document is read from, or null if it is bound with {@link #reset(InputStream)} later
+     */
+    public BinaryDecoder(InputStream in) {
+        this(in, null);
+    }
+
+    /**
+     * @param interns table the strings and boxed values of the documents are interned in, or null to not intern them
+     */
+    public BinaryDecoder(InputStream in, InternTable interns) {
+        this.in = in;
+        this.interns = interns;
+    }
+
+    /**
+     * Binds the decoder to another stream, so it can read the next document with the buffers it already has.
+     * Bytes that were buffered but not read yet are dropped.
+     */
+    public void reset(InputStream in) {
+        this.in = in;
+        this.position = 0;
+        this.limit = 0;
+        classes.clear();
+        Arrays.fill(strings, 0, stringCount, null);
+        stringCount = 0;
+        objectCount = 0;
+        handler = null;
+    }
+
+    /**
+     * @return the number of objects read since the last {@link #reset(InputStream)}
+     */
+    public int getBlockCount() {
+        return objectCount;
+    }
+
+    public DeserializationData read() throws IOException, DeserializeException {
+        TreeBuilder builder = new TreeBuilder(null, interns);
+        parse(builder);
+        return builder.finish();
+    }
+
+    /**
+     * Builds the object graph of the document right away, without {@link DeserializationData} in between.
+     *
+     * @param classpath classpath prefix that is scanned for classes that are not registered, or null
+     * @return the root object
+     */
+    public Object readObject(String classpath) throws IOException, DeserializeException {
+        ObjectBuilder builder = new ObjectBuilder(classpath, interns);
+        parse(builder);
+        return builder.finish();
+    }
+
+    private void parse(DocumentHandler handler) throws IOException, DeserializeException {
+        for (byte magic : BinaryFormat.MAGIC) {
+            if (readByte() != magic)
+                throw new DeserializeException("Not a binary ShortSerializer document");
+        }
+
+        version = readByte();
+        if (version < 1 || version > BinaryFormat.VERSION)
+            throw new DeserializeException("Unsupported binary format version " + version);
+
+        this.handler = handler;
+        int tag;
+        while ((tag = readByte()) != BinaryFormat.TAG_END) {
+            switch (tag) {
+                case BinaryFormat.TAG_CLASS -> readClass();
+                case BinaryFormat.TAG_OBJECT -> readInstance();
+                default -> throw new DeserializeException("Syntax Error: Unknown record tag " + tag);
+            }
+        }
+        this.handler = null;
+    }
+
+    private void readClass() throws IOException, DeserializeException {
+        int classId = readVarInt();
+        if (classId != classes.size())
+            throw new DeserializeException("Syntax Error: Unexpected class id " + classId);
+
+        String name = readString();
+        int classVersion = version > 1 ? readVarInt() : 0;
+        int fieldCount = readLength();
+        String[] fieldNames = new String[fieldCount];
+        int[] tags = new int[fieldCount];
+        int[] typeCodes = new int[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fieldNames[i] = readString();
+            tags[i] = version > 1 ? readVarInt() : 0;
+            typeCodes[i] = readByte();
+        }
+
+        ReadPlan plan = handler.layout(new ClassLayout(name, classVersion, fieldNames, tags));
+        classes.add(new ClassRecord(name, fieldNames, typeCodes, plan));
+    }
+
+    private void readInstance() throws IOException, DeserializeException {
+        int classId = readVarInt();
+        if (classId >= classes.size())
+            throw new DeserializeException("Syntax Error: Unknown class id " + classId);
+
+        ClassRecord record = classes.get(classId);
+        handler.beginClass(record.name, uuid(objectCount++));
+
+        for (int i = 0; i < record.fieldNames.length; i++) {
+            String name = record.fieldNames[i];
+            int typeCode = record.typeCodes[i];
+
+            if (record.plan != null && !record.plan.isNeeded(i)) {
+                skip(typeCode);
+                continue;
+            }
+
+            if (typeCode == BinaryFormat.TYPE_REFERENCE) {
+                int reference = readVarInt();
+                // references can point to objects that appear later in the document, their class is not known yet
+                handler.reference(i, name, null, reference == 0 ? null : uuid(reference - 1));
+                continue;
+            }
+
+            if ((typeCode & BinaryFormat.FLAG_NULLABLE) != 0 && readByte() == 0) {
+                handler.value(i, name, directType(typeCode & ~BinaryFormat.FLAG_NULLABLE), null);
+                continue;
+            }
+
+            typeCode &= ~BinaryFormat.FLAG_NULLABLE;
+            SerializationUtil.DirectTypes type = directType(typeCode);
+            if (type.isPrimitive())
+                handler.primitive(i, name, type, readPrimitive(typeCode));
+            else
+                handler.value(i, name, type, readValue(typeCode));
+        }
+
+        handler.endClass();
+    }
+
+    /**
+     * @return the uuid the text format uses for the object with this id
+     */
+    private static String uuid(int id) {
+        return id == 0 ? "ROOT" : String.valueOf(id);
+    }
+
+    /**
+     * @return the value as described in {@link DocumentHandler#primitive(int, String, SerializationUtil.DirectTypes, long)}
+     */
+    private long readPrimitive(int typeCode) throws IOException, DeserializeException {
+        return switch (typeCode) {
+            case BinaryFormat.TYPE_INTEGER -> unZigZag(readVarInt());
+            case BinaryFormat.TYPE_DOUBLE -> readLong();
+            case BinaryFormat.TYPE_FLOAT -> readInt();
+            case BinaryFormat.TYPE_BYTE -> (byte) readByte();
+            case BinaryFormat.TYPE_CHAR -> (char) readVarInt();
+            case BinaryFormat.TYPE_SHORT -> (short) unZigZag(readVarInt());
+            case BinaryFormat.TYPE_LONG -> unZigZag(readVarLong());
+            case BinaryFormat.TYPE_BOOLEAN -> readByte() != 0 ? 1 : 0;
+            default -> throw new DeserializeException("Syntax Error: Unknown type code " + typeCode);
+        };
+    }
+
+    private Object readValue(int typeCode) throws IOException, DeserializeException {
+        return switch (typeCode) {
+            case BinaryFormat.TYPE_STRING, BinaryFormat.TYPE_ENUM -> readString();
+            case BinaryFormat.TYPE_INTEGER, BinaryFormat.TYPE_DOUBLE, BinaryFormat.TYPE_FLOAT, BinaryFormat.TYPE_BYTE,
+                    BinaryFormat.TYPE_CHAR, BinaryFormat.TYPE_SHORT, BinaryFormat.TYPE_LONG, BinaryFormat.TYPE_BOOLEAN ->
+                    box(directType(typeCode), readPrimitive(typeCode));
+            case BinaryFormat.TYPE_BYTE_ARRAY -> readBytes(readLength());
+            case BinaryFormat.TYPE_SHORT_ARRAY -> {
+                int length = readLength();
+                short[] values = new short[capacity(0, length, Short.BYTES)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, Short.BYTES));
+                    int count = fillBlock(Short.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Short.BYTES).asShortBuffer().get(values, i, count);
+                    position += count * Short.BYTES;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_INT_ARRAY -> {
+                int length = readLength();
+                int[] values = new int[capacity(0, length, Integer.BYTES)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, Integer.BYTES));
+                    int count = fillBlock(Integer.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Integer.BYTES).asIntBuffer().get(values, i, count);
+                    position += count * Integer.BYTES;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_LONG_ARRAY -> {
+                int length = readLength();
+                long[] values = new long[capacity(0, length, Long.BYTES)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, Long.BYTES));
+                    int count = fillBlock(Long.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Long.BYTES).asLongBuffer().get(values, i, count);
+                    position += count * Long.BYTES;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_FLOAT_ARRAY -> {
+                int length = readLength();
+                float[] values = new float[capacity(0, length, Float.BYTES)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, Float.BYTES));
+                    int count = fillBlock(Float.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Float.BYTES).asFloatBuffer().get(values, i, count);
+                    position += count * Float.BYTES;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_DOUBLE_ARRAY -> {
+                int length = readLength();
+                double[] values = new double[capacity(0, length, Double.BYTES)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, Double.BYTES));
+                    int count = fillBlock(Double.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Double.BYTES).asDoubleBuffer().get(values, i, count);
+                    position += count * Double.BYTES;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_CHAR_ARRAY -> {
+                int length = readLength();
+                char[] values = new char[capacity(0, length, Character.BYTES)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, Character.BYTES));
+                    int count = fillBlock(Character.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Character.BYTES).asCharBuffer().get(values, i, count);
+                    position += count * Character.BYTES;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_BOOLEAN_ARRAY -> {
+                int length = readLength();
+                boolean[] values = new boolean[capacity(0, length, 1)];
+                for (int i = 0; i < length; ) {
+                    if (i == values.length)
+                        values = Arrays.copyOf(values, capacity(i, length, 1));
+                    int count = fillBlock(1, values.length - i);
+                    for (int j = 0; j < count; j++)
+                        values[i + j] = buffer[position++] != 0;
+                    i += count;
+                }
+                yield values;
+            }
+            case BinaryFormat.TYPE_ARRAY, BinaryFormat.TYPE_LIST, BinaryFormat.TYPE_SET, BinaryFormat.TYPE_MAP -> {
+                int count = readLength();
+                if (typeCode == BinaryFormat.TYPE_MAP) {
+                    if (count > Integer.MAX_VALUE / 2)
+                        throw new DeserializeException("Syntax Error: Invalid map size " + count);
+                    count *= 2;
+                }
+
+                List<Object> elements = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++)
+                    elements.add(readElement(elements));
+                yield new DeserializationData.DeserializationContainer(TextDecoder.deserializationType(directType(typeCode)), elements);
+            }
+            default -> throw new DeserializeException("Syntax Error: Unknown type code " + typeCode);
+        };
+    }
+
+    /**
+     * @param elements list the element is added to, the handler may patch references into it later
+     */
+    private Object readElement(List<Object> elements) throws IOException, DeserializeException {
+        int typeCode = readByte();
+        switch (typeCode) {
+            case BinaryFormat.TYPE_NULL:
+                return null;
+            case BinaryFormat.TYPE_REFERENCE:
+                int reference = readVarInt();
+                if (reference == 0)
+                    return null;
+                return handler.elementReference(elements, null, uuid(reference - 1));
+            case BinaryFormat.TYPE_ENUM:
+                String enumType = readString();
+                return new DeserializationData.DeserializationObject(DeserializationType.ENUM, enumType, readString());
+            default:
+                return readValue(typeCode);
+        }
+    }
+
+    /**
+     * Moves past the value of a field without decoding it. References in skipped containers are not reported, the
+     * objects they point to are still read if they are referenced anywhere else.
+     */
+    private void skip(int typeCode) throws IOException, DeserializeException {
+        if (typeCode == BinaryFormat.TYPE_REFERENCE) {
+            readVarInt();
+            return;
+        }
+
+        if ((typeCode & BinaryFormat.FLAG_NULLABLE) != 0 && readByte() == 0)
+            return;
+        skipValue(typeCode & ~BinaryFormat.FLAG_NULLABLE);
+    }
+
+    private void skipValue(int typeCode) throws IOException, DeserializeException {
+        switch (typeCode) {
+            case BinaryFormat.TYPE_STRING, BinaryFormat.TYPE_ENUM -> skipString();
+            case BinaryFormat.TYPE_INTEGER, BinaryFormat.TYPE_CHAR, BinaryFormat.TYPE_SHORT, BinaryFormat.TYPE_LONG -> readVarLong();
+            case BinaryFormat.TYPE_DOUBLE -> skipBytes(Double.BYTES);
+            case BinaryFormat.TYPE_FLOAT -> skipBytes(Float.BYTES);
+            case BinaryFormat.TYPE_BYTE, BinaryFormat.TYPE_BOOLEAN -> skipBytes(1);
+            case BinaryFormat.TYPE_BYTE_ARRAY, BinaryFormat.TYPE_BOOLEAN_ARRAY -> skipBytes(readLength());
+            case BinaryFormat.TYPE_SHORT_ARRAY, BinaryFormat.TYPE_CHAR_ARRAY -> skipBytes((long) readLength() * 2);
+            case BinaryFormat.TYPE_INT_ARRAY, BinaryFormat.TYPE_FLOAT_ARRAY -> skipBytes((long) readLength() * 4);
+            case BinaryFormat.TYPE_LONG_ARRAY, BinaryFormat.TYPE_DOUBLE_ARRAY -> skipBytes((long) readLength() * 8);
+            case BinaryFormat.TYPE_ARRAY, BinaryFormat.TYPE_LIST, BinaryFormat.TYPE_SET, BinaryFormat.TYPE_MAP -> {
+                long count = readLength();
+                if (typeCode == BinaryFormat.TYPE_MAP)
+                    count *= 2;
+                for (long i = 0; i < count; i++)
+                    skipElement();
+            }
+            default -> throw new DeserializeException("Syntax Error: Unknown type code " + typeCode);
+        }
+    }
+
+    private void skipElement() throws IOException, DeserializeException {
+        int typeCode = readByte();
+        switch (typeCode) {
+            case BinaryFormat.TYPE_NULL -> {
+            }
+            case BinaryFormat.TYPE_REFERENCE -> readVarInt();
+            case BinaryFormat.TYPE_ENUM -> {
+                // enum class name and constant name
+                skipValue(BinaryFormat.TYPE_STRING);
+                skipValue(BinaryFormat.TYPE_STRING);
+            }
+            default -> skipValue(typeCode);
+        }
+    }
+
+    /**
+     * Strings that go into the string table are read, later strings may refer to them.
+     */
+    private void skipString() throws IOException, DeserializeException {
+        if (version < 3) {
+            skipBytes(Math.max(readVarInt() - 1, 0));
+            return;
+        }
+
+        int header = readVarInt();
+        if (header == 0 || (header & 1) != 0)
+            return;
+
+        int length = (header >>> 1) - 1;
+        if (length <= BinaryFormat.STRING_TABLE_MAX_BYTES && stringCount < BinaryFormat.STRING_TABLE_SIZE)
+            addString(readLiteral(length));
+        else
+            skipBytes(length);
+    }
+
+    private void skipBytes(long length) throws IOException {
+        int buffered = (int) Math.min(length, limit - position);
+        position += buffered;
+        if (length > buffered)
+            in.skipNBytes(length - buffered);
+    }
+
+    private static SerializationUtil.DirectTypes directType(int typeCode) throws DeserializeException {
+        SerializationUtil.DirectTypes type = BinaryFormat.directType(typeCode);
+        if (type == null)
+            throw new DeserializeException("Syntax Error: Unknown type code " + typeCode);
+        return type;
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private Object box(SerializationUtil.DirectTypes type, long bits) {
+        return interns == null ? DocumentHandler.box(type, bits) : interns.box(type, bits);
+    }
+
+    private String readString() throws IOException, DeserializeException {
+        if (version < 3)
+            return readLiteral(readVarInt() - 1);
+
+        int header = readVarInt();
+        if (header == 0)
+            return null;
+
+        if ((header & 1) != 0) {
+            int index = header >>> 1;
+            if (index >= stringCount)
+                throw new DeserializeException("Syntax Error: Unknown string " + index);
+            return strings[index];
+        }
+
+        int length = (header >>> 1) - 1;
+        String value = readLiteral(length);
+        if (length <= BinaryFormat.STRING_TABLE_MAX_BYTES && stringCount < BinaryFormat.STRING_TABLE_SIZE)
+            addString(value);
+        return value;
+    }
+
+    private void addString(String value) {
+        if (stringCount == strings.length)
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        strings[stringCount++] = value;
+    }
+
+    private String readLiteral(int length) throws IOException {
+        if (length < 0)
+            return null;
+
+        if (length <= buffer.length) {
+            ensure(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return interns == null ? value : interns.intern(value);
+        }
+
+        return new String(readBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException, DeserializeException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new DeserializeException("Syntax Error: Malformed varint");
+    }
+
+    private long readVarLong() throws IOException, DeserializeException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new DeserializeException("Syntax Error: Malformed varint");
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readLength() throws IOException, DeserializeException {
+        int length = readVarInt();
+        if (length < 0)
+            throw new DeserializeException("Syntax Error: Negative length " + length);
+        return length;
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[capacity(0, length, 1)];
+        int copied = Math.min(limit - position, bytes.length);
+        System.arraycopy(buffer, position, bytes, 0, copied);
+        position += copied;
+        while (copied < length) {
+            if (copied == bytes.length)
+                bytes = Arrays.copyOf(bytes, capacity(copied, length, 1));
+            int read = in.read(bytes, copied, bytes.length - copied);
+            if (read < 0)
+                throw new EOFException();
+            copied += read;
+        }
+        return bytes;
+    }
+
+    /**
+     * Arrays are not allocated with the length the document claims, a corrupt length would allocate gigabytes before
+     * the end of the input is noticed. They start at {@link #ALLOCATION_STEP} bytes and double while values arrive.
+     *
+     * @param allocated number of elements allocated so far
+     * @return the number of elements to allocate next
+     */
+    private static int capacity(int allocated, int length, int elementSize) {
+        return (int) Math.min(length, (long) allocated + Math.max(allocated, ALLOCATION_STEP / elementSize));
+    }
+
+    /**
+     * Buffers as many of the remaining values of a primitive array as fit into the buffer.
+     *
+     * @return how many values are buffered
+     */
+    private int fillBlock(int elementSize, int remaining) throws IOException {
+        int count = Math.min(remaining, buffer.length / elementSize);
+        ensure(count * elementSize);
+        return count;
+    }
+
+    private int readInt() throws IOException {
+        ensure(4);
+        int value = ((buffer[position] & 0xFF) << 24)
+                | ((buffer[position + 1] & 0xFF) << 16)
+                | ((buffer[position + 2] & 0xFF) << 8)
+                | (buffer[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    private int readByte() throws IOException {
+        ensure(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Makes sure that at least the given amount of bytes is buffered.
+     */
+    private void ensure(int length) throws IOException {
+        if (limit - position >= length)
+            return;
+
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+
+        while (limit < length) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0)
+                throw new EOFException();
+            limit += read;
+        }
+    }
+
+    /**
+     * @param plan plan of the handler for the layout of the class, null if every field is needed
+     */
+    private record ClassRecord(String name, String[] fieldNames, int[] typeCodes, ReadPlan plan) {
+    }
+
+}
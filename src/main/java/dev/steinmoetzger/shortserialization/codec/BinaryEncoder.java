@@ -0,0 +1,526 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+import dev.steinmoetzger.shortserialization.metrics.ClassCounter;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.Phase;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an object graph in the binary format described in {@link BinaryFormat}.
+ */
+public class BinaryEncoder {
+
+    private OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+
+    private final Map<ClassSchema, Integer> classIds = new IdentityHashMap<>();
+    private final StringTable strings = new StringTable();
+    private final ReferenceTracker tracker;
+    private int objectCount;
+    private final FieldWriter fieldWriter = new FieldWriter();
+
+    public BinaryEncoder(OutputStream out) {
+        this(out, new ReferenceTracker());
+    }
+
+    /**
+     * @param out      stream the graph is written to, or null if it is bound with {@link #reset(OutputStream)} later
+     * @param tracker empty tracker used to number the objects of the graph, it is reset after writing
+     */
+    public BinaryEncoder(OutputStream out, ReferenceTracker tracker) {
+        this.out = out;
+        this.tracker = tracker;
+    }
+
+    /**
+     * Binds the encoder to another stream, so it can write the next graph with the buffers it already has. Bytes
+     * that were not flushed yet are dropped.
+     */
+    public void reset(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+    }
+
+    public void write(Object root) throws IOException, SerializeException {
+        try {
+            writeBytes(BinaryFormat.MAGIC, 0, BinaryFormat.MAGIC.length);
+            writeByte(BinaryFormat.VERSION);
+
+            tracker.add(root);
+            for (int id = 0; id < tracker.size(); id++)
+                writeObject(tracker.objectAt(id));
+
+            writeByte(BinaryFormat.TAG_END);
+            flush();
+            objectCount = tracker.size();
+            if (Instrumentation.getListener().countsClasses())
+                countClasses();
+        } finally {
+            tracker.reset();
+            classIds.clear();
+            strings.reset();
+        }
+    }
+
+    private void countClasses() {
+        ClassCounter counter = new ClassCounter();
+        for (int id = 0; id < tracker.size(); id++)
+            counter.add(ClassSchema.of(tracker.objectAt(id).getClass()).getName());
+        counter.report(Instrumentation.getListener(), Phase.SERIALIZE);
+    }
+
+    /**
+     * @return the number of objects of the last written graph
+     */
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    private void writeObject(Object object) throws IOException, SerializeException {
+        ClassSchema schema = ClassSchema.of(object.getClass());
+        if (!schema.isSerializable())
+            throw new SerializeException("SerializableClass annotation is missing");
+
+        if (schema.getFields().isEmpty())
+            throw new SerializeException("This object does not have any serializable fields");
+
+        Integer classId = classIds.get(schema);
+        if (classId == null) {
+            classId = classIds.size();
+            classIds.put(schema, classId);
+            writeClass(classId, schema);
+        }
+
+        writeByte(BinaryFormat.TAG_OBJECT);
+        writeVarInt(classId);
+
+        fieldWriter.fields = schema.getFields();
+        schema.getCodec().write(object, fieldWriter);
+    }
+
+    private void writeClass(int classId, ClassSchema schema) throws IOException {
+        List<FieldSchema> fields = schema.getFields();
+
+        writeByte(BinaryFormat.TAG_CLASS);
+        writeVarInt(classId);
+        writeString(schema.getName());
+        writeVarInt(schema.getVersion());
+        writeVarInt(fields.size());
+        for (FieldSchema field : fields) {
+            writeString(field.getName());
+            writeVarInt(field.getTag());
+            int typeCode = BinaryFormat.typeCode(field.getType());
+            if (!field.isPrimitive() && !field.isReference() && typeCode != BinaryFormat.TYPE_STRING)
+                typeCode |= BinaryFormat.FLAG_NULLABLE;
+            writeByte(typeCode);
+        }
+    }
+
+    private void writeReference(Object value) throws IOException, SerializeException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        int id = tracker.idOf(value);
+        if (id < 0) {
+            if (!ClassSchema.of(value.getClass()).isSerializable())
+                throw new SerializeException("Any child class of serializable object must have SerializableClass annotation");
+
+            id = tracker.add(value);
+        }
+
+        writeVarInt(id + 1);
+    }
+
+    /**
+     * Writes a value of a direct type without presence byte.
+     */
+    private void writeValue(SerializationUtil.DirectTypes type, Object value) throws IOException, SerializeException {
+        switch (type) {
+            case STRING -> writeString((String) value);
+            case INTEGER -> writeVarInt(zigZag((Integer) value));
+            case DOUBLE -> writeLong(Double.doubleToRawLongBits((Double) value));
+            case FLOAT -> writeInt(Float.floatToRawIntBits((Float) value));
+            case BYTE -> writeByte((Byte) value);
+            case CHAR -> writeVarInt((Character) value);
+            case SHORT -> writeVarInt(zigZag((Short) value));
+            case LONG -> writeVarLong(zigZag((Long) value));
+            case BOOLEAN -> writeByte((Boolean) value ? 1 : 0);
+            case ENUM -> writeString(((Enum<?>) value).name());
+            case BYTE_ARRAY -> {
+                byte[] values = (byte[]) value;
+                writeVarInt(values.length);
+                writeBytes(values, 0, values.length);
+            }
+            case SHORT_ARRAY -> {
+                short[] values = (short[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(Short.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Short.BYTES).asShortBuffer().put(values, i, count);
+                    position += count * Short.BYTES;
+                    i += count;
+                }
+            }
+            case INT_ARRAY -> {
+                int[] values = (int[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(Integer.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Integer.BYTES).asIntBuffer().put(values, i, count);
+                    position += count * Integer.BYTES;
+                    i += count;
+                }
+            }
+            case LONG_ARRAY -> {
+                long[] values = (long[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(Long.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Long.BYTES).asLongBuffer().put(values, i, count);
+                    position += count * Long.BYTES;
+                    i += count;
+                }
+            }
+            case FLOAT_ARRAY -> {
+                float[] values = (float[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(Float.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Float.BYTES).asFloatBuffer().put(values, i, count);
+                    position += count * Float.BYTES;
+                    i += count;
+                }
+            }
+            case DOUBLE_ARRAY -> {
+                double[] values = (double[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(Double.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Double.BYTES).asDoubleBuffer().put(values, i, count);
+                    position += count * Double.BYTES;
+                    i += count;
+                }
+            }
+            case CHAR_ARRAY -> {
+                char[] values = (char[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(Character.BYTES, values.length - i);
+                    ByteBuffer.wrap(buffer, position, count * Character.BYTES).asCharBuffer().put(values, i, count);
+                    position += count * Character.BYTES;
+                    i += count;
+                }
+            }
+            case BOOLEAN_ARRAY -> {
+                boolean[] values = (boolean[]) value;
+                writeVarInt(values.length);
+                for (int i = 0; i < values.length; ) {
+                    int count = reserve(1, values.length - i);
+                    for (int j = 0; j < count; j++)
+                        buffer[position++] = (byte) (values[i + j] ? 1 : 0);
+                    i += count;
+                }
+            }
+            case ARRAY -> {
+                Object[] values = (Object[]) value;
+                writeVarInt(values.length);
+                for (Object element : values)
+                    writeElement(element);
+            }
+            case LIST, SET -> {
+                Collection<?> values = (Collection<?>) value;
+                writeVarInt(values.size());
+                int written = 0;
+                for (Object element : values) {
+                    writeElement(element);
+                    written++;
+                }
+                if (written != values.size())
+                    throw new SerializeException("Collection was modified while it was written");
+            }
+            case MAP -> {
+                Map<?, ?> values = (Map<?, ?>) value;
+                writeVarInt(values.size());
+                int written = 0;
+                for (Map.Entry<?, ?> entry : values.entrySet()) {
+                    writeElement(entry.getKey());
+                    writeElement(entry.getValue());
+                    written++;
+                }
+                if (written != values.size())
+                    throw new SerializeException("Map was modified while it was written");
+            }
+        }
+    }
+
+    private void writeElement(Object value) throws IOException, SerializeException {
+        if (value == null) {
+            writeByte(BinaryFormat.TYPE_NULL);
+            return;
+        }
+
+        SerializationUtil.DirectTypes type = SerializationUtil.DirectTypes.fromType(value.getClass());
+        if (type == null) {
+            writeByte(BinaryFormat.TYPE_REFERENCE);
+            writeReference(value);
+            return;
+        }
+
+        writeByte(BinaryFormat.typeCode(type));
+        if (type == SerializationUtil.DirectTypes.ENUM) {
+            // elements do not have a field that tells their enum
+            writeString(((Enum<?>) value).getDeclaringClass().getName());
+        }
+        writeValue(type, value);
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        // a UTF-8 encoding has at least as many bytes as the string has chars
+        boolean tableable = value.length() <= BinaryFormat.STRING_TABLE_MAX_BYTES;
+        if (tableable) {
+            int index = strings.indexOf(value);
+            if (index >= 0) {
+                writeVarInt((index << 1) | 1);
+                return;
+            }
+        }
+
+        int bytes = utf8Length(value);
+        if (tableable && bytes <= BinaryFormat.STRING_TABLE_MAX_BYTES && strings.size() < BinaryFormat.STRING_TABLE_SIZE)
+            strings.add(value);
+        writeVarInt((bytes + 1) << 1);
+
+        // encoded straight into the buffer, the same bytes getBytes(UTF_8) would return
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            ensure(4);
+            int end = Math.min(length, i + (buffer.length - position) / 4);
+            while (i < end) {
+                char c = value.charAt(i++);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(value.charAt(i))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(i++));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 encoding, unpaired surrogates are encoded as {@code ?}
+     */
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                continue;
+            if (c < 0x800) {
+                bytes++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // two chars, four bytes
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length) {
+            flush();
+            out.write(bytes, offset, length);
+            return;
+        }
+
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    /**
+     * Makes room for at least one element of a primitive array.
+     *
+     * @return how many of the remaining elements fit into the buffer
+     */
+    private int reserve(int elementSize, int remaining) throws IOException {
+        ensure(elementSize);
+        return Math.min(remaining, (buffer.length - position) / elementSize);
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length > buffer.length)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes the values the {@link ClassCodec} of an object hands over in the order of its class record.
+     */
+    private final class FieldWriter implements FieldSink {
+
+        private List<FieldSchema> fields;
+
+        @Override
+        public void writeString(int index, String value) throws IOException {
+            BinaryEncoder.this.writeString(value);
+        }
+
+        @Override
+        public void writeInt(int index, int value) throws IOException {
+            writeVarInt(zigZag(value));
+        }
+
+        @Override
+        public void writeDouble(int index, double value) throws IOException {
+            BinaryEncoder.this.writeLong(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public void writeFloat(int index, float value) throws IOException {
+            BinaryEncoder.this.writeInt(Float.floatToRawIntBits(value));
+        }
+
+        @Override
+        public void writeByte(int index, byte value) throws IOException {
+            BinaryEncoder.this.writeByte(value);
+        }
+
+        @Override
+        public void writeChar(int index, char value) throws IOException {
+            writeVarInt(value);
+        }
+
+        @Override
+        public void writeShort(int index, short value) throws IOException {
+            writeVarInt(zigZag(value));
+        }
+
+        @Override
+        public void writeLong(int index, long value) throws IOException {
+            writeVarLong(zigZag(value));
+        }
+
+        @Override
+        public void writeBoolean(int index, boolean value) throws IOException {
+            BinaryEncoder.this.writeByte(value ? 1 : 0);
+        }
+
+        @Override
+        public void writeObject(int index, Object value) throws IOException, SerializeException {
+            FieldSchema field = fields.get(index);
+            if (field.isReference()) {
+                writeReference(value);
+                return;
+            }
+
+            if (field.getType() == SerializationUtil.DirectTypes.STRING) {
+                writeString(index, (String) value);
+                return;
+            }
+
+            if (value == null) {
+                BinaryEncoder.this.writeByte(0);
+                return;
+            }
+
+            BinaryEncoder.this.writeByte(1);
+            writeValue(field.getType(), value);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+
+/**
+ * Constants of the binary format.
+ * <p>
+ * A document starts with {@link #MAGIC} and {@link #VERSION}, followed by records that each start with a tag byte:
+ * <ul>
+ *     <li>{@link #TAG_CLASS}: varint class id, class name, varint class version, varint field count and per field
+ *     its name, varint tag and type code. Written once per class, before the first object of that class. Readers map
+ *     the fields to the fields of their class once per record and skip the values of fields they do not know.
+ *     Version 1 documents have neither class version nor tags.</li>
+ *     <li>{@link #TAG_OBJECT}: varint class id followed by the field values in the order of the class record.
+ *     Objects are numbered in the order they appear, the root object has id 0.</li>
+ *     <li>{@link #TAG_END}: end of the document.</li>
+ * </ul>
+ * Strings are written as varint header: 0 means null, an odd header {@code h} refers to entry {@code h >>> 1} of the
+ * string table, an even header is followed by {@code (h >>> 1) - 1} UTF-8 bytes. Both sides add every string that is
+ * written with its bytes and has at most {@link #STRING_TABLE_MAX_BYTES} bytes to the table, until it holds
+ * {@link #STRING_TABLE_SIZE} entries, so class names, field names and repeated values are written once per document.
+ * Documents before version 3 write every string as varint length + 1 followed by UTF-8 bytes. References are written as
+ * varint object id + 1, 0 means null. Values of boxed, enum, array, collection and map fields are preceded by a
+ * presence byte.
+ * <p>
+ * Enums are written as the name of the constant. Primitive arrays are written as varint length followed by the
+ * big endian values as one block. Arrays, collections and maps are written as varint element count followed by
+ * the elements, maps alternate keys and values. Every element starts with its type code, {@link #TYPE_NULL} for null;
+ * enum elements are written as enum class name followed by the constant name.
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = {'S', 'S', 'B'};
+    static final byte VERSION = 3;
+
+    static final int STRING_TABLE_SIZE = 1 << 16;
+    static final int STRING_TABLE_MAX_BYTES = 255;
+
+    static final int TAG_END = 0;
+    static final int TAG_CLASS = 1;
+    static final int TAG_OBJECT = 2;
+
+    static final int TYPE_REFERENCE = 0;
+    static final int TYPE_STRING = 1;
+    static final int TYPE_INTEGER = 2;
+    static final int TYPE_DOUBLE = 3;
+    static final int TYPE_FLOAT = 4;
+    static final int TYPE_BYTE = 5;
+    static final int TYPE_CHAR = 6;
+    static final int TYPE_SHORT = 7;
+    static final int TYPE_LONG = 8;
+    static final int TYPE_BOOLEAN = 9;
+    static final int TYPE_ENUM = 10;
+    static final int TYPE_BYTE_ARRAY = 11;
+    static final int TYPE_SHORT_ARRAY = 12;
+    static final int TYPE_INT_ARRAY = 13;
+    static final int TYPE_LONG_ARRAY = 14;
+    static final int TYPE_FLOAT_ARRAY = 15;
+    static final int TYPE_DOUBLE_ARRAY = 16;
+    static final int TYPE_CHAR_ARRAY = 17;
+    static final int TYPE_BOOLEAN_ARRAY = 18;
+    static final int TYPE_ARRAY = 19;
+    static final int TYPE_LIST = 20;
+    static final int TYPE_SET = 21;
+    static final int TYPE_MAP = 22;
+
+    /**
+     * Type code of null elements in arrays, collections and maps.
+     */
+    static final int TYPE_NULL = 0x7F;
+
+    /**
+     * Set on the type code of boxed fields whose values are preceded by a presence byte.
+     */
+    static final int FLAG_NULLABLE = 0x80;
+
+    private static final SerializationUtil.DirectTypes[] DIRECT_TYPES = new SerializationUtil.DirectTypes[TYPE_MAP + 1];
+
+    static {
+        for (SerializationUtil.DirectTypes type : SerializationUtil.DirectTypes.values())
+            DIRECT_TYPES[typeCode(type)] = type;
+    }
+
+    private BinaryFormat() {
+    }
+
+    static int typeCode(SerializationUtil.DirectTypes type) {
+        if (type == null)
+            return TYPE_REFERENCE;
+
+        return switch (type) {
+            case STRING -> TYPE_STRING;
+            case INTEGER -> TYPE_INTEGER;
+            case DOUBLE -> TYPE_DOUBLE;
+            case FLOAT -> TYPE_FLOAT;
+            case BYTE -> TYPE_BYTE;
+            case CHAR -> TYPE_CHAR;
+            case SHORT -> TYPE_SHORT;
+            case LONG -> TYPE_LONG;
+            case BOOLEAN -> TYPE_BOOLEAN;
+            case ENUM -> TYPE_ENUM;
+            case BYTE_ARRAY -> TYPE_BYTE_ARRAY;
+            case SHORT_ARRAY -> TYPE_SHORT_ARRAY;
+            case INT_ARRAY -> TYPE_INT_ARRAY;
+            case LONG_ARRAY -> TYPE_LONG_ARRAY;
+            case FLOAT_ARRAY -> TYPE_FLOAT_ARRAY;
+            case DOUBLE_ARRAY -> TYPE_DOUBLE_ARRAY;
+            case CHAR_ARRAY -> TYPE_CHAR_ARRAY;
+            case BOOLEAN_ARRAY -> TYPE_BOOLEAN_ARRAY;
+            case ARRAY -> TYPE_ARRAY;
+            case LIST -> TYPE_LIST;
+            case SET -> TYPE_SET;
+            case MAP -> TYPE_MAP;
+        };
+    }
+
+    /**
+     * @return the direct type of a type code or null for references and unknown codes
+     */
+    static SerializationUtil.DirectTypes directType(int typeCode) {
+        return typeCode >= 0 && typeCode < DIRECT_TYPES.length ? DIRECT_TYPES[typeCode] : null;
+    }
+}
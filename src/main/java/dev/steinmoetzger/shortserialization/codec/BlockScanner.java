@@ -0,0 +1,209 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the lines that structure a text document without decoding its values: the "::BEGIN CLASS" line of every
+ * block, the "::SCHEMA" and "::FORMAT" lines and the {@link PatchFrame} lines, whose patches are checked on the way.
+ * Subclasses read the bytes from wherever the document is stored and record what they need of the blocks.
+ * <p>
+ * Every block gets a number in the order of the document. Documents written by this library number their blocks
+ * sequentially, so the number of a block is its id and no index is kept. Documents with other block ids are indexed
+ * in a map. A block whose id appears again later is patched, see {@link DeltaEncoder}; its patches get the number of
+ * the block.
+ */
+abstract class BlockScanner {
+
+    static final String ROOT = "ROOT";
+
+    private static final byte[] BEGIN_CLASS = "::BEGIN CLASS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCHEMA = "::SCHEMA".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FORMAT = "::FORMAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PATCH = PatchFrame.MARKER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROOT_ID = ROOT.getBytes(StandardCharsets.US_ASCII);
+
+    private int blockCount;
+    // block numbers by id, null while the ids are sequential
+    private Map<String, Integer> blocksById;
+    // whether the document has the format line, so its values are escaped
+    private boolean escaped;
+
+    abstract byte byteAt(long position);
+
+    abstract byte[] bytes(long start, long end);
+
+    /**
+     * Called for the "::BEGIN CLASS" line of every block and patch.
+     *
+     * @param block number of the block
+     * @param patch whether the line starts a patch of a block that came before
+     */
+    abstract void beginBlock(int block, boolean patch, long lineStart) throws DeserializeException;
+
+    /**
+     * Called for every "::SCHEMA" line.
+     */
+    void schema(long lineStart, long lineEnd) {
+    }
+
+    /**
+     * Called for every {@link PatchFrame} line whose patch is complete, before the blocks of the patch.
+     */
+    void patchFrame(long lineStart) {
+    }
+
+    /**
+     * @return the end of the document, which is the start of the first damaged {@link PatchFrame} line if there is one
+     */
+    long scan(long start, long end) throws IOException, DeserializeException {
+        long position = start;
+        while (position < end) {
+            long lineEnd = indexOfNewline(position, end);
+            if (startsWith(position, lineEnd, BEGIN_CLASS)) {
+                addBlock(position, lineEnd);
+            } else if (startsWith(position, lineEnd, SCHEMA)) {
+                schema(position, lineEnd);
+            } else if (startsWith(position, lineEnd, FORMAT)) {
+                escaped = TextDecoder.isEscaped(string(position, lineEnd));
+            } else if (startsWith(position, lineEnd, PATCH)) {
+                long patchStart = lineEnd + 1;
+                if (!PatchFrame.isComplete(string(position, lineEnd), lineEnd < end,
+                        length -> bytes(patchStart, Math.min(end, patchStart + length))))
+                    return position;
+                patchFrame(position);
+            }
+            position = lineEnd + 1;
+        }
+        return end;
+    }
+
+    private void addBlock(long lineStart, long lineEnd) throws DeserializeException {
+        long hash = lastIndexOf('#', lineStart, lineEnd);
+        if (hash < 0)
+            throw new DeserializeException("Syntax Error: Class without id at offset " + lineStart);
+
+        long idEnd = trimCarriageReturn(hash + 1, lineEnd);
+        if (blocksById == null) {
+            int id = sequentialId(hash + 1, idEnd);
+            if (id >= 0 && id <= blockCount) {
+                boolean patch = id < blockCount;
+                if (!patch)
+                    blockCount++;
+                beginBlock(id, patch, lineStart);
+                return;
+            }
+            switchToMap();
+        }
+
+        String uuid = string(hash + 1, idEnd);
+        Integer block = blocksById.get(uuid);
+        if (block != null) {
+            beginBlock(block, true, lineStart);
+            return;
+        }
+        blocksById.put(uuid, blockCount);
+        beginBlock(blockCount++, false, lineStart);
+    }
+
+    /**
+     * @return 0 for ROOT, the numeric id or -1 if the id is neither
+     */
+    private int sequentialId(long start, long end) {
+        if (end - start == ROOT_ID.length && startsWith(start, end, ROOT_ID))
+            return 0;
+
+        if (start == end || end - start > 9)
+            return -1;
+
+        int id = 0;
+        for (long i = start; i < end; i++) {
+            byte b = byteAt(i);
+            if (b < '0' || b > '9')
+                return -1;
+            id = id * 10 + (b - '0');
+        }
+        return id == 0 ? -1 : id;
+    }
+
+    private void switchToMap() {
+        blocksById = new HashMap<>();
+        for (int i = 0; i < blockCount; i++)
+            blocksById.put(i == 0 ? ROOT : Integer.toString(i), i);
+    }
+
+    /**
+     * @return the number of the block with the id, or -1 if there is none
+     */
+    int blockOf(String uuid) {
+        if (blocksById != null) {
+            Integer block = blocksById.get(uuid);
+            return block == null ? -1 : block;
+        }
+
+        if (uuid.equals(ROOT))
+            return blockCount > 0 ? 0 : -1;
+        try {
+            int id = Integer.parseInt(uuid);
+            return id > 0 && id < blockCount && Integer.toString(id).equals(uuid) ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return number of blocks, patches not counted
+     */
+    int blockCount() {
+        return blockCount;
+    }
+
+    boolean isEscaped() {
+        return escaped;
+    }
+
+    /**
+     * @return the position of the next line break or {@code end}
+     */
+    long indexOfNewline(long position, long end) {
+        while (position < end && byteAt(position) != '\n')
+            position++;
+        return position;
+    }
+
+    long lastIndexOf(char c, long start, long end) {
+        for (long i = end - 1; i >= start; i--) {
+            if (byteAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    long trimCarriageReturn(long start, long end) {
+        return end > start && byteAt(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    boolean startsWith(long start, long end, byte[] prefix) {
+        if (end - start < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (byteAt(start + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    String string(long start, long end) {
+        return new String(bytes(start, end), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+
+import java.io.IOException;
+
+/**
+ * Creates, writes and reads the objects of one serializable class.
+ * <p>
+ * Fields are addressed by their index in {@link dev.steinmoetzger.shortserialization.schema.ClassSchema#getFields()}.
+ * The formats implement {@link FieldSink} and {@link FieldSource}, so a codec does not depend on the wire format.
+ */
+public interface ClassCodec {
+
+    Object newInstance() throws DeserializeException;
+
+    /**
+     * Writes every serializable field of the object to the sink, in index order.
+     */
+    void write(Object object, FieldSink sink) throws IOException, SerializeException;
+
+    /**
+     * Sets every field the source has a value for.
+     */
+    void read(Object object, FieldSource source) throws DeserializeException;
+}
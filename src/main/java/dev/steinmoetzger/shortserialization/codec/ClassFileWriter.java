@@ -0,0 +1,333 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file emitter for the codecs of {@link HiddenClassCodecs}. It supports a single interface, methods
+ * without exception tables and stack map frames that only add locals or keep the previous locals.
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // class file version of Java 8, the first one that requires stack map frames
+    private static final int MAJOR_VERSION = 52;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+
+    private final List<byte[]> methods = new ArrayList<>();
+
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaceClass;
+
+    /**
+     * @param name internal name of the class, like {@code a/b/C}
+     */
+    ClassFileWriter(String name, String superName, String interfaceName) {
+        this.thisClass = classConstant(name);
+        this.superClass = classConstant(superName);
+        this.interfaceClass = classConstant(interfaceName);
+    }
+
+    int classConstant(String internalName) {
+        return constant("C" + internalName, out -> {
+            int nameIndex = utf8(internalName);
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    int fieldConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) {
+        return constant(tag + owner + "." + name + descriptor, out -> {
+            int classIndex = classConstant(owner);
+            int nameAndType = constant("N" + name + descriptor, nameAndTypeOut -> {
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                nameAndTypeOut.writeByte(CONSTANT_NAME_AND_TYPE);
+                nameAndTypeOut.writeShort(nameIndex);
+                nameAndTypeOut.writeShort(descriptorIndex);
+            });
+            out.writeByte(tag);
+            out.writeShort(classIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        });
+    }
+
+    /**
+     * Adds a constant once. The writer resolves the constants it refers to before writing its own bytes, so those
+     * are always in front of it in the pool.
+     */
+    private int constant(String key, ConstantWriter writer) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writer.write(new DataOutputStream(bytes));
+            bytes.writeTo(constantPool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        index = constantCount++;
+        constants.put(key, index);
+        return index;
+    }
+
+    Code method(String name, String descriptor, int maxStack, int maxLocals) {
+        return new Code(name, descriptor, maxStack, maxLocals);
+    }
+
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(constantCount);
+            constantPoolBytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0); // fields
+
+            out.writeShort(methods.size());
+            for (byte[] method : methods)
+                out.write(method);
+
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface ConstantWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Bytecode of one method.
+     */
+    final class Code {
+
+        static final int ALOAD_0 = 0x2A;
+        static final int ALOAD_1 = 0x2B;
+        static final int ALOAD_2 = 0x2C;
+        static final int ALOAD_3 = 0x2D;
+        static final int ASTORE_3 = 0x4E;
+        static final int DUP = 0x59;
+        static final int IFEQ = 0x99;
+        static final int ARETURN = 0xB0;
+        static final int RETURN = 0xB1;
+        static final int GETFIELD = 0xB4;
+        static final int PUTFIELD = 0xB5;
+        static final int INVOKEVIRTUAL = 0xB6;
+        static final int INVOKESPECIAL = 0xB7;
+        static final int INVOKEINTERFACE = 0xB9;
+        static final int NEW = 0xBB;
+        static final int CHECKCAST = 0xC0;
+
+        private final String name;
+        private final String descriptor;
+        private final int maxStack;
+        private final int maxLocals;
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        private int frameCount;
+        private int lastFrameOffset = -1;
+
+        private Code(String name, String descriptor, int maxStack, int maxLocals) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        Code op(int opcode) {
+            code.write(opcode);
+            return this;
+        }
+
+        Code op(int opcode, int index) {
+            code.write(opcode);
+            writeShort(code, index);
+            return this;
+        }
+
+        Code invokeInterface(int index, int argumentSlots) {
+            op(INVOKEINTERFACE, index);
+            code.write(argumentSlots + 1);
+            code.write(0);
+            return this;
+        }
+
+        Code pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(0x03 + value); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(0x10); // bipush
+                code.write(value);
+            } else {
+                if (value < Short.MIN_VALUE || value > Short.MAX_VALUE)
+                    throw new IllegalArgumentException("Constant out of range: " + value);
+                code.write(0x11); // sipush
+                writeShort(code, value);
+            }
+            return this;
+        }
+
+        int offset() {
+            return code.size();
+        }
+
+        /**
+         * Writes a branch with a placeholder target, see {@link #bindBranch(int)}.
+         *
+         * @return offset of the branch instruction
+         */
+        int branch(int opcode) {
+            int offset = code.size();
+            code.write(opcode);
+            writeShort(code, 0);
+            return offset;
+        }
+
+        /**
+         * Points the branch at the current offset.
+         */
+        void bindBranch(int branchOffset) {
+            byte[] bytes = code.toByteArray();
+            int delta = bytes.length - branchOffset;
+            bytes[branchOffset + 1] = (byte) (delta >>> 8);
+            bytes[branchOffset + 2] = (byte) delta;
+            code.reset();
+            code.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Records a frame at the current offset that adds one object local to the locals of the method descriptor.
+         */
+        void appendFrame(String localClass) {
+            int delta = frameDelta();
+            frames.write(252); // append_frame with one local
+            writeShort(frames, delta);
+            frames.write(7); // Object_variable_info
+            writeShort(frames, classConstant(localClass));
+            frameCount++;
+        }
+
+        /**
+         * Records a frame at the current offset with the locals of the previous frame and an empty stack.
+         */
+        void sameFrame() {
+            int delta = frameDelta();
+            frames.write(251); // same_frame_extended
+            writeShort(frames, delta);
+            frameCount++;
+        }
+
+        private int frameDelta() {
+            int offset = code.size();
+            int delta = lastFrameOffset < 0 ? offset : offset - lastFrameOffset - 1;
+            if (delta < 0)
+                throw new IllegalStateException("Two frames at offset " + offset);
+            lastFrameOffset = offset;
+            return delta;
+        }
+
+        void finish(int access) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int codeName = utf8("Code");
+            int stackMapName = utf8("StackMapTable");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeShort(bytes, access);
+            writeShort(bytes, nameIndex);
+            writeShort(bytes, descriptorIndex);
+            writeShort(bytes, 1); // attributes
+
+            int stackMapLength = frameCount == 0 ? 0 : 2 + frames.size();
+            int codeAttributeLength = 2 + 2 + 4 + code.size() + 2 + 2 + (frameCount == 0 ? 0 : 6 + stackMapLength);
+
+            writeShort(bytes, codeName);
+            writeInt(bytes, codeAttributeLength);
+            writeShort(bytes, maxStack);
+            writeShort(bytes, maxLocals);
+            writeInt(bytes, code.size());
+            bytes.write(code.toByteArray(), 0, code.size());
+            writeShort(bytes, 0); // exception table
+            writeShort(bytes, frameCount == 0 ? 0 : 1);
+            if (frameCount > 0) {
+                writeShort(bytes, stackMapName);
+                writeInt(bytes, stackMapLength);
+                writeShort(bytes, frameCount);
+                bytes.write(frames.toByteArray(), 0, frames.size());
+            }
+
+            methods.add(bytes.toByteArray());
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+}
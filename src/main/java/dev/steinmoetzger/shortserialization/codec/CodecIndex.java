@@ -0,0 +1,18 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.util.List;
+
+/**
+ * Index of the codecs generated for one compilation unit. Implementations are generated by the annotation processor
+ * and found with {@link java.util.ServiceLoader}.
+ */
+public interface CodecIndex {
+
+    List<GeneratedCodec> codecs();
+}
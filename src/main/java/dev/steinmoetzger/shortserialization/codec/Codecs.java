@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.schema.ClassRegistry;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Chooses the {@link ClassCodec} of a class. Codecs generated by the annotation processor are used when they are on
+ * the classpath and their fields still exist in the class, the {@link ClassSchema} of the class is then built from
+ * them. Other classes get a codec emitted at runtime by {@link HiddenClassCodecs}, and the classes it can not handle
+ * fall back to {@link ReflectiveClassCodec}.
+ */
+public class Codecs {
+
+    private Codecs() {
+    }
+
+    /**
+     * @return the generated codec of the class or null if there is none or its fields do not match the class
+     */
+    public static GeneratedCodec generated(Class<?> type) {
+        GeneratedCodec codec = Generated.CODECS.get(type);
+        return codec != null && matches(codec) ? codec : null;
+    }
+
+    /**
+     * @return the codec for a schema that was built without a generated codec
+     */
+    public static ClassCodec forSchema(ClassSchema schema) {
+        ClassCodec emitted = HiddenClassCodecs.define(schema);
+        if (emitted != null)
+            return emitted;
+
+        return new ReflectiveClassCodec(schema);
+    }
+
+    /**
+     * Registers every class that has a generated codec with the {@link ClassRegistry}, which makes them resolvable
+     * by name without scanning the classpath.
+     */
+    public static void registerGeneratedClasses() {
+        for (Class<?> type : Generated.CODECS.keySet())
+            ClassRegistry.register(type);
+    }
+
+    /**
+     * A codec that was generated for an older version of the class names fields that are gone or have another type.
+     * The fields are looked up by name, the class is not scanned.
+     */
+    private static boolean matches(GeneratedCodec codec) {
+        String[] fieldNames = codec.fieldNames();
+        Class<?>[] fieldTypes = codec.fieldTypes();
+        if (fieldTypes.length != fieldNames.length || codec.wireNames().length != fieldNames.length
+                || codec.tags().length != fieldNames.length)
+            return false;
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(codec.type(), MethodHandles.lookup());
+            for (int i = 0; i < fieldNames.length; i++)
+                lookup.findVarHandle(codec.type(), fieldNames[i], fieldTypes[i]);
+            return true;
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Holder that loads the generated codec indexes on first use.
+     */
+    private static final class Generated {
+
+        private static final Map<Class<?>, GeneratedCodec> CODECS = load();
+
+        private static Map<Class<?>, GeneratedCodec> load() {
+            Map<Class<?>, GeneratedCodec> codecs = new HashMap<>();
+            for (CodecIndex index : ServiceLoader.load(CodecIndex.class)) {
+                for (GeneratedCodec codec : index.codecs())
+                    codecs.put(codec.type(), codec);
+            }
+            return codecs;
+        }
+    }
+}
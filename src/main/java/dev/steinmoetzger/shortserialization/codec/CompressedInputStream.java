@@ -0,0 +1,163 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads a stream written by {@link CompressedOutputStream} and decompresses one block at a time. Reading stops at the
+ * end frame, data that follows it stays in the underlying stream.
+ */
+public final class CompressedInputStream extends InputStream {
+
+    private final InputStream in;
+    private final CompressionCodec codec;
+    private final CRC32C checksum = new CRC32C();
+    private final byte[] frameHeader = new byte[CompressionFormat.FRAME_HEADER_LENGTH];
+    private final int blockSize;
+
+    private byte[] block = new byte[0];
+    private byte[] compressed = new byte[0];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    /**
+     * Reads the stream header right away.
+     *
+     * @param codec the codec the stream was written with
+     * @throws IOException if the stream was written with another codec or is no compressed stream
+     */
+    public CompressedInputStream(InputStream in, CompressionCodec codec) throws IOException {
+        this.in = in;
+        this.codec = codec;
+
+        byte[] header = new byte[CompressionFormat.MAGIC.length + 2];
+        readFully(header, 0, header.length);
+        for (int i = 0; i < CompressionFormat.MAGIC.length; i++) {
+            if (header[i] != CompressionFormat.MAGIC[i])
+                throw new IOException("Not a compressed ShortSerializer stream");
+        }
+
+        int version = header[CompressionFormat.MAGIC.length];
+        if (version < 1 || version > CompressionFormat.VERSION)
+            throw new IOException("Unsupported compressed stream version " + version);
+
+        int id = header[CompressionFormat.MAGIC.length + 1] & 0xFF;
+        if (id != codec.id())
+            throw new IOException("Stream is compressed with codec " + id + ", not with codec " + codec.id());
+
+        if (version == 1) {
+            blockSize = CompressionFormat.MAX_BLOCK_SIZE;
+        } else {
+            readFully(frameHeader, 1, 4);
+            blockSize = readInt(1);
+            if (blockSize <= 0 || blockSize > CompressionFormat.MAX_BLOCK_SIZE)
+                throw new IOException("Invalid block size " + blockSize);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !nextBlock())
+            return -1;
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (position == limit && !nextBlock())
+            return -1;
+
+        int count = Math.min(length, limit - position);
+        System.arraycopy(block, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * @return false at the end frame
+     */
+    private boolean nextBlock() throws IOException {
+        if (eof)
+            return false;
+
+        readFully(frameHeader, 0, 1);
+        int type = frameHeader[0];
+        if (type == CompressionFormat.FRAME_END) {
+            eof = true;
+            return false;
+        }
+        if (type != CompressionFormat.FRAME_COMPRESSED && type != CompressionFormat.FRAME_STORED)
+            throw new IOException("Unknown frame type " + type);
+
+        readFully(frameHeader, 1, CompressionFormat.FRAME_HEADER_LENGTH - (type == CompressionFormat.FRAME_STORED ? 5 : 1));
+        int length = readInt(1);
+        int expectedChecksum = readInt(5);
+        // checked before allocating, so a corrupt header cannot force a huge allocation
+        if (length <= 0 || length > blockSize)
+            throw new IOException("Invalid block length " + length);
+
+        if (block.length < length)
+            block = new byte[length];
+
+        if (type == CompressionFormat.FRAME_STORED) {
+            readFully(block, 0, length);
+        } else {
+            int compressedLength = readInt(9);
+            // blocks are only compressed if they shrink
+            if (compressedLength <= 0 || compressedLength >= length)
+                throw new IOException("Invalid compressed block length " + compressedLength);
+            if (compressed.length < compressedLength)
+                compressed = new byte[compressedLength];
+
+            readFully(compressed, 0, compressedLength);
+            codec.decompress(compressed, 0, compressedLength, block, 0, length);
+        }
+
+        checksum.reset();
+        checksum.update(block, 0, length);
+        if ((int) checksum.getValue() != expectedChecksum)
+            throw new IOException("Checksum mismatch in compressed block");
+
+        position = 0;
+        limit = length;
+        return true;
+    }
+
+    private int readInt(int offset) {
+        return ((frameHeader[offset] & 0xFF) << 24)
+                | ((frameHeader[offset + 1] & 0xFF) << 16)
+                | ((frameHeader[offset + 2] & 0xFF) << 8)
+                | (frameHeader[offset + 3] & 0xFF);
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(bytes, offset, length);
+            if (read < 0)
+                throw new EOFException();
+            offset += read;
+            length -= read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Compresses everything written to it in blocks with a {@link CompressionCodec}, see {@link CompressionFormat} for
+ * the layout. Blocks that do not shrink are stored as they are. {@link #finish()} ends the stream without closing the
+ * underlying one, so more data can follow it.
+ */
+public final class CompressedOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final CompressionCodec codec;
+    private final int blockSize;
+    private final CRC32C checksum = new CRC32C();
+    private final byte[] frameHeader = new byte[CompressionFormat.FRAME_HEADER_LENGTH];
+
+    // grows up to the block size, small documents do not allocate whole blocks
+    private byte[] block;
+    private byte[] compressed;
+    private int position;
+    private boolean finished;
+
+    public CompressedOutputStream(OutputStream out, CompressionCodec codec) throws IOException {
+        this(out, codec, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes the stream header right away.
+     *
+     * @param blockSize the number of uncompressed bytes that are compressed together, at most 16 MiB
+     */
+    public CompressedOutputStream(OutputStream out, CompressionCodec codec, int blockSize) throws IOException {
+        if (blockSize <= 0 || blockSize > CompressionFormat.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        if (codec.id() < 0 || codec.id() > 0xFF)
+            throw new IllegalArgumentException("Codec id " + codec.id() + " does not fit into one byte");
+
+        this.out = out;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.block = new byte[Math.min(blockSize, INITIAL_BUFFER_SIZE)];
+
+        out.write(CompressionFormat.MAGIC);
+        out.write(CompressionFormat.VERSION);
+        out.write(codec.id());
+        writeInt(1, blockSize);
+        out.write(frameHeader, 1, 4);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == block.length)
+            makeRoom();
+        block[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (position == block.length)
+                makeRoom();
+
+            int count = Math.min(length, block.length - position);
+            System.arraycopy(bytes, offset, block, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Grows the buffer or writes it as block once it has the block size.
+     */
+    private void makeRoom() throws IOException {
+        if (block.length < blockSize) {
+            byte[] grown = new byte[Math.min(blockSize, block.length * 2)];
+            System.arraycopy(block, 0, grown, 0, position);
+            block = grown;
+        } else {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (finished)
+            throw new IOException("Stream is finished");
+        if (position == 0)
+            return;
+
+        checksum.reset();
+        checksum.update(block, 0, position);
+
+        if (compressed == null || compressed.length < position)
+            compressed = new byte[block.length];
+        // only kept if it saves at least one byte
+        int length = codec.compress(block, 0, position, compressed, 0, position - 1);
+
+        frameHeader[0] = (byte) (length < 0 ? CompressionFormat.FRAME_STORED : CompressionFormat.FRAME_COMPRESSED);
+        writeInt(1, position);
+        writeInt(5, (int) checksum.getValue());
+        if (length < 0) {
+            out.write(frameHeader, 0, CompressionFormat.FRAME_HEADER_LENGTH - 4);
+            out.write(block, 0, position);
+        } else {
+            writeInt(9, length);
+            out.write(frameHeader, 0, CompressionFormat.FRAME_HEADER_LENGTH);
+            out.write(compressed, 0, length);
+        }
+        position = 0;
+    }
+
+    private void writeInt(int offset, int value) {
+        frameHeader[offset] = (byte) (value >>> 24);
+        frameHeader[offset + 1] = (byte) (value >>> 16);
+        frameHeader[offset + 2] = (byte) (value >>> 8);
+        frameHeader[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Writes the buffered bytes as block, even if it is not full, and flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes the last block and the end of the stream. The underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+
+        writeBlock();
+        out.write(CompressionFormat.FRAME_END);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
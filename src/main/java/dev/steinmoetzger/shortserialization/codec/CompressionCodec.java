@@ -0,0 +1,37 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.IOException;
+
+/**
+ * Compresses the blocks of a {@link CompressedOutputStream}. Every block is compressed on its own, so a codec keeps no
+ * state between blocks. Implementations have to be thread safe.
+ * <p>
+ * Ids 0 to 15 are reserved for codecs of this library, {@link DeflateCodec} uses {@link DeflateCodec#ID}.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return the id written into the stream header, it has to be the same for the writer and the reader
+     */
+    int id();
+
+    /**
+     * @return the number of bytes written into the target, or -1 if the compressed block does not fit into
+     * {@code targetLength} bytes and is stored uncompressed instead
+     */
+    int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength);
+
+    /**
+     * Restores a block that was compressed with {@link #compress(byte[], int, int, byte[], int, int)}.
+     *
+     * @param targetLength the length of the uncompressed block
+     * @throws IOException if the compressed block is corrupt
+     */
+    void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength) throws IOException;
+}
@@ -0,0 +1,38 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+/**
+ * Constants of the framed stream written by {@link CompressedOutputStream}.
+ * <p>
+ * The stream starts with {@link #MAGIC}, {@link #VERSION}, the {@link CompressionCodec#id() id} of the codec and the
+ * block size (4 bytes), which bounds the length of every block. Version 1 streams have no block size, their blocks
+ * are bounded by {@link #MAX_BLOCK_SIZE}. The blocks follow as frames: frame type (1 byte), uncompressed length (4 bytes) and CRC32C of the uncompressed
+ * bytes (4 bytes). A {@link #FRAME_COMPRESSED} frame continues with the compressed length (4 bytes) and the
+ * compressed bytes, a {@link #FRAME_STORED} frame with the uncompressed bytes. A {@link #FRAME_END} frame, which is
+ * only the type, ends the stream. All numbers are big endian.
+ */
+final class CompressionFormat {
+
+    static final byte[] MAGIC = {'S', 'S', 'Z'};
+    static final byte VERSION = 2;
+
+    /**
+     * Largest block size a stream may have, readers reject frames above it before allocating their buffers.
+     */
+    static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    static final int FRAME_END = 0;
+    static final int FRAME_COMPRESSED = 1;
+    static final int FRAME_STORED = 2;
+
+    // type, uncompressed length, checksum and compressed length
+    static final int FRAME_HEADER_LENGTH = 1 + 4 + 4 + 4;
+
+    private CompressionFormat() {
+    }
+}
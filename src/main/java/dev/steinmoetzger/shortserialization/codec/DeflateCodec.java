@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses blocks with the raw deflate of {@link Deflater}. The native zlib state is reused: a block borrows a
+ * {@link Deflater} or {@link Inflater} from a small pool and returns it afterwards. Instances that do not fit back into
+ * the pool are {@link Deflater#end() ended} right away, so threads that come and go, like virtual threads, do not
+ * keep native memory alive until the garbage collector cleans it up.
+ */
+public final class DeflateCodec implements CompressionCodec {
+
+    public static final int ID = 1;
+
+    // initialized before the instances below, which need the pool size
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * The compression level gzip uses by default.
+     */
+    public static final DeflateCodec DEFAULT = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Fastest level, the text format still shrinks to a fraction because of its repeated prefixes.
+     */
+    public static final DeflateCodec FAST = new DeflateCodec(Deflater.BEST_SPEED);
+
+    private final int level;
+    private final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * @param level compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCodec(int level) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level " + level);
+
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(level, true);
+
+        try {
+            deflater.setInput(source, sourceOffset, length);
+            deflater.finish();
+
+            int written = 0;
+            while (!deflater.finished() && written < targetLength)
+                written += deflater.deflate(target, targetOffset + written, targetLength - written);
+            return deflater.finished() ? written : -1;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater))
+                deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength) throws IOException {
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null)
+            inflater = new Inflater(true);
+
+        int written = 0;
+        try {
+            inflater.setInput(source, sourceOffset, length);
+            while (written < targetLength) {
+                int inflated = inflater.inflate(target, targetOffset + written, targetLength - written);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                written += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block", e);
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater))
+                inflater.end();
+        }
+
+        if (written != targetLength)
+            throw new IOException("Corrupt compressed block, expected " + targetLength + " bytes but got " + written);
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateCodec{level=" + level + '}';
+    }
+}
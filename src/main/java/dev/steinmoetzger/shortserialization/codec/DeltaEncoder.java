@@ -0,0 +1,460 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes an object graph as text document once and afterwards only what changed since the previous write, as patches
+ * that are appended to the document.
+ * <p>
+ * Objects keep the id of their first write for the lifetime of the encoder. Every write walks the graph from the root
+ * and compares the field values of all reachable objects, as their {@link ClassCodec} writes them, with the values of
+ * the last written state. Values are compared exactly, not by hash, so no change is lost. Only objects with changed
+ * values, or that hold containers, are formatted. Containers may hold references and are not compared before
+ * formatting, their "::DAT" lines and the lines after them are compared as text, which is kept for them. New objects
+ * are written as complete blocks, objects with changed lines as patch blocks that reopen their block with just the
+ * changed lines.
+ * Readers apply patch blocks on top of the earlier block of the same id. Objects that are not reachable anymore keep
+ * their blocks until the encoder is {@link #reset()} and the document is written again.
+ * <p>
+ * The first write of an encoder produces the same document as {@link TextEncoder}.
+ */
+public final class DeltaEncoder {
+
+    private static final String DAT = "::DAT";
+    private static final String BEGIN_CLASS = "::BEGIN CLASS";
+    private static final String END_CLASS = "::END CLASS";
+
+    private final ReferenceTracker tracker = new ReferenceTracker();
+    private final TextEncoder formatter = new TextEncoder(null, tracker);
+    // versioned classes whose layout is part of the document
+    private final Set<ClassSchema> described = new HashSet<>();
+    private final StringBuilder block = new StringBuilder(256);
+    private final Comparison comparison = new Comparison();
+
+    // lines[id] holds the "::DAT" lines of the last written state of the object, null if it has no block yet
+    private Lines[] lines = new Lines[64];
+    // visited[id] == epoch if the object was reached by the current write
+    private int[] visited = new int[64];
+    private int[] queue = new int[64];
+    private int head;
+    private int tail;
+    private int epoch;
+    private boolean started;
+
+    /**
+     * Writes the blocks of new objects and the patches of changed objects. Every block is preceded by a line break,
+     * except for the first block of the document, which is preceded by the format line of {@link TextEncoder}.
+     *
+     * @param root the same root as in the previous writes since the last {@link #reset()}
+     * @return whether anything was written
+     * @throws IllegalArgumentException if the root is another object than in the previous writes
+     */
+    public boolean write(Object root, Writer writer) throws IOException, SerializeException {
+        if (tracker.size() == 0)
+            tracker.add(root);
+        else if (tracker.objectAt(0) != root)
+            throw new IllegalArgumentException("The root differs from the root of the document");
+
+        if (++epoch == 0) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+        head = 0;
+        tail = 0;
+        enqueue(0);
+
+        boolean written = false;
+        while (head < tail) {
+            int id = queue[head++];
+            Object object = tracker.objectAt(id);
+
+            ClassSchema schema = ClassSchema.of(object.getClass());
+            if (!schema.isSerializable())
+                throw new SerializeException("SerializableClass annotation is missing");
+
+            if (schema.getFields().isEmpty())
+                throw new SerializeException("This object does not have any serializable fields");
+
+            boolean isNew = lines[id] == null;
+            if (isNew)
+                lines[id] = new Lines();
+            if (!comparison.compare(object, schema, lines[id]) && !isNew)
+                continue;
+
+            block.setLength(0);
+            formatter.formatBlock(block, object, schema, id, isNew && schema.isVersioned() && described.add(schema), this::enqueue);
+            written |= isNew ? writeBlock(id, writer) : writePatch(id, writer);
+        }
+
+        writer.flush();
+        return written;
+    }
+
+    private void enqueue(int id) {
+        if (id >= visited.length) {
+            int length = Math.max(id + 1, visited.length * 2);
+            visited = Arrays.copyOf(visited, length);
+            lines = Arrays.copyOf(lines, length);
+        }
+        if (visited[id] == epoch)
+            return;
+
+        visited[id] = epoch;
+        if (tail == queue.length)
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        queue[tail++] = id;
+    }
+
+    private boolean writeBlock(int id, Writer writer) throws IOException {
+        Lines objectLines = lines[id];
+        if (objectLines.count != countLines())
+            objectLines.formatAll(countLines());
+        int line = 0;
+        for (int start = 0; start < block.length(); start = lineEnd(start) + 1) {
+            if (startsWith(start, DAT))
+                objectLines.formatted(line++, block, start, lineEnd(start));
+        }
+
+        if (started)
+            writer.write('\n');
+        else
+            writer.write(TextEncoder.FORMAT_LINE + '\n');
+        started = true;
+        writer.append(block);
+        return true;
+    }
+
+    /**
+     * Writes the changed lines, reopened by the "::BEGIN CLASS" line of the block.
+     */
+    private boolean writePatch(int id, Writer writer) throws IOException {
+        Lines objectLines = lines[id];
+        // the codec and the formatter write the same lines, all of them are written should that ever differ
+        if (objectLines.count != countLines())
+            objectLines.formatAll(countLines());
+
+        int begin = -1;
+        int line = 0;
+        boolean changed = false;
+        for (int start = 0; start < block.length(); start = lineEnd(start) + 1) {
+            int end = lineEnd(start);
+            if (startsWith(start, BEGIN_CLASS)) {
+                begin = start;
+                continue;
+            }
+
+            if (startsWith(start, END_CLASS)) {
+                if (changed)
+                    writer.append(block, start, end);
+                break;
+            }
+
+            if (!startsWith(start, DAT) || !objectLines.formatted(line++, block, start, end))
+                continue;
+
+            if (!changed) {
+                writer.write('\n');
+                writer.append(block, begin, lineEnd(begin) + 1);
+                changed = true;
+            }
+            writer.append(block, start, end + 1);
+        }
+        return changed;
+    }
+
+    private int countLines() {
+        int count = 0;
+        for (int start = 0; start < block.length(); start = lineEnd(start) + 1) {
+            if (startsWith(start, DAT))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the position of the line break that ends the line, or the end of the block
+     */
+    private int lineEnd(int start) {
+        for (int i = start; i < block.length(); i++) {
+            if (block.charAt(i) == '\n')
+                return i;
+        }
+        return block.length();
+    }
+
+    private boolean startsWith(int start, String prefix) {
+        if (block.length() - start < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (block.charAt(start + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The "::DAT" lines of the last written state of an object, in the order its codec writes them. A line is kept as
+     * its value, primitives and reference ids in {@link #bits} and other values in {@link #values}, or as its text if
+     * it can only be compared once it is formatted.
+     */
+    private static final class Lines {
+
+        private static final byte SAME = 0;
+        private static final byte CHANGED = 1;
+        // compared by text once the block is formatted
+        private static final byte FORMAT = 2;
+
+        // values of primitives and reference ids, which are kept in bits
+        private static final Object NUMBER = new Object();
+        // bits of lines kept as text, the bits of lines kept in values are 0
+        private static final long TEXT = 1;
+
+        long[] bits = new long[8];
+        Object[] values = new Object[8];
+        byte[] states = new byte[8];
+        // lines of the last write, -1 before the first
+        int count = -1;
+        // lines of the current comparison
+        int next;
+
+        void start() {
+            next = 0;
+        }
+
+        void compare(long value) {
+            compare(value, NUMBER);
+        }
+
+        void compare(Object value) {
+            compare(0, value);
+        }
+
+        private void compare(long value, Object object) {
+            grow(next + 1);
+            boolean same = next < count && bits[next] == value && Objects.equals(values[next], object);
+            if (!same) {
+                bits[next] = value;
+                values[next] = object;
+            }
+            states[next++] = same ? SAME : CHANGED;
+        }
+
+        void compareFormatted() {
+            grow(next + 1);
+            if (next >= count || bits[next] != TEXT) {
+                bits[next] = TEXT;
+                values[next] = null;
+            }
+            states[next++] = FORMAT;
+        }
+
+        /**
+         * @return whether any line changed or is only known once it is formatted
+         */
+        boolean finish() {
+            // lines moved if their number changed
+            boolean moved = next != count;
+            boolean changed = moved;
+            count = next;
+            for (int i = 0; i < count; i++) {
+                if (moved && states[i] == SAME)
+                    states[i] = CHANGED;
+                changed |= states[i] != SAME;
+            }
+            return changed;
+        }
+
+        /**
+         * Keeps every line as text and marks it as changed, for blocks whose lines do not match the compared ones.
+         */
+        void formatAll(int lines) {
+            grow(lines);
+            for (int i = 0; i < lines; i++) {
+                bits[i] = TEXT;
+                values[i] = null;
+                states[i] = FORMAT;
+            }
+            count = lines;
+        }
+
+        /**
+         * Keeps the text of a formatted line that is compared as text.
+         *
+         * @return whether the line differs from the last written one
+         */
+        boolean formatted(int line, CharSequence block, int start, int end) {
+            if (states[line] != FORMAT)
+                return states[line] == CHANGED;
+
+            Object previous = values[line];
+            CharSequence text = block.subSequence(start, end);
+            if (previous instanceof String && ((String) previous).contentEquals(text))
+                return false;
+            values[line] = text.toString();
+            return true;
+        }
+
+        private void grow(int length) {
+            if (length <= bits.length)
+                return;
+            length = Math.max(length, bits.length * 2);
+            bits = Arrays.copyOf(bits, length);
+            values = Arrays.copyOf(values, length);
+            states = Arrays.copyOf(states, length);
+        }
+    }
+
+    /**
+     * Compares the field values of an object with its last written state and enqueues the objects it references, in
+     * the order the {@link TextEncoder} would assign their ids. Containers are not compared, they may hold references.
+     * From the first container on, the lines of an object are compared as text and its later references are left to
+     * the formatter.
+     */
+    private final class Comparison implements FieldSink {
+
+        private List<FieldSchema> fields;
+        private Lines lines;
+        private boolean opaque;
+
+        /**
+         * @return whether the object has to be formatted
+         */
+        boolean compare(Object object, ClassSchema schema, Lines lines) throws IOException, SerializeException {
+            this.fields = schema.getFields();
+            this.lines = lines;
+            this.opaque = false;
+            lines.start();
+            schema.getCodec().write(object, this);
+            return lines.finish();
+        }
+
+        private void value(long value) {
+            if (opaque)
+                lines.compareFormatted();
+            else
+                lines.compare(value);
+        }
+
+        private void value(Object value) {
+            if (opaque)
+                lines.compareFormatted();
+            else
+                lines.compare(value);
+        }
+
+        @Override
+        public void writeString(int index, String value) {
+            value((Object) value);
+        }
+
+        @Override
+        public void writeInt(int index, int value) {
+            value(value);
+        }
+
+        @Override
+        public void writeDouble(int index, double value) {
+            value(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public void writeFloat(int index, float value) {
+            value(Float.floatToRawIntBits(value));
+        }
+
+        @Override
+        public void writeByte(int index, byte value) {
+            value(value);
+        }
+
+        @Override
+        public void writeChar(int index, char value) {
+            value(value);
+        }
+
+        @Override
+        public void writeShort(int index, short value) {
+            value(value);
+        }
+
+        @Override
+        public void writeLong(int index, long value) {
+            value(value);
+        }
+
+        @Override
+        public void writeBoolean(int index, boolean value) {
+            value(value ? 1 : 0);
+        }
+
+        @Override
+        public void writeObject(int index, Object value) throws SerializeException {
+            if (opaque) {
+                lines.compareFormatted();
+            } else if (value == null) {
+                value(null);
+            } else if (fields.get(index).isReference()) {
+                ClassSchema schema = ClassSchema.of(value.getClass());
+                if (!schema.isSerializable())
+                    throw new SerializeException("Any child class of serializable object must have SerializableClass annotation");
+
+                int id = tracker.idOf(value);
+                if (id < 0)
+                    id = tracker.add(value);
+                enqueue(id);
+                value(id);
+            } else if (value instanceof String || value instanceof Enum<?>) {
+                // immutable, kept as they are
+                value(value);
+            } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+                value(value.toString());
+            } else {
+                opaque = true;
+                lines.compareFormatted();
+            }
+        }
+    }
+
+    /**
+     * @return the number of objects that have a block in the document, reachable or not
+     */
+    public int size() {
+        return tracker.size();
+    }
+
+    /**
+     * @return the number of objects the last write reached from the root
+     */
+    public int getReachable() {
+        return tail;
+    }
+
+    /**
+     * Forgets the document, the next write starts a new one.
+     */
+    public void reset() {
+        Arrays.fill(lines, 0, Math.min(lines.length, tracker.size()), null);
+        tracker.reset();
+        described.clear();
+        block.setLength(0);
+        head = 0;
+        tail = 0;
+        started = false;
+    }
+}
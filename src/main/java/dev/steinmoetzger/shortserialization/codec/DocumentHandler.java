@@ -0,0 +1,82 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ReadPlan;
+
+import java.util.List;
+
+/**
+ * Receives the blocks of a document while {@link TextDecoder} or {@link BinaryDecoder} parse it. The variables of a
+ * block are reported between {@link #beginClass(String, String)} and {@link #endClass()}, blocks never nest.
+ * <p>
+ * If the document describes the layout of a class, it is reported with {@link #layout(ClassLayout)} before the
+ * first block of the class. The variables of its blocks then carry the index of their field in the layout, which
+ * is -1 for variables of classes without layout.
+ */
+interface DocumentHandler {
+
+    /**
+     * @return the plan the decoder skips the values of unneeded fields with, or null to receive all of them
+     */
+    ReadPlan layout(ClassLayout layout) throws DeserializeException;
+
+    void beginClass(String className, String uuid) throws DeserializeException;
+
+    /**
+     * A non-null value of a {@link SerializationUtil.DirectTypes#isPrimitive() primitive} type.
+     *
+     * @param field index of the field in the layout of the class, or -1
+     * @param bits  the value as long, floating point values as their raw bits, booleans as 0 or 1
+     */
+    void primitive(int field, String name, SerializationUtil.DirectTypes type, long bits) throws DeserializeException;
+
+    /**
+     * Any other value, or null. Containers hold their elements as decoded by the decoder.
+     *
+     * @param field index of the field in the layout of the class, or -1
+     */
+    void value(int field, String name, SerializationUtil.DirectTypes type, Object value) throws DeserializeException;
+
+    /**
+     * @param field     index of the field in the layout of the class, or -1
+     * @param className name of the referenced class, null if the format does not name it
+     * @param uuid      uuid of the referenced block, null for a null reference
+     */
+    void reference(int field, String name, String className, String uuid) throws DeserializeException;
+
+    /**
+     * A reference inside of a container. The returned element is added to the elements.
+     *
+     * @param elements list the element is added to
+     * @param className name of the referenced class, null if the format does not name it
+     * @return the element that stands for the referenced block, or null if it is patched into the list later
+     */
+    Object elementReference(List<Object> elements, String className, String uuid) throws DeserializeException;
+
+    void endClass() throws DeserializeException;
+
+    /**
+     * @return the boxed value of the bits of a primitive value
+     */
+    static Object box(SerializationUtil.DirectTypes type, long bits) {
+        return switch (type) {
+            case INTEGER -> (int) bits;
+            case DOUBLE -> Double.longBitsToDouble(bits);
+            case FLOAT -> Float.intBitsToFloat((int) bits);
+            case BYTE -> (byte) bits;
+            case CHAR -> (char) bits;
+            case SHORT -> (short) bits;
+            case LONG -> bits;
+            case BOOLEAN -> bits != 0;
+            default -> throw new IllegalArgumentException(type.name());
+        };
+    }
+}
@@ -0,0 +1,38 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+
+import java.io.IOException;
+
+/**
+ * Receives the field values of one object from a {@link ClassCodec}. Primitive fields use the typed methods, boxed
+ * values, enums, arrays, collections, maps and references to other serializable objects use {@link #writeObject(int, Object)}.
+ */
+public interface FieldSink {
+
+    void writeString(int index, String value) throws IOException, SerializeException;
+
+    void writeInt(int index, int value) throws IOException, SerializeException;
+
+    void writeDouble(int index, double value) throws IOException, SerializeException;
+
+    void writeFloat(int index, float value) throws IOException, SerializeException;
+
+    void writeByte(int index, byte value) throws IOException, SerializeException;
+
+    void writeChar(int index, char value) throws IOException, SerializeException;
+
+    void writeShort(int index, short value) throws IOException, SerializeException;
+
+    void writeLong(int index, long value) throws IOException, SerializeException;
+
+    void writeBoolean(int index, boolean value) throws IOException, SerializeException;
+
+    void writeObject(int index, Object value) throws IOException, SerializeException;
+}
@@ -0,0 +1,38 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+/**
+ * Provides the field values of one object to a {@link ClassCodec}. The read methods may only be called for fields
+ * that {@link #has(int)} a value.
+ */
+public interface FieldSource {
+
+    boolean has(int index);
+
+    String readString(int index) throws DeserializeException;
+
+    int readInt(int index) throws DeserializeException;
+
+    double readDouble(int index) throws DeserializeException;
+
+    float readFloat(int index) throws DeserializeException;
+
+    byte readByte(int index) throws DeserializeException;
+
+    char readChar(int index) throws DeserializeException;
+
+    short readShort(int index) throws DeserializeException;
+
+    long readLong(int index) throws DeserializeException;
+
+    boolean readBoolean(int index) throws DeserializeException;
+
+    Object readObject(int index) throws DeserializeException;
+}
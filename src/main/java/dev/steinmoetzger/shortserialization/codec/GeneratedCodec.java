@@ -0,0 +1,47 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+/**
+ * {@link ClassCodec} generated at build time by the annotation processor. It also describes the serializable fields
+ * of its class, so {@link dev.steinmoetzger.shortserialization.schema.ClassSchema} is built from it without scanning
+ * the class.
+ */
+public interface GeneratedCodec extends ClassCodec {
+
+    Class<?> type();
+
+    /**
+     * @return the java names of the serializable fields in index order, used to check that the codec matches the class
+     */
+    String[] fieldNames();
+
+    /**
+     * @return the declared types of the serializable fields in index order
+     */
+    Class<?>[] fieldTypes();
+
+    /**
+     * @return the wire names of the serializable fields in index order
+     */
+    String[] wireNames();
+
+    /**
+     * @return the tags of the serializable fields in index order, 0 for fields without tag
+     */
+    int[] tags();
+
+    /**
+     * @return the value of the field with the index, primitives are boxed
+     */
+    Object get(Object object, int index);
+
+    /**
+     * Sets the field with the index, primitive fields take their boxed value.
+     */
+    void set(Object object, int index, Object value);
+}
@@ -0,0 +1,242 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * Emits a {@link ClassCodec} for a class at runtime and defines it as hidden nestmate of that class, so the codec
+ * reads and writes even private fields with plain field instructions. The emitted methods are the same straight-line
+ * code the annotation processor generates.
+ * <p>
+ * Classes the JVM does not let us define a nestmate for, like classes of other modules or class loaders, and classes
+ * the emitter does not support keep using {@link ReflectiveClassCodec}.
+ */
+final class HiddenClassCodecs {
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String STRING = "java/lang/String";
+    private static final String CLASS_CODEC = internalName(ClassCodec.class);
+    private static final String FIELD_SINK = internalName(FieldSink.class);
+    private static final String FIELD_SOURCE = internalName(FieldSource.class);
+
+    // the emitter pushes field indexes with sipush
+    private static final int MAX_FIELDS = Short.MAX_VALUE;
+
+    private HiddenClassCodecs() {
+    }
+
+    /**
+     * @return the emitted codec or null if the class is not supported
+     */
+    static ClassCodec define(ClassSchema schema) {
+        Class<?> type = schema.getType();
+        if (!isSupported(type, schema.getFields()))
+            return null;
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            if (!lookup.hasFullPrivilegeAccess())
+                return null;
+
+            byte[] bytes = emit(type, schema.getFields());
+            MethodHandles.Lookup codecLookup = lookup.defineHiddenClass(bytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            return (ClassCodec) codecLookup.findConstructor(codecLookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | LinkageError | IllegalAccessException e) {
+            // e.g. a security manager, a verifier that rejects the class or a runtime without hidden classes
+            return null;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create codec for " + type.getName(), e);
+        }
+    }
+
+    private static boolean isSupported(Class<?> type, List<FieldSchema> fields) {
+        if (type.isInterface() || type.isArray() || type.isPrimitive() || type.isHidden() || Modifier.isAbstract(type.getModifiers()))
+            return false;
+        if (fields.isEmpty() || fields.size() > MAX_FIELDS)
+            return false;
+
+        try {
+            type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+
+        for (FieldSchema field : fields) {
+            int modifiers = field.getField().getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers))
+                return false;
+            if (field.isPrimitive() && field.getType() == null)
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] emit(Class<?> type, List<FieldSchema> fields) {
+        String owner = internalName(type);
+        ClassFileWriter classFile = new ClassFileWriter(owner + "$ShortCodec", OBJECT, CLASS_CODEC);
+
+        ClassFileWriter.Code constructor = classFile.method("<init>", "()V", 1, 1);
+        constructor.op(ClassFileWriter.Code.ALOAD_0)
+                .op(ClassFileWriter.Code.INVOKESPECIAL, classFile.methodConstant(OBJECT, "<init>", "()V"))
+                .op(ClassFileWriter.Code.RETURN);
+        constructor.finish(ClassFileWriter.ACC_PUBLIC);
+
+        ClassFileWriter.Code newInstance = classFile.method("newInstance", "()Ljava/lang/Object;", 2, 1);
+        newInstance.op(ClassFileWriter.Code.NEW, classFile.classConstant(owner))
+                .op(ClassFileWriter.Code.DUP)
+                .op(ClassFileWriter.Code.INVOKESPECIAL, classFile.methodConstant(owner, "<init>", "()V"))
+                .op(ClassFileWriter.Code.ARETURN);
+        newInstance.finish(ClassFileWriter.ACC_PUBLIC);
+
+        emitWrite(classFile, owner, fields);
+        emitRead(classFile, owner, fields);
+
+        return classFile.toByteArray();
+    }
+
+    /**
+     * <pre>
+     * T value = (T) object;
+     * sink.writeX(i, value.field);
+     * ...
+     * </pre>
+     */
+    private static void emitWrite(ClassFileWriter classFile, String owner, List<FieldSchema> fields) {
+        ClassFileWriter.Code code = classFile.method("write", "(Ljava/lang/Object;L" + FIELD_SINK + ";)V", 5, 4);
+        code.op(ClassFileWriter.Code.ALOAD_1)
+                .op(ClassFileWriter.Code.CHECKCAST, classFile.classConstant(owner))
+                .op(ClassFileWriter.Code.ASTORE_3);
+
+        for (FieldSchema field : fields) {
+            Field javaField = field.getField();
+            String kind = kind(field);
+            String valueDescriptor = wireDescriptor(kind);
+
+            code.op(ClassFileWriter.Code.ALOAD_2)
+                    .pushInt(field.getIndex())
+                    .op(ClassFileWriter.Code.ALOAD_3)
+                    .op(ClassFileWriter.Code.GETFIELD, classFile.fieldConstant(owner, javaField.getName(), descriptor(javaField.getType())))
+                    .invokeInterface(classFile.interfaceMethodConstant(FIELD_SINK, "write" + kind, "(I" + valueDescriptor + ")V"),
+                            1 + slots(valueDescriptor));
+        }
+
+        code.op(ClassFileWriter.Code.RETURN);
+        code.finish(ClassFileWriter.ACC_PUBLIC);
+    }
+
+    /**
+     * <pre>
+     * T value = (T) object;
+     * if (source.has(i))
+     *     value.field = source.readX(i);
+     * ...
+     * </pre>
+     */
+    private static void emitRead(ClassFileWriter classFile, String owner, List<FieldSchema> fields) {
+        ClassFileWriter.Code code = classFile.method("read", "(Ljava/lang/Object;L" + FIELD_SOURCE + ";)V", 5, 4);
+        code.op(ClassFileWriter.Code.ALOAD_1)
+                .op(ClassFileWriter.Code.CHECKCAST, classFile.classConstant(owner))
+                .op(ClassFileWriter.Code.ASTORE_3);
+
+        boolean firstFrame = true;
+        for (FieldSchema field : fields) {
+            Field javaField = field.getField();
+            String kind = kind(field);
+            String valueDescriptor = wireDescriptor(kind);
+
+            // every iteration starts at a branch target, the first one also introduces the local "value"
+            if (firstFrame)
+                code.appendFrame(owner);
+            else
+                code.sameFrame();
+            firstFrame = false;
+
+            code.op(ClassFileWriter.Code.ALOAD_2)
+                    .pushInt(field.getIndex())
+                    .invokeInterface(classFile.interfaceMethodConstant(FIELD_SOURCE, "has", "(I)Z"), 1);
+            int skip = code.branch(ClassFileWriter.Code.IFEQ);
+
+            code.op(ClassFileWriter.Code.ALOAD_3)
+                    .op(ClassFileWriter.Code.ALOAD_2)
+                    .pushInt(field.getIndex())
+                    .invokeInterface(classFile.interfaceMethodConstant(FIELD_SOURCE, "read" + kind, "(I)" + valueDescriptor), 1);
+            if (kind.equals("Object") && javaField.getType() != Object.class)
+                code.op(ClassFileWriter.Code.CHECKCAST, classFile.classConstant(classConstantName(javaField.getType())));
+            code.op(ClassFileWriter.Code.PUTFIELD, classFile.fieldConstant(owner, javaField.getName(), descriptor(javaField.getType())));
+
+            code.bindBranch(skip);
+        }
+
+        code.sameFrame();
+        code.op(ClassFileWriter.Code.RETURN);
+        code.finish(ClassFileWriter.ACC_PUBLIC);
+    }
+
+    /**
+     * @return the suffix of the {@link FieldSink}/{@link FieldSource} methods used for the field
+     */
+    private static String kind(FieldSchema field) {
+        if (!field.isPrimitive())
+            return field.getType() == SerializationUtil.DirectTypes.STRING ? "String" : "Object";
+
+        return switch (field.getType()) {
+            case INTEGER -> "Int";
+            case DOUBLE -> "Double";
+            case FLOAT -> "Float";
+            case BYTE -> "Byte";
+            case CHAR -> "Char";
+            case SHORT -> "Short";
+            case LONG -> "Long";
+            case BOOLEAN -> "Boolean";
+            default -> throw new IllegalArgumentException("Unsupported primitive field " + field);
+        };
+    }
+
+    private static String wireDescriptor(String kind) {
+        return switch (kind) {
+            case "String" -> "L" + STRING + ";";
+            case "Object" -> "L" + OBJECT + ";";
+            case "Int" -> "I";
+            case "Double" -> "D";
+            case "Float" -> "F";
+            case "Byte" -> "B";
+            case "Char" -> "C";
+            case "Short" -> "S";
+            case "Long" -> "J";
+            case "Boolean" -> "Z";
+            default -> throw new IllegalArgumentException(kind);
+        };
+    }
+
+    private static int slots(String descriptor) {
+        return descriptor.equals("D") || descriptor.equals("J") ? 2 : 1;
+    }
+
+    private static String descriptor(Class<?> type) {
+        return MethodType.methodType(type).toMethodDescriptorString().substring(2);
+    }
+
+    /**
+     * @return the name a CONSTANT_Class uses for the type, arrays are named by their descriptor
+     */
+    private static String classConstantName(Class<?> type) {
+        return type.isArray() ? descriptor(type) : internalName(type);
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+}
@@ -0,0 +1,125 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+
+/**
+ * Bounded table that hands out the same instance for equal strings and boxed values while documents are read, so
+ * values that repeat across the objects of a graph, or across documents, are kept in memory once.
+ * <p>
+ * Every value maps to a bucket of two slots by its hash. A value that is not found is put into the first slot and
+ * moves the value it held to the second one, evicting the older value of the bucket. The table never grows beyond its
+ * capacity and needs no bookkeeping for eviction, values that repeat often are found again before they are replaced,
+ * even if two of them share a bucket. Strings longer than {@link #MAX_LENGTH} chars rarely repeat and are not
+ * interned.
+ * <p>
+ * A table is not thread safe, every decoder uses its own.
+ */
+public final class InternTable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int MAX_LENGTH = 64;
+
+    private final String[] strings;
+    private final Object[] boxes;
+    private final long[] boxBits;
+    private final int mask;
+
+    public InternTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of values of each kind, rounded up to a power of two
+     */
+    public InternTable(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        int slots = Math.max(2, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        this.strings = new String[slots];
+        this.boxes = new Object[slots];
+        this.boxBits = new long[slots];
+        this.mask = slots / 2 - 1;
+    }
+
+    /**
+     * @return the interned string with the chars of the region, only allocated if it is not in the table
+     */
+    public String intern(char[] chars, int start, int end) {
+        int length = end - start;
+        if (length > MAX_LENGTH)
+            return new String(chars, start, length);
+
+        // the same hash String computes, so both intern methods share the slots
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + chars[i];
+
+        int slot = bucket(hash);
+        for (int i = slot; i < slot + 2; i++) {
+            String interned = strings[i];
+            if (interned != null && interned.length() == length && regionEquals(interned, chars, start))
+                return interned;
+        }
+        return putString(slot, new String(chars, start, length));
+    }
+
+    public String intern(String value) {
+        if (value == null || value.length() > MAX_LENGTH)
+            return value;
+
+        int slot = bucket(value.hashCode());
+        if (value.equals(strings[slot]))
+            return strings[slot];
+        if (value.equals(strings[slot + 1]))
+            return strings[slot + 1];
+        return putString(slot, value);
+    }
+
+    private String putString(int slot, String value) {
+        strings[slot + 1] = strings[slot];
+        return strings[slot] = value;
+    }
+
+    private static boolean regionEquals(String value, char[] chars, int start) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != chars[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the interned box of a primitive value, bits as in {@link DocumentHandler#primitive}
+     */
+    public Object box(SerializationUtil.DirectTypes type, long bits) {
+        int slot = bucket(Long.hashCode(bits) * 31 + type.ordinal());
+        for (int i = slot; i < slot + 2; i++) {
+            Object box = boxes[i];
+            if (box != null && boxBits[i] == bits && box.getClass() == type.clazz)
+                return box;
+        }
+
+        Object box = DocumentHandler.box(type, bits);
+        boxes[slot + 1] = boxes[slot];
+        boxBits[slot + 1] = boxBits[slot];
+        boxes[slot] = box;
+        boxBits[slot] = bits;
+        return box;
+    }
+
+    /**
+     * @return the first slot of the bucket of the hash
+     */
+    private int bucket(int hash) {
+        // hashes of similar strings differ in the low bits, the multiplication spreads them over all bits
+        int mixed = hash * 0x9E3779B9;
+        return ((mixed ^ (mixed >>> 16)) & mask) << 1;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.exception.UncheckedDeserializeException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link DeserializationData} of a text document that is memory mapped and decoded on demand.
+ * <p>
+ * Opening the document only indexes the start offset of every block. A block becomes a {@link DeserializationData.DeserializationClass}
+ * when it is first looked up or referenced, and its variables are decoded when they are first accessed. So the memory
+ * used tracks the blocks that were accessed instead of the size of the file. {@link #getClasses()} only contains
+ * the blocks that were accessed so far.
+ * <p>
+ * The blocks are found by a {@link BlockScanner}, the offsets of the blocks are kept in a {@code long[]} by block
+ * number. The {@code ::SCHEMA} lines of versioned classes are decoded while indexing, every block knows the layout of
+ * its class from the start. Blocks whose id appears again later in the file are patched, see {@link DeltaEncoder};
+ * their patches are decoded together with them. Patches in a {@link PatchFrame} are checked while indexing, a damaged
+ * frame ends the document.
+ * <p>
+ * Blocks are decoded from the accessors of their variables, so a block that turns out to be damaged throws an
+ * {@link UncheckedDeserializeException} there. {@link #toObject(String, String)} throws its cause instead. After
+ * {@link #close()}, blocks that were not decoded yet throw an {@link IllegalStateException}.
+ */
+public class MappedTextDocument extends DeserializationData implements Closeable {
+
+    // chunks are mapped separately because a single mapping is limited to 2 GB
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private static final int BEGIN_CLASS_LENGTH = "::BEGIN CLASS".length();
+    private static final byte[] END_CLASS = "::END CLASS".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    // end of the document, a damaged patch at the end of the file is not part of it
+    private long size;
+    private MappedByteBuffer[] chunks;
+
+    private final Scanner scanner = new Scanner();
+    // offsets[i] is the start of block i, see BlockScanner for the numbers of the blocks
+    private long[] offsets;
+    // offsets of the patches of every patched block by block number, null if there are none
+    private Map<Integer, List<Long>> patches;
+    private boolean closed;
+
+    private MappedTextDocument(FileChannel channel) throws IOException, DeserializeException {
+        this.channel = channel;
+        this.size = channel.size();
+
+        int chunkCount = (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long position = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, 1L << CHUNK_SHIFT));
+        }
+
+        this.offsets = new long[1024];
+        index();
+    }
+
+    public static MappedTextDocument open(Path path) throws IOException, DeserializeException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedTextDocument(channel);
+        } catch (IOException | DeserializeException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of blocks in the document
+     */
+    public int size() {
+        return scanner.blockCount();
+    }
+
+    /**
+     * Creates the object of a block and of every block it references. Blocks that are not reachable from it are not decoded.
+     */
+    public Object toObject(String uuid, String classpath) throws DeserializeException, NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, NoSuchFieldException {
+        DeserializationClass deserializationClass = findClass(uuid);
+        if (deserializationClass == null)
+            throw new DeserializeException("No class with id " + uuid + " found");
+
+        try {
+            return SerializationUtil.deserializeClass(deserializationClass, classpath, new IdentityHashMap<>());
+        } catch (UncheckedDeserializeException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Object toObject(String classpath) throws DeserializeException, NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, NoSuchFieldException {
+        return toObject(BlockScanner.ROOT, classpath);
+    }
+
+    @Override
+    protected DeserializationClass findClass(String uuid) throws DeserializeException {
+        DeserializationClass deserializationClass = getClasses().get(uuid);
+        if (deserializationClass != null)
+            return deserializationClass;
+
+        synchronized (this) {
+            deserializationClass = getClasses().get(uuid);
+            if (deserializationClass != null)
+                return deserializationClass;
+
+            checkOpen();
+            long offset = offsetOf(uuid);
+            if (offset < 0)
+                return null;
+
+            deserializationClass = new LazyClass(uuid, className(offset), offset);
+            deserializationClass.setLayout(getLayouts().get(deserializationClass.getFieldName()));
+            getClasses().put(uuid, deserializationClass);
+            return deserializationClass;
+        }
+    }
+
+    private long offsetOf(String uuid) {
+        int block = scanner.blockOf(uuid);
+        return block < 0 ? -1 : offsets[block];
+    }
+
+    /**
+     * Records the start of every block and decodes the "::FORMAT" and "::SCHEMA" lines.
+     */
+    private void index() throws IOException, DeserializeException {
+        size = scanner.scan(0, size);
+
+        if (scanner.schemas != null) {
+            TextDecoder decoder = new TextDecoder(new StringReader(scanner.schemas.toString()));
+            decoder.setEscaped(scanner.isEscaped());
+            getLayouts().putAll(decoder.read().getLayouts());
+        }
+    }
+
+    /**
+     * Reads the class name from the "::BEGIN CLASS: Name#id" line.
+     */
+    private String className(long offset) {
+        long lineEnd = scanner.indexOfNewline(offset, size);
+        long start = offset + BEGIN_CLASS_LENGTH;
+        while (start < lineEnd && (scanner.byteAt(start) == ':' || scanner.byteAt(start) == ' '))
+            start++;
+        return scanner.string(start, scanner.lastIndexOf('#', start, lineEnd));
+    }
+
+    private synchronized void load(LazyClass lazyClass) {
+        if (lazyClass.loaded)
+            return;
+        checkOpen();
+
+        try {
+            decode(lazyClass, lazyClass.offset);
+            List<Long> blockPatches = patches == null ? null : patches.get(scanner.blockOf(lazyClass.getUuid()));
+            if (blockPatches != null) {
+                for (long offset : blockPatches)
+                    decode(lazyClass, offset);
+            }
+        } catch (DeserializeException e) {
+            throw new UncheckedDeserializeException("Could not decode class " + lazyClass.getUuid(), e);
+        } catch (IOException e) {
+            throw new UncheckedDeserializeException("Could not decode class " + lazyClass.getUuid(), new DeserializeException(e));
+        }
+        lazyClass.loaded = true;
+    }
+
+    /**
+     * Decodes the block that starts at the offset into the variables of the class.
+     */
+    private void decode(LazyClass lazyClass, long offset) throws IOException, DeserializeException {
+        long end = offset;
+        do {
+            end = scanner.indexOfNewline(end, size) + 1;
+        } while (end < size && !scanner.startsWith(end, scanner.indexOfNewline(end, size), END_CLASS));
+        end = scanner.indexOfNewline(Math.min(end, size), size);
+
+        // a block has at most as many chars as bytes, so the decoder buffer never has to grow
+        String text = scanner.string(offset, end);
+        TextDecoder decoder = new TextDecoder(new StringReader(text), this::findClass, text.length() + 1, null);
+        decoder.setEscaped(scanner.isEscaped());
+        DeserializationData data = decoder.read();
+        Iterator<DeserializationClass> classes = data.getClasses().values().iterator();
+        if (!classes.hasNext())
+            throw new DeserializeException("Syntax Error: Class " + lazyClass.getUuid() + " is not closed");
+
+        lazyClass.variables().putAll(classes.next().getVariables());
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("MappedTextDocument is closed");
+    }
+
+    /**
+     * Closes the file. The mapping itself is released by the garbage collector, blocks that were not decoded yet can
+     * not be accessed anymore.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        chunks = new MappedByteBuffer[0];
+        channel.close();
+    }
+
+    /**
+     * Scanner over the mapped chunks.
+     */
+    private final class Scanner extends BlockScanner {
+
+        // the "::SCHEMA" lines, null if there are none
+        StringBuilder schemas;
+
+        @Override
+        void beginBlock(int block, boolean patch, long lineStart) {
+            if (patch) {
+                if (patches == null)
+                    patches = new HashMap<>();
+                patches.computeIfAbsent(block, key -> new ArrayList<>(2)).add(lineStart);
+                return;
+            }
+
+            if (block == offsets.length)
+                offsets = Arrays.copyOf(offsets, block * 2);
+            offsets[block] = lineStart;
+        }
+
+        @Override
+        void schema(long lineStart, long lineEnd) {
+            if (schemas == null)
+                schemas = new StringBuilder();
+            schemas.append(string(lineStart, lineEnd)).append('\n');
+        }
+
+        @Override
+        byte byteAt(long position) {
+            return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & CHUNK_MASK));
+        }
+
+        @Override
+        byte[] bytes(long start, long end) {
+            byte[] bytes = new byte[(int) (end - start)];
+            for (int i = 0; i < bytes.length; ) {
+                long position = start + i;
+                MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+                int chunkPosition = (int) (position & CHUNK_MASK);
+                int length = Math.min(bytes.length - i, chunk.limit() - chunkPosition);
+                chunk.get(chunkPosition, bytes, i, length);
+                i += length;
+            }
+            return bytes;
+        }
+
+        /**
+         * Searches the chunks directly instead of byte by byte.
+         */
+        @Override
+        long indexOfNewline(long position, long end) {
+            while (position < end) {
+                MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+                long chunkStart = position & ~CHUNK_MASK;
+                int chunkEnd = (int) Math.min(chunk.limit(), end - chunkStart);
+                for (int i = (int) (position & CHUNK_MASK); i < chunkEnd; i++) {
+                    if (chunk.get(i) == '\n')
+                        return chunkStart + i;
+                }
+                position = chunkStart + chunkEnd;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Class block whose variables are decoded on first access.
+     */
+    private final class LazyClass extends DeserializationData.DeserializationClass {
+
+        private final long offset;
+        private volatile boolean loaded;
+
+        LazyClass(String uuid, String fieldName, long offset) {
+            super(uuid, fieldName);
+            this.offset = offset;
+        }
+
+        @Override
+        public HashMap<String, DeserializationObject> getVariables() {
+            if (!loaded)
+                load(this);
+            return super.getVariables();
+        }
+
+        private HashMap<String, DeserializationObject> variables() {
+            return super.getVariables();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.ValueConverter;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.metrics.ClassCounter;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.Phase;
+import dev.steinmoetzger.shortserialization.metrics.SerializationListener;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ClassRegistry;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+import dev.steinmoetzger.shortserialization.schema.ReadPlan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the object graph of a document while it is parsed, without {@link
+ * dev.steinmoetzger.shortserialization.deserialization.DeserializationData} in between.
+ * <p>
+ * The variables of a block are mapped to the fields of its class with the {@link ReadPlan} of the layout the document
+ * describes, or by wire name if there is none, and kept in slots indexed like the fields, primitives unboxed. Values
+ * whose type does not fit the field anymore are dropped. At the end of the block the slots are handed to the {@link ClassCodec}
+ * of the class. Referenced objects are instantiated as soon as a reference names their class, references that do not and
+ * containers holding them are assigned once the whole document is read.
+ * <p>
+ * A block whose id was read before is a patch, only the fields it holds are assigned again.
+ * <p>
+ * Builders that parse parts of the same document at once share their objects, see {@link ParallelTextDecoder}. Every
+ * object is instantiated once by whichever builder meets it first, but only the builder of its block assigns its fields.
+ */
+final class ObjectBuilder implements DocumentHandler, FieldSource {
+
+    private final String classpath;
+    private final InternTable interns;
+    private final Map<String, Object> objects;
+    // objects that were referenced but whose block was not read yet
+    private final Set<String> undefined = new HashSet<>();
+    private final Map<String, ReadPlan> plans = new HashMap<>();
+    private final List<PendingElement> pendingElements = new ArrayList<>();
+    private final List<PendingField> pendingFields = new ArrayList<>();
+    private int settledElements;
+    private Object root;
+
+    private Object current;
+    private ClassSchema schema;
+    private ReadPlan plan;
+    private List<FieldSchema> fields;
+    private boolean[] present = new boolean[16];
+    private SerializationUtil.DirectTypes[] types = new SerializationUtil.DirectTypes[16];
+    private long[] bits = new long[16];
+    private Object[] values = new Object[16];
+
+    /**
+     * @param classpath classpath prefix that is scanned for classes that are not registered, or null
+     * @param interns   table the values of boxed fields are interned in, or null
+     */
+    ObjectBuilder(String classpath, InternTable interns) {
+        this(classpath, interns, new HashMap<>());
+    }
+
+    /**
+     * @param objects objects by block id, a concurrent map if other builders use it at the same time
+     */
+    ObjectBuilder(String classpath, InternTable interns, Map<String, Object> objects) {
+        this.classpath = classpath;
+        this.interns = interns;
+        this.objects = objects;
+    }
+
+    @Override
+    public ReadPlan layout(ClassLayout layout) throws DeserializeException {
+        ClassSchema schema = ClassRegistry.lookup(layout.getClassName(), classpath);
+        if (schema == null)
+            throw new DeserializeException("Did not find class with name SerializableClass annotation and name argument: " + layout.getClassName());
+
+        ReadPlan plan = schema.plan(layout);
+        plans.put(layout.getClassName(), plan);
+        return plan;
+    }
+
+    @Override
+    public void beginClass(String className, String uuid) throws DeserializeException {
+        current = objects.get(uuid);
+        if (current == null)
+            current = put(uuid, instantiate(className));
+        else
+            undefined.remove(uuid);
+
+        if ("ROOT".equals(uuid))
+            root = current;
+
+        schema = ClassSchema.of(current.getClass());
+        plan = plans.get(className);
+        fields = schema.getFields();
+        if (present.length < fields.size()) {
+            int length = Math.max(fields.size(), present.length * 2);
+            present = new boolean[length];
+            types = new SerializationUtil.DirectTypes[length];
+            bits = new long[length];
+            values = new Object[length];
+        } else {
+            Arrays.fill(present, 0, fields.size(), false);
+        }
+    }
+
+    private Object instantiate(String className) throws DeserializeException {
+        ClassSchema schema = ClassRegistry.lookup(className, classpath);
+        if (schema == null)
+            throw new DeserializeException("Did not find class with name SerializableClass annotation and name argument: " + className);
+        return schema.getCodec().newInstance();
+    }
+
+    /**
+     * @param type direct type of the value, null for references
+     * @return the index of the field the variable is assigned to, -1 if the class has no such field or its type changed
+     */
+    private int slot(int field, String name, SerializationUtil.DirectTypes type) {
+        FieldSchema fieldSchema;
+        if (plan != null && field >= 0) {
+            int index = plan.target(field);
+            fieldSchema = index < 0 ? null : fields.get(index);
+        } else {
+            fieldSchema = schema.getField(name);
+        }
+        return fieldSchema != null && fieldSchema.accepts(type) ? fieldSchema.getIndex() : -1;
+    }
+
+    @Override
+    public void primitive(int field, String name, SerializationUtil.DirectTypes type, long bits) {
+        int index = slot(field, name, type);
+        if (index < 0)
+            return;
+
+        present[index] = true;
+        types[index] = type;
+        this.bits[index] = bits;
+        values[index] = null;
+    }
+
+    @Override
+    public void value(int field, String name, SerializationUtil.DirectTypes type, Object value) {
+        int index = slot(field, name, type);
+        boolean unresolved = pendingElements.size() > settledElements;
+        settledElements = pendingElements.size();
+        if (index < 0)
+            return;
+
+        if (unresolved) {
+            // the container still misses elements, it is converted once they exist
+            pendingFields.add(new PendingField(current, fields.get(index), value, null));
+            return;
+        }
+
+        present[index] = true;
+        // a null is never read as primitive
+        types[index] = value == null ? null : type;
+        values[index] = value;
+    }
+
+    @Override
+    public void reference(int field, String name, String className, String uuid) throws DeserializeException {
+        int index = slot(field, name, null);
+        if (index < 0)
+            return;
+
+        Object target = uuid == null ? null : target(className, uuid);
+        if (uuid != null && target == null) {
+            pendingFields.add(new PendingField(current, fields.get(index), null, uuid));
+            return;
+        }
+
+        present[index] = true;
+        types[index] = null;
+        values[index] = target;
+    }
+
+    @Override
+    public Object elementReference(List<Object> elements, String className, String uuid) throws DeserializeException {
+        Object target = target(className, uuid);
+        if (target == null)
+            pendingElements.add(new PendingElement(elements, elements.size(), uuid));
+        return target;
+    }
+
+    /**
+     * @return the object of the block, null if it does not exist yet and the class is unknown
+     */
+    private Object target(String className, String uuid) throws DeserializeException {
+        Object target = objects.get(uuid);
+        if (target != null || className == null)
+            return target;
+
+        target = put(uuid, instantiate(className));
+        undefined.add(uuid);
+        return target;
+    }
+
+    /**
+     * @return the object of the block, the given one unless another builder put one first
+     */
+    private Object put(String uuid, Object object) {
+        Object existing = objects.putIfAbsent(uuid, object);
+        return existing != null ? existing : object;
+    }
+
+    @Override
+    public void endClass() throws DeserializeException {
+        schema.getCodec().read(current, this);
+        // the slots do not keep the values of this block reachable
+        Arrays.fill(values, 0, fields.size(), null);
+        current = null;
+    }
+
+    /**
+     * Assigns the references that could not be resolved while parsing.
+     *
+     * @return the root object of the document
+     */
+    Object finish() throws DeserializeException {
+        if (!undefined.isEmpty())
+            throw new DeserializeException("Reference to unknown object " + undefined.iterator().next());
+
+        link();
+        if (root == null)
+            throw new DeserializeException("No ROOT class found");
+
+        countClasses(objects.values());
+        return root;
+    }
+
+    /**
+     * Assigns the references and containers that were deferred while parsing, all referenced objects have to exist.
+     */
+    void link() throws DeserializeException {
+        for (PendingElement element : pendingElements)
+            element.elements.set(element.index, resolve(element.uuid));
+
+        for (PendingField field : pendingFields) {
+            Object value = field.uuid != null
+                    ? resolve(field.uuid)
+                    : ValueConverter.convert(field.value, field.field.getJavaType(), ObjectBuilder::unexpectedReference);
+            field.field.getAccessor().set(field.owner, value);
+        }
+        pendingElements.clear();
+        pendingFields.clear();
+    }
+
+    /**
+     * @return ids of the objects that were referenced, but whose block this builder did not read
+     */
+    Set<String> getUndefined() {
+        return undefined;
+    }
+
+    /**
+     * @return the root object, null if this builder did not read the ROOT block
+     */
+    Object getRoot() {
+        return root;
+    }
+
+    static void countClasses(Iterable<Object> objects) {
+        SerializationListener listener = Instrumentation.getListener();
+        if (listener.countsClasses()) {
+            ClassCounter counter = new ClassCounter();
+            for (Object object : objects)
+                counter.add(ClassSchema.of(object.getClass()).getName());
+            counter.report(listener, Phase.DESERIALIZE);
+        }
+    }
+
+    private Object resolve(String uuid) throws DeserializeException {
+        Object target = objects.get(uuid);
+        if (target == null)
+            throw new DeserializeException("Reference to unknown object " + uuid);
+        return target;
+    }
+
+    private static Object unexpectedReference(Object reference) throws DeserializeException {
+        throw new DeserializeException("Unresolved reference to " + reference);
+    }
+
+    @Override
+    public boolean has(int index) {
+        // null can not be assigned to primitive fields, they keep their default
+        return present[index] && (values[index] != null || isPrimitive(index) || !fields.get(index).isPrimitive());
+    }
+
+    private boolean isPrimitive(int index) {
+        return types[index] != null && types[index].isPrimitive() && values[index] == null;
+    }
+
+    private Object object(int index) {
+        if (!isPrimitive(index))
+            return values[index];
+        return interns == null ? DocumentHandler.box(types[index], bits[index]) : interns.box(types[index], bits[index]);
+    }
+
+    private long longValue(int index) {
+        if (!isPrimitive(index))
+            return ((Number) values[index]).longValue();
+
+        return switch (types[index]) {
+            case DOUBLE -> (long) Double.longBitsToDouble(bits[index]);
+            case FLOAT -> (long) Float.intBitsToFloat((int) bits[index]);
+            default -> bits[index];
+        };
+    }
+
+    private double doubleValue(int index) {
+        if (!isPrimitive(index))
+            return ((Number) values[index]).doubleValue();
+
+        return switch (types[index]) {
+            case DOUBLE -> Double.longBitsToDouble(bits[index]);
+            case FLOAT -> Float.intBitsToFloat((int) bits[index]);
+            default -> bits[index];
+        };
+    }
+
+    @Override
+    public String readString(int index) {
+        Object value = object(index);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public int readInt(int index) {
+        return (int) longValue(index);
+    }
+
+    @Override
+    public double readDouble(int index) {
+        return doubleValue(index);
+    }
+
+    @Override
+    public float readFloat(int index) {
+        return (float) doubleValue(index);
+    }
+
+    @Override
+    public byte readByte(int index) {
+        return (byte) longValue(index);
+    }
+
+    @Override
+    public char readChar(int index) {
+        return isPrimitive(index) ? (char) bits[index] : (Character) values[index];
+    }
+
+    @Override
+    public short readShort(int index) {
+        return (short) longValue(index);
+    }
+
+    @Override
+    public long readLong(int index) {
+        return longValue(index);
+    }
+
+    @Override
+    public boolean readBoolean(int index) {
+        return isPrimitive(index) ? bits[index] != 0 : (Boolean) values[index];
+    }
+
+    @Override
+    public Object readObject(int index) throws DeserializeException {
+        if (types[index] == null)
+            return values[index];
+        return ValueConverter.convert(object(index), fields.get(index).getJavaType(), ObjectBuilder::unexpectedReference);
+    }
+
+    private record PendingElement(List<Object> elements, int index, String uuid) {
+    }
+
+    /**
+     * A field whose value is assigned after the document is read, either a reference or a container with references.
+     */
+    private record PendingField(Object owner, FieldSchema field, Object value, String uuid) {
+    }
+}
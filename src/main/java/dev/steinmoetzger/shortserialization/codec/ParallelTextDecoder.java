@@ -0,0 +1,308 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a document in the "::DAT" text format straight into its objects, with the blocks parsed on an executor.
+ * <p>
+ * A {@link BlockScanner} finds the "::BEGIN CLASS" lines and splits the document into chunks of about
+ * {@code chunkSize} bytes of whole blocks. Every chunk is parsed by its own {@link TextDecoder}, the objects of all
+ * chunks are kept in one shared table, so an object is instantiated once no matter which chunk meets it first. References
+ * and containers that could not be assigned while parsing are linked on the calling thread once all chunks are done.
+ * <p>
+ * Patches of a block, see {@link DeltaEncoder}, are parsed in the chunk of the block, after it. The "::SCHEMA" lines of
+ * the document are handed to every chunk. The result is the same graph {@link TextDecoder#readObject(String)} builds.
+ * <p>
+ * An instance reads one document at a time.
+ */
+public final class ParallelTextDecoder {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final ExecutorService executor;
+    private final int chunkSize;
+
+    private ByteBuffer document;
+    private Scanner scanner;
+    private final ByteArrayOutputStream schemas = new ByteArrayOutputStream();
+    private final List<Chunk> chunks = new ArrayList<>();
+    // chunkOfBlock[i] is the chunk of block i, see BlockScanner for the numbers of the blocks
+    private int[] chunkOfBlock;
+    private int parsedBlocks;
+
+    public ParallelTextDecoder(ExecutorService executor) {
+        this(executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize number of bytes of blocks after which a new chunk is started
+     */
+    public ParallelTextDecoder(ExecutorService executor, int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param document  the bytes from the position to the limit of the buffer, the buffer itself is not modified
+     * @param classpath classpath prefix that is scanned for classes that are not registered, or null
+     * @return the root object
+     */
+    public Object readObject(ByteBuffer document, String classpath) throws IOException, DeserializeException {
+        try {
+            this.document = document;
+            split();
+            return build(classpath);
+        } finally {
+            this.document = null;
+            scanner = null;
+            schemas.reset();
+            chunks.clear();
+            chunkOfBlock = null;
+        }
+    }
+
+    /**
+     * @return the number of blocks of the last document, patches included
+     */
+    public int getBlockCount() {
+        return parsedBlocks;
+    }
+
+    /**
+     * Assigns the bytes of every block to a chunk, collects the "::SCHEMA" lines and reads the "::FORMAT" line. The
+     * frame lines of patches are checked here and left out of the chunks, a damaged frame ends the document.
+     */
+    private void split() throws IOException, DeserializeException {
+        chunkOfBlock = new int[1024];
+        scanner = new Scanner();
+        int end = (int) scanner.scan(document.position(), document.limit());
+        scanner.endBlock(end);
+    }
+
+    /**
+     * @return the last chunk, or a new one if it is full
+     */
+    private Chunk nextChunk() {
+        Chunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (last != null && last.length < chunkSize)
+            return last;
+
+        Chunk chunk = new Chunk();
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    /**
+     * Parses the chunks on the executor, then links the objects they could not link on their own.
+     */
+    private Object build(String classpath) throws IOException, DeserializeException {
+        Map<String, Object> objects = new ConcurrentHashMap<>(Math.max(16, scanner.blockCount() * 4 / 3 + 1));
+        byte[] schemaLines = schemas.toByteArray();
+
+        List<Future<ObjectBuilder>> futures = new ArrayList<>(chunks.size());
+        int[] blocks = new int[chunks.size()];
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    ObjectBuilder builder = new ObjectBuilder(classpath, null, objects);
+                    TextDecoder decoder = new TextDecoder(new Utf8Reader(new ChunkInputStream(document, schemaLines, chunk)));
+                    decoder.setEscaped(scanner.isEscaped());
+                    decoder.parse(builder);
+                    blocks[index] = decoder.getBlockCount();
+                    return builder;
+                }));
+            }
+
+            Object root = null;
+            parsedBlocks = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                ObjectBuilder builder = futures.get(i).get();
+                for (String uuid : builder.getUndefined()) {
+                    if (scanner.blockOf(uuid) < 0)
+                        throw new DeserializeException("Reference to unknown object " + uuid);
+                }
+                builder.link();
+                if (builder.getRoot() != null)
+                    root = builder.getRoot();
+                parsedBlocks += blocks[i];
+            }
+
+            if (root == null)
+                throw new DeserializeException("No ROOT class found");
+
+            ObjectBuilder.countClasses(objects.values());
+            return root;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DeserializeException)
+                throw (DeserializeException) e.getCause();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<ObjectBuilder> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * Scanner over the document that assigns the blocks to chunks.
+     */
+    private final class Scanner extends BlockScanner {
+
+        // start of the block whose end is not known yet, and its chunk
+        private int blockStart;
+        private Chunk blockChunk;
+
+        @Override
+        void beginBlock(int block, boolean patch, long lineStart) {
+            endBlock((int) lineStart);
+            blockStart = (int) lineStart;
+            if (patch) {
+                blockChunk = chunks.get(chunkOfBlock[block]);
+                return;
+            }
+
+            if (block == chunkOfBlock.length)
+                chunkOfBlock = Arrays.copyOf(chunkOfBlock, block * 2);
+            blockChunk = nextChunk();
+            chunkOfBlock[block] = chunks.size() - 1;
+        }
+
+        @Override
+        void schema(long lineStart, long lineEnd) {
+            for (int i = (int) lineStart; i < lineEnd; i++)
+                schemas.write(document.get(i));
+            schemas.write('\n');
+        }
+
+        @Override
+        void patchFrame(long lineStart) {
+            endBlock((int) lineStart);
+        }
+
+        /**
+         * Adds the bytes of the current block up to the end to its chunk.
+         */
+        void endBlock(int end) {
+            if (blockChunk != null)
+                blockChunk.add(blockStart, end);
+            blockChunk = null;
+        }
+
+        @Override
+        byte byteAt(long position) {
+            return document.get((int) position);
+        }
+
+        @Override
+        byte[] bytes(long start, long end) {
+            byte[] bytes = new byte[(int) (end - start)];
+            document.get((int) start, bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Byte ranges of the blocks of a chunk in the order of the document, adjacent ranges merged.
+     */
+    private static final class Chunk {
+
+        int[] ranges = new int[8];
+        int rangeCount;
+        // bytes of the ranges
+        int length;
+
+        void add(int start, int end) {
+            length += end - start;
+            if (rangeCount > 0 && ranges[rangeCount * 2 - 1] == start) {
+                ranges[rangeCount * 2 - 1] = end;
+                return;
+            }
+
+            if (rangeCount * 2 == ranges.length)
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[rangeCount * 2] = start;
+            ranges[rangeCount * 2 + 1] = end;
+            rangeCount++;
+        }
+    }
+
+    /**
+     * Reads the "::SCHEMA" lines followed by the ranges of a chunk, without moving the position of the document.
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        private final ByteBuffer document;
+        private final byte[] prefix;
+        private final Chunk chunk;
+        private int prefixPosition;
+        private int range;
+        private int position;
+
+        ChunkInputStream(ByteBuffer document, byte[] prefix, Chunk chunk) {
+            this.document = document;
+            this.prefix = prefix;
+            this.chunk = chunk;
+            this.position = chunk.rangeCount > 0 ? chunk.ranges[0] : 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+
+            if (prefixPosition < prefix.length) {
+                int count = Math.min(length, prefix.length - prefixPosition);
+                System.arraycopy(prefix, prefixPosition, bytes, offset, count);
+                prefixPosition += count;
+                return count;
+            }
+
+            while (range < chunk.rangeCount && position == chunk.ranges[range * 2 + 1]) {
+                range++;
+                if (range < chunk.rangeCount)
+                    position = chunk.ranges[range * 2];
+            }
+            if (range == chunk.rangeCount)
+                return -1;
+
+            int count = Math.min(length, chunk.ranges[range * 2 + 1] - position);
+            document.get(position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the patches {@link DeltaEncoder} appended to a text document into the blocks they patch.
+ * <p>
+ * Only the patches are held in memory, the base document is streamed. Lines of patched blocks are replaced in place,
+ * blocks that were added by patches are written after the base document in the order they were added, so the ids of
+ * the document stay sequential and every object keeps its id. Patches in a {@link PatchFrame} are checked first, a
+ * damaged frame and everything after it are dropped.
+ */
+public final class PatchCompactor {
+
+    private static final String DAT = "::DAT";
+    private static final String BEGIN_CLASS = "::BEGIN CLASS";
+    private static final String END_CLASS = "::END CLASS";
+
+    private PatchCompactor() {
+    }
+
+    /**
+     * The file is read with positional reads, it may grow while it is compacted.
+     *
+     * @param baseLength length of the document without patches, it ends with a complete block
+     * @param length     length of the part of the file that is compacted
+     * @param out        receives the compacted document, it is flushed but not closed
+     */
+    public static void compact(FileChannel channel, long baseLength, long length, OutputStream out) throws IOException {
+        Map<String, Block> blocks = readPatches(channel, baseLength, length);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        boolean first = true;
+        try (BufferedReader reader = reader(channel, 0, baseLength)) {
+            Block patch = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(BEGIN_CLASS)) {
+                    patch = blocks.remove(uuid(line));
+                } else if (patch != null && line.startsWith(DAT)) {
+                    String patched = patch.values.remove(name(line));
+                    if (patched != null)
+                        line = patched;
+                } else if (patch != null && line.startsWith(END_CLASS)) {
+                    // fields the base block did not have
+                    for (String value : patch.values.values())
+                        first = writeLine(writer, value, first);
+                    patch = null;
+                }
+                first = writeLine(writer, line, first);
+            }
+        }
+
+        for (Block block : blocks.values()) {
+            for (String line : block.head)
+                first = writeLine(writer, line, first);
+            for (String line : block.values.values())
+                first = writeLine(writer, line, first);
+            if (block.end != null)
+                first = writeLine(writer, block.end, first);
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return the blocks of the patches in the order they first appear, patches of the same block merged
+     */
+    private static Map<String, Block> readPatches(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE)
+            throw new IOException("Patches of " + (end - start) + " bytes are too large to compact");
+
+        byte[] patches = new byte[(int) (end - start)];
+        try (InputStream in = new RegionInputStream(channel, start, end)) {
+            if (in.readNBytes(patches, 0, patches.length) != patches.length)
+                throw new IOException("File is shorter than " + end + " bytes");
+        }
+
+        Map<String, Block> blocks = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(patches, 0, completeLength(patches)), StandardCharsets.UTF_8))) {
+            List<String> head = new ArrayList<>();
+            Block current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (current == null) {
+                    if (line.startsWith(PatchFrame.MARKER))
+                        continue;
+                    head.add(line);
+                    if (!line.startsWith(BEGIN_CLASS))
+                        continue;
+
+                    String uuid = uuid(line);
+                    current = blocks.get(uuid);
+                    if (current == null) {
+                        current = new Block(head);
+                        blocks.put(uuid, current);
+                    }
+                    head = new ArrayList<>();
+                } else if (line.startsWith(DAT)) {
+                    current.values.put(name(line), line);
+                } else if (line.startsWith(END_CLASS)) {
+                    if (current.end == null)
+                        current.end = line;
+                    current = null;
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the length of the patches up to the first damaged {@link PatchFrame}
+     */
+    private static int completeLength(byte[] patches) throws IOException {
+        try {
+            return (int) new PatchScanner(patches).scan(0, patches.length);
+        } catch (DeserializeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static boolean writeLine(Writer writer, String line, boolean first) throws IOException {
+        if (!first)
+            writer.write('\n');
+        writer.write(line);
+        return false;
+    }
+
+    private static String uuid(String beginLine) {
+        return beginLine.substring(beginLine.lastIndexOf('#') + 1);
+    }
+
+    /**
+     * @return the name of a {@code ::DAT [TYPE] name=value} line
+     */
+    private static String name(String line) {
+        int typeEnd = line.indexOf(']');
+        int equals = line.indexOf('=', typeEnd + 1);
+        if (typeEnd < 0 || equals < 0)
+            return line;
+        return line.substring(typeEnd + 1, equals).trim();
+    }
+
+    private static BufferedReader reader(FileChannel channel, long start, long end) {
+        return new BufferedReader(new InputStreamReader(new RegionInputStream(channel, start, end), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Lines of a block, the values by name.
+     */
+    private static final class Block {
+
+        // lines before the "::BEGIN CLASS" line and the line itself
+        final List<String> head;
+        final Map<String, String> values = new LinkedHashMap<>();
+        String end;
+
+        Block(List<String> head) {
+            this.head = head;
+        }
+    }
+
+    /**
+     * Scanner over the patches that only checks their frames.
+     */
+    private static final class PatchScanner extends BlockScanner {
+
+        private final byte[] patches;
+
+        PatchScanner(byte[] patches) {
+            this.patches = patches;
+        }
+
+        @Override
+        void beginBlock(int block, boolean patch, long lineStart) {
+        }
+
+        @Override
+        byte byteAt(long position) {
+            return patches[(int) position];
+        }
+
+        @Override
+        byte[] bytes(long start, long end) {
+            return Arrays.copyOfRange(patches, (int) start, (int) end);
+        }
+    }
+
+    /**
+     * Reads a region of a file without moving the position of the channel.
+     */
+    private static final class RegionInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end)
+                return -1;
+
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+            if (read < 0)
+                return -1;
+            position += read;
+            return read;
+        }
+    }
+}
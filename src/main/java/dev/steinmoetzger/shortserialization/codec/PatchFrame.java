@@ -0,0 +1,104 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Frame of the patches of one save that are appended to a text document, so readers can tell whether an append was
+ * completed. The frame is a {@code #PATCH: length checksum} line followed by the patch: {@code length} bytes with the
+ * CRC32C {@code checksum} in hex, directly after the line break of the frame line.
+ * <p>
+ * A frame that is cut off or whose checksum does not match ends the document, readers ignore it and everything after
+ * it. Patches are only appended to a file whose previous appends all completed, so only the last frame can be damaged.
+ * The frame line is a comment for readers that do not know frames, they apply the patches without checking them.
+ */
+public final class PatchFrame {
+
+    static final String MARKER = "#PATCH:";
+
+    private final int length;
+    private final int checksum;
+
+    private PatchFrame(int length, int checksum) {
+        this.length = length;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Writes a line break, the frame line and the patch.
+     */
+    public static void write(OutputStream out, byte[] patch, int offset, int length) throws IOException {
+        String line = "\n" + MARKER + ' ' + length + ' ' + String.format("%08x", checksum(patch, offset, length)) + '\n';
+        out.write(line.getBytes(StandardCharsets.US_ASCII));
+        out.write(patch, offset, length);
+    }
+
+    /**
+     * @param line the frame line without its line break
+     */
+    static PatchFrame parse(String line) throws DeserializeException {
+        String[] parts = line.substring(MARKER.length()).trim().split(" ");
+        try {
+            if (parts.length != 2)
+                throw new NumberFormatException();
+
+            int length = Integer.parseInt(parts[0]);
+            if (length < 0)
+                throw new NumberFormatException();
+            return new PatchFrame(length, Integer.parseUnsignedInt(parts[1], 16));
+        } catch (NumberFormatException e) {
+            throw new DeserializeException("Syntax Error: Invalid patch frame: " + line);
+        }
+    }
+
+    /**
+     * The check every reader applies to a frame line: the line has its line break, and the patch after it is complete
+     * and has the checksum of the frame.
+     *
+     * @param line       the frame line without its line break
+     * @param terminated whether the line has its line break, a line at the end of the document was cut off
+     * @param patch      reads the patch after the line break
+     */
+    static boolean isComplete(String line, boolean terminated, PatchSource patch) throws IOException, DeserializeException {
+        if (!terminated)
+            return false;
+
+        PatchFrame frame = parse(line);
+        return frame.matches(patch.read(frame.length));
+    }
+
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return whether the patch has the length and checksum of the frame
+     */
+    private boolean matches(byte[] patch) {
+        return patch.length == length && checksum(patch, 0, length) == checksum;
+    }
+
+    /**
+     * Bytes of a document after a frame line.
+     */
+    @FunctionalInterface
+    interface PatchSource {
+
+        /**
+         * @return the next {@code length} bytes, fewer if the document ends before
+         */
+        byte[] read(int length) throws IOException;
+    }
+}
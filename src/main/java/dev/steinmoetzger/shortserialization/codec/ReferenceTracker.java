@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.util.Arrays;
+
+/**
+ * Identity based table that assigns sequential ids to the objects of a graph.
+ * <p>
+ * Objects are compared with {@code ==} and hashed with {@link System#identityHashCode(Object)}, so user defined
+ * {@code equals}/{@code hashCode} implementations are never called and equal but distinct objects get their own ids.
+ * The table uses open addressing with linear probing and can be reused with {@link #reset()}.
+ */
+public final class ReferenceTracker {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private Object[] keys;
+    private int[] ids;
+    private Object[] objects;
+    private int size;
+
+    public ReferenceTracker() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        ids = new int[capacity];
+        objects = new Object[capacity / 2];
+    }
+
+    /**
+     * @return the id of the object or -1 if it was not added yet
+     */
+    public int idOf(Object object) {
+        int mask = keys.length - 1;
+        int slot = hash(object) & mask;
+        Object key;
+        while ((key = keys[slot]) != null) {
+            if (key == object)
+                return ids[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an object that is not tracked yet.
+     *
+     * @return the id of the object, ids are assigned sequentially starting with 0
+     */
+    public int add(Object object) {
+        if (size >= objects.length)
+            grow();
+
+        int id = size++;
+        insert(object, id);
+        objects[id] = object;
+        return id;
+    }
+
+    public Object objectAt(int id) {
+        if (id >= size)
+            throw new IndexOutOfBoundsException(id);
+        return objects[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all objects. Tables that grew very large are released instead of being cleared.
+     */
+    public void reset() {
+        if (keys.length > MAX_RETAINED_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        } else {
+            Arrays.fill(keys, null);
+            Arrays.fill(objects, 0, size, null);
+        }
+        size = 0;
+    }
+
+    private void insert(Object object, int id) {
+        int mask = keys.length - 1;
+        int slot = hash(object) & mask;
+        while (keys[slot] != null)
+            slot = (slot + 1) & mask;
+        keys[slot] = object;
+        ids[slot] = id;
+    }
+
+    private void grow() {
+        Object[] oldObjects = objects;
+        allocate(keys.length * 2);
+        System.arraycopy(oldObjects, 0, objects, 0, size);
+        for (int id = 0; id < size; id++)
+            insert(objects[id], id);
+    }
+
+    private static int hash(Object object) {
+        int h = System.identityHashCode(object);
+        // identity hashes are not well distributed in the low bits
+        return h ^ (h >>> 16);
+    }
+}
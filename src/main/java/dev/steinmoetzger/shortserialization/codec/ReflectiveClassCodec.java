@@ -0,0 +1,96 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldAccessor;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link ClassCodec} that goes through the {@link FieldAccessor}s of the schema, used for classes without a generated codec.
+ */
+public class ReflectiveClassCodec implements ClassCodec {
+
+    private final ClassSchema schema;
+    private final FieldSchema[] fields;
+
+    public ReflectiveClassCodec(ClassSchema schema) {
+        this.schema = schema;
+        List<FieldSchema> fields = schema.getFields();
+        this.fields = fields.toArray(new FieldSchema[0]);
+    }
+
+    @Override
+    public Object newInstance() throws DeserializeException {
+        return schema.newInstance();
+    }
+
+    @Override
+    public void write(Object object, FieldSink sink) throws IOException, SerializeException {
+        for (FieldSchema field : fields) {
+            int index = field.getIndex();
+            FieldAccessor accessor = field.getAccessor();
+
+            if (!field.isPrimitive()) {
+                if (field.getType() == SerializationUtil.DirectTypes.STRING)
+                    sink.writeString(index, (String) accessor.get(object));
+                else
+                    sink.writeObject(index, accessor.get(object));
+                continue;
+            }
+
+            switch (field.getType()) {
+                case INTEGER -> sink.writeInt(index, accessor.getInt(object));
+                case DOUBLE -> sink.writeDouble(index, accessor.getDouble(object));
+                case FLOAT -> sink.writeFloat(index, accessor.getFloat(object));
+                case BYTE -> sink.writeByte(index, accessor.getByte(object));
+                case CHAR -> sink.writeChar(index, accessor.getChar(object));
+                case SHORT -> sink.writeShort(index, accessor.getShort(object));
+                case LONG -> sink.writeLong(index, accessor.getLong(object));
+                case BOOLEAN -> sink.writeBoolean(index, accessor.getBoolean(object));
+                default -> throw new SerializeException("Unsupported primitive field " + field);
+            }
+        }
+    }
+
+    @Override
+    public void read(Object object, FieldSource source) throws DeserializeException {
+        for (FieldSchema field : fields) {
+            int index = field.getIndex();
+            if (!source.has(index))
+                continue;
+
+            FieldAccessor accessor = field.getAccessor();
+
+            if (!field.isPrimitive()) {
+                if (field.getType() == SerializationUtil.DirectTypes.STRING)
+                    accessor.set(object, source.readString(index));
+                else
+                    accessor.set(object, source.readObject(index));
+                continue;
+            }
+
+            switch (field.getType()) {
+                case INTEGER -> accessor.setInt(object, source.readInt(index));
+                case DOUBLE -> accessor.setDouble(object, source.readDouble(index));
+                case FLOAT -> accessor.setFloat(object, source.readFloat(index));
+                case BYTE -> accessor.setByte(object, source.readByte(index));
+                case CHAR -> accessor.setChar(object, source.readChar(index));
+                case SHORT -> accessor.setShort(object, source.readShort(index));
+                case LONG -> accessor.setLong(object, source.readLong(index));
+                case BOOLEAN -> accessor.setBoolean(object, source.readBoolean(index));
+                default -> throw new DeserializeException("Unsupported primitive field " + field);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.util.Arrays;
+
+/**
+ * Table of the strings of the string table of a binary document, indexed in the order they were added.
+ * <p>
+ * Strings are compared with {@code equals} and hashed with their cached {@link String#hashCode()}. Like
+ * {@link ReferenceTracker}, the table uses open addressing with linear probing and can be reused with
+ * {@link #reset()}, so it allocates nothing per entry.
+ */
+final class StringTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private String[] keys;
+    private int[] indexes;
+    private int size;
+
+    StringTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        indexes = new int[capacity];
+    }
+
+    /**
+     * @return the index of the string or -1 if it was not added yet
+     */
+    int indexOf(String value) {
+        int mask = keys.length - 1;
+        int slot = hash(value) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key.equals(value))
+                return indexes[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a string that is not in the table yet.
+     *
+     * @return the index of the string, indexes are assigned sequentially starting with 0
+     */
+    int add(String value) {
+        // at most half full, so the probes stay short
+        if (size >= keys.length / 2)
+            grow();
+
+        insert(value, size);
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all strings. Tables that grew very large are released instead of being cleared.
+     */
+    void reset() {
+        if (keys.length > MAX_RETAINED_CAPACITY)
+            allocate(INITIAL_CAPACITY);
+        else
+            Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void insert(String value, int index) {
+        int mask = keys.length - 1;
+        int slot = hash(value) & mask;
+        while (keys[slot] != null)
+            slot = (slot + 1) & mask;
+        keys[slot] = value;
+        indexes[slot] = index;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        allocate(keys.length * 2);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != null)
+                insert(oldKeys[slot], oldIndexes[slot]);
+        }
+    }
+
+    private static int hash(String value) {
+        int h = value.hashCode();
+        // spreads the high bits into the slots of small tables
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,844 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationType;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ReadPlan;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a document in the "::DAT" text format into {@link DeserializationData}, or straight into its objects with
+ * {@link #readObject(String)}.
+ * <p>
+ * The input is scanned line by line inside one reusable {@code char[]}. Markers, type prefixes and names are matched
+ * in place and primitives are parsed straight from the buffer, so only the names and string values of the document
+ * are turned into {@link String}s.
+ * <p>
+ * Values are only unescaped in documents that start with the {@code ::FORMAT} line of {@link TextEncoder}. Documents
+ * without it were written before values were escaped, their values are read exactly as they are.
+ * <p>
+ * Classes described by a {@code ::SCHEMA} line are reported to the {@link DocumentHandler} as {@link ClassLayout}.
+ * The variables of their blocks are matched against the names of the layout, which are expected in order, so their
+ * names are not allocated, and lines of fields the plan of the handler does not need are skipped without parsing the
+ * value.
+ * <p>
+ * Patches appended in a {@link PatchFrame} are read completely and checked before their lines are parsed. A damaged
+ * frame ends the document.
+ */
+public class TextDecoder {
+
+    private static final char[] MARKER = "::".toCharArray();
+    private static final char[] BEGIN_CLASS = "::BEGIN CLASS".toCharArray();
+    private static final char[] END_CLASS = "::END CLASS".toCharArray();
+    private static final char[] SCHEMA = "::SCHEMA".toCharArray();
+    private static final char[] FORMAT = "::FORMAT".toCharArray();
+    private static final char[] DAT = "::DAT".toCharArray();
+    private static final char[] PATCH = PatchFrame.MARKER.toCharArray();
+    private static final char[] REFERENCE = "<REF>".toCharArray();
+    private static final char[] NULL = "<NULL>".toCharArray();
+    private static final char[] ELEMENT_REFERENCE = "<REF>:".toCharArray();
+    private static final char[] TRUE = "true".toCharArray();
+    private static final char[] FALSE = "false".toCharArray();
+    private static final SerializationUtil.DirectTypes[] DIRECT_TYPES = SerializationUtil.DirectTypes.values();
+    private static final char[][] PREFIXES = new char[DIRECT_TYPES.length][];
+
+    static {
+        for (int i = 0; i < DIRECT_TYPES.length; i++)
+            PREFIXES[i] = DIRECT_TYPES[i].prefix.toCharArray();
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    // larger buffers are dropped on reset instead of being kept for the next document
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 16;
+
+    private Reader reader;
+    private final ReferenceResolver resolver;
+    private final InternTable interns;
+    private char[] buffer;
+    private CharBuffer chars;
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private int lineStart;
+    private int lineEnd;
+
+    // position of the container parser inside the current line
+    private int cursor;
+    private DocumentHandler handler;
+
+    // layouts of the classes described so far, by class name
+    private final Map<String, Layout> layouts = new HashMap<>();
+    // layout of the current block and the field expected on the next line
+    private Layout layout;
+    private int nextField;
+    private int blockCount;
+    // whether the document has the format line, so its values are escaped
+    private boolean escaped;
+
+    /**
+     * @param reader reader the document is read from, or null if it is bound with {@link #reset(Reader)} later
+     */
+    public TextDecoder(Reader reader) {
+        this(reader, null);
+    }
+
+    /**
+     * @param interns table the strings and boxed values of the documents are interned in, or null
+     */
+    public TextDecoder(Reader reader, InternTable interns) {
+        this(reader, null, DEFAULT_BUFFER_SIZE, interns);
+    }
+
+    /**
+     * @param resolver resolves references to blocks that are not part of the input, or null
+     * @param bufferSize initial size of the line buffer, it grows for longer lines
+     */
+    TextDecoder(Reader reader, ReferenceResolver resolver, int bufferSize, InternTable interns) {
+        this.reader = reader;
+        this.resolver = resolver;
+        this.interns = interns;
+        this.buffer = new char[Math.max(bufferSize, 16)];
+        this.chars = CharBuffer.wrap(buffer);
+    }
+
+    /**
+     * Binds the decoder to another reader, so it can read the next document with the buffers it already has.
+     * Chars that were buffered but not read yet are dropped.
+     */
+    public void reset(Reader reader) {
+        this.reader = reader;
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new char[DEFAULT_BUFFER_SIZE];
+            chars = CharBuffer.wrap(buffer);
+        }
+        position = 0;
+        limit = 0;
+        eof = false;
+        lineStart = 0;
+        lineEnd = 0;
+        cursor = 0;
+        handler = null;
+        layouts.clear();
+        layout = null;
+        blockCount = 0;
+        escaped = false;
+    }
+
+    /**
+     * For decoders that read a part of a document, whose format line they do not see.
+     *
+     * @param escaped whether the document has the format line of {@link TextEncoder}
+     */
+    void setEscaped(boolean escaped) {
+        this.escaped = escaped;
+    }
+
+    /**
+     * @return the number of blocks read since the last {@link #reset(Reader)}, patches count as blocks of their own
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public DeserializationData read() throws IOException, DeserializeException {
+        TreeBuilder builder = new TreeBuilder(resolver, interns);
+        parse(builder);
+        return builder.finish();
+    }
+
+    /**
+     * Builds the object graph of the document right away, without {@link DeserializationData} in between.
+     *
+     * @param classpath classpath prefix that is scanned for classes that are not registered, or null
+     * @return the root object
+     */
+    public Object readObject(String classpath) throws IOException, DeserializeException {
+        ObjectBuilder builder = new ObjectBuilder(classpath, interns);
+        parse(builder);
+        return builder.finish();
+    }
+
+    void parse(DocumentHandler handler) throws IOException, DeserializeException {
+        this.handler = handler;
+        String currentClass = null;
+
+        while (nextLine()) {
+            if (currentClass == null && lineStartsWith(PATCH)) {
+                if (!checkPatch())
+                    break;
+                continue;
+            }
+
+            if (!lineStartsWith(MARKER))
+                continue;
+
+            if (lineStartsWith(BEGIN_CLASS)) {
+                if (currentClass != null)
+                    throw new DeserializeException("Syntax Error: Cannot begin class without closed previous...");
+
+                int start = skipSeparator(lineStart + BEGIN_CLASS.length);
+                int hash = lastIndexOf('#', start, lineEnd);
+                if (hash < 0)
+                    throw new DeserializeException("Syntax Error: Class without id: " + line());
+
+                currentClass = new String(buffer, hash + 1, lineEnd - hash - 1);
+                String className = text(start, hash);
+                layout = layouts.get(className);
+                nextField = 0;
+                handler.beginClass(className, currentClass);
+                blockCount++;
+                continue;
+            }
+
+            if (lineStartsWith(FORMAT) && currentClass == null) {
+                escaped = isEscaped(line());
+                continue;
+            }
+
+            if (lineStartsWith(SCHEMA) && currentClass == null) {
+                readLayout();
+                continue;
+            }
+
+            if (currentClass == null)
+                throw new DeserializeException("Syntax Error: No class started");
+
+            if (lineStartsWith(DAT)) {
+                readVariable();
+            } else if (lineStartsWith(END_CLASS)) {
+                handler.endClass();
+                currentClass = null;
+                layout = null;
+            }
+        }
+
+        if (currentClass != null)
+            throw new DeserializeException("Syntax Error: Class " + currentClass + " is not closed");
+        this.handler = null;
+    }
+
+    /**
+     * Checks the {@link PatchFrame} of the current line, before any of the lines of its patch are parsed.
+     *
+     * @return false if the frame is damaged, it ends the document
+     */
+    private boolean checkPatch() throws IOException, DeserializeException {
+        return PatchFrame.isComplete(line(), buffer[position - 1] == '\n', this::readPatch);
+    }
+
+    /**
+     * Reads up to {@code length} bytes after the current line into the buffer, without consuming them.
+     */
+    private byte[] readPatch(int length) throws IOException {
+        int end = position;
+        long bytes = 0;
+        while (bytes < length) {
+            if (end == limit) {
+                if (eof)
+                    break;
+                int scanned = end - position;
+                fill();
+                end = position + scanned;
+                continue;
+            }
+            bytes += utf8Length(buffer[end++]);
+        }
+
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer, position, end - position));
+        byte[] patch = new byte[encoded.remaining()];
+        encoded.get(patch);
+        return patch;
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80)
+            return 1;
+        // a surrogate pair takes 4 bytes
+        if (c < 0x800 || Character.isSurrogate(c))
+            return 2;
+        return 3;
+    }
+
+    /**
+     * Parses a {@code ::FORMAT: version} line.
+     *
+     * @return whether the values of the document are escaped
+     * @throws DeserializeException if the version is newer than the version this library writes
+     */
+    static boolean isEscaped(String formatLine) throws DeserializeException {
+        int start = FORMAT.length;
+        while (start < formatLine.length() && (formatLine.charAt(start) == ':' || formatLine.charAt(start) == ' '))
+            start++;
+
+        int version;
+        try {
+            version = Integer.parseInt(formatLine.substring(start).trim());
+        } catch (NumberFormatException e) {
+            throw new DeserializeException("Syntax Error: Invalid format line: " + formatLine);
+        }
+        if (version > TextEncoder.FORMAT_VERSION)
+            throw new DeserializeException("Unsupported text format version " + version);
+        return version >= TextEncoder.ESCAPED_FORMAT_VERSION;
+    }
+
+    /**
+     * Parses a {@code ::SCHEMA: Name#version=field@tag,...} line.
+     */
+    private void readLayout() throws DeserializeException {
+        int start = skipSeparator(lineStart + SCHEMA.length);
+        cursor = tokenEnd(start);
+        String header = unescape(start, cursor);
+        int hash = header.lastIndexOf('#');
+        if (hash < 0)
+            throw new DeserializeException("Syntax Error: Schema without version: " + line());
+        expect('=');
+
+        List<String> names = new ArrayList<>();
+        List<Integer> tags = new ArrayList<>();
+        while (cursor < lineEnd) {
+            int fieldStart = cursor;
+            cursor = tokenEnd(cursor);
+            String field = unescape(fieldStart, cursor);
+            int at = field.lastIndexOf('@');
+            if (at < 0)
+                throw new DeserializeException("Syntax Error: Field without tag: " + line());
+
+            names.add(field.substring(0, at));
+            tags.add(parseLayoutNumber(field.substring(at + 1)));
+            if (cursor < lineEnd)
+                expect(',');
+        }
+
+        String[] fieldNames = names.toArray(new String[0]);
+        ClassLayout classLayout = new ClassLayout(header.substring(0, hash), parseLayoutNumber(header.substring(hash + 1)),
+                fieldNames, tags.stream().mapToInt(Integer::intValue).toArray());
+        char[][] nameChars = new char[fieldNames.length][];
+        for (int i = 0; i < fieldNames.length; i++)
+            nameChars[i] = fieldNames[i].toCharArray();
+
+        layouts.put(classLayout.getClassName(), new Layout(classLayout, nameChars, handler.layout(classLayout)));
+    }
+
+    private int parseLayoutNumber(String value) throws DeserializeException {
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0)
+                throw new NumberFormatException();
+            return number;
+        } catch (NumberFormatException e) {
+            throw new DeserializeException("Syntax Error: Invalid version or tag: " + line());
+        }
+    }
+
+    /**
+     * @return the index of the field with this name in the layout of the current block, -1 if there is none
+     */
+    private int layoutField(int start, int end) {
+        char[][] names = layout.names;
+        // fields are written in the order of the layout, so the next one is usually the expected one
+        if (nextField < names.length && regionEquals(start, end, names[nextField]))
+            return nextField++;
+
+        for (int i = 0; i < names.length; i++) {
+            if (regionEquals(start, end, names[i])) {
+                nextField = i + 1;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a {@code ::DAT [TYPE] name=value} line.
+     */
+    private void readVariable() throws DeserializeException {
+        int typeStart = skipSpaces(lineStart + DAT.length);
+        if (typeStart >= lineEnd || buffer[typeStart] != '[')
+            throw new DeserializeException("Syntax Error: Missing type: " + line());
+
+        int typeEnd = indexOf(']', typeStart + 1, lineEnd);
+        if (typeEnd < 0)
+            throw new DeserializeException("Syntax Error: Missing type: " + line());
+
+        int nameStart = skipSpaces(typeEnd + 1);
+        int equals = indexOf('=', nameStart, lineEnd);
+        if (equals < 0)
+            throw new DeserializeException("Syntax Error: Missing value: " + line());
+
+        int field = layout == null ? -1 : layoutField(nameStart, equals);
+        String name;
+        if (field >= 0) {
+            if (layout.plan != null && !layout.plan.isNeeded(field))
+                return;
+            name = layout.layout.getFieldName(field);
+        } else {
+            name = text(nameStart, equals);
+        }
+
+        int valueStart = equals + 1;
+        boolean isNull = regionEquals(valueStart, lineEnd, NULL);
+
+        if (regionEquals(typeStart + 1, typeEnd, REFERENCE)) {
+            if (isNull) {
+                handler.reference(field, name, null, null);
+                return;
+            }
+
+            int hash = lastIndexOf('#', valueStart, lineEnd);
+            if (hash < 0)
+                throw new DeserializeException("Syntax Error: Reference without id: " + line());
+
+            handler.reference(field, name, text(valueStart, hash), new String(buffer, hash + 1, lineEnd - hash - 1));
+            return;
+        }
+
+        SerializationUtil.DirectTypes type = directType(typeStart + 1, typeEnd);
+        if (isNull)
+            handler.value(field, name, type, null);
+        else if (type.isPrimitive())
+            handler.primitive(field, name, type, parsePrimitive(type, valueStart, lineEnd));
+        else
+            handler.value(field, name, type, parseValue(type, valueStart, lineEnd));
+    }
+
+    /**
+     * @return the value as described in {@link DocumentHandler#primitive(int, String, SerializationUtil.DirectTypes, long)}
+     */
+    private long parsePrimitive(SerializationUtil.DirectTypes type, int start, int end) throws DeserializeException {
+        try {
+            return switch (type) {
+                case INTEGER -> Integer.parseInt(chars, start, end, 10);
+                case DOUBLE -> Double.doubleToRawLongBits(Double.parseDouble(new String(buffer, start, end - start)));
+                case FLOAT -> Float.floatToRawIntBits(Float.parseFloat(new String(buffer, start, end - start)));
+                case BYTE -> parseInt(start, end, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                case CHAR -> {
+                    String value = unescape(start, end);
+                    if (value.length() != 1)
+                        throw new DeserializeException("Syntax Error: Invalid char value: " + line());
+                    yield value.charAt(0);
+                }
+                case SHORT -> parseInt(start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+                case LONG -> Long.parseLong(chars, start, end, 10);
+                case BOOLEAN -> parseBoolean(start, end) ? 1 : 0;
+                default -> throw new IllegalArgumentException(type.name());
+            };
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException
+            throw new DeserializeException("Syntax Error: Invalid " + type + " value: " + line());
+        }
+    }
+
+    private Object parseValue(SerializationUtil.DirectTypes type, int start, int end) throws DeserializeException {
+        if (type.isPrimitive()) {
+            long bits = parsePrimitive(type, start, end);
+            return interns == null ? DocumentHandler.box(type, bits) : interns.box(type, bits);
+        }
+
+        try {
+            return switch (type) {
+                case STRING, ENUM -> string(start, end);
+                case CHAR_ARRAY -> unescape(start, end).toCharArray();
+                case BYTE_ARRAY -> Base64.getDecoder().decode(new String(buffer, start, end - start));
+                default -> {
+                    cursor = start;
+                    Object value = parseContainer(type);
+                    if (cursor != end)
+                        throw new DeserializeException("Syntax Error: Unexpected characters after value: " + line());
+                    yield value;
+                }
+            };
+        } catch (IllegalArgumentException e) {
+            // invalid base64
+            throw new DeserializeException("Syntax Error: Invalid " + type + " value: " + line());
+        }
+    }
+
+    private boolean parseBoolean(int start, int end) {
+        if (regionEquals(start, end, TRUE))
+            return true;
+        if (regionEquals(start, end, FALSE))
+            return false;
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Parses a primitive array, array, collection or map that starts at the {@link #cursor} and moves the cursor
+     * behind it.
+     */
+    private Object parseContainer(SerializationUtil.DirectTypes type) throws DeserializeException {
+        boolean map = type == SerializationUtil.DirectTypes.MAP;
+        expect(map ? '{' : '[');
+        char close = map ? '}' : ']';
+
+        List<Object> elements = new ArrayList<>();
+        if (cursor < lineEnd && buffer[cursor] == close) {
+            cursor++;
+        } else {
+            while (true) {
+                if (type.isContainer()) {
+                    elements.add(parseElement(elements));
+                    if (map) {
+                        expect('=');
+                        elements.add(parseElement(elements));
+                    }
+                } else {
+                    int start = cursor;
+                    cursor = tokenEnd(cursor);
+                    elements.add(parseValue(componentType(type), start, cursor));
+                }
+
+                if (cursor < lineEnd && buffer[cursor] == ',') {
+                    cursor++;
+                    continue;
+                }
+                expect(close);
+                break;
+            }
+        }
+
+        return switch (type) {
+            case SHORT_ARRAY -> {
+                short[] values = new short[elements.size()];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = (Short) elements.get(i);
+                yield values;
+            }
+            case INT_ARRAY -> elements.stream().mapToInt(value -> (Integer) value).toArray();
+            case LONG_ARRAY -> elements.stream().mapToLong(value -> (Long) value).toArray();
+            case DOUBLE_ARRAY -> elements.stream().mapToDouble(value -> (Double) value).toArray();
+            case FLOAT_ARRAY -> {
+                float[] values = new float[elements.size()];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = (Float) elements.get(i);
+                yield values;
+            }
+            case BOOLEAN_ARRAY -> {
+                boolean[] values = new boolean[elements.size()];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = (Boolean) elements.get(i);
+                yield values;
+            }
+            default -> new DeserializationData.DeserializationContainer(deserializationType(type), elements);
+        };
+    }
+
+    /**
+     * Parses a {@code PREFIX:value}, {@code <REF>:Name#id} or {@code <NULL>} element at the {@link #cursor}.
+     *
+     * @param elements list the element is added to, the handler may patch references into it later
+     */
+    private Object parseElement(List<Object> elements) throws DeserializeException {
+        if (regionStartsWith(cursor, NULL)) {
+            cursor += NULL.length;
+            return null;
+        }
+
+        if (regionStartsWith(cursor, ELEMENT_REFERENCE)) {
+            int start = cursor + ELEMENT_REFERENCE.length;
+            cursor = tokenEnd(start);
+            String signature = unescape(start, cursor);
+            int hash = signature.lastIndexOf('#');
+            if (hash < 0)
+                throw new DeserializeException("Syntax Error: Reference without id: " + line());
+
+            return handler.elementReference(elements, signature.substring(0, hash), signature.substring(hash + 1));
+        }
+
+        int colon = indexOf(':', cursor, lineEnd);
+        if (colon < 0)
+            throw new DeserializeException("Syntax Error: Element without type: " + line());
+
+        SerializationUtil.DirectTypes type = directType(cursor, colon);
+        cursor = colon + 1;
+
+        if (type.isContainer() || (type.clazz.isArray() && type != SerializationUtil.DirectTypes.BYTE_ARRAY && type != SerializationUtil.DirectTypes.CHAR_ARRAY))
+            return parseContainer(type);
+
+        int start = cursor;
+        cursor = tokenEnd(start);
+        if (type != SerializationUtil.DirectTypes.ENUM)
+            return parseValue(type, start, cursor);
+
+        String constant = unescape(start, cursor);
+        int hash = constant.lastIndexOf('#');
+        if (hash < 0)
+            throw new DeserializeException("Syntax Error: Enum element without class: " + line());
+        return new DeserializationData.DeserializationObject(DeserializationType.ENUM, constant.substring(0, hash), constant.substring(hash + 1));
+    }
+
+    private static SerializationUtil.DirectTypes componentType(SerializationUtil.DirectTypes arrayType) {
+        return switch (arrayType) {
+            case SHORT_ARRAY -> SerializationUtil.DirectTypes.SHORT;
+            case INT_ARRAY -> SerializationUtil.DirectTypes.INTEGER;
+            case LONG_ARRAY -> SerializationUtil.DirectTypes.LONG;
+            case FLOAT_ARRAY -> SerializationUtil.DirectTypes.FLOAT;
+            case DOUBLE_ARRAY -> SerializationUtil.DirectTypes.DOUBLE;
+            case BOOLEAN_ARRAY -> SerializationUtil.DirectTypes.BOOLEAN;
+            default -> throw new IllegalArgumentException(arrayType.name());
+        };
+    }
+
+    /**
+     * @return the position of the next unescaped container delimiter or the end of the line
+     */
+    private int tokenEnd(int index) {
+        while (index < lineEnd) {
+            char c = buffer[index];
+            if (c == '\\')
+                index++;
+            else if (c == ',' || c == ']' || c == '}' || c == '=')
+                return index;
+            index++;
+        }
+        return lineEnd;
+    }
+
+    private void expect(char c) throws DeserializeException {
+        if (cursor >= lineEnd || buffer[cursor] != c)
+            throw new DeserializeException("Syntax Error: Expected '" + c + "' at column " + (cursor - lineStart) + ": " + line());
+        cursor++;
+    }
+
+    private boolean regionStartsWith(int start, char[] prefix) {
+        if (lineEnd - start < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[start + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private int parseInt(int start, int end, int min, int max) {
+        int value = Integer.parseInt(chars, start, end, 10);
+        if (value < min || value > max)
+            throw new NumberFormatException();
+        return value;
+    }
+
+    private SerializationUtil.DirectTypes directType(int start, int end) throws DeserializeException {
+        for (int i = 0; i < PREFIXES.length; i++) {
+            if (regionEquals(start, end, PREFIXES[i]))
+                return DIRECT_TYPES[i];
+        }
+        throw new DeserializeException("Syntax Error: Unknown type: " + line());
+    }
+
+    static DeserializationType deserializationType(SerializationUtil.DirectTypes type) {
+        return switch (type) {
+            case STRING -> DeserializationType.STRING;
+            case INTEGER -> DeserializationType.INTEGER;
+            case DOUBLE -> DeserializationType.DOUBLE;
+            case FLOAT -> DeserializationType.FLOAT;
+            case BYTE -> DeserializationType.BYTE;
+            case CHAR -> DeserializationType.CHAR;
+            case SHORT -> DeserializationType.SHRT;
+            case LONG -> DeserializationType.LONG;
+            case BOOLEAN -> DeserializationType.BOOL;
+            case ENUM -> DeserializationType.ENUM;
+            case BYTE_ARRAY -> DeserializationType.BYTE_ARRAY;
+            case SHORT_ARRAY -> DeserializationType.SHORT_ARRAY;
+            case INT_ARRAY -> DeserializationType.INT_ARRAY;
+            case LONG_ARRAY -> DeserializationType.LONG_ARRAY;
+            case FLOAT_ARRAY -> DeserializationType.FLOAT_ARRAY;
+            case DOUBLE_ARRAY -> DeserializationType.DOUBLE_ARRAY;
+            case CHAR_ARRAY -> DeserializationType.CHAR_ARRAY;
+            case BOOLEAN_ARRAY -> DeserializationType.BOOL_ARRAY;
+            case ARRAY -> DeserializationType.ARRAY;
+            case LIST -> DeserializationType.LIST;
+            case SET -> DeserializationType.SET;
+            case MAP -> DeserializationType.MAP;
+        };
+    }
+
+    /**
+     * @return the unescaped string of the region, interned if there is an intern table
+     */
+    private String string(int start, int end) {
+        if (interns == null)
+            return unescape(start, end);
+        return !escaped || indexOf('\\', start, end) < 0 ? interns.intern(buffer, start, end) : interns.intern(unescape(start, end));
+    }
+
+    /**
+     * @return the region as it is, interned if there is an intern table
+     */
+    private String text(int start, int end) {
+        return interns == null ? new String(buffer, start, end - start) : interns.intern(buffer, start, end);
+    }
+
+    /**
+     * Reverts the escaping of {@link TextEncoder}. Backslashes that do not start one of its escape sequences, and all
+     * backslashes of documents without format line, are kept.
+     */
+    private String unescape(int start, int end) {
+        int backslash = escaped ? indexOf('\\', start, end) : -1;
+        if (backslash < 0)
+            return new String(buffer, start, end - start);
+
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(buffer, start, backslash - start);
+        for (int i = backslash; i < end; i++) {
+            char c = buffer[i];
+            if (c != '\\' || i + 1 == end) {
+                builder.append(c);
+                continue;
+            }
+
+            c = buffer[++i];
+            switch (c) {
+                case 'n' -> builder.append('\n');
+                case 'r' -> builder.append('\r');
+                case '\\', '<', ',', ']', '}', '=' -> builder.append(c);
+                default -> builder.append('\\').append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Moves to the next line of the input, the line is available between {@link #lineStart} and {@link #lineEnd}.
+     *
+     * @return false at the end of the input
+     */
+    private boolean nextLine() throws IOException {
+        int scanned = position;
+        while (true) {
+            int newline = indexOf('\n', scanned, limit);
+            if (newline >= 0) {
+                setLine(position, newline);
+                position = newline + 1;
+                return true;
+            }
+
+            if (eof) {
+                if (position == limit)
+                    return false;
+                setLine(position, limit);
+                position = limit;
+                return true;
+            }
+
+            scanned = limit - position;
+            fill();
+            scanned = position + scanned;
+        }
+    }
+
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Moves the unread part of the buffer to the front and reads more input, the buffer grows for very long lines.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position == 0 && remaining == buffer.length) {
+            char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, remaining);
+            buffer = grown;
+            chars = CharBuffer.wrap(buffer);
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0)
+            eof = true;
+        else
+            limit += read;
+    }
+
+    private boolean lineStartsWith(char[] prefix) {
+        if (lineEnd - lineStart < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[lineStart + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, int end, char[] expected) {
+        if (end - start != expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer[start + i] != expected[i])
+                return false;
+        }
+        return true;
+    }
+
+    private int skipSeparator(int index) {
+        while (index < lineEnd && (buffer[index] == ':' || buffer[index] == ' '))
+            index++;
+        return index;
+    }
+
+    private int skipSpaces(int index) {
+        while (index < lineEnd && buffer[index] == ' ')
+            index++;
+        return index;
+    }
+
+    private int indexOf(char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(char c, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (buffer[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private String line() {
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * @param names the field names of the layout as chars, to match them in place
+     * @param plan  plan of the handler for the layout, null if every field is needed
+     */
+    private record Layout(ClassLayout layout, char[][] names, ReadPlan plan) {
+    }
+
+    /**
+     * Looks up blocks that are referenced by the decoded input but stored somewhere else.
+     */
+    interface ReferenceResolver {
+
+        /**
+         * @return the block with this uuid or null if there is none
+         */
+        DeserializationData.DeserializationClass resolve(String uuid) throws DeserializeException;
+    }
+}
@@ -0,0 +1,675 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+import dev.steinmoetzger.shortserialization.metrics.ClassCounter;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.Phase;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * Writes an object graph in the "::DAT" text format. Every object becomes one block, all blocks are streamed
+ * through the same writer.
+ * <p>
+ * The graph is walked breadth first on the calling thread. Objects are tracked by identity and numbered in the order
+ * they are discovered, the root block has the suffix {@code ROOT} and every other block its number, so the output only
+ * depends on the graph. If an executor is given, the blocks are formatted on the executor while the calling thread keeps
+ * walking the graph. At most {@code maxPendingBlocks} formatted blocks are held in memory and they are written in
+ * the same order as in the single threaded mode, so both modes produce identical output.
+ * <p>
+ * Documents start with a {@code ::FORMAT: 2} line. Values are escaped so they always stay on their line, readers only
+ * unescape documents with that line, documents of version 1 have none and were written without escaping.
+ * <p>
+ * The first block of a {@link ClassSchema#isVersioned() versioned} class is preceded by a
+ * {@code ::SCHEMA: Name#version=field@tag,...} line that describes its layout, so readers can map the variables of
+ * older or newer versions of the class to their fields.
+ */
+public class TextEncoder {
+
+    public static final int DEFAULT_PENDING_BLOCKS = 64;
+
+    static final int FORMAT_VERSION = 2;
+    // first version whose values are escaped
+    static final int ESCAPED_FORMAT_VERSION = 2;
+    static final String FORMAT_LINE = "::FORMAT: " + FORMAT_VERSION;
+
+    private final Writer writer;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+
+    private final ReferenceTracker tracker;
+    private int objectCount;
+    private final ArrayDeque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+    private final BlockWriter blockWriter = new BlockWriter();
+    // versioned classes whose layout was written already
+    private final Set<ClassSchema> described = new HashSet<>();
+    private boolean firstBlock = true;
+    // receives the ids of referenced objects while a single block is formatted
+    private IntConsumer referenced;
+
+    public TextEncoder(Writer writer) {
+        this(writer, new ReferenceTracker());
+    }
+
+    public TextEncoder(Writer writer, ReferenceTracker tracker) {
+        this(writer, tracker, null, DEFAULT_PENDING_BLOCKS);
+    }
+
+    /**
+     * @param tracker empty tracker used to number the objects of the graph, it is reset after writing
+     */
+    public TextEncoder(Writer writer, ReferenceTracker tracker, ExecutorService executor, int maxPendingBlocks) {
+        if (maxPendingBlocks < 1)
+            throw new IllegalArgumentException("maxPendingBlocks must be at least 1");
+
+        this.writer = writer;
+        this.tracker = tracker;
+        this.executor = executor;
+        this.maxPendingBlocks = maxPendingBlocks;
+    }
+
+    public void write(Object root) throws IOException, SerializeException {
+        try {
+            writeGraph(root);
+            objectCount = tracker.size();
+            if (Instrumentation.getListener().countsClasses())
+                countClasses();
+        } finally {
+            cancelPendingBlocks();
+            tracker.reset();
+            described.clear();
+            blockWriter.out = null;
+            firstBlock = true;
+        }
+    }
+
+    private void countClasses() {
+        ClassCounter counter = new ClassCounter();
+        for (int id = 0; id < tracker.size(); id++)
+            counter.add(ClassSchema.of(tracker.objectAt(id).getClass()).getName());
+        counter.report(Instrumentation.getListener(), Phase.SERIALIZE);
+    }
+
+    /**
+     * @return the number of objects of the last written graph
+     */
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    private void writeGraph(Object root) throws IOException, SerializeException {
+        tracker.add(root);
+        writer.write(FORMAT_LINE);
+        writer.write('\n');
+
+        // the tracker hands out ids in the order objects are discovered, so it doubles as the work queue
+        for (int id = 0; id < tracker.size(); id++) {
+            Object object = tracker.objectAt(id);
+
+            ClassSchema schema = ClassSchema.of(object.getClass());
+            if (!schema.isSerializable())
+                throw new SerializeException("SerializableClass annotation is missing");
+
+            if (schema.getFields().isEmpty())
+                throw new SerializeException("This object does not have any serializable fields");
+
+            boolean describe = schema.isVersioned() && described.add(schema);
+            if (executor == null) {
+                startBlock();
+                blockWriter.writeBlock(writer, object, schema, id, null, describe);
+                continue;
+            }
+
+            String[] references = collectReferences(object, schema);
+            int blockId = id;
+            pendingBlocks.add(new PendingBlock(() -> {
+                StringBuilder builder = new StringBuilder(256);
+                new BlockWriter().writeBlock(builder, object, schema, blockId, references, describe);
+                return builder.toString();
+            }));
+
+            if (pendingBlocks.size() >= maxPendingBlocks)
+                writePendingBlock();
+        }
+
+        while (!pendingBlocks.isEmpty())
+            writePendingBlock();
+
+        writer.flush();
+    }
+
+    /**
+     * Formats the block of a single object without writing the graph. References are numbered with the tracker of this
+     * encoder, which is not reset, so the ids stay the same across calls.
+     *
+     * @param describe   whether the layout of the class is written before the block
+     * @param referenced receives the id of every object the block references
+     */
+    void formatBlock(Appendable out, Object object, ClassSchema schema, int id, boolean describe, IntConsumer referenced) throws IOException, SerializeException {
+        this.referenced = referenced;
+        try {
+            blockWriter.writeBlock(out, object, schema, id, null, describe);
+        } finally {
+            this.referenced = null;
+            blockWriter.out = null;
+        }
+    }
+
+    private void startBlock() throws IOException {
+        if (!firstBlock)
+            writer.write("\n");
+        firstBlock = false;
+    }
+
+    private void writePendingBlock() throws IOException, SerializeException {
+        String block;
+        try {
+            block = pendingBlocks.poll().future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SerializeException)
+                throw (SerializeException) e.getCause();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+
+        startBlock();
+        writer.write(block);
+    }
+
+    /**
+     * Cancels the blocks that were not written because writing failed and waits for those that are being formatted,
+     * so no block encoder reads the graph anymore once {@link #write(Object)} returns.
+     */
+    private void cancelPendingBlocks() {
+        boolean interrupted = false;
+        for (PendingBlock block : pendingBlocks) {
+            if (block.cancel()) {
+                try {
+                    block.finished.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        pendingBlocks.clear();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Resolves the reference fields of an object up front, so its block can be formatted on another thread. Arrays,
+     * collections and maps can hold references as well, they are formatted completely.
+     *
+     * @return the value written for each reference or container field, null for other fields
+     */
+    private String[] collectReferences(Object object, ClassSchema schema) throws IOException, SerializeException {
+        List<FieldSchema> fields = schema.getFields();
+        String[] references = new String[fields.size()];
+        for (FieldSchema field : fields) {
+            if (field.isReference()) {
+                references[field.getIndex()] = reference(field.getAccessor().get(object));
+            } else if (field.getType().isContainer()) {
+                Object value = field.getAccessor().get(object);
+                if (value != null) {
+                    StringBuilder builder = new StringBuilder();
+                    writeValue(builder, field.getType(), value, false);
+                    references[field.getIndex()] = builder.toString();
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Looks up the id of a referenced object and queues it if it was not seen before.
+     */
+    private String reference(Object val) throws SerializeException {
+        if (val == null)
+            return "<NULL>";
+
+        ClassSchema valSchema = ClassSchema.of(val.getClass());
+        return valSchema.getName() + "#" + suffix(referenceId(val, valSchema));
+    }
+
+    private int referenceId(Object val, ClassSchema valSchema) throws SerializeException {
+        if (!valSchema.isSerializable())
+            throw new SerializeException("Any child class of serializable object must have SerializableClass annotation");
+
+        // handling circular references
+        int id = tracker.idOf(val);
+        if (id < 0)
+            id = tracker.add(val);
+        if (referenced != null)
+            referenced.accept(id);
+        return id;
+    }
+
+    /**
+     * Writes the value of a direct type that is not written as plain text. Elements of arrays, collections and maps
+     * are written as {@code PREFIX:value}, references as {@code <REF>:Name#id} and null as {@code <NULL>}. Arrays,
+     * lists and sets are enclosed in {@code [...]}, maps in <code>{key=value,...}</code>.
+     *
+     * @param element true if the value is an element of a container, its strings escape the container delimiters
+     */
+    private void writeValue(Appendable out, SerializationUtil.DirectTypes type, Object value, boolean element) throws IOException, SerializeException {
+        switch (type) {
+            case STRING, CHAR -> writeString(out, value.toString(), element);
+            case ENUM -> writeString(out, ((Enum<?>) value).name(), element);
+            case CHAR_ARRAY -> writeString(out, new String((char[]) value), element);
+            case BYTE_ARRAY -> out.append(Base64.getEncoder().withoutPadding().encodeToString((byte[]) value));
+            case SHORT_ARRAY -> {
+                short[] values = (short[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++)
+                    (i == 0 ? out : out.append(',')).append(Short.toString(values[i]));
+                out.append(']');
+            }
+            case INT_ARRAY -> {
+                int[] values = (int[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++)
+                    (i == 0 ? out : out.append(',')).append(Integer.toString(values[i]));
+                out.append(']');
+            }
+            case LONG_ARRAY -> {
+                long[] values = (long[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++)
+                    (i == 0 ? out : out.append(',')).append(Long.toString(values[i]));
+                out.append(']');
+            }
+            case FLOAT_ARRAY -> {
+                float[] values = (float[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++)
+                    (i == 0 ? out : out.append(',')).append(Float.toString(values[i]));
+                out.append(']');
+            }
+            case DOUBLE_ARRAY -> {
+                double[] values = (double[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++)
+                    (i == 0 ? out : out.append(',')).append(Double.toString(values[i]));
+                out.append(']');
+            }
+            case BOOLEAN_ARRAY -> {
+                boolean[] values = (boolean[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++)
+                    (i == 0 ? out : out.append(',')).append(Boolean.toString(values[i]));
+                out.append(']');
+            }
+            case ARRAY -> {
+                Object[] values = (Object[]) value;
+                out.append('[');
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0)
+                        out.append(',');
+                    writeElement(out, values[i]);
+                }
+                out.append(']');
+            }
+            case LIST, SET -> {
+                out.append('[');
+                boolean first = true;
+                for (Object item : (Collection<?>) value) {
+                    if (!first)
+                        out.append(',');
+                    first = false;
+                    writeElement(out, item);
+                }
+                out.append(']');
+            }
+            case MAP -> {
+                out.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    if (!first)
+                        out.append(',');
+                    first = false;
+                    writeElement(out, entry.getKey());
+                    out.append('=');
+                    writeElement(out, entry.getValue());
+                }
+                out.append('}');
+            }
+            default -> out.append(value.toString());
+        }
+    }
+
+    private void writeElement(Appendable out, Object value) throws IOException, SerializeException {
+        if (value == null) {
+            out.append("<NULL>");
+            return;
+        }
+
+        SerializationUtil.DirectTypes type = SerializationUtil.DirectTypes.fromType(value.getClass());
+        if (type == null) {
+            out.append("<REF>:");
+            writeString(out, reference(value), true);
+            return;
+        }
+
+        out.append(type.prefix).append(':');
+        if (type == SerializationUtil.DirectTypes.ENUM) {
+            // elements do not have a field that tells their enum
+            Enum<?> constant = (Enum<?>) value;
+            writeString(out, constant.getDeclaringClass().getName() + "#" + constant.name(), true);
+            return;
+        }
+        writeValue(out, type, value, true);
+    }
+
+    private static void writeString(Appendable out, String value, boolean element) throws IOException {
+        if (element)
+            writeEscapedElement(out, value);
+        else
+            writeEscaped(out, value);
+    }
+
+    private static String suffix(int id) {
+        return id == 0 ? "ROOT" : Integer.toString(id);
+    }
+
+    /**
+     * Escapes line breaks and backslashes so a value always stays on its line. A leading {@code <} is escaped as well,
+     * which keeps the string "&lt;NULL&gt;" apart from null.
+     */
+    private static void writeEscaped(Appendable out, String value) throws IOException {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escaped;
+            if (c == '\\')
+                escaped = "\\\\";
+            else if (c == '\n')
+                escaped = "\\n";
+            else if (c == '\r')
+                escaped = "\\r";
+            else if (c == '<' && i == 0)
+                escaped = "\\<";
+            else
+                continue;
+
+            out.append(value, start, i).append(escaped);
+            start = i + 1;
+        }
+        out.append(value, start, value.length());
+    }
+
+    /**
+     * Escapes a string inside a container, in addition to {@link #writeEscaped(Appendable, String)} the delimiters
+     * {@code , ] } =} are escaped.
+     */
+    private static void writeEscapedElement(Appendable out, String value) throws IOException {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escaped;
+            if (c == '\\')
+                escaped = "\\\\";
+            else if (c == '\n')
+                escaped = "\\n";
+            else if (c == '\r')
+                escaped = "\\r";
+            else if (c == ',' || c == ']' || c == '}' || c == '=')
+                escaped = "\\" + c;
+            else
+                continue;
+
+            out.append(value, start, i).append(escaped);
+            start = i + 1;
+        }
+        out.append(value, start, value.length());
+    }
+
+    /**
+     * Formats the "::DAT" lines of one block from the values the {@link ClassCodec} of the object writes.
+     */
+    private final class BlockWriter implements FieldSink {
+
+        private Appendable out;
+        private List<FieldSchema> fields;
+        private String[] references;
+
+        // numbers are formatted here instead of into a new string per value
+        private final char[] digits = new char[20];
+
+        /**
+         * @param references resolved references of the object, or null to resolve them while writing
+         * @param describe   whether the layout of the class is written before the block
+         */
+        void writeBlock(Appendable out, Object object, ClassSchema schema, int id, String[] references, boolean describe) throws IOException, SerializeException {
+            this.out = out;
+            this.fields = schema.getFields();
+            this.references = references;
+
+            String className = schema.getName();
+
+            out.append("\n# Beginning of a serialized object from ShortSerializer.\n# WARNING: If the file is changed, the functionality might not be fully granted\n");
+            if (describe)
+                writeLayout(schema.getLayout());
+            out.append("::BEGIN CLASS: ").append(className).append('#');
+            writeSuffix(id);
+            out.append('\n');
+
+            schema.getCodec().write(object, this);
+
+            out.append("::END CLASS: ").append(className).append('#');
+            writeSuffix(id);
+        }
+
+        /**
+         * Names are escaped like strings in containers, so the delimiters of the line stay unambiguous.
+         */
+        private void writeLayout(ClassLayout layout) throws IOException {
+            out.append("::SCHEMA: ");
+            writeEscapedElement(out, layout.getClassName());
+            out.append('#');
+            writeNumber(layout.getVersion());
+            out.append('=');
+            for (int i = 0; i < layout.getFieldCount(); i++) {
+                if (i > 0)
+                    out.append(',');
+                writeEscapedElement(out, layout.getFieldName(i));
+                out.append('@');
+                writeNumber(layout.getTag(i));
+            }
+            out.append('\n');
+        }
+
+        private void writeSuffix(int id) throws IOException {
+            if (id == 0)
+                out.append("ROOT");
+            else
+                writeNumber(id);
+        }
+
+        private void writeNumber(long value) throws IOException {
+            int start = digits.length;
+            long remaining = value;
+            do {
+                digits[--start] = (char) ('0' + Math.abs(remaining % 10));
+                remaining /= 10;
+            } while (remaining != 0);
+            if (value < 0)
+                digits[--start] = '-';
+
+            if (out instanceof Writer) {
+                ((Writer) out).write(digits, start, digits.length - start);
+            } else {
+                for (int i = start; i < digits.length; i++)
+                    out.append(digits[i]);
+            }
+        }
+
+        private Appendable startLine(int index) throws IOException {
+            FieldSchema field = fields.get(index);
+            if (field.isReference())
+                return out.append("::DAT [<REF>] ").append(field.getName()).append("=");
+
+            return out.append("::DAT [").append(field.getType().prefix).append("] ").append(field.getName()).append("=");
+        }
+
+        @Override
+        public void writeString(int index, String value) throws IOException {
+            startLine(index);
+            if (value == null)
+                out.append("<NULL>");
+            else
+                writeEscaped(out, value);
+            out.append("\n");
+        }
+
+        @Override
+        public void writeInt(int index, int value) throws IOException {
+            startLine(index);
+            writeNumber(value);
+            out.append('\n');
+        }
+
+        @Override
+        public void writeDouble(int index, double value) throws IOException {
+            startLine(index).append(Double.toString(value)).append("\n");
+        }
+
+        @Override
+        public void writeFloat(int index, float value) throws IOException {
+            startLine(index).append(Float.toString(value)).append("\n");
+        }
+
+        @Override
+        public void writeByte(int index, byte value) throws IOException {
+            startLine(index);
+            writeNumber(value);
+            out.append('\n');
+        }
+
+        @Override
+        public void writeChar(int index, char value) throws IOException {
+            // escaped like writeEscaped escapes a string of one char
+            startLine(index);
+            switch (value) {
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '<' -> out.append("\\<");
+                default -> out.append(value);
+            }
+            out.append('\n');
+        }
+
+        @Override
+        public void writeShort(int index, short value) throws IOException {
+            startLine(index);
+            writeNumber(value);
+            out.append('\n');
+        }
+
+        @Override
+        public void writeLong(int index, long value) throws IOException {
+            startLine(index);
+            writeNumber(value);
+            out.append('\n');
+        }
+
+        @Override
+        public void writeBoolean(int index, boolean value) throws IOException {
+            startLine(index).append(Boolean.toString(value)).append("\n");
+        }
+
+        @Override
+        public void writeObject(int index, Object value) throws IOException, SerializeException {
+            FieldSchema field = fields.get(index);
+            if (field.isReference()) {
+                startLine(index);
+                if (references != null) {
+                    out.append(references[index]);
+                } else if (value == null) {
+                    out.append("<NULL>");
+                } else {
+                    ClassSchema valueSchema = ClassSchema.of(value.getClass());
+                    int id = referenceId(value, valueSchema);
+                    out.append(valueSchema.getName()).append('#');
+                    writeSuffix(id);
+                }
+                out.append('\n');
+                return;
+            }
+
+            if (value == null) {
+                writeString(index, null);
+                return;
+            }
+
+            startLine(index);
+            if (references != null && field.getType().isContainer())
+                out.append(references[index]);
+            else
+                writeValue(out, field.getType(), value, false);
+            out.append("\n");
+        }
+    }
+
+    private interface BlockFormatter {
+        String format() throws IOException, SerializeException;
+    }
+
+    /**
+     * Block that is formatted on the executor. A block that has not started yet never starts once it is cancelled.
+     */
+    private final class PendingBlock {
+
+        final Future<String> future;
+        final CountDownLatch finished = new CountDownLatch(1);
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        PendingBlock(BlockFormatter formatter) {
+            this.future = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true))
+                    return null;
+                try {
+                    return formatter.format();
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        /**
+         * @return whether the block is being formatted or was formatted, so {@link #finished} has to be awaited
+         */
+        boolean cancel() {
+            future.cancel(true);
+            return !claimed.compareAndSet(false, true);
+        }
+    }
+}
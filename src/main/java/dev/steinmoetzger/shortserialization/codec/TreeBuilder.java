@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationType;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ReadPlan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the blocks of a document into {@link DeserializationData}. References point to blocks that may come later
+ * in the document, so they are patched once all blocks are read.
+ * <p>
+ * Nothing is skipped, the blocks keep every variable under its wire name together with the layout of their class.
+ * A block whose id was read before is a patch, its variables replace those of the earlier block.
+ */
+final class TreeBuilder implements DocumentHandler {
+
+    private final DeserializationData data = new DeserializationData();
+    private final TextDecoder.ReferenceResolver resolver;
+    private final InternTable interns;
+    private final List<DeserializationData.DeserializationObject> references = new ArrayList<>();
+    private final List<ElementReference> elementReferences = new ArrayList<>();
+    private DeserializationData.DeserializationClass current;
+
+    /**
+     * @param resolver resolves references to blocks that are not part of the document, or null
+     * @param interns  table the boxed values are interned in, or null
+     */
+    TreeBuilder(TextDecoder.ReferenceResolver resolver, InternTable interns) {
+        this.resolver = resolver;
+        this.interns = interns;
+    }
+
+    @Override
+    public ReadPlan layout(ClassLayout layout) {
+        data.getLayouts().put(layout.getClassName(), layout);
+        return null;
+    }
+
+    @Override
+    public void beginClass(String className, String uuid) {
+        current = data.getClasses().get(uuid);
+        if (current != null)
+            return;
+
+        current = new DeserializationData.DeserializationClass(uuid, className);
+        current.setLayout(data.getLayouts().get(className));
+    }
+
+    @Override
+    public void primitive(int field, String name, SerializationUtil.DirectTypes type, long bits) {
+        value(field, name, type, interns == null ? DocumentHandler.box(type, bits) : interns.box(type, bits));
+    }
+
+    @Override
+    public void value(int field, String name, SerializationUtil.DirectTypes type, Object value) {
+        current.getVariables().put(name, new DeserializationData.DeserializationObject(TextDecoder.deserializationType(type), name, value));
+    }
+
+    @Override
+    public void reference(int field, String name, String className, String uuid) {
+        // the uuid is kept as placeholder until all blocks are read
+        DeserializationData.DeserializationObject reference = new DeserializationData.DeserializationObject(DeserializationType.REFERENCE, name, uuid);
+        current.getVariables().put(name, reference);
+        if (uuid != null)
+            references.add(reference);
+    }
+
+    @Override
+    public Object elementReference(List<Object> elements, String className, String uuid) {
+        elementReferences.add(new ElementReference(elements, elements.size(), uuid));
+        return null;
+    }
+
+    @Override
+    public void endClass() {
+        data.getClasses().put(current.getUuid(), current);
+        current = null;
+    }
+
+    /**
+     * @return the blocks of the document with all references resolved
+     */
+    DeserializationData finish() throws DeserializeException {
+        for (DeserializationData.DeserializationObject reference : references)
+            reference.setValue(target((String) reference.getValue()));
+
+        for (ElementReference reference : elementReferences)
+            reference.elements.set(reference.index, target(reference.uuid));
+
+        return data;
+    }
+
+    /**
+     * The resolver owns the blocks when there is one, the blocks decoded here are only copies of them.
+     */
+    private DeserializationData.DeserializationClass target(String uuid) throws DeserializeException {
+        DeserializationData.DeserializationClass target = resolver != null ? resolver.resolve(uuid) : data.getClasses().get(uuid);
+        if (target == null)
+            throw new DeserializeException("Reference to unknown object " + uuid);
+        return target;
+    }
+
+    private record ElementReference(List<Object> elements, int index, String uuid) {
+    }
+}
@@ -0,0 +1,176 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Buffered UTF-8 reader that can be bound to another stream with {@link #reset(InputStream)}, so a single instance
+ * and its buffer serve many documents. Malformed input is replaced with U+FFFD like {@code InputStreamReader} does.
+ */
+public final class Utf8Reader extends Reader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private boolean eof;
+    private InputStream in;
+
+    // second half of a surrogate pair that did not fit into the previous read
+    private char pendingLowSurrogate;
+
+    public Utf8Reader() {
+    }
+
+    public Utf8Reader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Binds the reader to another stream. Bytes that were buffered but not read yet are dropped.
+     */
+    public void reset(InputStream in) {
+        this.in = in;
+        this.position = 0;
+        this.limit = 0;
+        this.eof = false;
+        this.pendingLowSurrogate = 0;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        int count = 0;
+        if (pendingLowSurrogate != 0) {
+            chars[offset + count++] = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+        }
+
+        while (count < length) {
+            if (position == limit || (!eof && limit - position < Math.max(1, sequenceLength(buffer[position] & 0xFF)))) {
+                // only blocks for more input if nothing was decoded yet
+                if (count > 0)
+                    return count;
+                if (eof)
+                    return -1;
+                fill();
+                continue;
+            }
+
+            int b = buffer[position] & 0xFF;
+            if (b < 0x80) {
+                chars[offset + count++] = (char) b;
+                position++;
+                continue;
+            }
+
+            int sequenceLength = sequenceLength(b);
+            int validLength = validLength(b, sequenceLength);
+            if (sequenceLength == 0 || validLength < sequenceLength) {
+                // the valid start of a broken sequence is replaced as a whole
+                chars[offset + count++] = REPLACEMENT;
+                position += validLength;
+                continue;
+            }
+
+            int codePoint = decode(b, sequenceLength);
+            if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+                chars[offset + count++] = REPLACEMENT;
+                position += sequenceLength;
+            } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[offset + count++] = (char) codePoint;
+                position += sequenceLength;
+            } else {
+                chars[offset + count++] = Character.highSurrogate(codePoint);
+                if (count < length)
+                    chars[offset + count++] = Character.lowSurrogate(codePoint);
+                else
+                    pendingLowSurrogate = Character.lowSurrogate(codePoint);
+                position += sequenceLength;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the length of the sequence the lead byte starts, 0 if it can not start one
+     */
+    private static int sequenceLength(int lead) {
+        if (lead < 0x80)
+            return 1;
+        if (lead >= 0xC2 && lead <= 0xDF)
+            return 2;
+        if (lead >= 0xE0 && lead <= 0xEF)
+            return 3;
+        if (lead >= 0xF0 && lead <= 0xF4)
+            return 4;
+        return 0;
+    }
+
+    /**
+     * @return how many bytes of the sequence at the current position are valid, at least 1
+     */
+    private int validLength(int lead, int sequenceLength) {
+        if (sequenceLength == 0)
+            return 1;
+
+        int length = 1;
+        while (length < sequenceLength && position + length < limit) {
+            int b = buffer[position + length] & 0xFF;
+            if (length == 1 ? !validSecondByte(lead, b) : (b & 0xC0) != 0x80)
+                break;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * The second byte also rules out overlong encodings and code points above U+10FFFF. Encoded surrogates are
+     * rejected once the whole sequence is decoded, like the JDK decoder does.
+     */
+    private static boolean validSecondByte(int lead, int b) {
+        return switch (lead) {
+            case 0xE0 -> b >= 0xA0 && b <= 0xBF;
+            case 0xF0 -> b >= 0x90 && b <= 0xBF;
+            case 0xF4 -> b >= 0x80 && b <= 0x8F;
+            default -> (b & 0xC0) == 0x80;
+        };
+    }
+
+    /**
+     * @return the code point of the valid sequence at the current position
+     */
+    private int decode(int lead, int sequenceLength) {
+        int codePoint = lead & (0xFF >> (sequenceLength + 1));
+        for (int i = 1; i < sequenceLength; i++)
+            codePoint = (codePoint << 6) | (buffer[position + i] & 0x3F);
+        return codePoint;
+    }
+
+    private void fill() throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0)
+            eof = true;
+        else
+            limit += read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Buffered UTF-8 writer that can be bound to another stream with {@link #reset(OutputStream)}, so a single instance
+ * and its buffer serve many documents. Unlike {@code OutputStreamWriter} it encodes appended char sequences in place
+ * instead of copying them into strings first. Unpaired surrogates are written as {@code ?}, like
+ * {@link String#getBytes(java.nio.charset.Charset)} does.
+ */
+public final class Utf8Writer extends Writer {
+
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private OutputStream out;
+    private char highSurrogate;
+
+    public Utf8Writer() {
+    }
+
+    public Utf8Writer(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Binds the writer to another stream. Bytes that were not flushed yet are dropped.
+     */
+    public void reset(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+        this.highSurrogate = 0;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (c < 0x80 && highSurrogate == 0 && position < buffer.length)
+                buffer[position++] = (byte) c;
+            else
+                encode(c);
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        append(string, offset, offset + length);
+    }
+
+    @Override
+    public Writer append(CharSequence sequence) throws IOException {
+        return sequence == null ? append("null", 0, 4) : append(sequence, 0, sequence.length());
+    }
+
+    @Override
+    public Writer append(CharSequence sequence, int start, int end) throws IOException {
+        if (sequence == null)
+            return append("null", start, end);
+
+        for (int i = start; i < end; i++) {
+            char c = sequence.charAt(i);
+            if (c < 0x80 && highSurrogate == 0 && position < buffer.length)
+                buffer[position++] = (byte) c;
+            else
+                encode(c);
+        }
+        return this;
+    }
+
+    private void encode(char c) throws IOException {
+        // room for the longest encoding of one code point
+        if (buffer.length - position < 4)
+            flushBuffer();
+
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            buffer[position++] = '?';
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            encode('?');
+        }
+        flush();
+        out.close();
+    }
+}
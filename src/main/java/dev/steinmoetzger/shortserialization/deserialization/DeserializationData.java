@@ -7,48 +7,60 @@ stated in a license file.
 package dev.steinmoetzger.shortserialization.deserialization;
 
 import dev.steinmoetzger.shortserialization.SerializationUtil;
-import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
-import dev.steinmoetzger.shortserialization.annotation.SerializableField;
 import dev.steinmoetzger.shortserialization.exception.DeserializeException;
-import org.reflections.Reflections;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
 
-import java.lang.invoke.MethodType;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Decoded class blocks of a document. The blocks can be read and turned into objects by several threads at once,
+ * variables of a block are only written before the block is handed out.
+ */
 public class DeserializationData {
 
 
-    private HashMap<String, DeserializationClass> classes;
+    // concurrent because lazily decoded documents add blocks while other threads read them
+    private final Map<String, DeserializationClass> classes;
+    private final Map<String, ClassLayout> layouts;
 
     public DeserializationData() {
-        this.classes = new HashMap<>();
+        this.classes = new ConcurrentHashMap<>();
+        this.layouts = new ConcurrentHashMap<>();
     }
 
-    public HashMap<String, DeserializationClass> getClasses() {
+    public Map<String, DeserializationClass> getClasses() {
         return classes;
     }
 
+    /**
+     * @return the layouts the document describes its classes with, by class name
+     */
+    public Map<String, ClassLayout> getLayouts() {
+        return layouts;
+    }
+
 
     public Object toObject(String classpath) throws DeserializeException, NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException, NoSuchFieldException, ClassNotFoundException {
-        Reflections reflections = new Reflections(classpath);
-        HashMap<String, Object> javaClasses = new HashMap<>();
-        Set<Class<?>> clazzes = reflections.getTypesAnnotatedWith(SerializableClass.class);
-        Object obj;
-        for (Map.Entry<String, DeserializationClass> entry : getClasses().entrySet()) {
-            String uuid = entry.getKey();
-            DeserializationClass clazz = entry.getValue();
-            javaClasses.put(uuid, SerializationUtil.deserializeClass(clazz, classpath));
-        }
+        DeserializationClass root = findClass("ROOT");
+        if (root == null)
+            throw new DeserializeException("No ROOT class found");
 
-        return javaClasses.get("ROOT");
+        return SerializationUtil.deserializeClass(root, classpath, new IdentityHashMap<>());
 
     }
 
+    /**
+     * @return the class block with this uuid or null if there is none
+     */
+    protected DeserializationClass findClass(String uuid) throws DeserializeException {
+        return getClasses().get(uuid);
+    }
+
     @Override
     public String toString() {
         return "DeserializationData{" +
@@ -60,6 +72,7 @@ public class DeserializationData {
         private String uuid;
         private String fieldName;
         private HashMap<String, DeserializationObject> variables;
+        private ClassLayout layout;
 
 
         public DeserializationClass(String uuid, String fieldName) {
@@ -81,6 +94,17 @@ public class DeserializationData {
             return variables;
         }
 
+        /**
+         * @return the layout the class was written with, or null if the document does not describe it
+         */
+        public ClassLayout getLayout() {
+            return layout;
+        }
+
+        public void setLayout(ClassLayout layout) {
+            this.layout = layout;
+        }
+
 
         @Override
         public String toString() {
@@ -103,10 +127,15 @@ public class DeserializationData {
             return "DeserializationObject{" +
                     "type=" + type +
                     ", name='" + name + '\'' +
-                    ", value=" + value +
+                    // references are printed by their signature, printing the class could recurse forever on circular references
+                    ", value=" + (value instanceof DeserializationClass ? signature((DeserializationClass) value) : value) +
                     '}';
         }
 
+        private static String signature(DeserializationClass deserializationClass) {
+            return deserializationClass.getFieldName() + "#" + deserializationClass.getUuid();
+        }
+
         public DeserializationObject(DeserializationType type, String name, Object value) {
             this.type = type;
             this.name = name;
@@ -137,4 +166,45 @@ public class DeserializationData {
             this.value = value;
         }
     }
+
+    /**
+     * Decoded value of an array, collection or map field. The elements are decoded values of any type:
+     * <ul>
+     *     <li>{@link DeserializationClass} for references to other class blocks</li>
+     *     <li>{@link DeserializationContainer} for nested arrays, collections and maps</li>
+     *     <li>{@link DeserializationObject} of type {@link DeserializationType#ENUM} for enum constants, named after the enum class</li>
+     *     <li>strings, boxed primitives and primitive arrays as they are</li>
+     * </ul>
+     * Maps store their keys and values alternating.
+     */
+    public static class DeserializationContainer {
+
+        private final DeserializationType type;
+        private final List<Object> elements;
+
+        public DeserializationContainer(DeserializationType type, List<Object> elements) {
+            this.type = type;
+            this.elements = elements;
+        }
+
+        public DeserializationType getType() {
+            return type;
+        }
+
+        public List<Object> getElements() {
+            return elements;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("DeserializationContainer{type=").append(type).append(", elements=[");
+            for (int i = 0; i < elements.size(); i++) {
+                Object element = elements.get(i);
+                if (i > 0)
+                    builder.append(", ");
+                builder.append(element instanceof DeserializationClass ? DeserializationObject.signature((DeserializationClass) element) : element);
+            }
+            return builder.append("]}").toString();
+        }
+    }
 }
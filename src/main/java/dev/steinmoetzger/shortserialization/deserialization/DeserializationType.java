@@ -15,7 +15,22 @@ public enum DeserializationType {
     BYTE(Byte.class),
     CHAR(Character.class),
     SHRT(Short.class),
-    REFERENCE(Object.class); // class attribute irrelevant for references, because determined with reflections in deserialization
+    REFERENCE(Object.class), // class attribute irrelevant for references, because determined with reflections in deserialization
+    LONG(Long.class),
+    BOOL(Boolean.class),
+    ENUM(Enum.class), // holds the name of the constant, the enum is determined by the field
+    BYTE_ARRAY(byte[].class),
+    SHORT_ARRAY(short[].class),
+    INT_ARRAY(int[].class),
+    LONG_ARRAY(long[].class),
+    FLOAT_ARRAY(float[].class),
+    DOUBLE_ARRAY(double[].class),
+    CHAR_ARRAY(char[].class),
+    BOOL_ARRAY(boolean[].class),
+    ARRAY(DeserializationData.DeserializationContainer.class),
+    LIST(DeserializationData.DeserializationContainer.class),
+    SET(DeserializationData.DeserializationContainer.class),
+    MAP(DeserializationData.DeserializationContainer.class);
 
     public Class<?> clazz;
 
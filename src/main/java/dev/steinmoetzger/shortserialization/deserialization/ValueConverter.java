@@ -0,0 +1,193 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.deserialization;
+
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Turns decoded values into the type of the field they are assigned to. Containers become arrays, collections and
+ * maps of the field type, enum names become constants and references are resolved to their objects. Values that
+ * already have their final type are returned as they are.
+ */
+public final class ValueConverter {
+
+    /**
+     * No-arg constructors of concrete collection and map classes, null if the class has none.
+     */
+    private static final ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+    };
+
+    private ValueConverter() {
+    }
+
+    /**
+     * @param type type of the field the value is assigned to
+     */
+    public static Object convert(Object value, Class<?> type, ReferenceResolver references) throws DeserializeException {
+        if (value == null)
+            return null;
+
+        if (value instanceof DeserializationData.DeserializationClass)
+            return references.resolve((DeserializationData.DeserializationClass) value);
+
+        if (value instanceof DeserializationData.DeserializationContainer)
+            return convertContainer((DeserializationData.DeserializationContainer) value, type, references);
+
+        if (value instanceof DeserializationData.DeserializationObject)
+            return enumConstant(loadEnum(((DeserializationData.DeserializationObject) value).getName()), (String) ((DeserializationData.DeserializationObject) value).getValue());
+
+        if (value instanceof String && type.isEnum())
+            return enumConstant(type, (String) value);
+
+        return value;
+    }
+
+    private static Object convertContainer(DeserializationData.DeserializationContainer container, Class<?> type, ReferenceResolver references) throws DeserializeException {
+        List<Object> elements = container.getElements();
+
+        if (type.isArray() && !type.getComponentType().isPrimitive())
+            return toArray(elements, type.getComponentType(), references);
+
+        if (container.getType() == DeserializationType.MAP) {
+            if (elements.size() % 2 != 0)
+                throw new DeserializeException("Map without value for its last key");
+
+            Map<Object, Object> map = newMap(type);
+            for (int i = 0; i < elements.size(); i += 2)
+                map.put(convert(elements.get(i), Object.class, references), convert(elements.get(i + 1), Object.class, references));
+            return map;
+        }
+
+        if (type == Object.class && container.getType() == DeserializationType.ARRAY)
+            return toArray(elements, Object.class, references);
+
+        Collection<Object> collection = newCollection(type, container.getType());
+        for (Object element : elements)
+            collection.add(convert(element, Object.class, references));
+        return collection;
+    }
+
+    private static Object[] toArray(List<Object> elements, Class<?> componentType, ReferenceResolver references) throws DeserializeException {
+        Object[] array = (Object[]) Array.newInstance(componentType, elements.size());
+        try {
+            for (int i = 0; i < array.length; i++)
+                array[i] = convert(elements.get(i), componentType, references);
+        } catch (ArrayStoreException e) {
+            throw new DeserializeException("Element does not fit into " + componentType.getName() + "[]");
+        }
+        return array;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(Class<?> type, DeserializationType containerType) throws DeserializeException {
+        if (isInstantiable(type) && Collection.class.isAssignableFrom(type))
+            return (Collection<Object>) newInstance(type);
+
+        if (SortedSet.class.isAssignableFrom(type) || NavigableSet.class.isAssignableFrom(type))
+            return new TreeSet<>();
+        if (Set.class.isAssignableFrom(type) || (containerType == DeserializationType.SET && !List.class.isAssignableFrom(type)))
+            return new LinkedHashSet<>();
+        if (Queue.class.isAssignableFrom(type))
+            return new ArrayDeque<>();
+        if (type.isAssignableFrom(ArrayList.class))
+            return new ArrayList<>();
+
+        throw new DeserializeException("Can not create a collection of type " + type.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> newMap(Class<?> type) throws DeserializeException {
+        if (isInstantiable(type) && Map.class.isAssignableFrom(type))
+            return (Map<Object, Object>) newInstance(type);
+
+        if (SortedMap.class.isAssignableFrom(type) || NavigableMap.class.isAssignableFrom(type))
+            return new TreeMap<>();
+        if (type.isAssignableFrom(LinkedHashMap.class))
+            return new LinkedHashMap<>();
+
+        throw new DeserializeException("Can not create a map of type " + type.getName());
+    }
+
+    private static boolean isInstantiable(Class<?> type) {
+        return !type.isInterface() && !Modifier.isAbstract(type.getModifiers());
+    }
+
+    private static Object newInstance(Class<?> type) throws DeserializeException {
+        MethodHandle constructor = CONSTRUCTORS.get(type);
+        if (constructor == null)
+            throw new DeserializeException("No public no-arg constructor found for " + type.getName());
+
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeserializeException(e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumConstant(Class<?> type, String name) throws DeserializeException {
+        try {
+            return Enum.valueOf((Class) type, name);
+        } catch (IllegalArgumentException e) {
+            throw new DeserializeException("Unknown constant " + name + " of " + type.getName());
+        }
+    }
+
+    private static Class<?> loadEnum(String name) throws DeserializeException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null)
+            loader = ValueConverter.class.getClassLoader();
+
+        try {
+            Class<?> type = Class.forName(name, false, loader);
+            if (!type.isEnum())
+                throw new DeserializeException(name + " is not an enum");
+            return type;
+        } catch (ClassNotFoundException e) {
+            throw new DeserializeException("Did not find enum " + name);
+        }
+    }
+
+    /**
+     * Creates or looks up the object of a referenced class block.
+     */
+    public interface ReferenceResolver {
+        Object resolve(DeserializationData.DeserializationClass reference) throws DeserializeException;
+    }
+}
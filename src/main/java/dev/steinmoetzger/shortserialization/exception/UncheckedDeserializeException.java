@@ -0,0 +1,23 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.exception;
+
+/**
+ * Wraps a {@link DeserializeException} where it can not be thrown directly, like when a lazily decoded block is
+ * decoded from an accessor.
+ */
+public class UncheckedDeserializeException extends RuntimeException {
+
+    public UncheckedDeserializeException(String message, DeserializeException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized DeserializeException getCause() {
+        return (DeserializeException) super.getCause();
+    }
+}
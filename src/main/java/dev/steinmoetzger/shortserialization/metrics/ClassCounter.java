@@ -0,0 +1,27 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the objects of a graph by class name and reports them with {@link SerializationListener#counted}.
+ */
+public final class ClassCounter {
+
+    private final Map<String, int[]> counts = new HashMap<>();
+
+    public void add(String className) {
+        counts.computeIfAbsent(className, name -> new int[1])[0]++;
+    }
+
+    public void report(SerializationListener listener, Phase phase) {
+        for (Map.Entry<String, int[]> entry : counts.entrySet())
+            listener.counted(phase, entry.getKey(), entry.getValue()[0]);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram of non-negative values with one bucket per power of two. Percentiles are reported as the upper
+ * bound of their bucket, so they are at most twice the exact value.
+ */
+public final class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        long clamped = Math.max(value, 0);
+        buckets.incrementAndGet(bucket(clamped));
+        count.increment();
+        sum.add(clamped);
+        max.accumulate(clamped);
+    }
+
+    /**
+     * @return the bucket whose values share the highest set bit, 0 and 1 share the first one
+     */
+    private static int bucket(long value) {
+        return value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket the percentile falls into, at most the maximum
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < 64; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < 64; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+                "count=" + getCount() +
+                ", mean=" + String.format("%.1f", getMean()) +
+                ", p50=" + getPercentile(50) +
+                ", p99=" + getPercentile(99) +
+                ", max=" + getMax() +
+                '}';
+    }
+}
@@ -0,0 +1,36 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+/**
+ * Holds the {@link SerializationListener} of the library.
+ */
+public final class Instrumentation {
+
+    private static volatile SerializationListener listener = SerializationListener.NONE;
+
+    private Instrumentation() {
+    }
+
+    /**
+     * @param listener the new listener, null for {@link SerializationListener#NONE}
+     */
+    public static void setListener(SerializationListener listener) {
+        Instrumentation.listener = listener == null ? SerializationListener.NONE : listener;
+    }
+
+    public static SerializationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return whether a listener is set, measurements are skipped without one
+     */
+    public static boolean isEnabled() {
+        return listener != SerializationListener.NONE;
+    }
+}
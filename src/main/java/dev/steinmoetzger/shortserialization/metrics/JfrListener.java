@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits the operations of the library as Java Flight Recorder events, so they show up in recordings next to GC and
+ * I/O. Nothing is allocated while no recording has the events enabled, the event types are checked before an event
+ * is created.
+ * <p>
+ * The events are {@code dev.steinmoetzger.shortserialization.Operation} for every phase and
+ * {@code dev.steinmoetzger.shortserialization.Failure} for failed operations. Class lookups are not recorded, a miss
+ * is followed by a scan.
+ */
+public class JfrListener implements SerializationListener {
+
+    private static final EventType OPERATION = EventType.getEventType(OperationEvent.class);
+    private static final EventType FAILURE = EventType.getEventType(FailureEvent.class);
+
+    @Override
+    public void serialized(SerializationFormat format, int objects, long bytes, long nanos) {
+        commit(Phase.SERIALIZE, format, null, objects, bytes, nanos);
+    }
+
+    @Override
+    public void deserialized(SerializationFormat format, int blocks, long bytes, long nanos) {
+        commit(Phase.DESERIALIZE, format, null, blocks, bytes, nanos);
+    }
+
+    @Override
+    public void resolved(int objects, long nanos) {
+        commit(Phase.RESOLVE, null, null, objects, 0, nanos);
+    }
+
+    @Override
+    public void scanned(String classpath, int classes, long nanos) {
+        commit(Phase.SCAN, null, classpath, classes, 0, nanos);
+    }
+
+    @Override
+    public void schemaCreated(Class<?> type, long nanos) {
+        commit(Phase.SCHEMA, null, type.getName(), 1, 0, nanos);
+    }
+
+    private static void commit(Phase phase, SerializationFormat format, String subject, int objects, long bytes, long nanos) {
+        if (!OPERATION.isEnabled())
+            return;
+
+        OperationEvent event = new OperationEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.phase = phase.name();
+        event.format = format == null ? null : format.name();
+        event.subject = subject;
+        event.objects = objects;
+        event.bytes = bytes;
+        event.time = nanos;
+        event.commit();
+    }
+
+    @Override
+    public void failed(Phase phase, Throwable error) {
+        if (!FAILURE.isEnabled())
+            return;
+
+        FailureEvent event = new FailureEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.phase = phase.name();
+        event.error = error.getClass().getName();
+        event.message = error.getMessage();
+        event.commit();
+    }
+
+    @Name("dev.steinmoetzger.shortserialization.Operation")
+    @Label("Serializer Operation")
+    @Category("ShortSerializer")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Format")
+        String format;
+
+        @Label("Subject")
+        @Description("Scanned classpath or analyzed class")
+        String subject;
+
+        @Label("Objects")
+        @Description("Objects of the graph, blocks of the document or classes found by a scan")
+        int objects;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    @Name("dev.steinmoetzger.shortserialization.Failure")
+    @Label("Serializer Failure")
+    @Category("ShortSerializer")
+    static final class FailureEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Error")
+        String error;
+
+        @Label("Message")
+        String message;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects counters and histograms in memory: latencies and graph sizes per phase, bytes written and read, objects per
+ * class and the hit rate of class lookups.
+ */
+public class MetricsListener implements SerializationListener {
+
+    private final boolean countClasses;
+    private final Map<Phase, Histogram> latencies = new EnumMap<>(Phase.class);
+    private final Map<Phase, Histogram> graphSizes = new EnumMap<>(Phase.class);
+    private final Map<Phase, LongAdder> failures = new EnumMap<>(Phase.class);
+    private final Map<Phase, Map<String, LongAdder>> classCounts = new EnumMap<>(Phase.class);
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder lookupHits = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+
+    /**
+     * Counts the objects per class.
+     */
+    public MetricsListener() {
+        this(true);
+    }
+
+    /**
+     * @param countClasses whether the objects per class are counted, which walks every graph once more
+     */
+    public MetricsListener(boolean countClasses) {
+        this.countClasses = countClasses;
+        // the maps are filled once and only read afterwards, so they need no synchronization
+        for (Phase phase : Phase.values()) {
+            latencies.put(phase, new Histogram());
+            graphSizes.put(phase, new Histogram());
+            failures.put(phase, new LongAdder());
+            classCounts.put(phase, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void serialized(SerializationFormat format, int objects, long bytes, long nanos) {
+        latencies.get(Phase.SERIALIZE).record(nanos);
+        graphSizes.get(Phase.SERIALIZE).record(objects);
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void deserialized(SerializationFormat format, int blocks, long bytes, long nanos) {
+        latencies.get(Phase.DESERIALIZE).record(nanos);
+        graphSizes.get(Phase.DESERIALIZE).record(blocks);
+        bytesRead.add(bytes);
+    }
+
+    @Override
+    public void resolved(int objects, long nanos) {
+        latencies.get(Phase.RESOLVE).record(nanos);
+        graphSizes.get(Phase.RESOLVE).record(objects);
+    }
+
+    @Override
+    public void scanned(String classpath, int classes, long nanos) {
+        latencies.get(Phase.SCAN).record(nanos);
+        graphSizes.get(Phase.SCAN).record(classes);
+    }
+
+    @Override
+    public void schemaCreated(Class<?> type, long nanos) {
+        latencies.get(Phase.SCHEMA).record(nanos);
+    }
+
+    @Override
+    public void lookedUp(String className, boolean hit) {
+        (hit ? lookupHits : lookupMisses).increment();
+    }
+
+    @Override
+    public boolean countsClasses() {
+        return countClasses;
+    }
+
+    @Override
+    public void counted(Phase phase, String className, int count) {
+        classCounts.get(phase).computeIfAbsent(className, name -> new LongAdder()).add(count);
+    }
+
+    @Override
+    public void failed(Phase phase, Throwable error) {
+        failures.get(phase).increment();
+    }
+
+    /**
+     * @return nanoseconds per operation of the phase
+     */
+    public Histogram getLatency(Phase phase) {
+        return latencies.get(phase);
+    }
+
+    /**
+     * @return objects per graph, blocks per document for {@link Phase#DESERIALIZE} and classes per scan for
+     * {@link Phase#SCAN}
+     */
+    public Histogram getGraphSize(Phase phase) {
+        return graphSizes.get(phase);
+    }
+
+    public long getFailures(Phase phase) {
+        return failures.get(phase).sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return the objects per class name the phase handled so far, sorted by name
+     */
+    public Map<String, Long> getClassCounts(Phase phase) {
+        Map<String, Long> counts = new TreeMap<>();
+        classCounts.get(phase).forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+
+    /**
+     * @return the share of class lookups that found the class registered, 1 if there were none
+     */
+    public double getLookupHitRate() {
+        long hits = lookupHits.sum();
+        long total = hits + lookupMisses.sum();
+        return total == 0 ? 1 : (double) hits / total;
+    }
+
+    public void reset() {
+        for (Phase phase : Phase.values()) {
+            latencies.get(phase).reset();
+            graphSizes.get(phase).reset();
+            failures.get(phase).reset();
+            classCounts.get(phase).clear();
+        }
+        bytesWritten.reset();
+        bytesRead.reset();
+        lookupHits.reset();
+        lookupMisses.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MetricsListener{");
+        for (Phase phase : Phase.values()) {
+            builder.append("\n  ").append(phase)
+                    .append(" latency=").append(latencies.get(phase))
+                    .append(" size=").append(graphSizes.get(phase))
+                    .append(" failures=").append(getFailures(phase));
+            if (!classCounts.get(phase).isEmpty())
+                builder.append(" classes=").append(getClassCounts(phase));
+        }
+        return builder.append("\n  bytesWritten=").append(getBytesWritten())
+                .append(" bytesRead=").append(getBytesRead())
+                .append(" lookupHitRate=").append(String.format("%.3f", getLookupHitRate()))
+                .append("\n}").toString();
+    }
+}
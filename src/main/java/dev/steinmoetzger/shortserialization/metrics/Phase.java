@@ -0,0 +1,34 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+/**
+ * Stages of the library a {@link SerializationListener} is told about.
+ */
+public enum Phase {
+
+    /**
+     * Scanning a classpath prefix for serializable classes
+     */
+    SCAN,
+    /**
+     * Reflective analysis of a class the first time it is used
+     */
+    SCHEMA,
+    /**
+     * Writing an object graph
+     */
+    SERIALIZE,
+    /**
+     * Reading a document
+     */
+    DESERIALIZE,
+    /**
+     * Building the objects of a {@link dev.steinmoetzger.shortserialization.deserialization.DeserializationData}
+     */
+    RESOLVE
+}
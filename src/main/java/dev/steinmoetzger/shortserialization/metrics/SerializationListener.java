@@ -0,0 +1,78 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+
+/**
+ * Receives what the library did and how long it took. Set a listener with {@link Instrumentation#setListener}, the
+ * default {@link #NONE} ignores everything and lets the library skip measuring.
+ * <p>
+ * The methods are called on the thread that did the work, right after it, and must be thread safe. Times are in
+ * nanoseconds.
+ */
+public interface SerializationListener {
+
+    SerializationListener NONE = new SerializationListener() {
+    };
+
+    /**
+     * @param objects objects of the graph
+     * @param bytes   bytes written, compressed documents count their uncompressed size
+     */
+    default void serialized(SerializationFormat format, int objects, long bytes, long nanos) {
+    }
+
+    /**
+     * @param blocks class blocks of the document, patches count as blocks of their own
+     * @param bytes  bytes read
+     */
+    default void deserialized(SerializationFormat format, int blocks, long bytes, long nanos) {
+    }
+
+    /**
+     * Objects were built from {@link dev.steinmoetzger.shortserialization.deserialization.DeserializationData}.
+     */
+    default void resolved(int objects, long nanos) {
+    }
+
+    default void scanned(String classpath, int classes, long nanos) {
+    }
+
+    /**
+     * The schema of a class was not cached yet and was created by reflection.
+     */
+    default void schemaCreated(Class<?> type, long nanos) {
+    }
+
+    /**
+     * A class was looked up by the name a document uses for it.
+     *
+     * @param hit whether it was registered already, a miss scans the classpath
+     */
+    default void lookedUp(String className, boolean hit) {
+    }
+
+    /**
+     * @return whether {@link #counted} is called, counting walks the graph once more after every operation
+     */
+    default boolean countsClasses() {
+        return false;
+    }
+
+    /**
+     * Number of objects of one class in the graph of an operation, called after the operation for every class of
+     * the graph.
+     *
+     * @param phase {@link Phase#SERIALIZE}, {@link Phase#DESERIALIZE} or {@link Phase#RESOLVE}
+     */
+    default void counted(Phase phase, String className, int count) {
+    }
+
+    default void failed(Phase phase, Throwable error) {
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import java.util.Arrays;
+
+/**
+ * Field layout of a class as it was written into a document: the version of the class and the wire names and tags of
+ * its fields in the order they are written. A reader maps it to the current fields of the class with a
+ * {@link ReadPlan}.
+ */
+public final class ClassLayout {
+
+    private final String className;
+    private final int version;
+    private final String[] fieldNames;
+    private final int[] tags;
+    private final int hash;
+
+    /**
+     * @param tags tag of every field, 0 for fields without tag
+     */
+    public ClassLayout(String className, int version, String[] fieldNames, int[] tags) {
+        if (fieldNames.length != tags.length)
+            throw new IllegalArgumentException("Every field needs a tag");
+
+        this.className = className;
+        this.version = version;
+        this.fieldNames = fieldNames.clone();
+        this.tags = tags.clone();
+        this.hash = 31 * (31 * className.hashCode() + version) + 31 * Arrays.hashCode(fieldNames) + Arrays.hashCode(tags);
+    }
+
+    /**
+     * @return the {@link dev.steinmoetzger.shortserialization.annotation.SerializableClass#name()} of the class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    public String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    /**
+     * @return the tag of the field, 0 if it has none
+     */
+    public int getTag(int index) {
+        return tags[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ClassLayout))
+            return false;
+
+        ClassLayout that = (ClassLayout) o;
+        return hash == that.hash && version == that.version && className.equals(that.className)
+                && Arrays.equals(fieldNames, that.fieldNames) && Arrays.equals(tags, that.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassLayout{" +
+                "className='" + className + '\'' +
+                ", version=" + version +
+                ", fieldNames=" + Arrays.toString(fieldNames) +
+                ", tags=" + Arrays.toString(tags) +
+                '}';
+    }
+}
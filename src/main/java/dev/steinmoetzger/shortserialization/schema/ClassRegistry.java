@@ -0,0 +1,115 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.codec.Codecs;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import org.reflections.Reflections;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps {@link SerializableClass#name()} values to their {@link ClassSchema}.
+ * <p>
+ * Classes are registered explicitly with {@link #register(Class)}, taken from the codec index generated by the
+ * annotation processor or found by scanning a classpath prefix. The generated index is loaded before the first scan
+ * and every prefix is scanned at most once, so deserializing nested objects does not rescan the classpath.
+ */
+public class ClassRegistry {
+
+    private static final Map<String, ClassSchema> schemas = new ConcurrentHashMap<>();
+    private static final Set<String> scannedClasspaths = ConcurrentHashMap.newKeySet();
+    private static volatile boolean generatedRegistered;
+
+    private ClassRegistry() {
+    }
+
+    /**
+     * Registers a class under its {@link SerializableClass#name()}.
+     *
+     * @throws IllegalArgumentException if the class is not annotated with {@link SerializableClass}
+     * @throws IllegalStateException    if another class is already registered under the same name
+     */
+    public static ClassSchema register(Class<?> clazz) {
+        ClassSchema schema = ClassSchema.of(clazz);
+        if (!schema.isSerializable())
+            throw new IllegalArgumentException(clazz.getName() + " is not annotated with SerializableClass");
+
+        ClassSchema existing = schemas.putIfAbsent(schema.getName(), schema);
+        if (existing != null && existing != schema)
+            throw new IllegalStateException("Duplicate SerializableClass name '" + schema.getName() + "' used by "
+                    + existing.getType().getName() + " and " + clazz.getName());
+
+        return schema;
+    }
+
+    /**
+     * Registers every class annotated with {@link SerializableClass} below the given classpath prefix.
+     * Repeated calls with the same prefix do nothing.
+     */
+    public static void scan(String classpath) {
+        if (scannedClasspaths.contains(classpath))
+            return;
+
+        synchronized (scannedClasspaths) {
+            if (scannedClasspaths.contains(classpath))
+                return;
+
+            long start = System.nanoTime();
+            int classes = 0;
+            for (Class<?> clazz : new Reflections(classpath).getTypesAnnotatedWith(SerializableClass.class)) {
+                if (clazz.isAnnotationPresent(SerializableClass.class)) {
+                    register(clazz);
+                    classes++;
+                }
+            }
+
+            scannedClasspaths.add(classpath);
+            Instrumentation.getListener().scanned(classpath, classes, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the schema registered under this name or null if there is none
+     */
+    public static ClassSchema lookup(String name) {
+        ClassSchema schema = schemas.get(name);
+        if (schema != null || generatedRegistered)
+            return schema;
+
+        registerGenerated();
+        return schemas.get(name);
+    }
+
+    private static void registerGenerated() {
+        synchronized (scannedClasspaths) {
+            if (generatedRegistered)
+                return;
+
+            Codecs.registerGeneratedClasses();
+            generatedRegistered = true;
+        }
+    }
+
+    /**
+     * Looks up a class by name and scans the classpath prefix first if the name is not registered yet.
+     *
+     * @return the schema registered under this name or null if there is none
+     */
+    public static ClassSchema lookup(String name, String classpath) {
+        ClassSchema schema = lookup(name);
+        Instrumentation.getListener().lookedUp(name, schema != null);
+        if (schema != null || classpath == null)
+            return schema;
+
+        scan(classpath);
+        return schemas.get(name);
+    }
+}
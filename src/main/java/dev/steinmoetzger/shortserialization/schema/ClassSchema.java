@@ -0,0 +1,272 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import dev.steinmoetzger.shortserialization.codec.ClassCodec;
+import dev.steinmoetzger.shortserialization.codec.Codecs;
+import dev.steinmoetzger.shortserialization.codec.GeneratedCodec;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.metrics.Instrumentation;
+import dev.steinmoetzger.shortserialization.metrics.SerializationListener;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolved serialization layout of a class. The reflective lookups (annotated fields, wire names,
+ * direct types and accessors) are done once per class and cached in a {@link ClassValue}. Classes with a
+ * {@link GeneratedCodec} take their fields from the codec instead, their fields are neither scanned nor made accessible.
+ */
+public class ClassSchema {
+
+    // documents rarely carry more than a few layouts of a class, more are read without caching the plan
+    private static final int MAX_PLANS = 64;
+
+    private static final ClassValue<ClassSchema> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected ClassSchema computeValue(Class<?> type) {
+            SerializationListener listener = Instrumentation.getListener();
+            if (listener == SerializationListener.NONE)
+                return new ClassSchema(type);
+
+            long start = System.nanoTime();
+            ClassSchema schema = new ClassSchema(type);
+            listener.schemaCreated(type, System.nanoTime() - start);
+            return schema;
+        }
+    };
+
+    private final Class<?> type;
+    private final String name;
+    private final List<FieldSchema> fields;
+    private final Map<String, FieldSchema> fieldsByName;
+    private final Map<Integer, FieldSchema> fieldsByTag;
+    private final int version;
+    private final ClassLayout layout;
+    private final Map<ClassLayout, ReadPlan> plans = new ConcurrentHashMap<>();
+    private final GeneratedCodec generated;
+    private final MethodHandle constructor;
+    private volatile ClassCodec codec;
+
+    private ClassSchema(Class<?> type) {
+        this.type = type;
+
+        SerializableClass serializableClass = type.getAnnotation(SerializableClass.class);
+        this.name = serializableClass == null ? null : serializableClass.name();
+        this.version = serializableClass == null ? 0 : serializableClass.version();
+        if (version < 0)
+            throw new IllegalArgumentException("Negative version of " + type.getName());
+
+        List<FieldSchema> fields = new ArrayList<>();
+        Map<String, FieldSchema> fieldsByName = new HashMap<>();
+        Map<Integer, FieldSchema> fieldsByTag = new HashMap<>();
+        GeneratedCodec generated = Codecs.generated(type);
+        if (generated != null) {
+            String[] javaNames = generated.fieldNames();
+            Class<?>[] javaTypes = generated.fieldTypes();
+            String[] names = generated.wireNames();
+            int[] tags = generated.tags();
+            for (int i = 0; i < javaNames.length; i++) {
+                addField(fields, fieldsByName, fieldsByTag, javaNames[i], javaTypes[i], null, names[i], tags[i],
+                        new GeneratedFieldAccessor(generated, i));
+            }
+        } else {
+            for (Field field : type.getDeclaredFields()) {
+                SerializableField serializableField = field.getAnnotation(SerializableField.class);
+                if (serializableField == null)
+                    continue;
+
+                field.trySetAccessible();
+                addField(fields, fieldsByName, fieldsByTag, field.getName(), field.getType(), field,
+                        serializableField.name(), serializableField.tag(), MethodHandleFieldAccessor.of(field));
+            }
+        }
+
+        this.fields = Collections.unmodifiableList(fields);
+        this.fieldsByName = fieldsByName;
+        this.fieldsByTag = fieldsByTag;
+        this.layout = name == null ? null : layout(name, version, fields);
+        this.generated = generated;
+        this.codec = generated;
+        this.constructor = generated == null ? findConstructor(type) : null;
+    }
+
+    private void addField(List<FieldSchema> fields, Map<String, FieldSchema> fieldsByName, Map<Integer, FieldSchema> fieldsByTag,
+                          String javaName, Class<?> javaType, Field field, String name, int tag, FieldAccessor accessor) {
+        if (name.isEmpty())
+            name = javaName;
+        if (tag < 0)
+            throw new IllegalArgumentException("Negative tag of " + type.getName() + "." + javaName);
+
+        FieldSchema fieldSchema = new FieldSchema(fields.size(), javaName, javaType, field, name, tag,
+                SerializationUtil.DirectTypes.fromType(javaType), accessor);
+        fields.add(fieldSchema);
+        fieldsByName.put(name, fieldSchema);
+        if (tag != 0 && fieldsByTag.put(tag, fieldSchema) != null)
+            throw new IllegalArgumentException("Tag " + tag + " is used twice in " + type.getName());
+    }
+
+    private static ClassLayout layout(String name, int version, List<FieldSchema> fields) {
+        String[] names = new String[fields.size()];
+        int[] tags = new int[fields.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fields.get(i).getName();
+            tags[i] = fields.get(i).getTag();
+        }
+        return new ClassLayout(name, version, names, tags);
+    }
+
+    private static MethodHandle findConstructor(Class<?> type) {
+        if (type.isInterface() || type.isPrimitive() || type.isArray() || Modifier.isAbstract(type.getModifiers()))
+            return null;
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            return lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public static ClassSchema of(Class<?> type) {
+        return SCHEMAS.get(type);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return the {@link SerializableClass#name()} of the class or null if the annotation is missing
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSerializable() {
+        return name != null;
+    }
+
+    public List<FieldSchema> getFields() {
+        return fields;
+    }
+
+    /**
+     * @param name wire name of the field
+     * @return the field or null if this class has no serializable field with this name
+     */
+    public FieldSchema getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * @return the field or null if this class has no serializable field with this tag
+     */
+    public FieldSchema getFieldByTag(int tag) {
+        return fieldsByTag.get(tag);
+    }
+
+    /**
+     * @return the {@link SerializableClass#version()} of the class
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return whether the class has a version or tagged fields, so documents describe its layout
+     */
+    public boolean isVersioned() {
+        return version != 0 || !fieldsByTag.isEmpty();
+    }
+
+    /**
+     * @return the layout objects of this class are written with, null if the annotation is missing
+     */
+    public ClassLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param layout layout of this class a document was written with
+     * @return the plan that maps the fields of the layout to the fields of this class
+     */
+    public ReadPlan plan(ClassLayout layout) {
+        ReadPlan plan = plans.get(layout);
+        if (plan != null)
+            return plan;
+
+        plan = new ReadPlan(layout, this);
+        if (plans.size() < MAX_PLANS)
+            plans.putIfAbsent(layout, plan);
+        return plan;
+    }
+
+    /**
+     * @return the codec that writes and reads objects of this class, resolved on first use
+     */
+    public ClassCodec getCodec() {
+        ClassCodec codec = this.codec;
+        if (codec == null) {
+            codec = Codecs.forSchema(this);
+            this.codec = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * Creates a new instance with the cached no-arg constructor handle or the generated codec.
+     */
+    public Object newInstance() throws DeserializeException {
+        if (generated != null)
+            return generated.newInstance();
+        if (constructor == null)
+            throw new DeserializeException("No accessible no-arg constructor found for " + type.getName());
+
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DeserializeException(e);
+        }
+    }
+
+    /**
+     * @param javaName name of the field in the java class
+     * @return the field or null if this class has no serializable field with this java name
+     */
+    public FieldSchema getDeclaredField(String javaName) {
+        for (FieldSchema field : fields) {
+            if (field.getJavaName().equals(javaName))
+                return field;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassSchema{" +
+                "type=" + type.getName() +
+                ", name='" + name + '\'' +
+                ", fields=" + fields +
+                '}';
+    }
+}
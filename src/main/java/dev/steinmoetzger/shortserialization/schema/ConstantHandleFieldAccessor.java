@@ -0,0 +1,206 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Template of the hidden classes defined by {@link MethodHandleFieldAccessor}. Every field gets its own copy of this
+ * class whose handles are taken from the class data, so they live in {@code static final} fields that the JIT treats
+ * as constants and can inline through. The class is never used under its own name.
+ */
+final class ConstantHandleFieldAccessor implements FieldAccessor {
+
+    static final int GETTER_INDEX = 0;
+    static final int SETTER_INDEX = 1;
+    static final int PRIMITIVE_GETTER_INDEX = 2;
+    static final int PRIMITIVE_SETTER_INDEX = 3;
+
+    private static final MethodHandle GETTER = handle(GETTER_INDEX);
+    private static final MethodHandle SETTER = handle(SETTER_INDEX);
+    private static final MethodHandle PRIMITIVE_GETTER = handle(PRIMITIVE_GETTER_INDEX);
+    private static final MethodHandle PRIMITIVE_SETTER = handle(PRIMITIVE_SETTER_INDEX);
+
+    private static MethodHandle handle(int index) {
+        try {
+            return MethodHandles.classDataAt(MethodHandles.lookup(), "_", MethodHandle.class, index);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable throwable) {
+        if (throwable instanceof RuntimeException)
+            return (RuntimeException) throwable;
+        if (throwable instanceof Error)
+            throw (Error) throwable;
+        return new RuntimeException(throwable);
+    }
+
+    @Override
+    public Object get(Object target) {
+        try {
+            return (Object) GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void set(Object target, Object value) {
+        try {
+            SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public int getInt(Object target) {
+        try {
+            return (int) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setInt(Object target, int value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public long getLong(Object target) {
+        try {
+            return (long) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setLong(Object target, long value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public double getDouble(Object target) {
+        try {
+            return (double) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setDouble(Object target, double value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public float getFloat(Object target) {
+        try {
+            return (float) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setFloat(Object target, float value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public byte getByte(Object target) {
+        try {
+            return (byte) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setByte(Object target, byte value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public char getChar(Object target) {
+        try {
+            return (char) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setChar(Object target, char value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public short getShort(Object target) {
+        try {
+            return (short) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setShort(Object target, short value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(Object target) {
+        try {
+            return (boolean) PRIMITIVE_GETTER.invokeExact(target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public void setBoolean(Object target, boolean value) {
+        try {
+            PRIMITIVE_SETTER.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+}
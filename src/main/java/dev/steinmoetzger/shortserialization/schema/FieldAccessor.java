@@ -0,0 +1,82 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+/**
+ * Reads and writes one field of a serializable class. The primitive methods may only be used for fields of the
+ * matching primitive type, they exist so that primitive values do not have to be boxed on the hot path.
+ */
+public interface FieldAccessor {
+
+    Object get(Object target);
+
+    void set(Object target, Object value);
+
+    default int getInt(Object target) {
+        return (Integer) get(target);
+    }
+
+    default void setInt(Object target, int value) {
+        set(target, value);
+    }
+
+    default long getLong(Object target) {
+        return (Long) get(target);
+    }
+
+    default void setLong(Object target, long value) {
+        set(target, value);
+    }
+
+    default double getDouble(Object target) {
+        return (Double) get(target);
+    }
+
+    default void setDouble(Object target, double value) {
+        set(target, value);
+    }
+
+    default float getFloat(Object target) {
+        return (Float) get(target);
+    }
+
+    default void setFloat(Object target, float value) {
+        set(target, value);
+    }
+
+    default byte getByte(Object target) {
+        return (Byte) get(target);
+    }
+
+    default void setByte(Object target, byte value) {
+        set(target, value);
+    }
+
+    default char getChar(Object target) {
+        return (Character) get(target);
+    }
+
+    default void setChar(Object target, char value) {
+        set(target, value);
+    }
+
+    default short getShort(Object target) {
+        return (Short) get(target);
+    }
+
+    default void setShort(Object target, short value) {
+        set(target, value);
+    }
+
+    default boolean getBoolean(Object target) {
+        return (Boolean) get(target);
+    }
+
+    default void setBoolean(Object target, boolean value) {
+        set(target, value);
+    }
+}
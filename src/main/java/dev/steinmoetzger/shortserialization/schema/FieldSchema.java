@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+
+import java.lang.reflect.Field;
+
+public class FieldSchema {
+
+    private final int index;
+    private final String javaName;
+    private final Class<?> javaType;
+    private final Field field;
+    private final String name;
+    private final int tag;
+    private final SerializationUtil.DirectTypes type;
+    private final FieldAccessor accessor;
+
+    FieldSchema(int index, String javaName, Class<?> javaType, Field field, String name, int tag,
+                SerializationUtil.DirectTypes type, FieldAccessor accessor) {
+        this.index = index;
+        this.javaName = javaName;
+        this.javaType = javaType;
+        this.field = field;
+        this.name = name;
+        this.tag = tag;
+        this.type = type;
+        this.accessor = accessor;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the name of the field in the java class
+     */
+    public String getJavaName() {
+        return javaName;
+    }
+
+    /**
+     * @return the declared type of the field
+     */
+    public Class<?> getJavaType() {
+        return javaType;
+    }
+
+    /**
+     * @return the reflected field or null if the schema was built from the metadata of a generated codec
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return the name written to the wire, either {@link dev.steinmoetzger.shortserialization.annotation.SerializableField#name()} or the java field name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the {@link dev.steinmoetzger.shortserialization.annotation.SerializableField#tag()} of the field, 0 if it has none
+     */
+    public int getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the direct type of this field or null if the field holds a reference to another serializable object
+     */
+    public SerializationUtil.DirectTypes getType() {
+        return type;
+    }
+
+    public boolean isReference() {
+        return type == null;
+    }
+
+    public boolean isPrimitive() {
+        return javaType.isPrimitive();
+    }
+
+    /**
+     * Values written by an older or newer version of the class can be read into the field as long as the
+     * {@link dev.steinmoetzger.shortserialization.codec.FieldSource} methods convert them, for example an int into a
+     * long, a string into an enum or a list into an array.
+     *
+     * @param type direct type of the value, null for references
+     * @return whether a value of this type can be assigned to the field
+     */
+    public boolean accepts(SerializationUtil.DirectTypes type) {
+        if (this.type == type)
+            return true;
+        if (this.type == null || type == null)
+            return false;
+        if (this.type.isPrimitive() && type.isPrimitive())
+            return true;
+        if (this.type.isContainer() && type.isContainer())
+            return (this.type == SerializationUtil.DirectTypes.MAP) == (type == SerializationUtil.DirectTypes.MAP);
+        return isText(this.type) && isText(type);
+    }
+
+    private static boolean isText(SerializationUtil.DirectTypes type) {
+        return type == SerializationUtil.DirectTypes.STRING || type == SerializationUtil.DirectTypes.ENUM;
+    }
+
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldSchema{" +
+                "name='" + name + '\'' +
+                ", tag=" + tag +
+                ", type=" + type +
+                ", field=" + javaName +
+                '}';
+    }
+}
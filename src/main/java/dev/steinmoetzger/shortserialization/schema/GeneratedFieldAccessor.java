@@ -0,0 +1,34 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import dev.steinmoetzger.shortserialization.codec.GeneratedCodec;
+
+/**
+ * {@link FieldAccessor} of a field whose class has a {@link GeneratedCodec}, it goes through the codec instead of
+ * reflection. The primitive methods box, the codec reads and writes primitives itself on the hot path.
+ */
+final class GeneratedFieldAccessor implements FieldAccessor {
+
+    private final GeneratedCodec codec;
+    private final int index;
+
+    GeneratedFieldAccessor(GeneratedCodec codec, int index) {
+        this.codec = codec;
+        this.index = index;
+    }
+
+    @Override
+    public Object get(Object target) {
+        return codec.get(target, index);
+    }
+
+    @Override
+    public void set(Object target, Object value) {
+        codec.set(target, index, value);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates {@link FieldAccessor}s backed by getter and setter method handles that are resolved once per field.
+ * <p>
+ * The handles are adapted to an erased receiver so they can be called with {@code invokeExact}. For primitive fields
+ * a second pair of handles keeps the primitive type, which lets {@link FieldAccessor#getInt(Object)} and friends run
+ * without boxing. Handles in instance fields are not constants for the JIT, so every field gets a hidden copy of
+ * {@link ConstantHandleFieldAccessor} that keeps its handles in {@code static final} fields.
+ */
+final class MethodHandleFieldAccessor {
+
+    private static final byte[] TEMPLATE = readTemplate();
+
+    private MethodHandleFieldAccessor() {
+    }
+
+    /**
+     * @return an accessor for the field or a {@link ReflectiveFieldAccessor} if no method handles can be created for it
+     */
+    static FieldAccessor of(Field field) {
+        if (TEMPLATE == null)
+            return new ReflectiveFieldAccessor(field);
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+            MethodHandle getter = lookup.unreflectGetter(field);
+            MethodHandle setter = lookup.unreflectSetter(field);
+
+            Class<?> type = field.getType();
+            MethodHandle primitiveGetter = null;
+            MethodHandle primitiveSetter = null;
+            if (type.isPrimitive()) {
+                primitiveGetter = getter.asType(MethodType.methodType(type, Object.class));
+                primitiveSetter = setter.asType(MethodType.methodType(void.class, Object.class, type));
+            }
+
+            // indices as in ConstantHandleFieldAccessor.GETTER_INDEX and the following constants
+            List<MethodHandle> handles = Arrays.asList(
+                    getter.asType(MethodType.methodType(Object.class, Object.class)),
+                    setter.asType(MethodType.methodType(void.class, Object.class, Object.class)),
+                    primitiveGetter, primitiveSetter);
+
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClassWithClassData(TEMPLATE, handles, true);
+            return (FieldAccessor) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (IllegalAccessException e) {
+            return new ReflectiveFieldAccessor(field);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create accessor for " + field, e);
+        }
+    }
+
+    /**
+     * @return the class file of the template or null if the class loader does not expose it
+     */
+    private static byte[] readTemplate() {
+        String resource = ConstantHandleFieldAccessor.class.getSimpleName() + ".class";
+        try (InputStream in = MethodHandleFieldAccessor.class.getResourceAsStream(resource)) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import java.util.Arrays;
+
+/**
+ * Maps the fields of a {@link ClassLayout} to the fields of a class, so readers find the field of a value with an
+ * array lookup instead of comparing names. Plans are computed once per layout by {@link ClassSchema#plan(ClassLayout)}.
+ * <p>
+ * Fields with a tag are matched by tag. Fields without tag, or whose tag the class does not use anymore, are matched
+ * by wire name, but never with a field that has another tag. Every field of the class receives the values of at most
+ * one field of the layout, fields of the layout without match are skipped.
+ */
+public final class ReadPlan {
+
+    private final ClassLayout layout;
+    // field of the class for every field of the layout, -1 to skip
+    private final int[] targets;
+    // field of the layout for every field of the class, -1 if it has none
+    private final int[] sources;
+
+    ReadPlan(ClassLayout layout, ClassSchema schema) {
+        this.layout = layout;
+        this.targets = new int[layout.getFieldCount()];
+        this.sources = new int[schema.getFields().size()];
+        Arrays.fill(targets, -1);
+        Arrays.fill(sources, -1);
+
+        // tags first, a renamed field must not lose its values to a field that took over its name
+        for (int i = 0; i < targets.length; i++) {
+            if (layout.getTag(i) != 0)
+                match(i, schema.getFieldByTag(layout.getTag(i)));
+        }
+
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] >= 0)
+                continue;
+
+            FieldSchema field = schema.getField(layout.getFieldName(i));
+            if (field != null && (field.getTag() == 0 || layout.getTag(i) == 0))
+                match(i, field);
+        }
+    }
+
+    private void match(int source, FieldSchema field) {
+        if (field == null || sources[field.getIndex()] >= 0)
+            return;
+
+        targets[source] = field.getIndex();
+        sources[field.getIndex()] = source;
+    }
+
+    public ClassLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param layoutIndex index of the field in the layout
+     * @return the index of the field of the class that receives its values, -1 if they are skipped
+     */
+    public int target(int layoutIndex) {
+        return targets[layoutIndex];
+    }
+
+    /**
+     * @param fieldIndex index of the field of the class
+     * @return the index of the field in the layout whose values it receives, -1 if there is none
+     */
+    public int source(int fieldIndex) {
+        return sources[fieldIndex];
+    }
+
+    /**
+     * @return whether the values of the field of the layout are read at all
+     */
+    public boolean isNeeded(int layoutIndex) {
+        return targets[layoutIndex] >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadPlan{" +
+                "layout=" + layout +
+                ", targets=" + Arrays.toString(targets) +
+                '}';
+    }
+}
@@ -0,0 +1,55 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a warmed up {@link Serializer#local(SerializationFormat)} reuses its buffers and tables, so serializing
+ * a graph again only allocates for the values it converts to text.
+ */
+class AllocationTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int CALLS = 2_000;
+    // bytes per call: the text format turns the floating point values and block ids of Sample.chain() into strings,
+    // about 2 KB; the binary format allocated about 440 bytes while its string table was a HashMap
+    private static final long TEXT_LIMIT = 3 * 1024;
+    private static final long BINARY_LIMIT = 128;
+
+    @Test
+    void serializesTextWithoutAllocatingBuffers() throws Exception {
+        assertAllocatesAtMost(SerializationFormat.TEXT, TEXT_LIMIT);
+    }
+
+    @Test
+    void serializesBinaryWithoutAllocating() throws Exception {
+        assertAllocatesAtMost(SerializationFormat.BINARY, BINARY_LIMIT);
+    }
+
+    private static void assertAllocatesAtMost(SerializationFormat format, long limit) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Sample sample = Sample.chain();
+        OutputStream out = OutputStream.nullOutputStream();
+
+        for (int i = 0; i < WARMUP; i++)
+            Serializer.local(format).serialize(sample, out);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < CALLS; i++)
+            Serializer.local(format).serialize(sample, out);
+        long perCall = (threads.getThreadAllocatedBytes(thread) - before) / CALLS;
+
+        assertTrue(perCall <= limit, format + " allocated " + perCall + " bytes per call");
+    }
+}
@@ -0,0 +1,266 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Serializes and deserializes from a thread pool and checks every graph that is read back against the graph that was
+ * written, for files of their own and for files that are shared by all threads.
+ */
+class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 40;
+
+    @TempDir
+    Path directory;
+
+    private ExecutorService pool;
+    private ExecutorService decoder;
+
+    @BeforeEach
+    void startPools() {
+        pool = Executors.newFixedThreadPool(THREADS);
+        decoder = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void stopPools() throws InterruptedException {
+        pool.shutdownNow();
+        decoder.shutdownNow();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void roundTripsOnDistinctPaths() throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int id = thread;
+            tasks.add(() -> {
+                for (int round = 0; round < ROUNDS; round++) {
+                    Sample sample = sample(id * ROUNDS + round);
+                    Car car = car(id * ROUNDS + round);
+                    for (SerializationFormat format : SerializationFormat.values()) {
+                        File file = directory.resolve("t" + id + "-" + round + "." + format).toFile();
+                        SerializationUtil.serialize(sample, file, format);
+                        assertGraphEquals(sample, SerializationUtil.deserialize(file, format, Sample.class));
+
+                        SerializationUtil.serialize(car, file, format);
+                        assertGraphEquals(car, SerializationUtil.deserialize(file, format, Car.class));
+                        if (format == SerializationFormat.TEXT)
+                            assertGraphEquals(car, SerializationUtil.deserialize(file, Car.class, decoder));
+                    }
+                }
+                return null;
+            });
+        }
+
+        run(tasks);
+        assertNoTempFiles();
+    }
+
+    @Test
+    void readersOfASharedPathSeeCompleteGraphs() throws Exception {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            File file = directory.resolve("shared." + format).toFile();
+            Map<Integer, Sample> written = new ConcurrentHashMap<>();
+            written.put(-1, sample(-1));
+            SerializationUtil.serialize(written.get(-1), file, format);
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int id = thread;
+                if (id % 2 == 0) {
+                    tasks.add(() -> {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            Sample sample = sample(id * ROUNDS + round);
+                            written.put(sample.count, sample);
+                            SerializationUtil.serialize(sample, file, format);
+                        }
+                        return null;
+                    });
+                } else {
+                    tasks.add(() -> {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            Sample read = round % 2 == 0 || format != SerializationFormat.TEXT
+                                    ? SerializationUtil.deserialize(file, format, Sample.class)
+                                    : SerializationUtil.deserialize(file, Sample.class, decoder);
+                            assertWritten(written, read);
+                        }
+                        return null;
+                    });
+                }
+            }
+
+            run(tasks);
+            assertWritten(written, SerializationUtil.deserialize(file, format, Sample.class));
+        }
+        assertNoTempFiles();
+    }
+
+    @Test
+    void coalescedAsyncWritesKeepTheLastGraph() throws Exception {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            File file = directory.resolve("async." + format).toFile();
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            Sample last = null;
+            for (int round = 0; round < ROUNDS * 4; round++) {
+                last = sample(round);
+                writes.add(SerializationUtil.serializeAsync(last, file, format));
+            }
+
+            // reads start after the writes requested before them, so they see the last graph
+            Sample read = SerializationUtil.deserializeAsync(file, format, Sample.class).get(30, TimeUnit.SECONDS);
+            for (CompletableFuture<Void> write : writes)
+                write.get(30, TimeUnit.SECONDS);
+            assertGraphEquals(last, read);
+        }
+        assertNoTempFiles();
+    }
+
+    @Test
+    void asyncWritesAndReadsFromManyThreads() throws Exception {
+        File file = directory.resolve("contended").toFile();
+        Map<Integer, Sample> written = new ConcurrentHashMap<>();
+        written.put(-1, sample(-1));
+        SerializationUtil.serialize(written.get(-1), file);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int id = thread;
+            tasks.add(() -> {
+                start.await();
+                List<CompletableFuture<?>> futures = new ArrayList<>();
+                for (int round = 0; round < ROUNDS; round++) {
+                    Sample sample = sample(id * ROUNDS + round);
+                    written.put(sample.count, sample);
+                    futures.add(SerializationUtil.serializeAsync(sample, file));
+                    futures.add(SerializationUtil.deserializeAsync(file, Sample.class)
+                            .thenAccept(read -> assertWritten(written, read)));
+                }
+                for (CompletableFuture<?> future : futures)
+                    future.get(30, TimeUnit.SECONDS);
+
+                // the last write of this thread completed, so the file holds it or a graph of another thread
+                assertWritten(written, SerializationUtil.deserialize(file, Sample.class));
+                return null;
+            });
+        }
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks)
+            futures.add(pool.submit(task));
+        start.countDown();
+        for (Future<Void> future : futures)
+            future.get(120, TimeUnit.SECONDS);
+        assertNoTempFiles();
+    }
+
+    @Test
+    void atomicWritesOfASharedPathNeverInterleave() throws Exception {
+        Path file = directory.resolve("atomic");
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            byte value = (byte) thread;
+            tasks.add(() -> {
+                for (int round = 0; round < ROUNDS; round++) {
+                    PathLocks.writeAtomically(file, path -> {
+                        try (OutputStream out = Files.newOutputStream(path)) {
+                            for (int i = 0; i < 64; i++) {
+                                out.write(new byte[1024 + value]);
+                                out.flush();
+                                Thread.yield();
+                            }
+                        }
+                    });
+
+                    byte[] bytes = readLocked(file);
+                    assertEquals(0, bytes.length % 64);
+                    assertTrue(bytes.length >= 64 * 1024 && bytes.length < 64 * (1024 + THREADS), "length " + bytes.length);
+                }
+                return null;
+            });
+        }
+
+        run(tasks);
+        assertNoTempFiles();
+    }
+
+    private static byte[] readLocked(Path file) throws IOException {
+        Lock lock = PathLocks.readLock(file);
+        lock.lock();
+        try {
+            return Files.readAllBytes(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run(List<Callable<Void>> tasks) throws Exception {
+        for (Future<Void> future : pool.invokeAll(tasks, 120, TimeUnit.SECONDS))
+            future.get();
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(), files.filter(path -> path.getFileName().toString().endsWith(".tmp")).toList());
+        }
+    }
+
+    private static void assertWritten(Map<Integer, Sample> written, Sample read) {
+        assertNotNull(read);
+        Sample expected = written.get(read.count);
+        assertNotNull(expected, "read a graph that was never written: " + read.count);
+        assertGraphEquals(expected, read);
+    }
+
+    /**
+     * @return a graph whose root count identifies it
+     */
+    private static Sample sample(int id) {
+        Sample sample = Sample.chain();
+        sample.count = id;
+        sample.name = "sample " + id;
+        sample.next.next.count = id * 31;
+        return sample;
+    }
+
+    private static Car car(int id) {
+        Car car = new Car("color " + id, id);
+        car.setPerson(new Person("driver " + id, id % 100, car));
+        return car;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import dev.steinmoetzger.shortserialization.codec.DeltaEncoder;
+import dev.steinmoetzger.shortserialization.codec.MappedTextDocument;
+import dev.steinmoetzger.shortserialization.codec.PatchCompactor;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaFileTest {
+
+    // high enough that nothing is compacted unless a test asks for it
+    private static final double NO_COMPACTION = 1000;
+    private static final String FRAME = "#PATCH:";
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    void appendsFramedPatches() throws Exception {
+        File file = directory.resolve("delta.ss").toFile();
+        Sample sample = Sample.chain();
+        try (DeltaFile delta = new DeltaFile(file, Runnable::run, NO_COMPACTION)) {
+            delta.save(sample);
+            long base = file.length();
+            assertEquals(base, delta.getBaseLength());
+            assertFalse(read(file).contains(FRAME));
+
+            for (int i = 0; i < 5; i++) {
+                sample.next.next.count = i;
+                sample.next.name = "name " + i;
+                delta.save(sample);
+                assertReadsAs(sample, file);
+            }
+
+            assertEquals(5, occurrences(read(file), FRAME));
+            assertEquals(file.length() - base, delta.getPatchLength());
+
+            // nothing changed, nothing is appended
+            long length = file.length();
+            delta.save(sample);
+            assertEquals(length, file.length());
+        }
+    }
+
+    @Test
+    void ignoresATornPatchAtTheEnd() throws Exception {
+        File file = directory.resolve("torn.ss").toFile();
+        Sample sample = Sample.chain();
+        Sample saved;
+        byte[] complete;
+        try (DeltaFile delta = new DeltaFile(file, Runnable::run, NO_COMPACTION)) {
+            delta.save(sample);
+            sample.count = 1;
+            delta.save(sample);
+            saved = copy(sample);
+            complete = Files.readAllBytes(file.toPath());
+
+            sample.count = 2;
+            sample.next.next.next.name = "changed by the torn patch";
+            sample.next.next.next.next = new Sample("added by the torn patch", 3);
+            delta.save(sample);
+        }
+
+        byte[] patched = Files.readAllBytes(file.toPath());
+        for (int length = complete.length + 1; length < patched.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(patched, length));
+            assertReadsAs(saved, file);
+        }
+    }
+
+    @Test
+    void ignoresAPatchWithAWrongChecksum() throws Exception {
+        File file = directory.resolve("damaged.ss").toFile();
+        Sample sample = Sample.chain();
+        Sample saved;
+        int patchStart;
+        try (DeltaFile delta = new DeltaFile(file, Runnable::run, NO_COMPACTION)) {
+            delta.save(sample);
+            saved = copy(sample);
+            patchStart = (int) file.length();
+
+            sample.count = 12345;
+            delta.save(sample);
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int digit = new String(bytes, StandardCharsets.UTF_8).lastIndexOf("count=12345") + "count=".length();
+        assertTrue(digit > patchStart);
+        bytes[digit] = '9';
+        Files.write(file.toPath(), bytes);
+
+        assertReadsAs(saved, file);
+    }
+
+    @Test
+    void readsPatchesWithoutFrames() throws Exception {
+        // files written before patches were framed
+        DeltaEncoder encoder = new DeltaEncoder();
+        StringWriter document = new StringWriter();
+        Sample sample = Sample.chain();
+        encoder.write(sample, document);
+        sample.next.count = 8;
+        encoder.write(sample, document);
+        sample.next.next.next.next = new Sample("added", 9);
+        encoder.write(sample, document);
+
+        File file = directory.resolve("unframed.ss").toFile();
+        Files.writeString(file.toPath(), document.toString());
+        assertReadsAs(sample, file);
+    }
+
+    @Test
+    void rejectsInvalidFrameLines() throws Exception {
+        File file = directory.resolve("invalid.ss").toFile();
+        Sample sample = Sample.chain();
+        try (DeltaFile delta = new DeltaFile(file, Runnable::run, NO_COMPACTION)) {
+            delta.save(sample);
+        }
+        Files.writeString(file.toPath(), "\n" + FRAME + " twelve 0\n::BEGIN CLASS: Sample#1\n::END CLASS: Sample#1",
+                StandardOpenOption.APPEND);
+
+        assertThrows(DeserializeException.class, () -> SerializationUtil.deserialize(file, Sample.class));
+        assertThrows(DeserializeException.class, () -> SerializationUtil.deserialize(file, Sample.class, executor));
+        assertThrows(DeserializeException.class, () -> SerializationUtil.deserializeMapped(file.toPath()).close());
+    }
+
+    @Test
+    void compactsPatchesIntoTheDocument() throws Exception {
+        File file = directory.resolve("compacted.ss").toFile();
+        Sample sample = Sample.chain();
+        try (DeltaFile delta = new DeltaFile(file, Runnable::run, NO_COMPACTION)) {
+            delta.save(sample);
+            for (int i = 0; i < 5; i++) {
+                sample.next.count = i;
+                sample.next.next.next.next = new Sample("added " + i, i);
+                delta.save(sample);
+            }
+
+            delta.compact();
+            assertEquals(0, delta.getPatchLength());
+            assertFalse(read(file).contains(FRAME));
+            assertReadsAs(sample, file);
+
+            // patches after a compaction apply to the compacted document
+            sample.next.next.count = 77;
+            delta.save(sample);
+            assertReadsAs(sample, file);
+        }
+    }
+
+    @Test
+    void compactsInTheBackground() throws Exception {
+        File file = directory.resolve("background.ss").toFile();
+        Sample sample = Sample.chain();
+        try (DeltaFile delta = new DeltaFile(file, executor, 0.01)) {
+            delta.save(sample);
+            for (int i = 0; i < 50; i++) {
+                sample.next.count = i;
+                delta.save(sample);
+                assertReadsAs(sample, file);
+            }
+        }
+        assertReadsAs(sample, file);
+    }
+
+    @Test
+    void compactionDropsATornPatchAtTheEnd() throws Exception {
+        File file = directory.resolve("compact-torn.ss").toFile();
+        Sample sample = Sample.chain();
+        Sample saved;
+        long base;
+        long complete;
+        try (DeltaFile delta = new DeltaFile(file, Runnable::run, NO_COMPACTION)) {
+            delta.save(sample);
+            base = delta.getBaseLength();
+            sample.next.count = 5;
+            delta.save(sample);
+            saved = copy(sample);
+            complete = file.length();
+
+            sample.next.count = 6;
+            delta.save(sample);
+        }
+
+        long torn = complete + (file.length() - complete) / 2;
+        ByteArrayOutputStream compacted = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            PatchCompactor.compact(channel, base, torn, compacted);
+        }
+
+        assertFalse(compacted.toString(StandardCharsets.UTF_8).contains(FRAME));
+        assertGraphEquals(saved, SerializationUtil.deserialize(new ByteArrayInputStream(compacted.toByteArray()),
+                SerializationFormat.TEXT, Sample.class));
+    }
+
+    private static void assertReadsAs(Sample expected, File file) throws Exception {
+        assertGraphEquals(expected, SerializationUtil.deserialize(file, Sample.class));
+        assertGraphEquals(expected, SerializationUtil.deserialize(file, Sample.class, executor));
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file.toPath())) {
+            assertGraphEquals(expected, document.toObject("ROOT", Sample.class.getPackageName()));
+        }
+    }
+
+    private static Sample copy(Sample sample) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(sample, out, SerializationFormat.BINARY);
+        return SerializationUtil.deserialize(new ByteArrayInputStream(out.toByteArray()), SerializationFormat.BINARY, Sample.class);
+    }
+
+    private static String read(File file) throws Exception {
+        return Files.readString(file.toPath());
+    }
+
+    private static int occurrences(String text, String value) {
+        int count = 0;
+        for (int i = text.indexOf(value); i >= 0; i = text.indexOf(value, i + 1))
+            count++;
+        return count;
+    }
+}
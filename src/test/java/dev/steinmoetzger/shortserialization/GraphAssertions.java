@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Compares object graphs field by field. The comparison walks the graphs with a work queue, so long chains and cycles
+ * are fine, and checks that objects shared in the expected graph are shared in the same way in the actual graph.
+ */
+public final class GraphAssertions {
+
+    private GraphAssertions() {
+    }
+
+    public static void assertGraphEquals(Object expected, Object actual) {
+        Map<Object, Object> visited = new IdentityHashMap<>();
+        Deque<Pair> pending = new ArrayDeque<>();
+        pending.add(new Pair(expected, actual, null, "root"));
+
+        while (!pending.isEmpty()) {
+            Pair pair = pending.poll();
+            Object left = pair.expected;
+            Object right = pair.actual;
+
+            if (left == null || right == null) {
+                assertSame(left, right, pair::path);
+                continue;
+            }
+            assertEquals(left.getClass(), right.getClass(), pair::path);
+            if (isValue(left.getClass()) || left instanceof Set || left instanceof Map) {
+                assertEquals(left, right, pair::path);
+                continue;
+            }
+
+            Object seen = visited.putIfAbsent(left, right);
+            if (seen != null) {
+                assertSame(seen, right, () -> pair.path() + " is not shared like in the expected graph");
+                continue;
+            }
+
+            if (left.getClass().isArray()) {
+                int length = Array.getLength(left);
+                assertEquals(length, Array.getLength(right), () -> pair.path() + ".length");
+                for (int i = 0; i < length; i++)
+                    pending.add(new Pair(Array.get(left, i), Array.get(right, i), pair, "[" + i + "]"));
+            } else if (left instanceof Collection) {
+                // lists and queues, compared in iteration order
+                Collection<?> leftCollection = (Collection<?>) left;
+                Collection<?> rightCollection = (Collection<?>) right;
+                assertEquals(leftCollection.size(), rightCollection.size(), () -> pair.path() + ".size");
+                Iterator<?> rightElements = rightCollection.iterator();
+                int i = 0;
+                for (Object element : leftCollection)
+                    pending.add(new Pair(element, rightElements.next(), pair, "[" + i++ + "]"));
+            } else {
+                for (Class<?> type = left.getClass(); type != Object.class; type = type.getSuperclass()) {
+                    for (Field field : type.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers()))
+                            continue;
+                        field.setAccessible(true);
+                        try {
+                            pending.add(new Pair(field.get(left), field.get(right), pair, "." + field.getName()));
+                        } catch (IllegalAccessException e) {
+                            fail(e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isValue(Class<?> type) {
+        return type == String.class || Enum.class.isAssignableFrom(type) || Number.class.isAssignableFrom(type)
+                || type == Character.class || type == Boolean.class;
+    }
+
+    /**
+     * Values at the same place in both graphs. The path is only built for the failure message.
+     */
+    private static final class Pair {
+
+        final Object expected;
+        final Object actual;
+        final Pair parent;
+        final String step;
+
+        Pair(Object expected, Object actual, Pair parent, String step) {
+            this.expected = expected;
+            this.actual = actual;
+            this.parent = parent;
+            this.step = step;
+        }
+
+        String path() {
+            Deque<String> steps = new ArrayDeque<>();
+            for (Pair pair = this; pair != null; pair = pair.parent)
+                steps.push(pair.step);
+            return String.join("", steps);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization;
+
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+
+/**
+ * Test class with one field of every type that all versions of the formats support. The compatibility fixtures under
+ * src/test/resources were written from a class with the same name and fields.
+ */
+@SerializableClass(name = "Sample")
+public class Sample {
+
+    @SerializableField
+    public String name;
+    @SerializableField
+    public int count;
+    @SerializableField
+    public double ratio;
+    @SerializableField
+    public float weight;
+    @SerializableField
+    public byte flags;
+    @SerializableField
+    public char grade;
+    @SerializableField
+    public short small;
+    @SerializableField
+    public Sample next;
+
+    public Sample() {
+    }
+
+    public Sample(String name, int count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    /**
+     * @return a chain of samples with values at the edges of their types, the last one points back to the first
+     */
+    public static Sample chain() {
+        Sample first = new Sample("first", 0);
+        first.ratio = -0.0;
+        first.weight = Float.MIN_VALUE;
+        first.flags = Byte.MIN_VALUE;
+        first.grade = 'a';
+        first.small = Short.MIN_VALUE;
+
+        Sample second = new Sample("", Integer.MAX_VALUE);
+        second.ratio = Double.MAX_VALUE;
+        second.weight = -1.5f;
+        second.flags = Byte.MAX_VALUE;
+        second.grade = 'ä';
+        second.small = Short.MAX_VALUE;
+
+        Sample third = new Sample(null, Integer.MIN_VALUE);
+        third.ratio = 1e-300;
+        third.weight = 1e30f;
+        third.flags = -1;
+        third.grade = '€';
+        third.small = -1;
+
+        Sample fourth = new Sample("Grüße, € and 𝄞", -1);
+        fourth.ratio = 0.1;
+        fourth.grade = 'z';
+        fourth.small = 300;
+
+        first.next = second;
+        second.next = third;
+        third.next = fourth;
+        fourth.next = first;
+        return first;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.exception.SerializeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchFileTest {
+
+    private static final int RECORDS = 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsRecordsByPositionAndKey() throws Exception {
+        List<Sample> samples = samples();
+        for (SerializationFormat format : SerializationFormat.values()) {
+            Path file = directory.resolve("keyed-" + format + ".ssl");
+            SerializationUtil.serializeAll(samples, file, format, sample -> "key " + sample.name);
+
+            try (BatchReader reader = SerializationUtil.openBatch(file)) {
+                assertEquals(format, reader.getFormat());
+                assertEquals(RECORDS, reader.size());
+
+                // out of order, so every record is read with its own positioned read
+                for (int i = RECORDS - 1; i >= 0; i--)
+                    assertGraphEquals(samples.get(i), toObject(reader.read(i)));
+
+                assertTrue(reader.containsKey("key sample 7"));
+                assertGraphEquals(samples.get(7), toObject(reader.read("key sample 7")));
+                assertFalse(reader.containsKey("key sample 99"));
+                assertNull(reader.read("key sample 99"));
+                assertThrows(IndexOutOfBoundsException.class, () -> reader.read(RECORDS));
+                assertThrows(IndexOutOfBoundsException.class, () -> reader.read(-1));
+            }
+        }
+    }
+
+    @Test
+    void readsRecordsWithoutKeys() throws Exception {
+        List<Sample> samples = samples();
+        for (SerializationFormat format : SerializationFormat.values()) {
+            Path file = directory.resolve("unkeyed-" + format + ".ssl");
+            SerializationUtil.serializeAll(samples, file, format);
+
+            try (BatchReader reader = SerializationUtil.openBatch(file)) {
+                assertEquals(RECORDS, reader.size());
+                assertGraphEquals(samples.get(RECORDS - 1), toObject(reader.read(RECORDS - 1)));
+                assertFalse(reader.containsKey("key sample 0"));
+            }
+        }
+    }
+
+    @Test
+    void readsEmptyBatches() throws Exception {
+        Path file = directory.resolve("empty.ssl");
+        SerializationUtil.serializeAll(List.of(), file);
+
+        try (BatchReader reader = SerializationUtil.openBatch(file)) {
+            assertEquals(0, reader.size());
+            assertEquals(SerializationFormat.TEXT, reader.getFormat());
+        }
+    }
+
+    @Test
+    void rejectsDuplicateKeys() {
+        Path file = directory.resolve("duplicate.ssl");
+
+        assertThrows(SerializeException.class, () -> SerializationUtil.serializeAll(samples(), file,
+                SerializationFormat.BINARY, sample -> sample.count % 2 == 0 ? "even" : "odd"));
+        // the batch is written to a temporary file first
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void rejectsFilesThatWereNotClosed() throws Exception {
+        byte[] batch = write(SerializationFormat.TEXT);
+        // the index and footer are only written on close
+        byte[] unclosed = Arrays.copyOf(batch, (int) indexOffset(batch));
+
+        assertEquals("Batch file has no index, it was not closed properly", open(unclosed).getMessage());
+        assertEquals("Not a ShortSerializer batch file", open(Arrays.copyOf(batch, BatchFormat.HEADER_LENGTH)).getMessage());
+    }
+
+    @Test
+    void rejectsCorruptIndexes() throws Exception {
+        byte[] batch = write(SerializationFormat.BINARY);
+        int footer = batch.length - BatchFormat.FOOTER_LENGTH;
+
+        // record count far beyond what the index can hold, must not be allocated
+        byte[] count = batch.clone();
+        ByteBuffer.wrap(count).putInt(footer + 8, Integer.MAX_VALUE);
+        assertEquals("Corrupt batch index", open(count).getMessage());
+
+        ByteBuffer.wrap(count).putInt(footer + 8, -1);
+        assertEquals("Corrupt batch index", open(count).getMessage());
+
+        byte[] offset = batch.clone();
+        ByteBuffer.wrap(offset).putLong(footer, batch.length);
+        assertEquals("Corrupt batch index", open(offset).getMessage());
+
+        int index = (int) indexOffset(batch);
+        byte[] entry = batch.clone();
+        ByteBuffer.wrap(entry).putInt(index + 8, Integer.MAX_VALUE);
+        assertEquals("Corrupt batch index entry 0", open(entry).getMessage());
+
+        byte[] key = batch.clone();
+        ByteBuffer.wrap(key).putInt(index + 12, Integer.MAX_VALUE);
+        assertEquals("Corrupt batch index entry 0", open(key).getMessage());
+
+        byte[] magic = batch.clone();
+        magic[0] = 'X';
+        assertEquals("Not a ShortSerializer batch file", open(magic).getMessage());
+    }
+
+    private byte[] write(SerializationFormat format) throws Exception {
+        Path file = directory.resolve("batch-" + format + ".ssl");
+        SerializationUtil.serializeAll(samples(), file, format, sample -> sample.name);
+        return Files.readAllBytes(file);
+    }
+
+    private DeserializeException open(byte[] batch) throws Exception {
+        Path file = Files.createTempFile(directory, "corrupt", ".ssl");
+        Files.write(file, batch);
+        return assertThrows(DeserializeException.class, () -> SerializationUtil.openBatch(file).close());
+    }
+
+    private static long indexOffset(byte[] batch) {
+        return ByteBuffer.wrap(batch).getLong(batch.length - BatchFormat.FOOTER_LENGTH);
+    }
+
+    private static Object toObject(DeserializationData data) throws Exception {
+        return data.toObject(Sample.class.getPackageName());
+    }
+
+    private static List<Sample> samples() {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            Sample sample = i % 5 == 0 ? Sample.chain() : new Sample(null, i);
+            sample.name = "sample " + i;
+            sample.count = i;
+            samples.add(sample);
+        }
+        return samples;
+    }
+}
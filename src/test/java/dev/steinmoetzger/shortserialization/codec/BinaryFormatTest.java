@@ -0,0 +1,154 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryFormatTest {
+
+    private static final int[] VARINT_EDGES = {
+            0, 1, -1, 63, 64, -64, -65, 127, 128, 8191, 8192, 16383, 16384, 1 << 20, (1 << 21) - 1, 1 << 21,
+            (1 << 28) - 1, 1 << 28, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Short.MAX_VALUE,
+            Short.MIN_VALUE, Character.MAX_VALUE
+    };
+
+    @Test
+    void roundTripsEdgeValuesAndCycles() throws Exception {
+        Sample sample = Sample.chain();
+        byte[] document = serialize(sample);
+
+        assertGraphEquals(sample, deserialize(document));
+        assertGraphEquals(sample, SerializationUtil.deserialize(new ByteArrayInputStream(document), SerializationFormat.BINARY)
+                .toObject(Sample.class.getPackageName()));
+    }
+
+    @Test
+    void writesCurrentVersion() throws Exception {
+        byte[] document = serialize(Sample.chain());
+
+        assertArrayEquals(BinaryFormat.MAGIC, Arrays.copyOf(document, BinaryFormat.MAGIC.length));
+        assertEquals(BinaryFormat.VERSION, document[BinaryFormat.MAGIC.length]);
+    }
+
+    @Test
+    void roundTripsVarIntEdges() throws Exception {
+        Sample first = null;
+        for (int i = VARINT_EDGES.length - 1; i >= 0; i--) {
+            int value = VARINT_EDGES[i];
+            Sample sample = new Sample("v" + value, value);
+            sample.small = (short) value;
+            sample.grade = (char) value;
+            sample.flags = (byte) value;
+            sample.next = first;
+            first = sample;
+        }
+
+        assertGraphEquals(first, deserialize(serialize(first)));
+    }
+
+    @Test
+    void writesRepeatedStringsOnce() throws Exception {
+        String shortName = "repeated name";
+        String longName = "long ".repeat(60);
+        assertTrue(longName.length() > BinaryFormat.STRING_TABLE_MAX_BYTES);
+
+        Sample first = null;
+        for (int i = 0; i < 100; i++) {
+            Sample sample = new Sample(i % 2 == 0 ? shortName : longName, i);
+            sample.next = first;
+            first = sample;
+        }
+        byte[] document = serialize(first);
+
+        assertEquals(1, occurrences(document, shortName));
+        assertEquals(50, occurrences(document, longName));
+        assertGraphEquals(first, deserialize(document));
+    }
+
+    @Test
+    void keepsWritingLiteralsWhenTheStringTableIsFull() throws Exception {
+        int count = BinaryFormat.STRING_TABLE_SIZE + 100;
+        Sample first = null;
+        for (int i = count - 1; i >= 0; i--) {
+            // the first names fill the table, the repeated ones at the end are only found if they made it in
+            Sample sample = new Sample("n" + (i < count - 10 ? i : i - (count - 10)), i);
+            sample.next = first;
+            first = sample;
+        }
+
+        assertGraphEquals(first, deserialize(serialize(first)));
+    }
+
+    @Test
+    void readsVersion1Documents() throws Exception {
+        byte[] document = fixture("sample-v1.ssb");
+        assertEquals(1, document[BinaryFormat.MAGIC.length]);
+
+        assertGraphEquals(Sample.chain(), deserialize(document));
+    }
+
+    @Test
+    void readsVersion2Documents() throws Exception {
+        byte[] document = fixture("sample-v2.ssb");
+        assertEquals(2, document[BinaryFormat.MAGIC.length]);
+
+        assertGraphEquals(Sample.chain(), deserialize(document));
+    }
+
+    @Test
+    void rejectsUnknownVersions() throws Exception {
+        byte[] document = serialize(Sample.chain());
+        document[BinaryFormat.MAGIC.length] = BinaryFormat.VERSION + 1;
+
+        assertThrows(DeserializeException.class, () -> deserialize(document));
+    }
+
+    static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, SerializationFormat.BINARY);
+        return out.toByteArray();
+    }
+
+    static Sample deserialize(byte[] document) throws IOException, DeserializeException {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(document), SerializationFormat.BINARY, Sample.class);
+    }
+
+    static byte[] fixture(String name) throws IOException {
+        try (InputStream in = BinaryFormatTest.class.getResourceAsStream(name)) {
+            assertNotNull(in, name);
+            return in.readAllBytes();
+        }
+    }
+
+    private static int occurrences(byte[] document, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int count = 0;
+        for (int i = 0; i + bytes.length <= document.length; i++) {
+            if (Arrays.equals(document, i, i + bytes.length, bytes, 0, bytes.length))
+                count++;
+        }
+        return count;
+    }
+}
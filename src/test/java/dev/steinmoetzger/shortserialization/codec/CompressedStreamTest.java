@@ -0,0 +1,183 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompressedStreamTest {
+
+    // magic, version and codec id
+    private static final int HEADER_LENGTH = CompressionFormat.MAGIC.length + 2;
+
+    @Test
+    void roundTripsGraphs() throws Exception {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SerializationUtil.serialize(Sample.chain(), out, format, DeflateCodec.FAST);
+
+            assertGraphEquals(Sample.chain(), SerializationUtil.deserialize(
+                    new ByteArrayInputStream(out.toByteArray()), format, DeflateCodec.FAST, Sample.class));
+        }
+    }
+
+    @Test
+    void roundTripsStoredAndCompressedBlocks() throws Exception {
+        byte[] data = data(10_000);
+        byte[] stream = compress(data, 1000);
+
+        assertArrayEquals(data, decompress(stream));
+    }
+
+    @Test
+    void writesBlockSizeIntoTheHeader() throws Exception {
+        byte[] stream = compress(data(10), 1000);
+
+        assertEquals(CompressionFormat.VERSION, stream[CompressionFormat.MAGIC.length]);
+        assertEquals(1000, readInt(stream, HEADER_LENGTH));
+    }
+
+    @Test
+    void readsVersion1Streams() throws Exception {
+        byte[] data = data(10_000);
+        byte[] stream = compress(data, 1000);
+
+        // version 1 has no block size after the codec id
+        byte[] version1 = new byte[stream.length - 4];
+        System.arraycopy(stream, 0, version1, 0, HEADER_LENGTH);
+        System.arraycopy(stream, HEADER_LENGTH + 4, version1, HEADER_LENGTH, version1.length - HEADER_LENGTH);
+        version1[CompressionFormat.MAGIC.length] = 1;
+
+        assertArrayEquals(data, decompress(version1));
+    }
+
+    @Test
+    void rejectsBlocksLargerThanTheBlockSize() throws Exception {
+        byte[] stream = compress(data(100), 1000);
+        // uncompressed length of the first frame
+        writeInt(stream, HEADER_LENGTH + 4 + 1, 1001);
+
+        assertThrows(IOException.class, () -> decompress(stream));
+    }
+
+    @Test
+    void rejectsHugeBlocksWithoutAllocatingThem() throws Exception {
+        byte[] stream = compress(data(100), CompressedOutputStream.DEFAULT_BLOCK_SIZE);
+        writeInt(stream, HEADER_LENGTH + 4 + 1, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> decompress(stream));
+    }
+
+    @Test
+    void rejectsCompressedLengthsThatDoNotShrink() throws Exception {
+        byte[] stream = compress(new byte[1000], 1000);
+        assertEquals(CompressionFormat.FRAME_COMPRESSED, stream[HEADER_LENGTH + 4]);
+        writeInt(stream, HEADER_LENGTH + 4 + 9, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> decompress(stream));
+    }
+
+    @Test
+    void rejectsInvalidBlockSizes() throws Exception {
+        byte[] stream = compress(data(100), 1000);
+        writeInt(stream, HEADER_LENGTH, CompressionFormat.MAX_BLOCK_SIZE + 1);
+
+        assertThrows(IOException.class, () -> decompress(stream));
+        assertThrows(IllegalArgumentException.class, () -> new CompressedOutputStream(
+                new ByteArrayOutputStream(), DeflateCodec.FAST, CompressionFormat.MAX_BLOCK_SIZE + 1));
+    }
+
+    @Test
+    void sharesTheCodecBetweenMoreThreadsThanItPools() throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors() * 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int length = 5000 + thread;
+                tasks.add(() -> {
+                    for (int round = 0; round < 20; round++) {
+                        byte[] data = data(length + round);
+                        assertArrayEquals(data, decompress(compress(data, 1000)));
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(tasks, 60, TimeUnit.SECONDS))
+                future.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void keepsWorkingAfterACorruptBlock() throws Exception {
+        byte[] stream = compress(new byte[1000], 1000);
+        // first byte of the compressed data
+        stream[HEADER_LENGTH + 4 + CompressionFormat.FRAME_HEADER_LENGTH] ^= 0x55;
+
+        assertThrows(IOException.class, () -> decompress(stream));
+        byte[] data = data(3000);
+        assertArrayEquals(data, decompress(compress(data, 1000)));
+    }
+
+    /**
+     * @return random bytes followed by zeros, so there are blocks that are stored and blocks that are compressed
+     */
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        byte[] random = new byte[length / 2];
+        new Random(42).nextBytes(random);
+        System.arraycopy(random, 0, data, 0, random.length);
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CompressedOutputStream compressed = new CompressedOutputStream(out, DeflateCodec.FAST, blockSize)) {
+            compressed.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] stream) throws IOException {
+        try (CompressedInputStream in = new CompressedInputStream(new ByteArrayInputStream(stream), DeflateCodec.FAST)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips of the field types beyond the primitives of {@link Sample}: long, boolean, enums, primitive and object
+ * arrays, collections, maps and containers nested in each other, through every reader.
+ */
+class ContainerTypesTest {
+
+    // escaped in text documents, inside and outside of containers
+    private static final String SPECIAL = "a,b]c}d=e[f{g \\ <NULL>";
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    void roundTripsEveryType() throws Exception {
+        assertRoundTrips(Everything.filled());
+    }
+
+    @Test
+    void roundTripsEmptyAndNullValues() throws Exception {
+        Everything empty = Everything.empty();
+        assertRoundTrips(empty);
+        assertRoundTrips(new Everything());
+    }
+
+    @Test
+    void sharesReferencesInsideContainers() throws Exception {
+        Everything everything = Everything.filled();
+        for (SerializationFormat format : SerializationFormat.values()) {
+            Everything read = roundTrip(everything, format);
+
+            assertSame(read.sample, read.objects[2]);
+            assertSame(read.sample, read.list.get(3));
+            assertSame(read.sample.next.next.next.next, read.sample);
+        }
+    }
+
+    @Test
+    void convertsContainersToTheFieldType() throws Exception {
+        Everything read = roundTrip(Everything.filled(), SerializationFormat.TEXT);
+
+        assertEquals(String[].class, read.strings.getClass());
+        assertEquals(LinkedHashSet.class, read.set.getClass());
+        assertEquals(ArrayDeque.class, read.queue.getClass());
+        assertEquals(TreeMap.class, read.sorted.getClass());
+        assertEquals(List.of("b", "c", "z"), new ArrayList<>(read.sorted.keySet()));
+    }
+
+    @Test
+    void rejectsArraysLongerThanTheDocument() throws Exception {
+        Numbers numbers = new Numbers();
+        numbers.values = new int[0];
+        byte[] document = serialize(numbers, SerializationFormat.BINARY);
+        assertEquals(BinaryFormat.TAG_END, document[document.length - 1]);
+
+        // the length of the empty array right before the end tag claims almost 2^31 values
+        byte[] corrupt = Arrays.copyOf(document, document.length + 3);
+        System.arraycopy(new byte[]{(byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, 0, corrupt, document.length - 2, 5);
+
+        assertThrows(EOFException.class, () -> deserialize(corrupt, SerializationFormat.BINARY, Numbers.class));
+    }
+
+    @Test
+    void rejectsMapsWithTooManyEntries() throws Exception {
+        Table table = new Table();
+        table.entries = new LinkedHashMap<>();
+        byte[] document = serialize(table, SerializationFormat.BINARY);
+        assertEquals(BinaryFormat.TAG_END, document[document.length - 1]);
+
+        // 2^30 entries are 2^31 keys and values, which does not fit into an int
+        byte[] corrupt = Arrays.copyOf(document, document.length + 3);
+        System.arraycopy(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x04}, 0, corrupt, document.length - 2, 5);
+
+        DeserializeException exception = assertThrows(DeserializeException.class,
+                () -> deserialize(corrupt, SerializationFormat.BINARY, Table.class));
+        assertEquals("Syntax Error: Invalid map size 1073741824", exception.getMessage());
+    }
+
+    private void assertRoundTrips(Everything everything) throws Exception {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            byte[] document = serialize(everything, format);
+
+            assertGraphEquals(everything, deserialize(document, format, Everything.class));
+            assertGraphEquals(everything, SerializationUtil.deserialize(new ByteArrayInputStream(document), format)
+                    .toObject(Everything.class.getPackageName()));
+        }
+
+        Path file = directory.resolve("everything.ss");
+        Files.write(file, serialize(everything, SerializationFormat.TEXT));
+        assertGraphEquals(everything, SerializationUtil.deserialize(file.toFile(), Everything.class));
+        assertGraphEquals(everything, SerializationUtil.deserialize(file.toFile(), Everything.class, executor));
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertGraphEquals(everything, document.toObject("ROOT", Everything.class.getPackageName()));
+        }
+    }
+
+    private static Everything roundTrip(Everything everything, SerializationFormat format) throws Exception {
+        return deserialize(serialize(everything, format), format, Everything.class);
+    }
+
+    private static byte[] serialize(Object object, SerializationFormat format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, format);
+        return out.toByteArray();
+    }
+
+    private static <T> T deserialize(byte[] document, SerializationFormat format, Class<T> type) throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(document), format, type);
+    }
+
+    public enum Level {
+        LOW, HIGH,
+        // constants with a body are subclasses of the enum
+        CUSTOM {
+            @Override
+            public String toString() {
+                return "custom";
+            }
+        }
+    }
+
+    @SerializableClass(name = "ContainerEverything")
+    public static class Everything {
+
+        @SerializableField
+        public long big;
+        @SerializableField
+        public boolean flag;
+        @SerializableField
+        public Level level;
+        @SerializableField
+        public Level custom;
+        @SerializableField
+        public String text;
+        @SerializableField
+        public byte[] bytes;
+        @SerializableField
+        public short[] shorts;
+        @SerializableField
+        public int[] ints;
+        @SerializableField
+        public long[] longs;
+        @SerializableField
+        public float[] floats;
+        @SerializableField
+        public double[] doubles;
+        @SerializableField
+        public char[] chars;
+        @SerializableField
+        public boolean[] booleans;
+        @SerializableField
+        public Object[] objects;
+        @SerializableField
+        public String[] strings;
+        @SerializableField
+        public List<Object> list;
+        @SerializableField
+        public Set<String> set;
+        @SerializableField
+        public Map<String, Object> map;
+        @SerializableField
+        public Queue<String> queue;
+        @SerializableField
+        public SortedMap<String, Integer> sorted;
+        @SerializableField
+        public List<List<String>> nested;
+        @SerializableField
+        public Sample sample;
+
+        static Everything filled() {
+            Everything everything = new Everything();
+            everything.big = Long.MIN_VALUE;
+            everything.flag = true;
+            everything.level = Level.HIGH;
+            everything.custom = Level.CUSTOM;
+            everything.text = SPECIAL;
+            everything.bytes = new byte[]{Byte.MIN_VALUE, -1, 0, 1, Byte.MAX_VALUE};
+            everything.shorts = new short[]{Short.MIN_VALUE, 0, Short.MAX_VALUE};
+            everything.ints = new int[]{Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+            everything.longs = new long[]{Long.MIN_VALUE, 0, Long.MAX_VALUE};
+            everything.floats = new float[]{-0.0f, Float.MIN_VALUE, Float.NaN, Float.NEGATIVE_INFINITY};
+            everything.doubles = new double[]{-0.0, Double.MAX_VALUE, 1e-300, Double.POSITIVE_INFINITY};
+            everything.chars = new char[]{'a', ',', ']', '}', '=', 'ä', '€', '\n'};
+            everything.booleans = new boolean[]{true, false, true};
+            everything.sample = Sample.chain();
+            everything.objects = new Object[]{SPECIAL, null, everything.sample, Level.LOW, new ArrayList<>(List.of("x", "y"))};
+            everything.strings = new String[]{"one", SPECIAL, null, ""};
+            everything.list = new ArrayList<>(Arrays.asList(SPECIAL, null, "", everything.sample,
+                    new ArrayList<>(List.of("inner", SPECIAL)), new LinkedHashMap<>(Map.of("key", "value"))));
+            everything.set = new LinkedHashSet<>(List.of("first", SPECIAL, "last"));
+            everything.map = new LinkedHashMap<>();
+            everything.map.put(SPECIAL, SPECIAL);
+            everything.map.put("empty", "");
+            everything.map.put("null", null);
+            everything.map.put("list", new ArrayList<>(List.of("a", "b")));
+            everything.queue = new ArrayDeque<>(List.of("head", SPECIAL, "tail"));
+            everything.sorted = new TreeMap<>(Map.of("z", 26, "b", 2, "c", 3));
+            everything.nested = new ArrayList<>(List.of(new ArrayList<>(List.of("a", SPECIAL)), new ArrayList<>(), new ArrayList<>(List.of("b"))));
+            return everything;
+        }
+
+        static Everything empty() {
+            Everything everything = new Everything();
+            everything.text = "";
+            everything.bytes = new byte[0];
+            everything.shorts = new short[0];
+            everything.ints = new int[0];
+            everything.longs = new long[0];
+            everything.floats = new float[0];
+            everything.doubles = new double[0];
+            everything.chars = new char[0];
+            everything.booleans = new boolean[0];
+            everything.objects = new Object[0];
+            everything.strings = new String[0];
+            everything.list = new ArrayList<>();
+            everything.set = new LinkedHashSet<>();
+            everything.map = new LinkedHashMap<>();
+            everything.queue = new ArrayDeque<>();
+            everything.sorted = new TreeMap<>();
+            everything.nested = new ArrayList<>();
+            return everything;
+        }
+    }
+
+    @SerializableClass(name = "ContainerNumbers")
+    public static class Numbers {
+
+        @SerializableField
+        public int[] values;
+    }
+
+    @SerializableClass(name = "ContainerTable")
+    public static class Table {
+
+        @SerializableField
+        public Map<String, String> entries;
+    }
+}
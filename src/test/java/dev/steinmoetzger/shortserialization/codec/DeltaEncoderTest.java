@@ -0,0 +1,151 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaEncoderTest {
+
+    private final DeltaEncoder encoder = new DeltaEncoder();
+    private final StringBuilder document = new StringBuilder();
+
+    @Test
+    void firstWriteMatchesTheTextEncoder() throws Exception {
+        Sample sample = Sample.chain();
+        write(sample);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(sample, out, SerializationFormat.TEXT);
+        assertEquals(out.toString(StandardCharsets.UTF_8), document.toString());
+    }
+
+    @Test
+    void writesNothingForAnUnchangedGraph() throws Exception {
+        Sample sample = Sample.chain();
+        write(sample);
+
+        assertEquals("", write(sample));
+    }
+
+    @Test
+    void patchesOnlyTheChangedLines() throws Exception {
+        Sample sample = Sample.chain();
+        write(sample);
+
+        sample.next.count = 42;
+        String patch = write(sample);
+
+        assertEquals("\n::BEGIN CLASS: Sample#1\n::DAT [INT] count=42\n::END CLASS: Sample#1", patch);
+        assertGraphEquals(sample, read(Sample.class));
+    }
+
+    @Test
+    void detectsEveryChangedValue() throws Exception {
+        Sample sample = Sample.chain();
+        write(sample);
+
+        // values whose text or hash is close to the previous one
+        sample.ratio = 0.0;
+        sample.next.name = "\u0000";
+        sample.next.next.name = "";
+        sample.next.next.next.weight = -0.0f;
+        sample.next.next.next.next = sample.next;
+        for (String value : new String[]{"ab", "ba", "ab", null, "ab"}) {
+            sample.next.next.next.name = value;
+            sample.flags++;
+            assertFalse(write(sample).isEmpty(), value);
+            assertGraphEquals(sample, read(Sample.class));
+        }
+    }
+
+    @Test
+    void writesNewObjectsAsBlocks() throws Exception {
+        Sample sample = new Sample("root", 1);
+        write(sample);
+
+        sample.next = new Sample("added", 2);
+        String patch = write(sample);
+
+        assertTrue(patch.contains("::BEGIN CLASS: Sample#1\n::DAT [STR] name=added"), patch);
+        assertGraphEquals(sample, read(Sample.class));
+    }
+
+    @Test
+    void comparesContainersAsText() throws Exception {
+        Holder holder = new Holder();
+        holder.names = new ArrayList<>(List.of("a", "b"));
+        holder.sample = new Sample("referenced", 1);
+        holder.count = 1;
+        write(holder);
+        assertEquals("", write(holder));
+
+        holder.names.add("c");
+        String patch = write(holder);
+        assertTrue(patch.contains("names=") && !patch.contains("count="), patch);
+        assertGraphEquals(holder, read(Holder.class));
+
+        // the lines after a container are compared as text as well
+        holder.count = 2;
+        holder.sample.count = 5;
+        patch = write(holder);
+        assertTrue(!patch.contains("names=") && patch.contains("count=2") && patch.contains("count=5"), patch);
+        assertGraphEquals(holder, read(Holder.class));
+    }
+
+    @Test
+    void startsANewDocumentAfterReset() throws Exception {
+        Sample sample = Sample.chain();
+        write(sample);
+        encoder.reset();
+        document.setLength(0);
+
+        sample.count = 3;
+        write(sample);
+        assertGraphEquals(sample, read(Sample.class));
+    }
+
+    private String write(Object root) throws Exception {
+        StringWriter writer = new StringWriter();
+        boolean written = encoder.write(root, writer);
+        assertEquals(written, writer.getBuffer().length() > 0);
+        document.append(writer.getBuffer());
+        return writer.toString();
+    }
+
+    private <T> T read(Class<T> type) throws Exception {
+        return SerializationUtil.deserialize(new ByteArrayInputStream(document.toString().getBytes(StandardCharsets.UTF_8)),
+                SerializationFormat.TEXT, type);
+    }
+
+    @SerializableClass(name = "DeltaHolder")
+    public static class Holder {
+
+        @SerializableField
+        public List<String> names;
+        @SerializableField
+        public int count;
+        @SerializableField
+        public Sample sample;
+    }
+}
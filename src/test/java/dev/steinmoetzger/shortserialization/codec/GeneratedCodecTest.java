@@ -0,0 +1,287 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.Person;
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import dev.steinmoetzger.shortserialization.schema.ClassLayout;
+import dev.steinmoetzger.shortserialization.schema.ClassSchema;
+import dev.steinmoetzger.shortserialization.schema.FieldSchema;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * The codecs of the annotated test classes are generated by the processor, the stale codecs of {@link StaleCodecIndex}
+ * are registered in src/test/resources and describe fields their classes do not have.
+ */
+class GeneratedCodecTest {
+
+    @Test
+    void loadsTheCodecIndexesWithTheServiceLoader() {
+        Map<Class<?>, GeneratedCodec> codecs = new HashMap<>();
+        for (CodecIndex index : ServiceLoader.load(CodecIndex.class)) {
+            for (GeneratedCodec codec : index.codecs())
+                codecs.put(codec.type(), codec);
+        }
+
+        // main, test and hand-written indexes
+        assertEquals("Car_ShortCodec", codecs.get(Car.class).getClass().getSimpleName());
+        assertEquals("Sample_ShortCodec", codecs.get(Sample.class).getClass().getSimpleName());
+        assertEquals("GeneratedCodecTest_Secret_ShortCodec", codecs.get(Secret.class).getClass().getSimpleName());
+        assertInstanceOf(StaleCodec.class, codecs.get(Renamed.class));
+        // not supported by the processor
+        assertNull(codecs.get(Unsupported.class));
+    }
+
+    @Test
+    void buildsTheSchemaFromTheGeneratedCodec() {
+        ClassSchema schema = ClassSchema.of(Secret.class);
+
+        assertSame(Codecs.generated(Secret.class), schema.getCodec());
+        List<FieldSchema> fields = schema.getFields();
+        assertEquals(4, fields.size());
+        for (FieldSchema field : fields)
+            assertNull(field.getField(), field.getJavaName());
+
+        assertEquals("code", fields.get(0).getJavaName());
+        assertEquals(long.class, fields.get(0).getJavaType());
+        assertEquals(SerializationUtil.DirectTypes.LONG, fields.get(0).getType());
+        assertEquals("label", fields.get(1).getName());
+        assertEquals(3, fields.get(1).getTag());
+        assertEquals(List.class, fields.get(2).getJavaType());
+        assertEquals(fields.get(3), schema.getField("next"));
+        assertEquals(fields.get(1), schema.getFieldByTag(3));
+    }
+
+    @Test
+    void takesWireNamesAndTagsFromTheAnnotations() {
+        ClassSchema schema = ClassSchema.of(Secret.class);
+
+        assertEquals(new ClassLayout("GeneratedSecret", 0, new String[]{"code", "label", "names", "next"}, new int[]{0, 3, 0, 0}),
+                schema.getLayout());
+        assertEquals(0, schema.getVersion());
+    }
+
+    @Test
+    void accessesPrivateFields() throws Exception {
+        Secret secret = new Secret(7, "label");
+        secret.next = new Secret(8, null);
+        secret.next.next = secret;
+
+        ClassSchema schema = ClassSchema.of(Secret.class);
+        assertEquals(7L, schema.getField("code").getAccessor().get(secret));
+        schema.getField("code").getAccessor().setLong(secret.next, 9);
+        assertEquals(9, secret.next.code);
+        schema.newInstance();
+
+        for (SerializationFormat format : SerializationFormat.values())
+            assertGraphEquals(secret, roundTrip(secret, format, Secret.class));
+    }
+
+    @Test
+    void roundTripsCarsAndPersons() throws Exception {
+        assertInstanceOf(GeneratedCodec.class, ClassSchema.of(Car.class).getCodec());
+        assertInstanceOf(GeneratedCodec.class, ClassSchema.of(Person.class).getCodec());
+
+        Car car = new Car("red", 200);
+        Person person = new Person("driver", 30, car);
+        car.setPerson(person);
+
+        for (SerializationFormat format : SerializationFormat.values()) {
+            Car read = roundTrip(car, format, Car.class);
+            assertEquals("red", read.getColor());
+            assertEquals(200, read.getMaxSpeed());
+            assertEquals("driver", read.getPerson().getName());
+            assertEquals(30f, read.getPerson().getAge());
+            assertSame(read, read.getPerson().getCar());
+        }
+    }
+
+    @Test
+    void fallsBackWhenTheFieldsDoNotMatch() throws Exception {
+        assertNull(Codecs.generated(Renamed.class));
+        assertNull(Codecs.generated(Retyped.class));
+
+        for (Class<?> type : List.of(Renamed.class, Retyped.class)) {
+            ClassSchema schema = ClassSchema.of(type);
+            assertFalse(schema.getCodec() instanceof GeneratedCodec, type.getName());
+            assertNotNull(schema.getFields().get(0).getField());
+        }
+
+        Renamed renamed = Renamed.of("value");
+        for (SerializationFormat format : SerializationFormat.values())
+            assertGraphEquals(renamed, roundTrip(renamed, format, Renamed.class));
+    }
+
+    @Test
+    void fallsBackWithoutGeneratedCodec() {
+        assertNull(Codecs.generated(Unsupported.class));
+
+        ClassSchema schema = ClassSchema.of(Unsupported.class);
+        assertFalse(schema.getCodec() instanceof GeneratedCodec);
+        assertNotNull(schema.getFields().get(0).getField());
+    }
+
+    private static <T> T roundTrip(Object object, SerializationFormat format, Class<T> type) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, format);
+        return SerializationUtil.deserialize(new ByteArrayInputStream(out.toByteArray()), format, type);
+    }
+
+    @SerializableClass(name = "GeneratedSecret")
+    public static class Secret {
+
+        @SerializableField
+        private long code;
+        @SerializableField(name = "label", tag = 3)
+        private String text;
+        @SerializableField
+        List<String> names = new ArrayList<>(List.of("a", "b"));
+        @SerializableField
+        private Secret next;
+
+        public Secret() {
+        }
+
+        Secret(long code, String text) {
+            this.code = code;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The private constructor keeps the processor from generating a codec, the stale one of {@link StaleCodecIndex}
+     * is found instead.
+     */
+    @SerializableClass(name = "GeneratedRenamed")
+    public static class Renamed {
+
+        @SerializableField
+        public String name;
+
+        private Renamed() {
+        }
+
+        static Renamed of(String name) {
+            Renamed renamed = new Renamed();
+            renamed.name = name;
+            return renamed;
+        }
+    }
+
+    @SerializableClass(name = "GeneratedRetyped")
+    public static class Retyped {
+
+        @SerializableField
+        public int count;
+
+        private Retyped() {
+        }
+    }
+
+    @SerializableClass(name = "GeneratedUnsupported")
+    public static class Unsupported {
+
+        @SerializableField
+        public final String name = "fixed";
+    }
+
+    public static final class StaleCodecIndex implements CodecIndex {
+
+        @Override
+        public List<GeneratedCodec> codecs() {
+            return List.of(new StaleCodec(Renamed.class, "oldName", String.class),
+                    new StaleCodec(Retyped.class, "count", String.class));
+        }
+    }
+
+    /**
+     * Codec generated for an older version of its class, it must never be used.
+     */
+    private static final class StaleCodec implements GeneratedCodec {
+
+        private final Class<?> type;
+        private final String fieldName;
+        private final Class<?> fieldType;
+
+        StaleCodec(Class<?> type, String fieldName, Class<?> fieldType) {
+            this.type = type;
+            this.fieldName = fieldName;
+            this.fieldType = fieldType;
+        }
+
+        @Override
+        public Class<?> type() {
+            return type;
+        }
+
+        @Override
+        public String[] fieldNames() {
+            return new String[]{fieldName};
+        }
+
+        @Override
+        public Class<?>[] fieldTypes() {
+            return new Class<?>[]{fieldType};
+        }
+
+        @Override
+        public String[] wireNames() {
+            return fieldNames();
+        }
+
+        @Override
+        public int[] tags() {
+            return new int[1];
+        }
+
+        @Override
+        public Object get(Object object, int index) {
+            throw new AssertionError("stale codec used");
+        }
+
+        @Override
+        public void set(Object object, int index, Object value) {
+            throw new AssertionError("stale codec used");
+        }
+
+        @Override
+        public Object newInstance() {
+            throw new AssertionError("stale codec used");
+        }
+
+        @Override
+        public void write(Object object, FieldSink sink) {
+            throw new AssertionError("stale codec used");
+        }
+
+        @Override
+        public void read(Object object, FieldSource source) {
+            throw new AssertionError("stale codec used");
+        }
+    }
+}
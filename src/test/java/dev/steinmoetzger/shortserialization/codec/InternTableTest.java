@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Deserializer;
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.SerializationUtil.DirectTypes;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class InternTableTest {
+
+    @Test
+    void internsEqualStrings() {
+        InternTable table = new InternTable();
+        String first = table.intern(copy("name"));
+
+        assertSame(first, table.intern(copy("name")));
+        assertSame(first, table.intern("a name b".toCharArray(), 2, 6));
+        assertNotSame(first, table.intern(copy("other")));
+    }
+
+    @Test
+    void internsRegionsLikeStrings() {
+        InternTable table = new InternTable();
+        String first = table.intern("[ä€𝄞]".toCharArray(), 1, 5);
+
+        assertEquals("ä€𝄞", first);
+        assertSame(first, table.intern(copy("ä€𝄞")));
+    }
+
+    @Test
+    void internsBoxes() {
+        InternTable table = new InternTable();
+        Object value = table.box(DirectTypes.INTEGER, 1_000_000);
+
+        assertEquals(1_000_000, value);
+        assertSame(value, table.box(DirectTypes.INTEGER, 1_000_000));
+
+        // the same bits as another type are another value
+        Object longValue = table.box(DirectTypes.LONG, 1_000_000);
+        assertEquals(1_000_000L, longValue);
+        assertSame(longValue, table.box(DirectTypes.LONG, 1_000_000));
+        assertSame(value, table.box(DirectTypes.INTEGER, 1_000_000));
+
+        long bits = Double.doubleToRawLongBits(0.1);
+        assertSame(table.box(DirectTypes.DOUBLE, bits), table.box(DirectTypes.DOUBLE, bits));
+    }
+
+    @Test
+    void evictsTheOlderValueOfABucket() {
+        // a single bucket of two slots
+        InternTable table = new InternTable(1);
+        String a = table.intern(copy("a"));
+        String b = table.intern(copy("b"));
+        assertSame(a, table.intern(copy("a")));
+        assertSame(b, table.intern(copy("b")));
+
+        String c = table.intern(copy("c"));
+        assertSame(c, table.intern(copy("c")));
+        assertSame(b, table.intern(copy("b")));
+
+        String evicted = copy("a");
+        assertSame(evicted, table.intern(evicted));
+    }
+
+    @Test
+    void doesNotInternLongStrings() {
+        InternTable table = new InternTable();
+        String longest = "x".repeat(InternTable.MAX_LENGTH);
+        String tooLong = longest + "x";
+
+        assertSame(table.intern(copy(longest)), table.intern(longest.toCharArray(), 0, longest.length()));
+
+        String value = copy(tooLong);
+        assertSame(value, table.intern(value));
+        assertNotSame(table.intern(tooLong.toCharArray(), 0, tooLong.length()), table.intern(tooLong.toCharArray(), 0, tooLong.length()));
+    }
+
+    @Test
+    void sharesValuesAcrossTheDocumentsOfADeserializer() throws Exception {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            byte[] document = serialize(Sample.chain(), format);
+
+            Deserializer interning = new Deserializer(format, new InternTable());
+            Sample first = read(interning, document);
+            Sample second = read(interning, document);
+            assertEquals("first", second.name);
+            assertSame(first.name, second.name, format::name);
+            assertSame(first.next.next.next.name, second.next.next.next.name, format::name);
+
+            DeserializationData firstData = interning.deserialize(new ByteArrayInputStream(document));
+            DeserializationData secondData = interning.deserialize(new ByteArrayInputStream(document));
+            assertSame(firstData.getClasses().get("1").getVariables().get("count").getValue(),
+                    secondData.getClasses().get("1").getVariables().get("count").getValue(), format::name);
+
+            Deserializer plain = new Deserializer(format);
+            assertNotSame(read(plain, document).name, read(plain, document).name, format::name);
+        }
+    }
+
+    private static Sample read(Deserializer deserializer, byte[] document) throws Exception {
+        return deserializer.deserialize(new ByteArrayInputStream(document), Sample.class);
+    }
+
+    private static byte[] serialize(Object object, SerializationFormat format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, format);
+        return out.toByteArray();
+    }
+
+    // a distinct instance, so identity shows whether the table returned it
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.DeltaFile;
+import dev.steinmoetzger.shortserialization.Person;
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import dev.steinmoetzger.shortserialization.exception.UncheckedDeserializeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedTextDocumentTest {
+
+    private static final int SAMPLES = 10;
+    private static final String PACKAGE = Sample.class.getPackageName();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void decodesOnlyTheBlocksThatAreAccessed() throws Exception {
+        Shelf shelf = Shelf.filled();
+        Path file = write(shelf);
+
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertEquals(SAMPLES + 1, document.size());
+            assertTrue(document.getClasses().isEmpty());
+
+            assertGraphEquals(shelf.samples.get(2), document.toObject("3", PACKAGE));
+            assertEquals(1, document.getClasses().size());
+            assertGraphEquals(shelf.samples.get(7), document.toObject("8", PACKAGE));
+            assertEquals(2, document.getClasses().size());
+
+            assertGraphEquals(shelf, document.toObject("ROOT", PACKAGE));
+            assertEquals(SAMPLES + 1, document.getClasses().size());
+        }
+    }
+
+    @Test
+    void decodesTheSubGraphOfABlock() throws Exception {
+        Shelf shelf = Shelf.filled();
+        Sample tail = new Sample("tail", 2);
+        shelf.samples.get(4).next = new Sample("middle", 1);
+        shelf.samples.get(4).next.next = tail;
+        Path file = write(shelf);
+
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            Sample head = (Sample) document.toObject("5", PACKAGE);
+
+            assertGraphEquals(shelf.samples.get(4), head);
+            assertEquals(3, document.getClasses().size());
+            assertEquals(SAMPLES + 3, document.size());
+        }
+    }
+
+    @Test
+    void indexesNonSequentialIdsByName() throws Exception {
+        Path file = directory.resolve("car.txt");
+        Files.write(file, BinaryFormatTest.fixture("car-v1.txt"));
+
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertEquals(2, document.size());
+
+            Person person = (Person) document.toObject("895179f7-5e09-4b76-ae3a-3e572023be6b", Car.class.getPackageName());
+            // version 1 documents are not escaped
+            assertEquals("Max \\u00e4 Mustermann", person.name);
+            assertSame(person, person.getCar().getPerson());
+            assertEquals(2, document.getClasses().size());
+
+            assertThrows(DeserializeException.class, () -> document.toObject("1", Car.class.getPackageName()));
+        }
+    }
+
+    @Test
+    void decodesPatchedBlocks() throws Exception {
+        Path file = directory.resolve("patched.ss");
+        Shelf shelf = Shelf.filled();
+        try (DeltaFile delta = new DeltaFile(file.toFile(), Runnable::run, 1000)) {
+            delta.save(shelf);
+            shelf.samples.get(3).count = 33;
+            delta.save(shelf);
+            shelf.samples.get(3).name = "patched twice";
+            shelf.samples.add(new Sample("added", 11));
+            delta.save(shelf);
+        }
+
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertEquals(SAMPLES + 2, document.size());
+
+            assertGraphEquals(shelf.samples.get(3), document.toObject("4", PACKAGE));
+            assertEquals(1, document.getClasses().size());
+            assertGraphEquals(shelf, document.toObject("ROOT", PACKAGE));
+        }
+    }
+
+    @Test
+    void endsTheDocumentAtADamagedTrailingFrame() throws Exception {
+        Path file = directory.resolve("damaged.ss");
+        Shelf shelf = Shelf.filled();
+        long complete;
+        try (DeltaFile delta = new DeltaFile(file.toFile(), Runnable::run, 1000)) {
+            delta.save(shelf);
+            shelf.samples.get(0).count = 100;
+            delta.save(shelf);
+            complete = Files.size(file);
+
+            shelf.samples.get(0).count = 200;
+            shelf.samples.add(new Sample("lost", 12));
+            delta.save(shelf);
+        }
+        shelf.samples.get(0).count = 100;
+        shelf.samples.remove(SAMPLES);
+
+        byte[] bytes = Files.readAllBytes(file);
+        int digit = new String(bytes, StandardCharsets.UTF_8).lastIndexOf("count=200") + "count=".length();
+        assertTrue(digit > complete);
+        bytes[digit] = '3';
+        Files.write(file, bytes);
+
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertEquals(SAMPLES + 1, document.size());
+            assertGraphEquals(shelf, document.toObject("ROOT", PACKAGE));
+        }
+    }
+
+    @Test
+    void rejectsAccessAfterClose() throws Exception {
+        Shelf shelf = Shelf.filled();
+        Path file = write(shelf);
+
+        MappedTextDocument document = SerializationUtil.deserializeMapped(file);
+        document.toObject("2", PACKAGE);
+        document.close();
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> document.toObject("ROOT", PACKAGE));
+        assertEquals("MappedTextDocument is closed", exception.getMessage());
+        assertThrows(IllegalStateException.class, () -> document.toObject("3", PACKAGE));
+
+        // blocks decoded before stay readable
+        assertEquals(shelf.samples.get(1).name, document.getClasses().get("2").getVariables().get("name").getValue());
+    }
+
+    @Test
+    void reportsDamagedBlocks() throws Exception {
+        Shelf shelf = Shelf.filled();
+        byte[] bytes = Files.readAllBytes(write(shelf));
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        // the last block loses its end line
+        Path file = directory.resolve("unclosed.ss");
+        Files.write(file, Arrays.copyOf(bytes, text.lastIndexOf("::END CLASS")));
+
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            String last = Integer.toString(SAMPLES);
+            assertThrows(DeserializeException.class, () -> document.toObject(last, PACKAGE));
+
+            UncheckedDeserializeException exception = assertThrows(UncheckedDeserializeException.class,
+                    () -> document.getClasses().get(last).getVariables());
+            assertInstanceOf(DeserializeException.class, exception.getCause());
+
+            assertGraphEquals(shelf.samples.get(0), document.toObject("1", PACKAGE));
+        }
+    }
+
+    private Path write(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, SerializationFormat.TEXT);
+        Path file = Files.createTempFile(directory, "document", ".ss");
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    @SerializableClass(name = "MappedShelf")
+    public static class Shelf {
+
+        @SerializableField
+        public List<Sample> samples;
+
+        static Shelf filled() {
+            Shelf shelf = new Shelf();
+            shelf.samples = new ArrayList<>();
+            for (int i = 0; i < SAMPLES; i++)
+                shelf.samples.add(new Sample("sample " + i, i));
+            return shelf;
+        }
+    }
+}
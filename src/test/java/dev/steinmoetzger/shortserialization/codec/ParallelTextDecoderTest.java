@@ -0,0 +1,153 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.DeltaFile;
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reads documents with chunks of single blocks, so every reference between blocks crosses chunks, and compares the
+ * result with {@link TextDecoder}.
+ */
+class ParallelTextDecoderTest {
+
+    private static final int[] CHUNK_SIZES = {1, 200, ParallelTextDecoder.DEFAULT_CHUNK_SIZE};
+    private static final String PACKAGE = Sample.class.getPackageName();
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    void resolvesReferencesAcrossChunks() throws Exception {
+        // the last sample points back to the first, which is in the first chunk
+        Sample sample = Sample.chain();
+        byte[] document = serialize(sample);
+
+        for (int chunkSize : CHUNK_SIZES) {
+            ParallelTextDecoder decoder = new ParallelTextDecoder(executor, chunkSize);
+            Sample read = (Sample) decoder.readObject(ByteBuffer.wrap(document), PACKAGE);
+
+            assertGraphEquals(sample, read);
+            assertGraphEquals(sequential(document), read);
+            assertSame(read, read.next.next.next.next);
+            assertEquals(4, decoder.getBlockCount());
+        }
+    }
+
+    @Test
+    void resolvesContainersOfReferences() throws Exception {
+        MappedTextDocumentTest.Shelf shelf = MappedTextDocumentTest.Shelf.filled();
+        // shared elements, and elements that point to blocks before and after them
+        shelf.samples.add(shelf.samples.get(0));
+        shelf.samples.get(2).next = shelf.samples.get(8);
+        shelf.samples.get(8).next = shelf.samples.get(1);
+        ContainerTypesTest.Everything everything = ContainerTypesTest.Everything.filled();
+
+        for (Object root : new Object[]{shelf, everything}) {
+            byte[] document = serialize(root);
+            for (int chunkSize : CHUNK_SIZES) {
+                Object read = new ParallelTextDecoder(executor, chunkSize).readObject(ByteBuffer.wrap(document), PACKAGE);
+
+                assertGraphEquals(root, read);
+                assertGraphEquals(sequential(document), read);
+            }
+        }
+    }
+
+    @Test
+    void appliesPatchesInTheChunkOfTheirBlock() throws Exception {
+        Path file = directory.resolve("delta.ss");
+        MappedTextDocumentTest.Shelf shelf = MappedTextDocumentTest.Shelf.filled();
+        try (DeltaFile delta = new DeltaFile(file.toFile(), Runnable::run, 1000)) {
+            delta.save(shelf);
+            for (int i = 0; i < 5; i++) {
+                shelf.samples.get(i * 2).count = 100 + i;
+                shelf.samples.get(9 - i).next = new Sample("added " + i, i);
+                delta.save(shelf);
+            }
+        }
+
+        byte[] document = Files.readAllBytes(file);
+        for (int chunkSize : CHUNK_SIZES) {
+            Object read = new ParallelTextDecoder(executor, chunkSize).readObject(ByteBuffer.wrap(document), PACKAGE);
+
+            assertGraphEquals(shelf, read);
+            assertGraphEquals(sequential(document), read);
+        }
+
+        // a torn patch at the end is ignored like by the sequential decoder
+        byte[] torn = Arrays.copyOf(document, document.length - 10);
+        for (int chunkSize : CHUNK_SIZES)
+            assertGraphEquals(sequential(torn), new ParallelTextDecoder(executor, chunkSize).readObject(ByteBuffer.wrap(torn), PACKAGE));
+    }
+
+    @Test
+    void readsNonSequentialIds() throws Exception {
+        byte[] document = BinaryFormatTest.fixture("car-v1.txt");
+
+        for (int chunkSize : CHUNK_SIZES) {
+            Car car = (Car) new ParallelTextDecoder(executor, chunkSize).readObject(ByteBuffer.wrap(document), Car.class.getPackageName());
+
+            assertGraphEquals(new TextDecoder(new StringReader(new String(document, StandardCharsets.UTF_8)))
+                    .readObject(Car.class.getPackageName()), car);
+            assertSame(car, car.getPerson().getCar());
+        }
+    }
+
+    @Test
+    void rejectsReferencesToUnknownBlocks() throws Exception {
+        String document = new String(serialize(Sample.chain()), StandardCharsets.UTF_8).replace("next=Sample#1\n", "next=Sample#99\n");
+        ByteBuffer buffer = ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(DeserializeException.class, () -> new ParallelTextDecoder(executor, 1).readObject(buffer, PACKAGE));
+    }
+
+    private static Object sequential(byte[] document) throws Exception {
+        return new TextDecoder(new StringReader(new String(document, StandardCharsets.UTF_8))).readObject(PACKAGE);
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, SerializationFormat.TEXT);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.codec;
+
+import dev.steinmoetzger.shortserialization.Car;
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static dev.steinmoetzger.shortserialization.GraphAssertions.assertGraphEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextFormatTest {
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    void writesFormatLine() throws Exception {
+        String document = new String(serialize(Sample.chain()), StandardCharsets.UTF_8);
+
+        assertTrue(document.startsWith(TextEncoder.FORMAT_LINE + "\n"), document);
+    }
+
+    @Test
+    void roundTripsEscapedValues() throws Exception {
+        Sample sample = Sample.chain();
+        sample.name = "C:\\new\\temp";
+        sample.next.name = "line\nbreak\r\n";
+        sample.next.next.name = "<NULL>";
+        sample.next.next.next.name = "a,b]c}d=e \\q \\";
+        Path file = write(serialize(sample));
+
+        assertGraphEquals(sample, SerializationUtil.deserialize(file.toFile(), Sample.class));
+        assertGraphEquals(sample, SerializationUtil.deserialize(file.toFile(), Sample.class, executor));
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertGraphEquals(sample, document.toObject("ROOT", Sample.class.getPackageName()));
+        }
+    }
+
+    @Test
+    void readsVersion1DocumentsLiterally() throws Exception {
+        Path file = write(BinaryFormatTest.fixture("car-v1.txt"));
+
+        assertVersion1Car(SerializationUtil.deserialize(file.toFile(), Car.class));
+        assertVersion1Car(SerializationUtil.deserialize(file.toFile(), Car.class, executor));
+        assertVersion1Car((Car) SerializationUtil.deserialize(file.toFile()).toObject(Car.class.getPackageName()));
+        try (MappedTextDocument document = SerializationUtil.deserializeMapped(file)) {
+            assertVersion1Car((Car) document.toObject("ROOT", Car.class.getPackageName()));
+        }
+    }
+
+    @Test
+    void keepsUnknownEscapeSequences() throws Exception {
+        String document = TextEncoder.FORMAT_LINE + "\n" + new String(BinaryFormatTest.fixture("car-v1.txt"), StandardCharsets.UTF_8);
+
+        Car car = SerializationUtil.deserialize(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), SerializationFormat.TEXT, Car.class);
+        // version 2 unescapes the line break, the backslashes of the tab and of the unicode sequence are kept
+        assertEquals("C:\new\\temp", car.getColor());
+        assertEquals("Max \\u00e4 Mustermann", car.getPerson().getName());
+    }
+
+    @Test
+    void rejectsNewerFormats() {
+        String document = "::FORMAT: " + (TextEncoder.FORMAT_VERSION + 1) + "\n";
+
+        assertThrows(DeserializeException.class, () -> SerializationUtil.deserialize(
+                new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), SerializationFormat.TEXT, Car.class));
+    }
+
+    private static void assertVersion1Car(Car car) {
+        assertEquals("C:\\new\\temp", car.getColor());
+        assertEquals(200, car.getMaxSpeed());
+        assertEquals("Max \\u00e4 Mustermann", car.getPerson().getName());
+        assertEquals(33.0f, car.getPerson().getAge());
+        assertSame(car, car.getPerson().getCar());
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, SerializationFormat.TEXT);
+        return out.toByteArray();
+    }
+
+    private Path write(byte[] document) throws Exception {
+        Path file = Files.createTempFile(directory, "document", ".ss");
+        Files.write(file, document);
+        return file;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+
+    @Test
+    void reportsPercentilesAsTheUpperBoundOfTheirBucket() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 50; i++)
+            histogram.record(3);
+        for (int i = 0; i < 49; i++)
+            histogram.record(100);
+        histogram.record(5000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(150 + 4900 + 5000, histogram.getSum());
+        assertEquals(100.5, histogram.getMean());
+        assertEquals(5000, histogram.getMax());
+        // 3 is in the bucket 2..3, 100 in 64..127 and 5000 in 4096..8191, which is capped by the maximum
+        assertEquals(3, histogram.getPercentile(0));
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(127, histogram.getPercentile(51));
+        assertEquals(127, histogram.getPercentile(99));
+        assertEquals(5000, histogram.getPercentile(100));
+    }
+
+    @Test
+    void sharesTheFirstBucketBetweenZeroAndOne() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(-5);
+        histogram.record(1);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.getSum());
+        assertEquals(1, histogram.getPercentile(50));
+        assertEquals(1, histogram.getMax());
+    }
+
+    @Test
+    void reportsPercentilesAtMostTwiceTheExactValue() {
+        Random random = new Random(42);
+        long[] values = new long[1000];
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1 + (long) (Math.exp(random.nextDouble() * 20));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (int percentile = 1; percentile <= 100; percentile++) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100.0) - 1];
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(reported >= exact && reported < 2 * exact, percentile + ": " + reported + " for " + exact);
+        }
+    }
+
+    @Test
+    void resetsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(10);
+        histogram.record(1000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(6);
+        assertEquals(6, histogram.getPercentile(50));
+    }
+
+    @Test
+    void recordsFromManyThreads() throws Exception {
+        Histogram histogram = new Histogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(() -> {
+                for (int i = 1; i <= 10_000; i++)
+                    histogram.record(i);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(4 * 10_000L * 10_001 / 2, histogram.getSum());
+        assertEquals(10_000, histogram.getMax());
+    }
+}
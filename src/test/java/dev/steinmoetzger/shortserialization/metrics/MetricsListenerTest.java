@@ -0,0 +1,156 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.metrics;
+
+import dev.steinmoetzger.shortserialization.Sample;
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.deserialization.DeserializationData;
+import dev.steinmoetzger.shortserialization.exception.DeserializeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsListenerTest {
+
+    private static final String PACKAGE = Sample.class.getPackageName();
+
+    @AfterEach
+    void removeListener() {
+        Instrumentation.setListener(null);
+    }
+
+    @Test
+    void measuresEveryPhase() throws Exception {
+        RecordingListener listener = listen();
+        for (SerializationFormat format : SerializationFormat.values()) {
+            listener.reset();
+            byte[] document = serialize(Sample.chain(), format);
+            DeserializationData data = SerializationUtil.deserialize(new ByteArrayInputStream(document), format);
+            data.toObject(PACKAGE);
+
+            assertEquals(document.length, listener.getBytesWritten(), format::name);
+            assertEquals(document.length, listener.getBytesRead(), format::name);
+            for (Phase phase : new Phase[]{Phase.SERIALIZE, Phase.DESERIALIZE, Phase.RESOLVE}) {
+                assertEquals(1, listener.getLatency(phase).getCount(), () -> format + " " + phase);
+                assertEquals(4, listener.getGraphSize(phase).getMax(), () -> format + " " + phase);
+                assertEquals(Map.of("Sample", 4L), listener.getClassCounts(phase), () -> format + " " + phase);
+                assertEquals(0, listener.getFailures(phase));
+            }
+        }
+    }
+
+    @Test
+    void countsClassesOnlyIfAsked() throws Exception {
+        MetricsListener listener = new MetricsListener(false);
+        Instrumentation.setListener(listener);
+        byte[] document = serialize(Sample.chain(), SerializationFormat.BINARY);
+        SerializationUtil.deserialize(new ByteArrayInputStream(document), SerializationFormat.BINARY).toObject(PACKAGE);
+
+        assertEquals(1, listener.getLatency(Phase.DESERIALIZE).getCount());
+        assertTrue(listener.getClassCounts(Phase.SERIALIZE).isEmpty());
+        assertTrue(listener.getClassCounts(Phase.DESERIALIZE).isEmpty());
+        assertTrue(listener.getClassCounts(Phase.RESOLVE).isEmpty());
+    }
+
+    @Test
+    void reportsTheHitRateOfClassLookups() throws Exception {
+        RecordingListener listener = listen();
+        byte[] document = serialize(Sample.chain(), SerializationFormat.TEXT);
+        SerializationUtil.deserialize(new ByteArrayInputStream(document), SerializationFormat.TEXT).toObject(PACKAGE);
+        assertTrue(listener.lookups.size() > 0);
+        assertEquals(1, listener.getLookupHitRate());
+
+        // a class that is not registered and not found by the scan either
+        byte[] unknown = new String(document, StandardCharsets.UTF_8).replace("Sample#", "MetricsUnknown#").getBytes(StandardCharsets.UTF_8);
+        DeserializationData data = SerializationUtil.deserialize(new ByteArrayInputStream(unknown), SerializationFormat.TEXT);
+        assertThrows(DeserializeException.class, () -> data.toObject(PACKAGE));
+
+        long hits = listener.lookups.stream().filter(hit -> hit).count();
+        assertTrue(hits < listener.lookups.size());
+        assertEquals((double) hits / listener.lookups.size(), listener.getLookupHitRate());
+        assertEquals(1, listener.getFailures(Phase.RESOLVE));
+    }
+
+    @Test
+    void reportsFailedOperations() {
+        RecordingListener listener = listen();
+        byte[] garbage = "not a document".getBytes(StandardCharsets.US_ASCII);
+
+        assertThrows(DeserializeException.class,
+                () -> SerializationUtil.deserialize(new ByteArrayInputStream(garbage), SerializationFormat.BINARY));
+
+        assertEquals(1, listener.getFailures(Phase.DESERIALIZE));
+        assertEquals(0, listener.getLatency(Phase.DESERIALIZE).getCount());
+        assertEquals(1, listener.errors.size());
+        assertInstanceOf(DeserializeException.class, listener.errors.get(0));
+    }
+
+    @Test
+    void resetsEverything() throws Exception {
+        RecordingListener listener = listen();
+        byte[] document = serialize(Sample.chain(), SerializationFormat.TEXT);
+        SerializationUtil.deserialize(new ByteArrayInputStream(document), SerializationFormat.TEXT).toObject(PACKAGE);
+        listener.failed(Phase.SCAN, new IllegalStateException());
+
+        listener.reset();
+
+        for (Phase phase : Phase.values()) {
+            assertEquals(0, listener.getLatency(phase).getCount());
+            assertEquals(0, listener.getGraphSize(phase).getCount());
+            assertEquals(0, listener.getFailures(phase));
+            assertTrue(listener.getClassCounts(phase).isEmpty());
+        }
+        assertEquals(0, listener.getBytesWritten());
+        assertEquals(0, listener.getBytesRead());
+        assertEquals(1, listener.getLookupHitRate());
+    }
+
+    private static RecordingListener listen() {
+        RecordingListener listener = new RecordingListener();
+        Instrumentation.setListener(listener);
+        return listener;
+    }
+
+    private static byte[] serialize(Object object, SerializationFormat format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(object, out, format);
+        return out.toByteArray();
+    }
+
+    /**
+     * Also keeps the calls the metrics only count.
+     */
+    private static final class RecordingListener extends MetricsListener {
+
+        final List<Boolean> lookups = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+
+        @Override
+        public synchronized void lookedUp(String className, boolean hit) {
+            super.lookedUp(className, hit);
+            lookups.add(hit);
+        }
+
+        @Override
+        public synchronized void failed(Phase phase, Throwable error) {
+            super.failed(phase, error);
+            errors.add(error);
+        }
+    }
+}
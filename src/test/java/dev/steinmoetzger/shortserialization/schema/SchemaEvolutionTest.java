@@ -0,0 +1,282 @@
+/*
+Copyright (c) 2015 - 2023 Michael Steinmötzger
+All rights are reserved for this project, unless otherwise
+stated in a license file.
+*/
+
+package dev.steinmoetzger.shortserialization.schema;
+
+import dev.steinmoetzger.shortserialization.SerializationFormat;
+import dev.steinmoetzger.shortserialization.SerializationUtil;
+import dev.steinmoetzger.shortserialization.annotation.SerializableClass;
+import dev.steinmoetzger.shortserialization.annotation.SerializableField;
+import dev.steinmoetzger.shortserialization.codec.MappedTextDocument;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads documents written by {@link EntryV1} into {@link EntryV2}. Both can not be registered under the same name,
+ * so the documents are written as {@code EvolveOld} and the name is replaced by {@code EvolveNew}, which has the same
+ * length, before they are read.
+ */
+class SchemaEvolutionTest {
+
+    private static final int ENTRIES = 50;
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    void plansMatchTagsBeforeNames() {
+        ClassLayout layout = ClassSchema.of(EntryV1.class).getLayout();
+        ReadPlan plan = ClassSchema.of(EntryV2.class).plan(layout);
+
+        assertEquals(target("id"), plan.target(source(layout, "id")));
+        // renamed, found by its tag
+        assertEquals(target("title"), plan.target(source(layout, "title")));
+        // the new body has another tag and does not take the values of the old one
+        assertEquals(-1, plan.target(source(layout, "body")));
+        assertEquals(-1, plan.source(target("body")));
+        // the type changed, the plan still maps it and the reader drops values that do not fit
+        assertEquals(target("count"), plan.target(source(layout, "count")));
+        // without tag, found by name
+        assertEquals(target("note"), plan.target(source(layout, "note")));
+        assertEquals(-1, plan.target(source(layout, "legacy")));
+        assertEquals(-1, plan.source(target("added")));
+        assertEquals(target("next"), plan.target(source(layout, "next")));
+    }
+
+    @Test
+    void plansAreCachedPerLayout() {
+        ClassSchema schema = ClassSchema.of(EntryV2.class);
+        ClassLayout layout = ClassSchema.of(EntryV1.class).getLayout();
+        ClassLayout copy = copy(layout, layout.getClassName());
+
+        assertEquals(layout, copy);
+        assertEquals(layout.hashCode(), copy.hashCode());
+        assertSame(schema.plan(layout), schema.plan(copy));
+        assertNotEquals(layout, copy(layout, "EvolveNew"));
+    }
+
+    @Test
+    void layoutsNeedATagPerField() {
+        assertThrows(IllegalArgumentException.class, () -> new ClassLayout("EvolveOld", 1, new String[]{"a"}, new int[0]));
+    }
+
+    @Test
+    void matchesByNameWithoutAKnownTag() {
+        ClassSchema schema = ClassSchema.of(EntryV2.class);
+        ReadPlan plan = schema.plan(new ClassLayout("EvolveNew", 1, new String[]{"id", "body", "note"}, new int[]{0, 3, 9}));
+
+        // written before the field had a tag
+        assertEquals(target("id"), plan.target(0));
+        // the tags differ
+        assertEquals(-1, plan.target(1));
+        // the class does not use the tag anymore
+        assertEquals(target("note"), plan.target(2));
+    }
+
+    @Test
+    void readsOlderVersionsAsBinary() throws Exception {
+        byte[] document = evolve(write(SerializationFormat.BINARY));
+
+        assertEvolved(SerializationUtil.deserialize(new ByteArrayInputStream(document), SerializationFormat.BINARY, EntryV2.class));
+    }
+
+    @Test
+    void readsOlderVersionsAsText() throws Exception {
+        byte[] document = evolve(write(SerializationFormat.TEXT));
+        Path file = directory.resolve("evolved.ss");
+        Files.write(file, document);
+
+        assertEvolved(SerializationUtil.deserialize(file.toFile(), EntryV2.class));
+        assertEvolved(SerializationUtil.deserialize(file.toFile(), EntryV2.class, executor));
+        try (MappedTextDocument mapped = SerializationUtil.deserializeMapped(file)) {
+            assertEvolved((EntryV2) mapped.toObject("ROOT", EntryV2.class.getPackageName()));
+        }
+    }
+
+    @Test
+    void writesTheSchemaLineOfVersionedClasses() throws Exception {
+        String document = new String(write(SerializationFormat.TEXT), StandardCharsets.UTF_8);
+
+        assertTrue(document.contains("::SCHEMA: EvolveOld#1="), document);
+    }
+
+    @Test
+    void roundTripsTheCurrentVersion() throws Exception {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            EntryV2 entry = new EntryV2();
+            entry.id = 7;
+            entry.title = "title";
+            entry.body = "body";
+            entry.count = List.of("a", "b");
+            entry.note = "note";
+            entry.added = "changed";
+            entry.next = entry;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SerializationUtil.serialize(entry, out, format);
+            EntryV2 read = SerializationUtil.deserialize(new ByteArrayInputStream(out.toByteArray()), format, EntryV2.class);
+
+            assertEquals(7, read.id);
+            assertEquals("title", read.title);
+            assertEquals("body", read.body);
+            assertEquals(List.of("a", "b"), read.count);
+            assertEquals("note", read.note);
+            assertEquals("changed", read.added);
+            assertSame(read, read.next);
+        }
+    }
+
+    private static void assertEvolved(EntryV2 first) {
+        EntryV2 entry = first;
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals(i, entry.id);
+            assertEquals("title " + i, entry.title);
+            assertNull(entry.body);
+            assertNull(entry.count);
+            assertEquals("note " + i, entry.note);
+            assertEquals("default", entry.added);
+            entry = entry.next;
+        }
+        assertNull(entry);
+    }
+
+    private static byte[] write(SerializationFormat format) throws Exception {
+        EntryV1 first = null;
+        for (int i = ENTRIES - 1; i >= 0; i--)
+            first = new EntryV1(i, first);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationUtil.serialize(first, out, format);
+        return out.toByteArray();
+    }
+
+    /**
+     * Replaces every occurrence of the old class name with the new one.
+     */
+    private static byte[] evolve(byte[] document) {
+        byte[] oldName = "EvolveOld".getBytes(StandardCharsets.US_ASCII);
+        byte[] newName = "EvolveNew".getBytes(StandardCharsets.US_ASCII);
+        byte[] evolved = document.clone();
+        int count = 0;
+        for (int i = 0; i + oldName.length <= evolved.length; i++) {
+            if (Arrays.equals(evolved, i, i + oldName.length, oldName, 0, oldName.length)) {
+                System.arraycopy(newName, 0, evolved, i, newName.length);
+                count++;
+            }
+        }
+        assertTrue(count > 0);
+        return evolved;
+    }
+
+    private static ClassLayout copy(ClassLayout layout, String className) {
+        String[] names = new String[layout.getFieldCount()];
+        int[] tags = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = layout.getFieldName(i);
+            tags[i] = layout.getTag(i);
+        }
+        return new ClassLayout(className, layout.getVersion(), names, tags);
+    }
+
+    private static int source(ClassLayout layout, String javaName) {
+        String wireName = ClassSchema.of(EntryV1.class).getDeclaredField(javaName).getName();
+        for (int i = 0; i < layout.getFieldCount(); i++) {
+            if (layout.getFieldName(i).equals(wireName))
+                return i;
+        }
+        throw new AssertionError(javaName);
+    }
+
+    private static int target(String javaName) {
+        return ClassSchema.of(EntryV2.class).getDeclaredField(javaName).getIndex();
+    }
+
+    @SerializableClass(name = "EvolveOld", version = 1)
+    public static class EntryV1 {
+
+        @SerializableField(tag = 1)
+        public long id;
+        @SerializableField(tag = 2)
+        public String title;
+        @SerializableField(tag = 3)
+        public String body;
+        @SerializableField(tag = 4)
+        public int count;
+        @SerializableField
+        public String note;
+        @SerializableField
+        public String legacy;
+        @SerializableField(tag = 5)
+        public EntryV1 next;
+
+        public EntryV1() {
+        }
+
+        EntryV1(int seed, EntryV1 next) {
+            this.id = seed;
+            this.title = "title " + seed;
+            this.body = "body " + seed;
+            this.count = seed * 3;
+            this.note = "note " + seed;
+            this.legacy = "legacy " + seed;
+            this.next = next;
+        }
+    }
+
+    @SerializableClass(name = "EvolveNew", version = 2)
+    public static class EntryV2 {
+
+        @SerializableField(tag = 1)
+        public long id;
+        @SerializableField(name = "name", tag = 2)
+        public String title;
+        // took over the name of a removed field
+        @SerializableField(tag = 7)
+        public String body;
+        @SerializableField(tag = 4)
+        public List<String> count;
+        @SerializableField
+        public String note;
+        @SerializableField
+        public String added = "default";
+        @SerializableField(tag = 5)
+        public EntryV2 next;
+
+        public EntryV2() {
+        }
+    }
+}